@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.benchmarks;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Point;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sablo.Container;
+import org.sablo.InMemPackageReader;
+import org.sablo.WebComponent;
+import org.sablo.specification.NGPackage.IPackageReader;
+import org.sablo.specification.PropertyDescription;
+import org.sablo.specification.WebComponentSpecProvider;
+import org.sablo.specification.WebObjectSpecification.PushToServerEnum;
+import org.sablo.specification.property.BrowserConverterContext;
+import org.sablo.specification.property.types.AggregatedPropertyType;
+import org.sablo.websocket.BaseWindow;
+import org.sablo.websocket.CurrentWindow;
+import org.sablo.websocket.IWindow;
+import org.sablo.websocket.TypedData;
+
+/**
+ * Creates the specifications, components and containers that the benchmarks work on.<br/><br/>
+ *
+ * All components are of type 'benchmarkcomponent' (see benchmarkcomponent.spec): a number of simple properties that most components have,
+ * a custom object property ('row') and an array of custom objects ('rows'). Values are filled in so that the written JSON has a realistic size.
+ */
+@SuppressWarnings("nls")
+public class BenchmarkComponents
+{
+
+	public static final String COMPONENT_TYPE = "benchmarkcomponent";
+
+	private BenchmarkComponents()
+	{
+	}
+
+	public static void initSpecifications() throws IOException
+	{
+		HashMap<String, String> components = new HashMap<>();
+		components.put("benchmarkcomponent.spec", readResource("benchmarkcomponent.spec"));
+		WebComponentSpecProvider.init(new IPackageReader[] { new InMemPackageReader(readResource("benchmark.manifest"), components) });
+	}
+
+	public static void disposeSpecifications()
+	{
+		WebComponentSpecProvider.disposeInstance();
+	}
+
+	private static String readResource(String name) throws IOException
+	{
+		InputStream is = BenchmarkComponents.class.getResourceAsStream(name);
+		if (is == null) throw new IOException("Cannot find benchmark resource " + name);
+		try
+		{
+			Reader reader = new InputStreamReader(is, "UTF-8");
+			StringBuilder sb = new StringBuilder();
+			char[] buffer = new char[4096];
+			int read;
+			while ((read = reader.read(buffer)) != -1)
+			{
+				sb.append(buffer, 0, read);
+			}
+			return sb.toString();
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	/**
+	 * Creates a component with all simple properties, the 'row' property and a 'rows' property with the given number of elements set.
+	 */
+	public static WebComponent createComponent(String name, int rowCount)
+	{
+		WebComponent component = new WebComponent(COMPONENT_TYPE, name);
+		component.setProperty("text", "Text of " + name);
+		component.setProperty("toolTipText", "Tooltip of component " + name);
+		component.setProperty("enabled", Boolean.TRUE);
+		component.setProperty("visible", Boolean.TRUE);
+		component.setProperty("tabSeq", Integer.valueOf(1));
+		component.setProperty("background", Color.white);
+		component.setProperty("foreground", Color.black);
+		component.setProperty("size", new Dimension(200, 30));
+		component.setProperty("location", new Point(10, 10));
+		component.setProperty("font", new Font("Dialog", Font.PLAIN, 12));
+		component.setProperty("row", createRow(0));
+		component.setProperty("rows", createRows(rowCount));
+		return component;
+	}
+
+	public static Object[] createRows(int rowCount)
+	{
+		Object[] rows = new Object[rowCount];
+		for (int i = 0; i < rowCount; i++)
+		{
+			rows[i] = createRow(i);
+		}
+		return rows;
+	}
+
+	/**
+	 * Custom object values are always a Map of values.
+	 */
+	public static Map<String, Object> createRow(int id)
+	{
+		Map<String, Object> row = new HashMap<>();
+		row.put("id", Integer.valueOf(id));
+		row.put("text", "Row " + id);
+		row.put("toolTipText", "This is the tooltip of row number " + id);
+		row.put("active", Boolean.valueOf(id % 2 == 0));
+		row.put("foreground", Color.blue);
+		row.put("size", new Dimension(100, 20));
+		return row;
+	}
+
+	/**
+	 * Creates a form-like container with the given number of child components.
+	 */
+	public static Container createContainer(String name, int componentCount, int rowCount)
+	{
+		Container container = new Container(name, WebComponentSpecProvider.getInstance().getWebComponentSpecification(COMPONENT_TYPE))
+		{
+		};
+		for (int i = 0; i < componentCount; i++)
+		{
+			container.add(createComponent(name + "_component" + i, rowCount));
+		}
+		return container;
+	}
+
+	/**
+	 * Writing full container contents registers the container in the current window; a window without a session or endpoint is enough for that.
+	 *
+	 * @return the window that was current before.
+	 */
+	public static IWindow setBenchmarkWindow()
+	{
+		return CurrentWindow.set(new BaseWindow(null, "benchmark", "benchmark"));
+	}
+
+	public static BrowserConverterContext createConverterContext(WebComponent component)
+	{
+		return new BrowserConverterContext(component, PushToServerEnum.allow);
+	}
+
+	/**
+	 * @return the types of a message that has the given typed data under the key 'msg', like the messages that the windows send.
+	 */
+	public static PropertyDescription createMessageTypes(TypedData<Map<String, Object>> typedData)
+	{
+		PropertyDescription messageTypes = AggregatedPropertyType.newAggregatedProperty();
+		messageTypes.putProperty("msg", typedData.contentType);
+		return messageTypes;
+	}
+
+	/**
+	 * A writer that drops everything, so benchmarks measure the serialization and not growing a String buffer.
+	 */
+	public static class NullWriter extends Writer
+	{
+
+		private long count;
+
+		@Override
+		public void write(char[] cbuf, int off, int len)
+		{
+			count += len;
+		}
+
+		@Override
+		public void write(String str, int off, int len)
+		{
+			count += len;
+		}
+
+		@Override
+		public void write(int c)
+		{
+			count++;
+		}
+
+		@Override
+		public void flush()
+		{
+		}
+
+		@Override
+		public void close()
+		{
+		}
+
+		/**
+		 * @return the number of characters written so far; can be returned from benchmark methods so the JIT cannot discard the writes.
+		 */
+		public long getCount()
+		{
+			return count;
+		}
+
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sablo.Container;
+import org.sablo.WebComponent;
+import org.sablo.websocket.CurrentWindow;
+import org.sablo.websocket.IWindow;
+import org.sablo.websocket.utils.DataConversion;
+import org.sablo.websocket.utils.JSONUtils.ChangesToJSONConverter;
+import org.sablo.websocket.utils.JSONUtils.FullValueToJSONConverter;
+
+/**
+ * Benchmarks writing a whole form-like {@link Container}: all properties of all components when the form is shown and
+ * the changes of all components when a few properties of each component changed.
+ */
+@SuppressWarnings("nls")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContainerBenchmark
+{
+
+	@Param({ "10", "100", "500" })
+	public int componentCount;
+
+	/**
+	 * Number of elements in the custom object array property of each component.
+	 */
+	@Param({ "10" })
+	public int rowCount;
+
+	private Container container;
+	private IWindow previousWindow;
+	private int counter;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		BenchmarkComponents.initSpecifications();
+		previousWindow = BenchmarkComponents.setBenchmarkWindow();
+		container = BenchmarkComponents.createContainer("form", componentCount, rowCount);
+		writeAllComponentsProperties();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		container.dispose();
+		CurrentWindow.set(previousWindow);
+		BenchmarkComponents.disposeSpecifications();
+	}
+
+	@Benchmark
+	public long writeAllComponentsProperties()
+	{
+		BenchmarkComponents.NullWriter out = new BenchmarkComponents.NullWriter();
+		JSONWriter writer = new JSONWriter(out).object();
+		container.writeAllComponentsProperties(writer, FullValueToJSONConverter.INSTANCE);
+		writer.endObject();
+		return out.getCount();
+	}
+
+	@Benchmark
+	public long writeAllComponentsChanges()
+	{
+		counter++;
+		for (WebComponent component : container.getComponents())
+		{
+			component.setProperty("text", "Text " + counter);
+			component.setProperty("visible", Boolean.valueOf(counter % 2 == 0));
+		}
+
+		BenchmarkComponents.NullWriter out = new BenchmarkComponents.NullWriter();
+		JSONWriter writer = new JSONWriter(out).object();
+		DataConversion clientDataConversions = new DataConversion();
+		container.writeAllComponentsChanges(writer, "forms", ChangesToJSONConverter.INSTANCE, clientDataConversions);
+		writer.endObject();
+		return out.getCount();
+	}
+
+}
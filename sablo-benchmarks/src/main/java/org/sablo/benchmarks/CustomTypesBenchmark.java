@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.benchmarks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sablo.WebComponent;
+import org.sablo.specification.PropertyDescription;
+import org.sablo.specification.property.BrowserConverterContext;
+import org.sablo.specification.property.CustomJSONArrayType;
+import org.sablo.specification.property.CustomJSONObjectType;
+import org.sablo.specification.property.types.AggregatedPropertyType;
+import org.sablo.websocket.TypedData;
+import org.sablo.websocket.utils.JSONUtils;
+
+/**
+ * Benchmarks {@link CustomJSONArrayType} and {@link CustomJSONObjectType} values: writing the full value versus writing
+ * granular updates after a few elements/keys changed or after an element was inserted and removed.
+ */
+@SuppressWarnings("nls")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomTypesBenchmark
+{
+
+	/**
+	 * Number of elements in the custom object array.
+	 */
+	@Param({ "10", "100", "1000" })
+	public int rowCount;
+
+	private WebComponent component;
+	private BrowserConverterContext context;
+	private List<Object> rows;
+	private Map<String, Object> row;
+	private Map<String, Object> fullArrayData;
+	private Map<String, Object> fullObjectData;
+	private PropertyDescription fullDataTypes;
+	private int counter;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		BenchmarkComponents.initSpecifications();
+		component = BenchmarkComponents.createComponent("component", rowCount);
+		context = BenchmarkComponents.createConverterContext(component);
+		rows = (List<Object>)component.getProperty("rows"); // ChangeAwareList
+		row = (Map<String, Object>)component.getProperty("row"); // ChangeAwareMap
+
+		fullArrayData = new HashMap<>();
+		fullArrayData.put("rows", rows);
+		fullObjectData = new HashMap<>();
+		fullObjectData.put("row", row);
+		fullDataTypes = AggregatedPropertyType.newAggregatedProperty();
+		fullDataTypes.putProperty("rows", component.getSpecification().getProperty("rows"));
+		fullDataTypes.putProperty("row", component.getSpecification().getProperty("row"));
+
+		// the browser has the full value now; from here on only changes are tracked
+		JSONUtils.writeDataWithConversions(fullArrayData, fullDataTypes, context);
+		JSONUtils.writeDataWithConversions(fullObjectData, fullDataTypes, context);
+		component.getAndClearChanges();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		BenchmarkComponents.disposeSpecifications();
+	}
+
+	@Benchmark
+	public String writeFullArray()
+	{
+		return JSONUtils.writeDataWithConversions(fullArrayData, fullDataTypes, context);
+	}
+
+	/**
+	 * Changes a key in 3 elements of the array and writes only those changes.
+	 */
+	@Benchmark
+	public String writeGranularArrayElementChanges()
+	{
+		counter++;
+		for (int i = 0; i < 3; i++)
+		{
+			((Map<String, Object>)rows.get((counter + i * 7) % rowCount)).put("text", "Changed " + counter);
+		}
+		return writeChanges();
+	}
+
+	/**
+	 * Inserts an element in the middle of the array and removes it again, writing the granular changes after each operation.
+	 */
+	@Benchmark
+	public int writeGranularArrayInsertAndRemove()
+	{
+		counter++;
+		rows.add(rowCount / 2, BenchmarkComponents.createRow(counter));
+		int length = writeChanges().length();
+		rows.remove(rowCount / 2);
+		return length + writeChanges().length();
+	}
+
+	@Benchmark
+	public String writeFullObject()
+	{
+		return JSONUtils.writeDataWithConversions(fullObjectData, fullDataTypes, context);
+	}
+
+	/**
+	 * Changes one key of the custom object and writes only that change.
+	 */
+	@Benchmark
+	public String writeGranularObjectChange()
+	{
+		counter++;
+		row.put("text", "Changed " + counter);
+		return writeChanges();
+	}
+
+	private String writeChanges()
+	{
+		TypedData<Map<String, Object>> changes = component.getAndClearChanges();
+		Map<String, Object> data = new HashMap<>();
+		data.put("msg", changes.content);
+		return JSONUtils.writeChangesWithConversions(data, BenchmarkComponents.createMessageTypes(changes), context);
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sablo.WebComponent;
+import org.sablo.specification.PropertyDescription;
+import org.sablo.specification.property.BrowserConverterContext;
+import org.sablo.websocket.TypedData;
+import org.sablo.websocket.utils.JSONUtils;
+import org.sablo.websocket.utils.JSONUtils.ChangesToJSONConverter;
+import org.sablo.websocket.utils.JSONUtils.FullValueToJSONConverter;
+
+/**
+ * Benchmarks writing the properties of one component the way the windows write messages: through {@link JSONUtils#writeDataWithConversions}
+ * with a {@link FullValueToJSONConverter} for the full value and a {@link ChangesToJSONConverter} for changes.
+ */
+@SuppressWarnings("nls")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONUtilsBenchmark
+{
+
+	/**
+	 * Number of elements in the custom object array property of the component.
+	 */
+	@Param({ "10", "100", "1000" })
+	public int rowCount;
+
+	private WebComponent component;
+	private BrowserConverterContext context;
+	private Map<String, Object> data;
+	private PropertyDescription messageTypes;
+	private int counter;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		BenchmarkComponents.initSpecifications();
+		component = BenchmarkComponents.createComponent("component", rowCount);
+		context = BenchmarkComponents.createConverterContext(component);
+		component.getAndClearChanges();
+
+		TypedData<Map<String, Object>> properties = component.getProperties();
+		data = new HashMap<>();
+		data.put("msg", properties.content);
+		messageTypes = BenchmarkComponents.createMessageTypes(properties);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		BenchmarkComponents.disposeSpecifications();
+	}
+
+	@Benchmark
+	public String writeFullValueToString()
+	{
+		return JSONUtils.writeDataWithConversions(FullValueToJSONConverter.INSTANCE, data, messageTypes, context);
+	}
+
+	@Benchmark
+	public long writeFullValueToWriter()
+	{
+		BenchmarkComponents.NullWriter out = new BenchmarkComponents.NullWriter();
+		JSONWriter writer = new JSONWriter(out).object();
+		JSONUtils.writeDataWithConversions(FullValueToJSONConverter.INSTANCE, writer, data, messageTypes, context);
+		writer.endObject();
+		return out.getCount();
+	}
+
+	/**
+	 * Changes a few simple properties and writes the changes of the component; the big array property is unchanged, so it should be cheap regardless of its size.
+	 */
+	@Benchmark
+	public String writeSimplePropertyChanges()
+	{
+		counter++;
+		component.setProperty("text", "Text " + counter);
+		component.setProperty("tabSeq", Integer.valueOf(counter));
+		component.setProperty("enabled", Boolean.valueOf(counter % 2 == 0));
+
+		TypedData<Map<String, Object>> changes = component.getAndClearChanges();
+		Map<String, Object> changesData = new HashMap<>();
+		changesData.put("msg", changes.content);
+		return JSONUtils.writeDataWithConversions(ChangesToJSONConverter.INSTANCE, changesData, BenchmarkComponents.createMessageTypes(changes), context);
+	}
+
+}
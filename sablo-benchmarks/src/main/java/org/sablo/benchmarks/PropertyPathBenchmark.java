@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sablo.WebComponent;
+import org.sablo.util.PropertyPath;
+
+/**
+ * Benchmarks property name lookups: splitting names with String.split versus the cached {@link PropertyPath} and
+ * getting/setting flat and nested properties of a component.
+ */
+@SuppressWarnings("nls")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyPathBenchmark
+{
+
+	@Param({ "text", "row.text" })
+	public String propertyName;
+
+	private WebComponent component;
+	private int counter;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		BenchmarkComponents.initSpecifications();
+		component = BenchmarkComponents.createComponent("component", 10);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		BenchmarkComponents.disposeSpecifications();
+	}
+
+	/**
+	 * What was done for each lookup before property paths were cached.
+	 */
+	@Benchmark
+	public String split()
+	{
+		String[] parts = propertyName.split("\\.");
+		return parts[parts.length - 1];
+	}
+
+	@Benchmark
+	public String propertyPath()
+	{
+		PropertyPath path = PropertyPath.of(propertyName);
+		return path == null ? propertyName : path.getLastPart();
+	}
+
+	@Benchmark
+	public Object getProperty()
+	{
+		return component.getProperty(propertyName);
+	}
+
+	@Benchmark
+	public boolean setProperty()
+	{
+		return component.setProperty(propertyName, (counter++ & 1) == 0 ? "a" : "b");
+	}
+
+}
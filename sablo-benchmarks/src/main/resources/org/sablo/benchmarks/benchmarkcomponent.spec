@@ -0,0 +1,31 @@
+{
+	"name": "benchmarkcomponent",
+	"displayName": "Benchmark Component",
+	"definition": "benchmarkcomponent.js",
+	"libraries": [],
+	"model":
+	{
+	        "text": "string",
+	        "toolTipText": "string",
+	        "enabled": "boolean",
+	        "visible": "boolean",
+	        "tabSeq": "int",
+	        "background": "color",
+	        "foreground": "color",
+	        "size": "dimension",
+	        "location": "point",
+	        "font": "font",
+	        "row": "rowtype",
+	        "rows": "rowtype[]"
+	},
+	"types": {
+	  "rowtype": {
+		"id": "int",
+		"text": "string",
+		"toolTipText": "string",
+		"active": "boolean",
+		"foreground": "color",
+		"size": "dimension"
+	  }
+	}
+}
@@ -27,6 +27,7 @@ import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
 
 import org.sablo.websocket.WebsocketEndpoint;
+import org.sablo.websocket.WebsocketEndpointConfigurator;
 
 /**
  * Websocket endpoint for sample sablo application.
@@ -35,7 +36,7 @@ import org.sablo.websocket.WebsocketEndpoint;
  *
  */
 
-@ServerEndpoint(value = "/websocket/{sessionid}/{windowname}/{windowid}")
+@ServerEndpoint(value = "/websocket/{sessionid}/{windowname}/{windowid}", configurator = WebsocketEndpointConfigurator.class)
 public class HelloWorldEndpoint extends WebsocketEndpoint
 {
 	public static final String HELLO_WORLD_ENDPOINT = "helloworld";
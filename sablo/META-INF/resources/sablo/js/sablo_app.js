@@ -245,12 +245,19 @@ angular.module('sabloApp', ['webSocketModule', 'webStorageModule']).config(funct
 			wsSession = $webSocket.connect(context, args, queryArgs);
 
 			wsSession.onopen(function(evt) {
-				if (evt.isReconnect) {
+				if (evt.isReconnect && !evt.resuming) {
 					// reload site
 					$window.location.reload();
 				}
 			});
 
+			wsSession.onresume(function(resumed) {
+				if (!resumed) {
+					// the server could not resend what was missed while reconnecting, reload site
+					$window.location.reload();
+				}
+			});
+
 			wsSession.onMessageObject(function (msg, conversionInfo) {
 				// data got back from the server
 				for(var formname in msg.forms) {
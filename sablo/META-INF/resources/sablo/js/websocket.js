@@ -85,6 +85,13 @@ webSocketModule.factory('$webSocket',
 
 	var websocket = null;
 
+	// sequence number of the last message that was handled; only sent by servers that keep messages to resend after a reconnect
+	var lastSeq = undefined;
+	// messages that arrived before one with a lower sequence number (while missed messages are resent after a reconnect)
+	var earlyMessages = {};
+	var earlyMessageCount = 0;
+	var MAX_EARLY_MESSAGES = 100;
+
 	var nextMessageId = 1;
 
 	var getNextMessageId = function() {
@@ -100,11 +107,155 @@ webSocketModule.factory('$webSocket',
 		return decodeURIComponent((new RegExp('[?|&]' + name + '=' + '([^&;]+?)(&|#|;|$)').exec($window.location.search)||[,""])[1].replace(/\+/g, '%20'))||null
 	};
 
+	// decodes the binary (CBOR) messages that the server sends instead of JSON text when the binary protocol is enabled
+	var decodeBinaryMessage = (function() {
+		var BREAK = {};
+		var textDecoder = typeof TextDecoder !== 'undefined' ? new TextDecoder('utf-8') : undefined;
+
+		function decodeUTF8(bytes) {
+			if (textDecoder) return textDecoder.decode(bytes);
+			var s = '';
+			for (var i = 0; i < bytes.length;) {
+				var c = bytes[i++];
+				if (c >= 0xF0) c = ((c & 0x07) << 18) | ((bytes[i++] & 0x3F) << 12) | ((bytes[i++] & 0x3F) << 6) | (bytes[i++] & 0x3F);
+				else if (c >= 0xE0) c = ((c & 0x0F) << 12) | ((bytes[i++] & 0x3F) << 6) | (bytes[i++] & 0x3F);
+				else if (c >= 0xC0) c = ((c & 0x1F) << 6) | (bytes[i++] & 0x3F);
+				if (c > 0xFFFF) {
+					c -= 0x10000;
+					s += String.fromCharCode(0xD800 + (c >> 10), 0xDC00 + (c & 0x3FF));
+				} else s += String.fromCharCode(c);
+			}
+			return s;
+		}
+
+		return function(buffer) {
+			var data = new DataView(buffer);
+			var offset = 0;
+
+			function readLength(info) {
+				var length;
+				if (info < 24) return info;
+				if (info == 24) length = data.getUint8(offset);
+				else if (info == 25) length = data.getUint16(offset);
+				else if (info == 26) length = data.getUint32(offset);
+				else if (info == 27) length = data.getUint32(offset) * 4294967296 + data.getUint32(offset + 4);
+				else if (info == 31) return -1; // indefinite length
+				else throw "Invalid length in binary message: " + info;
+				offset += (1 << (info - 24));
+				return length;
+			}
+
+			function readItem() {
+				var initial = data.getUint8(offset++);
+				var major = initial >> 5;
+				var info = initial & 0x1F;
+				var value, i;
+
+				if (major == 7) {
+					switch (info) {
+						case 20: return false;
+						case 21: return true;
+						case 22: return null;
+						case 23: return undefined;
+						case 26: value = data.getFloat32(offset); offset += 4; return value;
+						case 27: value = data.getFloat64(offset); offset += 8; return value;
+						case 31: return BREAK;
+						default: throw "Unsupported simple value in binary message: " + info;
+					}
+				}
+
+				var length = readLength(info);
+				switch (major) {
+					case 0: return length;
+					case 1: return -1 - length;
+					case 3:
+						value = decodeUTF8(new Uint8Array(buffer, offset, length));
+						offset += length;
+						return value;
+					case 4:
+						value = [];
+						if (length < 0) {
+							while ((i = readItem()) !== BREAK) value.push(i);
+						} else {
+							for (i = 0; i < length; i++) value.push(readItem());
+						}
+						return value;
+					case 5:
+						value = {};
+						if (length < 0) {
+							while ((i = readItem()) !== BREAK) value[i] = readItem();
+						} else {
+							for (var j = 0; j < length; j++) {
+								i = readItem();
+								value[i] = readItem();
+							}
+						}
+						return value;
+					default: throw "Unsupported major type in binary message: " + major;
+				}
+			}
+
+			return readItem();
+		};
+	})();
+
+	// messages that the server compressed itself (when the websocket compression extension is not used) are binary messages that start with
+	// 1 (compressed JSON text) or 2 (compressed binary message); decompressing is asynchronous, so following messages have to wait for it
+	var DEFLATED_TEXT = 1;
+	var DEFLATED_BINARY = 2;
+	var canDecompress = typeof DecompressionStream !== 'undefined' && typeof Response !== 'undefined' && typeof TextDecoder !== 'undefined';
+	var decompressionQueue = undefined;
+
+	function isDeflated(data) {
+		if (typeof data === 'string' || data.byteLength == 0) return false;
+		var kind = new Uint8Array(data, 0, 1)[0];
+		return kind == DEFLATED_TEXT || kind == DEFLATED_BINARY;
+	}
+
+	function inflateMessage(data) {
+		var kind = new Uint8Array(data, 0, 1)[0];
+		var stream = new Blob([new Uint8Array(data, 1)]).stream().pipeThrough(new DecompressionStream('deflate'));
+		return new Response(stream).arrayBuffer().then(function(inflated) {
+			return kind == DEFLATED_TEXT ? new TextDecoder('utf-8').decode(inflated) : inflated;
+		});
+	}
+
+	function receiveMessage(message, handler) {
+		if (!decompressionQueue && !isDeflated(message.data)) {
+			handler(message);
+			return;
+		}
+		var queue = (decompressionQueue || Promise.resolve()).then(function() {
+			return isDeflated(message.data) ? inflateMessage(message.data) : message.data;
+		}).then(function(data) {
+			handler({ data: data });
+		}, function(e) {
+			$log.error("Cannot decompress message from server: " + e);
+		});
+		decompressionQueue = queue;
+		queue.then(function() {
+			if (decompressionQueue === queue) decompressionQueue = undefined;
+		});
+	}
+
 	var handleMessage = function(message) {
 		var obj
 		var responseValue
 		try {
-			obj = JSON.parse(message.data);
+			obj = (typeof message.data === 'string') ? JSON.parse(message.data) : decodeBinaryMessage(message.data);
+
+			if (obj.resume !== undefined) {
+				handleResume(obj.resume);
+				return;
+			}
+			if (obj.seq !== undefined && lastSeq !== undefined) {
+				if (obj.seq <= lastSeq) return; // already handled before a reconnect
+				if (obj.seq > lastSeq + 1) {
+					keepEarlyMessage(obj.seq, message);
+					return;
+				}
+			}
+			if (obj.seq !== undefined) lastSeq = obj.seq;
 
 			// if the indicator is showing and this object wants a return message then hide the indicator until we send the response
 			var hideIndicator = obj && obj.smsgid && $sabloLoadingIndicator.isShowing();
@@ -231,6 +382,47 @@ webSocketModule.factory('$webSocket',
 		}
 	}
 
+	function keepEarlyMessage(seq, message) {
+		earlyMessages[seq] = message;
+		earlyMessageCount++;
+		if (earlyMessageCount > MAX_EARLY_MESSAGES) {
+			// the missing message is not coming anymore, continue with the first one that is there
+			var first = undefined;
+			for (var key in earlyMessages) {
+				if (first === undefined || Number(key) < first) first = Number(key);
+			}
+			$log.warn("Messages " + (lastSeq + 1) + " to " + (first - 1) + " from the server are missing");
+			lastSeq = first - 1;
+		}
+	}
+
+	function handleEarlyMessages() {
+		while (earlyMessageCount > 0 && earlyMessages[lastSeq + 1]) {
+			var message = earlyMessages[lastSeq + 1];
+			delete earlyMessages[lastSeq + 1];
+			earlyMessageCount--;
+			handleMessage(message);
+		}
+	}
+
+	function handleResume(resumed) {
+		if (!resumed) {
+			// the server could not resend what was missed; what comes next is a full resync that starts a new sequence
+			lastSeq = undefined;
+			earlyMessages = {};
+			earlyMessageCount = 0;
+		}
+		for (var handler in onResumeHandlers) {
+			onResumeHandlers[handler](resumed);
+		}
+	}
+
+	function setLastSeqParameter(uri, seq) {
+		var cleaned = uri.replace(/([?&])sablo_lastseq=[^&]*&?/, '$1').replace(/[?&]$/, '');
+		if (seq === undefined) return cleaned;
+		return cleaned + (cleaned.indexOf('?') >= 0 ? '&' : '?') + 'sablo_lastseq=' + seq;
+	}
+
 	var sendMessageObject = function(obj) {
 		if ($sabloUtils.getCurrentEventLevelForServer()) {
 			obj.prio = $sabloUtils.getCurrentEventLevelForServer();
@@ -273,6 +465,7 @@ webSocketModule.factory('$webSocket',
 	var onErrorHandlers = [];
 	var onCloseHandlers = [];
 	var onMessageObjectHandlers = [];
+	var onResumeHandlers = [];
 
 	var WebsocketSession = function() {
 
@@ -293,6 +486,10 @@ webSocketModule.factory('$webSocket',
 		this.onMessageObject = function(handler) {
 			onMessageObjectHandlers.push(handler)
 		};
+		// handler gets true if the server resent the messages that were missed while reconnecting, false if it could not
+		this.onresume = function(handler) {
+			onResumeHandlers.push(handler)
+		};
 	};
 	var wsSession = new WebsocketSession();
 
@@ -385,7 +582,8 @@ webSocketModule.factory('$webSocket',
 				}
 			}
 
-			new_uri += "?";
+			new_uri += "?sablo_binary=true&"; // the server can send binary messages (only if enabled on the server)
+			if (canDecompress) new_uri += "sablo_deflate=true&"; // the server can compress big messages (only if enabled on the server)
 
 			for (var a in queryArgs)
 			{
@@ -403,9 +601,15 @@ webSocketModule.factory('$webSocket',
 				new_uri = new_uri.substring(0,new_uri.length-1);
 			}
 
-			websocket = typeof(ReconnectingWebSocket) == 'undefined' ? new WebSocket(new_uri) : new ReconnectingWebSocket(new_uri);
+			if (typeof(ReconnectingWebSocket) == 'undefined') {
+				websocket = new WebSocket(new_uri);
+				websocket.binaryType = 'arraybuffer';
+			} else {
+				websocket = new ReconnectingWebSocket(new_uri, null, { binaryType: 'arraybuffer' });
+			}
 
 			websocket.onopen = function(evt) {
+				evt.resuming = evt.isReconnect && lastSeq !== undefined;
 				$rootScope.$apply(function() {
 					setConnected();
 				});
@@ -437,10 +641,19 @@ webSocketModule.factory('$webSocket',
 					$rootScope.$apply(function() {
 						connected = 'CLOSED';
 					});
+				} else {
+					// ask the server to resend the messages that are missed instead of reloading everything, also the responses
+					// to calls of the browser; only when the server can't do that (see handleResume) everything is reloaded
+					websocket.url = setLastSeqParameter(websocket.url, lastSeq);
 				}
 			}
 			websocket.onmessage = function(message) {
-				handleHeartbeat(message) || handleMessage(message);
+				receiveMessage(message, function(msg) {
+					if (!handleHeartbeat(msg)) {
+						handleMessage(msg);
+						handleEarlyMessages();
+					}
+				});
 			}
 
 			// todo should we just merge $websocket and $services into $sablo that just has all
@@ -465,7 +678,9 @@ webSocketModule.factory('$webSocket',
 			}
 		},
 
-		getURLParameter: getURLParameter
+		getURLParameter: getURLParameter,
+
+		decodeBinaryMessage: decodeBinaryMessage
 	};
 }).factory("$services", function($rootScope, $sabloConverters, $sabloUtils, $propertyWatchesRegistry){
 	// serviceName:{} service model
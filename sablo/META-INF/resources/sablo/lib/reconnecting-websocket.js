@@ -128,7 +128,10 @@
             timeoutInterval: 2000,
 
             /** The maximum number of reconnection attempts to make. Unlimited if null. */
-            maxReconnectAttempts: null
+            maxReconnectAttempts: null,
+
+            /** The binaryType of the websockets that are created ('blob' or 'arraybuffer'); the browser default if null. */
+            binaryType: null
         }
         if (!options) { options = {}; }
 
@@ -204,6 +207,9 @@
 
         this.open = function (reconnectAttempt) {
             ws = new WebSocket(self.url, protocols || []);
+            if (self.binaryType) {
+                ws.binaryType = self.binaryType;
+            }
 
             if (reconnectAttempt) {
                 if (this.maxReconnectAttempts && this.reconnectAttempts > this.maxReconnectAttempts) {
@@ -0,0 +1,110 @@
+describe('binary message decoding', function() {
+	var $webSocket;
+
+	beforeEach(function() {
+		module('sabloApp');
+		angular.module('pushToServerData', ['pushToServer']);
+		inject(function(_$webSocket_) {
+			$webSocket = _$webSocket_;
+		});
+	});
+
+	// the same encodings are checked on the server side in BinaryJSONWriterTest
+	function decode(hex) {
+		var bytes = new Uint8Array(hex.length / 2);
+		for (var i = 0; i < bytes.length; i++) {
+			bytes[i] = parseInt(hex.substr(i * 2, 2), 16);
+		}
+		return $webSocket.decodeBinaryMessage(bytes.buffer);
+	}
+
+	function repeat(s, count) {
+		var result = '';
+		for (var i = 0; i < count; i++) result += s;
+		return result;
+	}
+
+	it("should decode unsigned integers of every width", function() {
+		expect(decode("00")).toBe(0);
+		expect(decode("17")).toBe(23);
+		expect(decode("1818")).toBe(24);
+		expect(decode("18ff")).toBe(255);
+		expect(decode("190100")).toBe(256);
+		expect(decode("19ffff")).toBe(65535);
+		expect(decode("1a00010000")).toBe(65536);
+		expect(decode("1affffffff")).toBe(4294967295);
+		expect(decode("1b0000000100000000")).toBe(4294967296);
+		expect(decode("1b001fffffffffffff")).toBe(9007199254740991);
+	});
+
+	it("should decode negative integers of every width", function() {
+		expect(decode("20")).toBe(-1);
+		expect(decode("37")).toBe(-24);
+		expect(decode("3818")).toBe(-25);
+		expect(decode("38ff")).toBe(-256);
+		expect(decode("390100")).toBe(-257);
+		expect(decode("3903e7")).toBe(-1000);
+		expect(decode("39ffff")).toBe(-65536);
+		expect(decode("3a00010000")).toBe(-65537);
+		expect(decode("3b001ffffffffffffe")).toBe(-9007199254740991);
+	});
+
+	it("should decode floats", function() {
+		expect(decode("fa3fc00000")).toBe(1.5);
+		expect(1 / decode("fa80000000")).toBe(-Infinity);
+		expect(decode("fa7f7fffff")).toBe(3.4028234663852886e+38);
+		expect(decode("fb3ff199999999999a")).toBe(1.1);
+		expect(decode("fbc010666666666666")).toBe(-4.1);
+		expect(decode("fb7e37e43c8800759c")).toBe(1.0e300);
+		expect(decode("fb4341c37937e09000")).toBe(1.0e16 + 8192);
+	});
+
+	it("should decode simple values", function() {
+		expect(decode("f4")).toBe(false);
+		expect(decode("f5")).toBe(true);
+		expect(decode("f6")).toBe(null);
+		expect(decode("f7")).toBe(undefined);
+	});
+
+	it("should decode utf-8 strings", function() {
+		expect(decode("60")).toBe("");
+		expect(decode("6161")).toBe("a");
+		expect(decode("6449455446")).toBe("IETF");
+		expect(decode("62c3bc")).toBe("\u00fc");
+		expect(decode("63e6b0b4")).toBe("\u6c34");
+		expect(decode("64f0908591")).toBe("\ud800\udd51");
+	});
+
+	it("should decode long strings", function() {
+		expect(decode("77" + repeat("61", 23))).toBe(repeat("a", 23));
+		expect(decode("7818" + repeat("61", 24))).toBe(repeat("a", 24));
+		expect(decode("78ff" + repeat("61", 255))).toBe(repeat("a", 255));
+		expect(decode("790100" + repeat("61", 256))).toBe(repeat("a", 256));
+		expect(decode("7a00010000" + repeat("61", 65536))).toBe(repeat("a", 65536));
+		expect(decode("7818" + repeat("c3bc", 12))).toBe(repeat("\u00fc", 12));
+	});
+
+	it("should decode containers with indefinite length", function() {
+		expect(decode("bf61610161629f0203ffff")).toEqual({ a: 1, b: [2, 3] });
+		expect(decode("9fbfff9fffff")).toEqual([{}, []]);
+	});
+
+	it("should decode containers with definite length", function() {
+		expect(decode("80")).toEqual([]);
+		expect(decode("a0")).toEqual({});
+		expect(decode("8301820203820405")).toEqual([1, [2, 3], [4, 5]]);
+		expect(decode("a26161016162820203")).toEqual({ a: 1, b: [2, 3] });
+		expect(decode("a1616182f6f5")).toEqual({ a: [null, true] });
+		expect(decode("9819" + repeat("01", 25)).length).toBe(25);
+	});
+
+	it("should decode nested containers", function() {
+		expect(decode("818181818101")).toEqual([[[[[1]]]]]);
+		expect(decode("bf6178a16179a1617a81f5ff")).toEqual({ x: { y: { z: [true] } } });
+	});
+
+	it("should reject unsupported items", function() {
+		expect(function() { decode("c0"); }).toThrow();
+		expect(function() { decode("f9"); }).toThrow();
+	});
+});
@@ -30,6 +30,9 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONWriter;
 import org.sablo.specification.PropertyDescription;
+import org.sablo.specification.PropertyMetadataIndex;
+import org.sablo.specification.PropertyMetadataIndex.GuardProperty;
+import org.sablo.specification.PropertySlotLayout;
 import org.sablo.specification.WebComponentSpecProvider;
 import org.sablo.specification.WebObjectApiDefinition;
 import org.sablo.specification.WebObjectSpecification;
@@ -43,9 +46,10 @@ import org.sablo.specification.property.ISmartPropertyValue;
 import org.sablo.specification.property.IWrapperType;
 import org.sablo.specification.property.WrappingContext;
 import org.sablo.specification.property.types.AggregatedPropertyType;
-import org.sablo.specification.property.types.EnabledPropertyType;
-import org.sablo.specification.property.types.ProtectedConfig;
 import org.sablo.specification.property.types.VisiblePropertyType;
+import org.sablo.util.PropertyPath;
+import org.sablo.util.SlottedPropertyMap;
+import org.sablo.util.SlottedPropertySet;
 import org.sablo.util.ValueReference;
 import org.sablo.websocket.TypedData;
 import org.sablo.websocket.utils.DataConversion;
@@ -72,17 +76,17 @@ public abstract class BaseWebObject
 	/**
 	 * model properties to interact with webcomponent values, maps name to value
 	 */
-	protected final Map<String, Object> properties = new HashMap<>();
+	protected final Map<String, Object> properties;
 
 	/**
 	 * default model properties that are not send to the browser.
 	 */
-	protected final Map<String, Object> defaultPropertiesUnwrapped = new HashMap<>();
+	protected final Map<String, Object> defaultPropertiesUnwrapped;
 
 	/**
 	 * the changed properties
 	 */
-	private final Set<String> changedProperties = new HashSet<>(3);
+	private final Set<String> changedProperties;
 
 	/**
 	 * the event handlers
@@ -93,9 +97,15 @@ public abstract class BaseWebObject
 
 	public BaseWebObject(String name, WebObjectSpecification specification)
 	{
+		if (specification == null) throw new IllegalStateException("Cannot work without specification");
 		this.name = name;
 		this.specification = specification;
-		if (specification == null) throw new IllegalStateException("Cannot work without specification");
+
+		// values of the properties declared in the spec are kept in arrays
+		PropertySlotLayout slotLayout = specification.getPropertySlotLayout();
+		this.properties = new SlottedPropertyMap(slotLayout);
+		this.defaultPropertiesUnwrapped = new SlottedPropertyMap(slotLayout);
+		this.changedProperties = new SlottedPropertySet(slotLayout);
 	}
 
 	/**
@@ -154,23 +164,22 @@ public abstract class BaseWebObject
 	 */
 	public final boolean isVisible(String property)
 	{
-		for (PropertyDescription prop : specification.getProperties(VisiblePropertyType.INSTANCE))
+		PropertyMetadataIndex index = specification.getPropertyMetadataIndex();
+
+		// general visibility-properties
+		List<String> visibilityProperties = index.getGeneralVisibilityProperties();
+		for (int i = 0; i < visibilityProperties.size(); i++)
 		{
-			if (Boolean.FALSE.equals(getProperty(prop.getName())))
-			{
-				Object config = prop.getConfig();
-				if (config instanceof ProtectedConfig && ((ProtectedConfig)config).getForEntries() != null)
-				{
-					Collection<String> forEntries = (((ProtectedConfig)config).getForEntries()).getEntries();
-					if (forEntries != null && forEntries.size() > 0 && (property == null || !forEntries.contains(property)))
-					{
-						// specific visibility-property, not for this property
-						continue;
-					}
-				}
+			if (Boolean.FALSE.equals(getProperty(visibilityProperties.get(i)))) return false;
+		}
 
-				// general visibility-property or specific for this property
-				return false;
+		if (property != null)
+		{
+			// visibility-properties specific for this property
+			visibilityProperties = index.getVisibilityPropertiesFor(property);
+			for (int i = 0; i < visibilityProperties.size(); i++)
+			{
+				if (Boolean.FALSE.equals(getProperty(visibilityProperties.get(i)))) return false;
 			}
 		}
 
@@ -179,25 +188,14 @@ public abstract class BaseWebObject
 
 	public final void setVisible(boolean visible)
 	{
-		boolean set = false;
-		for (PropertyDescription prop : specification.getProperties(VisiblePropertyType.INSTANCE))
+		// specific visibility-properties are skipped
+		List<String> visibilityProperties = specification.getPropertyMetadataIndex().getGeneralVisibilityProperties();
+		for (int i = 0; i < visibilityProperties.size(); i++)
 		{
-			Object config = prop.getConfig();
-			if (config instanceof ProtectedConfig && ((ProtectedConfig)config).getForEntries() != null)
-			{
-				Collection<String> forEntries = (((ProtectedConfig)config).getForEntries()).getEntries();
-				if (forEntries != null && forEntries.size() > 0)
-				{
-					// specific enable-property, skip
-					continue;
-				}
-			}
-
-			setProperty(prop.getName(), Boolean.valueOf(visible));
-			set = true;
+			setProperty(visibilityProperties.get(i), Boolean.valueOf(visible));
 		}
 
-		if (!set)
+		if (visibilityProperties.isEmpty())
 		{
 			log.warn("Could not set component '" + getName() + "' visibility to " + visible + ", no visibility property found");
 		}
@@ -217,41 +215,32 @@ public abstract class BaseWebObject
 	 */
 	protected void checkProtection(String property)
 	{
-		for (PropertyDescription prop : specification.getProperties().values())
-		{
-			if (prop.getType().isProtecting())
-			{
-				Object config = prop.getConfig();
+		PropertyMetadataIndex index = specification.getPropertyMetadataIndex();
 
-				// visible default true, so block on false by default
-				// protected default false, so block on true by default
-				boolean blockingOn = Boolean.FALSE.equals(prop.getType().defaultValue(prop));
-				if (config instanceof ProtectedConfig)
-				{
-					blockingOn = ((ProtectedConfig)config).getBlockingOn();
-				}
-
-				if (Boolean.valueOf(blockingOn).equals(getProperty(prop.getName())))
-				{
-					if (config instanceof ProtectedConfig && ((ProtectedConfig)config).getForEntries() != null)
-					{
-						Collection<String> forEntries = (((ProtectedConfig)config).getForEntries()).getEntries();
-						if (forEntries != null && forEntries.size() > 0 && (property == null || !forEntries.contains(property)))
-						{
-							// specific enable-property, not for this property
-							continue;
-						}
-					}
+		// general protected properties
+		checkProtection(index.getGeneralProtectingProperties(), property);
 
-					// general protected property or specific for this property
-					throw new IllegalComponentAccessException(prop.getType().getName(), getName(), property);
-				}
-			}
+		if (property != null)
+		{
+			// protected properties specific for this property
+			checkProtection(index.getProtectingPropertiesFor(property), property);
 		}
 
 		// ok
 	}
 
+	private void checkProtection(List<GuardProperty> protectingProperties, String property)
+	{
+		for (int i = 0; i < protectingProperties.size(); i++)
+		{
+			GuardProperty prop = protectingProperties.get(i);
+			if (prop.getBlockingOn().equals(getProperty(prop.getName())))
+			{
+				throw new IllegalComponentAccessException(prop.getTypeName(), getName(), property);
+			}
+		}
+	}
+
 	/**
 	 * Check if the property is protected, i.e. it cannot be set from the client.
 	 *
@@ -427,24 +416,21 @@ public abstract class BaseWebObject
 		Map<String, Object> map = properties;
 		String firstPropertyPart = propertyName;
 		String lastPropertyPart = propertyName;
-		String[] parts = propertyName.split("\\.");
-		if (parts.length > 1)
+		PropertyPath path = PropertyPath.of(propertyName);
+		if (path != null && path.isNested())
 		{
-			firstPropertyPart = parts[0];
-			String path = "";
-			for (int i = 0; i < parts.length - 1; i++)
+			firstPropertyPart = path.getFirstPart();
+			for (int i = 0; i < path.size() - 1; i++)
 			{
-				path += parts[i];
-				Map<String, Object> propertyMap = (Map<String, Object>)getRawPropertyValue(path, false); // arg is false cause spec. default values for custom object types cannot be java maps directly but JOSNObjects so they would have wrong type; we expect the default value to be already converted and set into "defaultPropertiesUnwrapped" in this case...
+				Map<String, Object> propertyMap = (Map<String, Object>)getRawPropertyValue(path.getPrefix(i), false); // arg is false cause spec. default values for custom object types cannot be java maps directly but JOSNObjects so they would have wrong type; we expect the default value to be already converted and set into "defaultPropertiesUnwrapped" in this case...
 				if (propertyMap == null)
 				{
 					propertyMap = new HashMap<>();
-					map.put(parts[i], wrapPropertyValue(parts[i], null, propertyMap));
+					map.put(path.getPart(i), wrapPropertyValue(path.getPart(i), null, propertyMap));
 				}
-				path += ".";
 				map = propertyMap;
 			}
-			lastPropertyPart = parts[parts.length - 1];
+			lastPropertyPart = path.getLastPart();
 		}
 		else
 		{
@@ -502,8 +488,8 @@ public abstract class BaseWebObject
 	@SuppressWarnings("nls")
 	public Object getRawPropertyValue(String propertyName, boolean getDefaultFromSpecAsWellIfNeeded)
 	{
-		String[] parts = propertyName.split("\\.");
-		String firstProperty = parts[0];
+		PropertyPath path = PropertyPath.of(propertyName);
+		String firstProperty = path != null ? path.getFirstPart() : propertyName;
 		Object oldValue = properties.get(firstProperty);
 		if (oldValue == null && !properties.containsKey(firstProperty))
 		{
@@ -535,13 +521,13 @@ public abstract class BaseWebObject
 				oldValue = wrapPropertyValue(firstProperty, null, defaultProperty);
 			}
 		}
-		if (parts.length > 1)
+		if (path != null && path.isNested())
 		{
-			for (int i = 1; i < parts.length; i++)
+			for (int i = 1; i < path.size(); i++)
 			{
 				if (oldValue instanceof Map)
 				{
-					oldValue = ((Map)oldValue).get(parts[i]);
+					oldValue = ((Map)oldValue).get(path.getPart(i));
 				}
 			}
 			// this value comes from internal maps, should be wrapped again (current value should always return a wrapped value)
@@ -827,18 +813,20 @@ public abstract class BaseWebObject
 
 	public boolean isEnabled()
 	{
-		for (PropertyDescription prop : specification.getProperties(EnabledPropertyType.INSTANCE))
+		List<String> enabledProperties = specification.getPropertyMetadataIndex().getEnabledProperties();
+		if (enabledProperties.size() > 0)
 		{
-			return (boolean)getProperty(prop.getName());
+			return (boolean)getProperty(enabledProperties.get(0));
 		}
 		return true;
 	}
 
 	public void setEnabled(boolean enabled)
 	{
-		for (PropertyDescription prop : specification.getProperties(EnabledPropertyType.INSTANCE))
+		List<String> enabledProperties = specification.getPropertyMetadataIndex().getEnabledProperties();
+		for (int i = 0; i < enabledProperties.size(); i++)
 		{
-			setProperty(prop.getName(), enabled);
+			setProperty(enabledProperties.get(i), enabled);
 		}
 	}
 
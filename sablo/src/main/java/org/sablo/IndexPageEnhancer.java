@@ -16,16 +16,22 @@
 
 package org.sablo;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.io.IOUtils;
 import org.json.JSONArray;
@@ -40,7 +46,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Take an index page, enhance it with required libs/csses and replace variables
+ * Take an index page, enhance it with required libs/csses and replace variables.<br/><br/>
+ *
+ * The index page is read and split at the places where the base tag and the contributions are inserted only once, and the libraries and
+ * definitions of all component and service specs are collected only once; both are computed again when the specs are (re)loaded
+ * and the index page is read again when it was modified.
+ * Contributions that are package resources get the fingerprint of their content (see {@link PackageResourceCache#fingerprint(String)}).
  * @author jblok
  */
 @SuppressWarnings("nls")
@@ -56,6 +67,18 @@ public class IndexPageEnhancer
 	private static String VAR_START = "##";
 	private static String VAR_END = "##";
 
+	/**
+	 * Index pages that are not files are checked for modifications at most once per this many milliseconds, getting the last modified time
+	 * opens a connection to them.
+	 */
+	private static final long LAST_MODIFIED_CHECK_INTERVAL = 1000;
+
+	private static final int INSERT_BASE_TAG = 0;
+	private static final int INSERT_CONTRIBUTIONS = 1;
+
+	private static final ConcurrentMap<String, IndexTemplate> templates = new ConcurrentHashMap<>();
+	private static volatile SpecContributions specContributions;
+
 	private IndexPageEnhancer()
 	{
 	}
@@ -73,39 +96,115 @@ public class IndexPageEnhancer
 	public static void enhance(URL resource, String contextPath, Collection<String> cssContributions, Collection<String> jsContributions,
 		Map<String, String> variableSubstitution, Writer writer, IContributionFilter contributionFilter) throws IOException
 	{
-		String index_file = IOUtils.toString(resource);
-		String lowercase_index_file = index_file.toLowerCase();
-		int headstart = lowercase_index_file.indexOf("<head>");
-		int headend = lowercase_index_file.indexOf(COMPONENT_CONTRIBUTIONS);
+		writer.append(enhance(resource, contextPath, cssContributions, jsContributions, variableSubstitution, contributionFilter));
+	}
 
-		//use real html parser here instead?
-		if (variableSubstitution != null)
+	/**
+	 * Same as {@link #enhance(URL, String, Collection, Collection, Map, Writer, IContributionFilter)}, but returns the enhanced page.
+	 */
+	static String enhance(URL resource, String contextPath, Collection<String> cssContributions, Collection<String> jsContributions,
+		Map<String, String> variableSubstitution, IContributionFilter contributionFilter) throws IOException
+	{
+		IndexTemplate template = getTemplate(resource);
+		StringBuilder sb = new StringBuilder(template.length + 4096);
+		for (int i = 0; i < template.parts.length; i++)
 		{
-			for (String variableName : variableSubstitution.keySet())
+			appendSubstituted(sb, template.parts[i], variableSubstitution);
+			if (i < template.inserts.length)
 			{
-				String variableReplace = VAR_START + variableName + VAR_END;
-				index_file = index_file.replaceAll(Matcher.quoteReplacement(variableReplace), variableSubstitution.get(variableName));
+				if (template.inserts[i] == INSERT_BASE_TAG) sb.append(getBaseTag(contextPath));
+				else sb.append(getAllContributions(cssContributions, jsContributions, contributionFilter));
 			}
 		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the time the index page was last modified, as used for the enhanced page (0 if not known).
+	 */
+	static long getTemplateLastModified(URL resource) throws IOException
+	{
+		return getTemplate(resource).lastModified;
+	}
 
-		StringBuilder sb = new StringBuilder(index_file);
-		if (headend < 0)
+	private static IndexTemplate getTemplate(URL resource) throws IOException
+	{
+		long specLoadTimestamp = getSpecLoadTimestamp();
+		String key = resource.toString();
+		IndexTemplate template = templates.get(key);
+		long now = System.currentTimeMillis();
+		if (template != null && template.specLoadTimestamp == specLoadTimestamp && !"file".equals(resource.getProtocol()) &&
+			now - template.lastChecked < LAST_MODIFIED_CHECK_INTERVAL)
 		{
-			log.warn("Could not find marker for component contributions: " + COMPONENT_CONTRIBUTIONS + " for resource " + resource);
+			return template;
 		}
-		else
+
+		long lastModified = getLastModified(resource);
+		if (template == null || template.specLoadTimestamp != specLoadTimestamp || template.lastModified != lastModified)
 		{
-			sb.insert(headend + COMPONENT_CONTRIBUTIONS.length(), getAllContributions(cssContributions, jsContributions, contributionFilter));
+			template = new IndexTemplate(resource, specLoadTimestamp, lastModified);
+			templates.put(key, template);
 		}
-		if (headstart < 0)
+		template.lastChecked = now;
+		return template;
+	}
+
+	/**
+	 * @return the time the resource was last modified, 0 if not known.
+	 */
+	static long getLastModified(URL resource)
+	{
+		try
 		{
-			log.warn("Could not find empty head tag for base tag for resource " + resource);
+			if ("file".equals(resource.getProtocol()))
+			{
+				return new File(resource.toURI()).lastModified();
+			}
+			URLConnection connection = resource.openConnection();
+			long lastModified = connection.getLastModified();
+			// getting the last modified time can open the resource
+			connection.getInputStream().close();
+			return lastModified;
 		}
-		else
+		catch (IOException | URISyntaxException | IllegalArgumentException e)
 		{
-			sb.insert(headstart + 6, getBaseTag(contextPath));
+			log.debug("Could not get the last modified time of " + resource, e);
+			return 0;
 		}
-		writer.append(sb);
+	}
+
+	/**
+	 * Replaces the variables in the text in one pass; ##name## is only replaced when the name has a value, other text is copied as is.
+	 */
+	private static void appendSubstituted(StringBuilder sb, String text, Map<String, String> variableSubstitution)
+	{
+		if (variableSubstitution == null || variableSubstitution.isEmpty())
+		{
+			sb.append(text);
+			return;
+		}
+
+		int copied = 0;
+		int start = text.indexOf(VAR_START);
+		while (start >= 0)
+		{
+			int end = text.indexOf(VAR_END, start + VAR_START.length());
+			if (end < 0) break;
+
+			String value = variableSubstitution.get(text.substring(start + VAR_START.length(), end));
+			if (value != null)
+			{
+				sb.append(text, copied, start).append(value);
+				copied = end + VAR_END.length();
+				start = text.indexOf(VAR_START, copied);
+			}
+			else
+			{
+				// not a variable, the end marker can still be the start of one
+				start = end;
+			}
+		}
+		sb.append(text, copied, text.length());
 	}
 
 	/**
@@ -115,7 +214,17 @@ public class IndexPageEnhancer
 	 */
 	private static String getBaseTag(String contextPath)
 	{
-		return String.format("<base href=\"%s/\">\n", contextPath);
+		return "<base href=\"" + contextPath + "/\">\n";
+	}
+
+	/**
+	 * @return the time at which component or service specs were last (re)loaded.
+	 */
+	static long getSpecLoadTimestamp()
+	{
+		long componentsLoadTimestamp = WebComponentSpecProvider.getInstance() != null ? WebComponentSpecProvider.getLastLoadTimestamp() : 0;
+		long servicesLoadTimestamp = WebServiceSpecProvider.getInstance() != null ? WebServiceSpecProvider.getLastLoadTimestamp() : 0;
+		return Math.max(componentsLoadTimestamp, servicesLoadTimestamp);
 	}
 
 	/**
@@ -124,46 +233,9 @@ public class IndexPageEnhancer
 	 */
 	static String getAllContributions(Collection<String> cssContributions, Collection<String> jsContributions, IContributionFilter contributionFilter)
 	{
-		ArrayList<String> allCSSContributions = new ArrayList<String>();
-		ArrayList<String> allJSContributions = new ArrayList<String>();
-
-		LinkedHashMap<String, JSONObject> allLibraries = new LinkedHashMap<>();
-		Collection<NGPackageSpecification<WebObjectSpecification>> webComponentPackagesDescriptions = new ArrayList<NGPackageSpecification<WebObjectSpecification>>();
-		webComponentPackagesDescriptions.addAll(WebComponentSpecProvider.getInstance().getWebComponentSpecifications().values());
-		webComponentPackagesDescriptions.addAll(WebServiceSpecProvider.getInstance().getWebServiceSpecifications().values());
-
-		for (NGPackageSpecification<WebObjectSpecification> packageDesc : webComponentPackagesDescriptions)
-		{
-			if (packageDesc.getCssClientLibrary() != null)
-			{
-				mergeLibs(allLibraries, packageLibsToJSON(packageDesc.getCssClientLibrary(), "text/css"));
-			}
-			if (packageDesc.getJsClientLibrary() != null)
-			{
-				mergeLibs(allLibraries, packageLibsToJSON(packageDesc.getJsClientLibrary(), "text/javascript"));
-			}
-
-			for (WebObjectSpecification spec : packageDesc.getSpecifications().values())
-			{
-				allJSContributions.add(spec.getDefinition());
-				mergeLibs(allLibraries, spec.getLibraries());
-			}
-		}
-
-		for (JSONObject lib : allLibraries.values())
-		{
-			switch (lib.optString("mimetype"))
-			{
-				case "text/javascript" :
-					allJSContributions.add(lib.optString("url"));
-					break;
-				case "text/css" :
-					allCSSContributions.add(lib.optString("url"));
-					break;
-				default :
-					log.warn("Unknown mimetype " + lib);
-			}
-		}
+		SpecContributions contributions = getSpecContributions();
+		List<String> allCSSContributions = new ArrayList<String>(contributions.css);
+		List<String> allJSContributions = new ArrayList<String>(contributions.js);
 
 		if (cssContributions != null)
 		{
@@ -178,14 +250,15 @@ public class IndexPageEnhancer
 		StringBuilder retval = new StringBuilder();
 		List<String> filteredCSSContributions = contributionFilter != null ? contributionFilter.filterCSSContributions(allCSSContributions)
 			: allCSSContributions;
+		// fingerprinted after filtering, the filter gets the urls as the specs give them; browsers can keep package resources until their content changes
 		for (String lib : filteredCSSContributions)
 		{
-			retval.append(String.format("<link rel=\"stylesheet\" href=\"%s\"/>\n", lib));
+			retval.append("<link rel=\"stylesheet\" href=\"").append(PackageResourceCache.fingerprint(lib)).append("\"/>\n");
 		}
 		List<String> filteredJSContributions = contributionFilter != null ? contributionFilter.filterJSContributions(allJSContributions) : allJSContributions;
 		for (String lib : filteredJSContributions)
 		{
-			retval.append(String.format("<script src=\"%s\"></script>\n", lib));
+			retval.append("<script src=\"").append(PackageResourceCache.fingerprint(lib)).append("\"></script>\n");
 		}
 
 
@@ -195,6 +268,22 @@ public class IndexPageEnhancer
 		return retval.toString();
 	}
 
+	private static SpecContributions getSpecContributions()
+	{
+		WebComponentSpecProvider componentSpecProvider = WebComponentSpecProvider.getInstance();
+		WebServiceSpecProvider serviceSpecProvider = WebServiceSpecProvider.getInstance();
+		long specLoadTimestamp = getSpecLoadTimestamp();
+
+		SpecContributions contributions = specContributions;
+		if (contributions == null || contributions.componentSpecProvider != componentSpecProvider ||
+			contributions.serviceSpecProvider != serviceSpecProvider || contributions.specLoadTimestamp != specLoadTimestamp)
+		{
+			contributions = new SpecContributions(componentSpecProvider, serviceSpecProvider, specLoadTimestamp);
+			specContributions = contributions;
+		}
+		return contributions;
+	}
+
 	/**
 	 * Merge libs into allLibs, by keeping only the lib with the highest version
 	 * @param allLibs JSONObject list with libraries from all components
@@ -291,4 +380,143 @@ public class IndexPageEnhancer
 
 		return packageLibsToJSON;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * The index page, split at the places where the base tag and the contributions are inserted.
+	 */
+	private static class IndexTemplate
+	{
+		private final long specLoadTimestamp;
+		private final long lastModified;
+		private final String[] parts;
+		private final int[] inserts;
+		private final int length;
+		private volatile long lastChecked;
+
+		IndexTemplate(URL resource, long specLoadTimestamp, long lastModified) throws IOException
+		{
+			this.specLoadTimestamp = specLoadTimestamp;
+			this.lastModified = lastModified;
+
+			String index_file = IOUtils.toString(resource, StandardCharsets.UTF_8);
+			String lowercase_index_file = index_file.toLowerCase();
+			int headstart = lowercase_index_file.indexOf("<head>");
+			int headend = lowercase_index_file.indexOf(COMPONENT_CONTRIBUTIONS);
+
+			//use real html parser here instead?
+			int basePosition = -1;
+			int contributionsPosition = -1;
+			if (headend < 0)
+			{
+				log.warn("Could not find marker for component contributions: " + COMPONENT_CONTRIBUTIONS + " for resource " + resource);
+			}
+			else
+			{
+				contributionsPosition = headend + COMPONENT_CONTRIBUTIONS.length();
+			}
+			if (headstart < 0)
+			{
+				log.warn("Could not find empty head tag for base tag for resource " + resource);
+			}
+			else
+			{
+				basePosition = headstart + 6;
+			}
+
+			List<String> partList = new ArrayList<>(3);
+			List<Integer> insertList = new ArrayList<>(2);
+			int partStart = 0;
+			if (basePosition >= 0 && (contributionsPosition < 0 || basePosition < contributionsPosition))
+			{
+				partList.add(index_file.substring(partStart, basePosition));
+				insertList.add(Integer.valueOf(INSERT_BASE_TAG));
+				partStart = basePosition;
+				basePosition = -1;
+			}
+			if (contributionsPosition >= 0)
+			{
+				partList.add(index_file.substring(partStart, contributionsPosition));
+				insertList.add(Integer.valueOf(INSERT_CONTRIBUTIONS));
+				partStart = contributionsPosition;
+			}
+			if (basePosition >= 0)
+			{
+				partList.add(index_file.substring(partStart, basePosition));
+				insertList.add(Integer.valueOf(INSERT_BASE_TAG));
+				partStart = basePosition;
+			}
+			partList.add(index_file.substring(partStart));
+
+			parts = partList.toArray(new String[partList.size()]);
+			inserts = new int[insertList.size()];
+			for (int i = 0; i < inserts.length; i++)
+			{
+				inserts[i] = insertList.get(i).intValue();
+			}
+			length = index_file.length();
+		}
+	}
+
+	/**
+	 * The libraries and definitions of all component and service specs, collected once per spec load.
+	 */
+	private static class SpecContributions
+	{
+		private final WebComponentSpecProvider componentSpecProvider;
+		private final WebServiceSpecProvider serviceSpecProvider;
+		private final long specLoadTimestamp;
+		private final List<String> css;
+		private final List<String> js;
+
+		SpecContributions(WebComponentSpecProvider componentSpecProvider, WebServiceSpecProvider serviceSpecProvider, long specLoadTimestamp)
+		{
+			this.componentSpecProvider = componentSpecProvider;
+			this.serviceSpecProvider = serviceSpecProvider;
+			this.specLoadTimestamp = specLoadTimestamp;
+
+			ArrayList<String> allCSSContributions = new ArrayList<String>();
+			ArrayList<String> allJSContributions = new ArrayList<String>();
+
+			LinkedHashMap<String, JSONObject> allLibraries = new LinkedHashMap<>();
+			Collection<NGPackageSpecification<WebObjectSpecification>> webComponentPackagesDescriptions = new ArrayList<NGPackageSpecification<WebObjectSpecification>>();
+			webComponentPackagesDescriptions.addAll(componentSpecProvider.getWebComponentSpecifications().values());
+			webComponentPackagesDescriptions.addAll(serviceSpecProvider.getWebServiceSpecifications().values());
+
+			for (NGPackageSpecification<WebObjectSpecification> packageDesc : webComponentPackagesDescriptions)
+			{
+				if (packageDesc.getCssClientLibrary() != null)
+				{
+					mergeLibs(allLibraries, packageLibsToJSON(packageDesc.getCssClientLibrary(), "text/css"));
+				}
+				if (packageDesc.getJsClientLibrary() != null)
+				{
+					mergeLibs(allLibraries, packageLibsToJSON(packageDesc.getJsClientLibrary(), "text/javascript"));
+				}
+
+				for (WebObjectSpecification spec : packageDesc.getSpecifications().values())
+				{
+					allJSContributions.add(spec.getDefinition());
+					mergeLibs(allLibraries, spec.getLibraries());
+				}
+			}
+
+			for (JSONObject lib : allLibraries.values())
+			{
+				switch (lib.optString("mimetype"))
+				{
+					case "text/javascript" :
+						allJSContributions.add(lib.optString("url"));
+						break;
+					case "text/css" :
+						allCSSContributions.add(lib.optString("url"));
+						break;
+					default :
+						log.warn("Unknown mimetype " + lib);
+				}
+			}
+
+			css = Collections.unmodifiableList(allCSSContributions);
+			js = Collections.unmodifiableList(allJSContributions);
+		}
+	}
+}
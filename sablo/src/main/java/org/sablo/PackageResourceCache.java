@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.sablo.specification.BaseSpecProvider;
+import org.sablo.specification.NGPackage.DirPackageReader;
+import org.sablo.specification.NGPackage.IPackageReader;
+import org.sablo.specification.WebComponentSpecProvider;
+import org.sablo.specification.WebServiceSpecProvider;
+import org.sablo.util.CachedContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the static resources of component and service packages (libraries, component definitions, styles, images, ...) in memory,
+ * so {@link WebEntry} can send them with their precompressed variant and an ETag instead of reading them from the package for every request.<br/><br/>
+ *
+ * Resources are addressed as "packagename/path/in/package", the way specs refer to them. The cache is dropped when specs are (re)loaded
+ * and is bounded by {@link #PROPERTY_MAX_SIZE}; resources that don't fit are left to the container. The urls of the contributions in the index page
+ * get a fingerprint of the content (see {@link #fingerprint(String)}), requests with the current fingerprint may be cached by browsers forever.
+ * Fingerprinting does not wait for resources to be read; they are read in the background and the urls get their fingerprint once that is done.
+ * Packages that are read from a directory ({@link DirPackageReader}, used during development) can change at any time; their resources are not cached.
+ */
+@SuppressWarnings("nls")
+public class PackageResourceCache
+{
+	private static final Logger log = LoggerFactory.getLogger(PackageResourceCache.class.getCanonicalName());
+
+	/**
+	 * If "false" package resources are not cached and contribution urls don't get a fingerprint.
+	 */
+	public static final String PROPERTY_ENABLED = "sablo.packageResources.cache";
+
+	/**
+	 * Maximum total size in bytes of the cached resources (not counting the compressed variants). Can be set via system property sablo.packageResources.cache.maxSize.
+	 */
+	public static final String PROPERTY_MAX_SIZE = "sablo.packageResources.cache.maxSize";
+	public static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * Maximum number of missing or too big resources that are remembered per spec load, so they are not looked up in the package again.
+	 */
+	private static final int MAX_UNCACHED = 10000;
+
+	/**
+	 * Request parameter with the fingerprint of the content of a resource.
+	 */
+	public static final String FINGERPRINT_PARAMETER = "sablo_fp";
+
+	private static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty(PROPERTY_ENABLED));
+	private static final long MAX_SIZE;
+
+	static
+	{
+		long maxSize = DEFAULT_MAX_SIZE;
+		try
+		{
+			maxSize = Long.parseLong(System.getProperty(PROPERTY_MAX_SIZE, String.valueOf(DEFAULT_MAX_SIZE)));
+		}
+		catch (NumberFormatException e)
+		{
+			log.error("Please check system property values. '" + PROPERTY_MAX_SIZE + "' is not a number.");
+		}
+		MAX_SIZE = maxSize;
+	}
+
+	private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+	static
+	{
+		CONTENT_TYPES.put("js", "text/javascript;charset=UTF-8");
+		CONTENT_TYPES.put("css", "text/css;charset=UTF-8");
+		CONTENT_TYPES.put("html", "text/html;charset=UTF-8");
+		CONTENT_TYPES.put("json", "application/json;charset=UTF-8");
+		CONTENT_TYPES.put("map", "application/json;charset=UTF-8");
+		CONTENT_TYPES.put("txt", "text/plain;charset=UTF-8");
+		CONTENT_TYPES.put("svg", "image/svg+xml");
+		CONTENT_TYPES.put("png", "image/png");
+		CONTENT_TYPES.put("gif", "image/gif");
+		CONTENT_TYPES.put("jpg", "image/jpeg");
+		CONTENT_TYPES.put("jpeg", "image/jpeg");
+		CONTENT_TYPES.put("ico", "image/x-icon");
+		CONTENT_TYPES.put("woff", "font/woff");
+		CONTENT_TYPES.put("woff2", "font/woff2");
+		CONTENT_TYPES.put("ttf", "font/ttf");
+		CONTENT_TYPES.put("otf", "font/otf");
+		CONTENT_TYPES.put("eot", "application/vnd.ms-fontobject");
+	}
+
+	private static volatile Cache cache;
+
+	private static final AtomicLong fingerprintVersion = new AtomicLong();
+
+	/**
+	 * Reads the resources that are fingerprinted in the background; its thread stops when there is nothing to read.
+	 */
+	private static final ThreadPoolExecutor loader = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, "Sablo package resource loader");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	static
+	{
+		loader.allowCoreThreadTimeOut(true);
+	}
+
+	private PackageResourceCache()
+	{
+	}
+
+	public static boolean isEnabled()
+	{
+		return ENABLED;
+	}
+
+	/**
+	 * @param path the decoded path of the resource, starting with the package name ("packagename/lib/some.js"); a leading slash is ignored,
+	 * "." and ".." segments are resolved (see {@link #normalize(String)}).
+	 * @return the resource, null if it is not a (known type of) resource of a package or it does not fit in the cache.
+	 */
+	public static CachedContent getResource(String path)
+	{
+		return getResource(path, true);
+	}
+
+	/**
+	 * @param load false to read a resource that is not cached yet in the background instead of in this thread; null is returned for it then.
+	 */
+	private static CachedContent getResource(String path, boolean load)
+	{
+		if (!ENABLED || path == null) return null;
+
+		// match the path the way the package would resolve it, so that it can't point outside of the package
+		String resourcePath = normalize(path);
+		if (resourcePath == null) return null;
+		int slash = resourcePath.indexOf('/');
+		int dot = resourcePath.lastIndexOf('.');
+		if (slash <= 0 || dot < slash) return null;
+		String contentType = CONTENT_TYPES.get(resourcePath.substring(dot + 1).toLowerCase());
+		if (contentType == null) return null;
+
+		Cache current = getCache();
+		if (current == null) return null;
+		CachedContent resource = current.resources.get(resourcePath);
+		if (resource == null && !current.uncached.contains(resourcePath))
+		{
+			IPackageReader reader = current.readers.get(resourcePath.substring(0, slash));
+			if (reader == null) return null;
+			String pathInPackage = resourcePath.substring(slash + 1);
+			if (load) resource = current.load(resourcePath, reader, pathInPackage, contentType);
+			else current.loadInBackground(resourcePath, reader, pathInPackage, contentType);
+		}
+		return resource;
+	}
+
+	/**
+	 * @return the path without leading slash and with its "." and ".." segments resolved; null if it goes above the root or has backslashes.
+	 */
+	static String normalize(String path)
+	{
+		if (path.indexOf('\\') >= 0 || path.indexOf('\0') >= 0) return null;
+
+		ArrayDeque<String> segments = new ArrayDeque<>();
+		for (String segment : path.split("/"))
+		{
+			if (segment.length() == 0 || ".".equals(segment)) continue;
+			if ("..".equals(segment))
+			{
+				if (segments.isEmpty()) return null;
+				segments.removeLast();
+			}
+			else
+			{
+				segments.addLast(segment);
+			}
+		}
+
+		StringBuilder normalized = new StringBuilder(path.length());
+		for (String segment : segments)
+		{
+			if (normalized.length() > 0) normalized.append('/');
+			normalized.append(segment);
+		}
+		return normalized.toString();
+	}
+
+	/**
+	 * @param url the url of a contribution, as given in a spec.
+	 * @return the url with the fingerprint of the content of the resource added, or the given url if it is not a resource of a package.
+	 * The given url is also returned while the resource is not read yet; it is then read in the background and {@link #getFingerprintVersion()} changes when that is done.
+	 */
+	public static String fingerprint(String url)
+	{
+		if (!ENABLED || url == null || url.indexOf('?') >= 0 || url.indexOf(':') >= 0) return url;
+
+		CachedContent resource = getResource(url, false);
+		if (resource == null) return url;
+		return url + '?' + FINGERPRINT_PARAMETER + '=' + resource.getFingerprint();
+	}
+
+	/**
+	 * @return a number that changes when resources that were fingerprinted before they were read are read; what {@link #fingerprint(String)} returns can
+	 * be different then.
+	 */
+	public static long getFingerprintVersion()
+	{
+		return fingerprintVersion.get();
+	}
+
+	private static Cache getCache()
+	{
+		WebComponentSpecProvider componentSpecProvider = WebComponentSpecProvider.getInstance();
+		WebServiceSpecProvider serviceSpecProvider = WebServiceSpecProvider.getInstance();
+		if (componentSpecProvider == null && serviceSpecProvider == null) return null;
+		long specLoadTimestamp = IndexPageEnhancer.getSpecLoadTimestamp();
+
+		Cache current = cache;
+		if (current == null || current.componentSpecProvider != componentSpecProvider || current.serviceSpecProvider != serviceSpecProvider ||
+			current.specLoadTimestamp != specLoadTimestamp)
+		{
+			current = new Cache(componentSpecProvider, serviceSpecProvider, specLoadTimestamp);
+			cache = current;
+		}
+		return current;
+	}
+
+	/**
+	 * The resources of the packages of one spec load.
+	 */
+	private static class Cache
+	{
+		private final WebComponentSpecProvider componentSpecProvider;
+		private final WebServiceSpecProvider serviceSpecProvider;
+		private final long specLoadTimestamp;
+		private final Map<String, IPackageReader> readers = new HashMap<>();
+		private final ConcurrentMap<String, CachedContent> resources = new ConcurrentHashMap<>();
+		private final Set<String> uncached = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		private final Set<String> loading = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		private final AtomicLong size = new AtomicLong();
+
+		Cache(WebComponentSpecProvider componentSpecProvider, WebServiceSpecProvider serviceSpecProvider, long specLoadTimestamp)
+		{
+			this.componentSpecProvider = componentSpecProvider;
+			this.serviceSpecProvider = serviceSpecProvider;
+			this.specLoadTimestamp = specLoadTimestamp;
+			addReaders(serviceSpecProvider);
+			addReaders(componentSpecProvider);
+		}
+
+		private void addReaders(BaseSpecProvider specProvider)
+		{
+			if (specProvider == null) return;
+			for (IPackageReader reader : specProvider.getPackageReaders())
+			{
+				String packageName = reader.getPackageName();
+				// resources of a package in a directory can change without a spec reload, the container serves those
+				if (packageName != null && !(reader instanceof DirPackageReader)) readers.put(packageName, reader);
+			}
+		}
+
+		CachedContent load(String resourcePath, IPackageReader reader, String pathInPackage, String contentType)
+		{
+			try
+			{
+				URL url = reader.getUrlForPath(pathInPackage);
+				if (url == null)
+				{
+					notCached(resourcePath);
+					return null;
+				}
+
+				byte[] content;
+				URLConnection connection = url.openConnection();
+				try (InputStream is = connection.getInputStream())
+				{
+					// reserve the size before reading, so resources that don't fit are not read
+					long reserved = Math.max(connection.getContentLengthLong(), 0);
+					if (!reserve(resourcePath, reserved)) return null;
+
+					content = IOUtils.toByteArray(is);
+					// the length can be unknown or different from what was read
+					if (!reserve(resourcePath, content.length - reserved))
+					{
+						size.addAndGet(-reserved);
+						return null;
+					}
+				}
+
+				CachedContent resource = new CachedContent(content, contentType);
+				CachedContent previous = resources.putIfAbsent(resourcePath, resource);
+				if (previous != null)
+				{
+					// loaded by another request at the same time
+					size.addAndGet(-content.length);
+					return previous;
+				}
+				return resource;
+			}
+			catch (FileNotFoundException e)
+			{
+				notCached(resourcePath);
+				return null;
+			}
+			catch (IOException e)
+			{
+				log.warn("Could not read package resource " + resourcePath, e);
+				return null;
+			}
+		}
+
+		void loadInBackground(final String resourcePath, final IPackageReader reader, final String pathInPackage, final String contentType)
+		{
+			if (!loading.add(resourcePath)) return;
+
+			loader.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						if (!resources.containsKey(resourcePath)) load(resourcePath, reader, pathInPackage, contentType);
+					}
+					finally
+					{
+						loading.remove(resourcePath);
+						fingerprintVersion.incrementAndGet();
+					}
+				}
+			});
+		}
+
+		/**
+		 * @return false if the cache has no room for the given number of bytes anymore, nothing is reserved then.
+		 */
+		private boolean reserve(String resourcePath, long bytes)
+		{
+			if (size.addAndGet(bytes) > MAX_SIZE && bytes > 0)
+			{
+				size.addAndGet(-bytes);
+				if (log.isDebugEnabled()) log.debug("Package resource " + resourcePath + " does not fit in the cache anymore");
+				notCached(resourcePath);
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Remembers that the resource is missing or too big, so it is not looked up again until the specs are reloaded.
+		 */
+		private void notCached(String resourcePath)
+		{
+			if (uncached.size() < MAX_UNCACHED) uncached.add(resourcePath);
+		}
+	}
+}
@@ -18,8 +18,13 @@ package org.sablo;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -35,6 +40,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.sablo.services.template.ModifiablePropertiesGenerator;
 import org.sablo.specification.WebComponentSpecProvider;
 import org.sablo.specification.WebServiceSpecProvider;
+import org.sablo.util.CachedContent;
 import org.sablo.util.HTTPUtils;
 import org.sablo.websocket.IWebsocketSessionFactory;
 import org.sablo.websocket.WebsocketSessionManager;
@@ -46,12 +52,42 @@ import org.sablo.websocket.WebsocketSessionManager;
  */
 public abstract class WebEntry implements Filter, IContributionFilter
 {
+	/**
+	 * Number of enhanced index pages (for different context paths or contributions) that are kept.
+	 */
+	private static final int INDEX_PAGE_CACHE_SIZE = 16;
+
+	// generated once per spec load, for all entries
+	private static volatile PushToServerScript pushToServerScript;
 
 	private final String endpointType;
+	private final boolean contributionFilterOverridden;
+
+	private final Map<List<Object>, CachedContent> indexPages = new LinkedHashMap<List<Object>, CachedContent>(INDEX_PAGE_CACHE_SIZE, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedContent> eldest)
+		{
+			return size() > INDEX_PAGE_CACHE_SIZE;
+		}
+	};
 
 	public WebEntry(String endpointType)
 	{
 		this.endpointType = endpointType;
+		this.contributionFilterOverridden = isOverridden("filterCSSContributions") || isOverridden("filterJSContributions");
+	}
+
+	private boolean isOverridden(String methodName)
+	{
+		try
+		{
+			return getClass().getMethod(methodName, List.class).getDeclaringClass() != WebEntry.class;
+		}
+		catch (NoSuchMethodException e)
+		{
+			return true;
+		}
 	}
 
 	/**
@@ -99,35 +135,145 @@ public abstract class WebEntry implements Filter, IContributionFilter
 		String uri = request.getRequestURI();
 		if (uri.endsWith("spec/" + ModifiablePropertiesGenerator.PUSH_TO_SERVER_BINDINGS_LIST + ".js"))
 		{
-			long lastSpecLoadTime = Math.max(WebComponentSpecProvider.getLastLoadTimestamp(), WebServiceSpecProvider.getLastLoadTimestamp());
-			if (HTTPUtils.checkAndSetUnmodified(((HttpServletRequest)servletRequest), ((HttpServletResponse)servletResponse), lastSpecLoadTime)) return;
-
-			HTTPUtils.setNoCacheHeaders((HttpServletResponse)servletResponse);
-
-			PrintWriter w = servletResponse.getWriter();
-			ModifiablePropertiesGenerator.start(w);
-			ModifiablePropertiesGenerator.appendAll(w, WebComponentSpecProvider.getInstance().getAllWebComponentSpecifications(), "components");
-			ModifiablePropertiesGenerator.appendAll(w, WebServiceSpecProvider.getInstance().getAllWebServiceSpecifications(), "services");
-			ModifiablePropertiesGenerator.finish(w);
-			w.flush();
+			HttpServletResponse response = (HttpServletResponse)servletResponse;
+			PushToServerScript script = getPushToServerScript();
+			HTTPUtils.setNoCacheHeaders(response);
+			response.setDateHeader(HTTPUtils.LAST_MODIFIED, script.specLoadTimestamp / 1000 * 1000);
+			script.content.send(request, response);
+			return;
+		}
 
+		CachedContent packageResource = PackageResourceCache.getResource(HTTPUtils.decodePath(uri.substring(request.getContextPath().length())));
+		if (packageResource != null)
+		{
+			HttpServletResponse response = (HttpServletResponse)servletResponse;
+			if (packageResource.getFingerprint().equals(request.getParameter(PackageResourceCache.FINGERPRINT_PARAMETER)))
+			{
+				// the url changes when the content changes
+				HTTPUtils.setImmutableCacheHeaders(response);
+			}
+			else
+			{
+				HTTPUtils.setNoCacheHeaders(response);
+			}
+			packageResource.send(request, response);
 			return;
 		}
 
 		URL indexPageResource = getIndexPageResource(request);
 		if (indexPageResource != null)
 		{
-			((HttpServletResponse)servletResponse).setContentType("text/html");
+			HttpServletResponse response = (HttpServletResponse)servletResponse;
+			// the browser has to check every time, the page changes when specs are reloaded
+			HTTPUtils.setNoCacheHeaders(response);
 
-			PrintWriter w = servletResponse.getWriter();
-			IndexPageEnhancer.enhance(indexPageResource, request.getContextPath(), cssContributions, jsContributions, variableSubstitution, w, this);
-			w.flush();
+			Object contributionFilterKey = getContributionFilterCacheKey(request);
+			if (contributionFilterKey == null || (variableSubstitution != null && !variableSubstitution.isEmpty()))
+			{
+				// not kept, so it is not worth compressing and hashing it; variables can differ for every request and would push the other pages out
+				response.setContentType("text/html;charset=UTF-8");
+				PrintWriter w = response.getWriter();
+				IndexPageEnhancer.enhance(indexPageResource, request.getContextPath(), cssContributions, jsContributions, variableSubstitution, w, this);
+				w.flush();
+				return;
+			}
+
+			getIndexPage(indexPageResource, request.getContextPath(), cssContributions, jsContributions, contributionFilterKey).send(request, response);
 			return;
 		}
 
 		filterChain.doFilter(servletRequest, servletResponse);
 	}
 
+	/**
+	 * Enhanced index pages without variables are kept for the same resource, context path, contributions and contribution filter key
+	 * (see {@link #getContributionFilterCacheKey(HttpServletRequest)}) until the specs are reloaded, the resource is modified or the fingerprints
+	 * of contributions that were read in the background are known (see {@link PackageResourceCache#getFingerprintVersion()}).
+	 */
+	private CachedContent getIndexPage(URL resource, String contextPath, Collection<String> cssContributions, Collection<String> jsContributions,
+		Object contributionFilterKey) throws IOException
+	{
+		List<Object> key = Arrays.<Object> asList(resource.toString(), contextPath,
+			cssContributions != null ? new ArrayList<String>(cssContributions) : null, jsContributions != null ? new ArrayList<String>(jsContributions) : null,
+			Long.valueOf(IndexPageEnhancer.getSpecLoadTimestamp()), Long.valueOf(IndexPageEnhancer.getTemplateLastModified(resource)),
+			Long.valueOf(PackageResourceCache.getFingerprintVersion()), contributionFilterKey);
+
+		CachedContent indexPage;
+		synchronized (indexPages)
+		{
+			indexPage = indexPages.get(key);
+		}
+		if (indexPage == null)
+		{
+			indexPage = createIndexPage(resource, contextPath, cssContributions, jsContributions);
+			synchronized (indexPages)
+			{
+				indexPages.put(key, indexPage);
+			}
+		}
+		return indexPage;
+	}
+
+	private CachedContent createIndexPage(URL resource, String contextPath, Collection<String> cssContributions, Collection<String> jsContributions)
+		throws IOException
+	{
+		byte[] content = IndexPageEnhancer.enhance(resource, contextPath, cssContributions, jsContributions, null, this).getBytes(
+			StandardCharsets.UTF_8);
+		return new CachedContent(content, "text/html;charset=UTF-8");
+	}
+
+	/**
+	 * The enhanced index page is kept when this returns a key and there are no variables to substitute; it is used again for requests with
+	 * the same resource, context path, contributions and key. Subclasses that override {@link #filterCSSContributions(List)} or {@link #filterJSContributions(List)}
+	 * should return what the result of their filter depends on (or call {@link #clearIndexPageCache()} when it changes); by default their
+	 * index pages are not kept.
+	 *
+	 * @return the key, null if the index page should be enhanced again for this request.
+	 */
+	protected Object getContributionFilterCacheKey(HttpServletRequest request)
+	{
+		return contributionFilterOverridden ? null : "";
+	}
+
+	/**
+	 * The script is generated again only when component or service specs were (re)loaded.
+	 */
+	private static PushToServerScript getPushToServerScript()
+	{
+		WebComponentSpecProvider componentSpecProvider = WebComponentSpecProvider.getInstance();
+		WebServiceSpecProvider serviceSpecProvider = WebServiceSpecProvider.getInstance();
+		long specLoadTimestamp = IndexPageEnhancer.getSpecLoadTimestamp();
+
+		PushToServerScript script = pushToServerScript;
+		if (script == null || script.componentSpecProvider != componentSpecProvider || script.serviceSpecProvider != serviceSpecProvider ||
+			script.specLoadTimestamp != specLoadTimestamp)
+		{
+			StringWriter sw = new StringWriter();
+			PrintWriter w = new PrintWriter(sw);
+			ModifiablePropertiesGenerator.start(w);
+			ModifiablePropertiesGenerator.appendAll(w, componentSpecProvider.getAllWebComponentSpecifications(), "components");
+			ModifiablePropertiesGenerator.appendAll(w, serviceSpecProvider.getAllWebServiceSpecifications(), "services");
+			ModifiablePropertiesGenerator.finish(w);
+			w.flush();
+
+			script = new PushToServerScript(componentSpecProvider, serviceSpecProvider, specLoadTimestamp,
+				new CachedContent(sw.toString().getBytes(StandardCharsets.UTF_8), "text/javascript;charset=UTF-8"));
+			pushToServerScript = script;
+		}
+		return script;
+	}
+
+	/**
+	 * Drops the enhanced index pages that are kept, they are enhanced again when requested.
+	 */
+	protected void clearIndexPageCache()
+	{
+		synchronized (indexPages)
+		{
+			indexPages.clear();
+		}
+	}
+
 	public List<String> filterCSSContributions(List<String> cssContributions)
 	{
 		return cssContributions;
@@ -151,4 +297,21 @@ public abstract class WebEntry implements Filter, IContributionFilter
 	public void destroy()
 	{
 	}
+
+	private static class PushToServerScript
+	{
+		private final WebComponentSpecProvider componentSpecProvider;
+		private final WebServiceSpecProvider serviceSpecProvider;
+		private final long specLoadTimestamp;
+		private final CachedContent content;
+
+		PushToServerScript(WebComponentSpecProvider componentSpecProvider, WebServiceSpecProvider serviceSpecProvider, long specLoadTimestamp,
+			CachedContent content)
+		{
+			this.componentSpecProvider = componentSpecProvider;
+			this.serviceSpecProvider = serviceSpecProvider;
+			this.specLoadTimestamp = specLoadTimestamp;
+			this.content = content;
+		}
+	}
 }
\ No newline at end of file
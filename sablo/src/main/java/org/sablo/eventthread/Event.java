@@ -24,7 +24,9 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * The default Event class used by the {@link IEventDispatcher}
+ * The default Event class used by the {@link IEventDispatcher}.<br/><br/>
+ *
+ * Keeps track of when it was created (queued), started and ended, so the time it waited in the queue and the time it took to execute can be reported.
  *
  * @author jcompagner
  *
@@ -44,6 +46,12 @@ public class Event
 	private final IWebsocketSession session;
 	private final int eventLevel;
 
+	private final long createTime = System.nanoTime();
+	private volatile long startTime;
+	private volatile long endTime;
+	private long suspendStartTime;
+	private volatile long suspendedTime;
+
 	public Event(IWebsocketSession session, Runnable runnable, int eventLevel)
 	{
 		this.session = session;
@@ -79,6 +87,7 @@ public class Event
 	 */
 	public final void execute()
 	{
+		startTime = System.nanoTime();
 		IWindow window = currentWindow;
 		if (window == null)
 		{
@@ -107,6 +116,7 @@ public class Event
 				}
 				finally
 				{
+					endTime = System.nanoTime();
 					executed = true;
 					afterExecute();
 				}
@@ -148,6 +158,7 @@ public class Event
 	 */
 	public void willSuspend()
 	{
+		suspendStartTime = System.nanoTime();
 		suspended = true;
 		session.stopHandlingEvent();
 	}
@@ -157,10 +168,44 @@ public class Event
 	 */
 	public void willResume()
 	{
+		suspendedTime += System.nanoTime() - suspendStartTime;
 		suspended = false;
 		session.startHandlingEvent();
 	}
 
+	/**
+	 * @return a description of what this event does. This is the toString() of the runnable, so runnables that are posted as events
+	 * should override it to give something more useful than a class name (it is only asked for when the event is reported).
+	 */
+	public String getLabel()
+	{
+		return runnable == null ? "empty event" : runnable.toString();
+	}
+
+	/**
+	 * @return the time (in nanoseconds) this event waited before it was executed; 0 if it was not executed yet.
+	 */
+	public long getQueueTime()
+	{
+		return startTime == 0 ? 0 : startTime - createTime;
+	}
+
+	/**
+	 * @return the time (in nanoseconds) it took to execute this event, not counting the time it was suspended; 0 if it did not end yet.
+	 */
+	public long getExecutionTime()
+	{
+		return endTime == 0 ? 0 : endTime - startTime - suspendedTime;
+	}
+
+	/**
+	 * @return the time (in nanoseconds) this event was suspended.
+	 */
+	public long getSuspendedTime()
+	{
+		return suspendedTime;
+	}
+
 	/**
 	 * @return the executed
 	 */
@@ -21,15 +21,27 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+import org.sablo.metrics.IMetrics;
+import org.sablo.metrics.Metrics;
 import org.sablo.websocket.IWebsocketSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Runnable of the ScriptThread that executes {@link Event} objects.
+ * Runnable of the ScriptThread that executes {@link Event} objects.<br/><br/>
+ *
+ * Pending events are kept in one lock-free queue per event level, so threads that post events never block on the dispatcher. The dispatch
+ * thread (the only consumer) picks the oldest event of all the levels it is currently allowed to dispatch and parks when there is nothing to do.
  *
  * @author rgansevles
  *
@@ -58,6 +70,73 @@ public class EventDispatcher implements Runnable, IEventDispatcher
 		CONFIGURED_TIMEOUT = timeout;
 	}
 
+	/**
+	 * Events that take longer than this number of milliseconds (waiting in the queue and executing, without the time they were suspended)
+	 * are logged, counted in the metrics and kept in the list of {@link #getSlowEvents()}. Can be set via system property sablo.eventthread.slowEventThreshold;
+	 * 0 (the default) disables this.
+	 */
+	public static final String PROPERTY_SLOW_EVENT_THRESHOLD = "sablo.eventthread.slowEventThreshold";
+	public static final long DEFAULT_SLOW_EVENT_THRESHOLD = 0;
+
+	/**
+	 * The number of slow events that is kept per dispatcher. Can be set via system property sablo.eventthread.slowEventHistory.
+	 */
+	public static final String PROPERTY_SLOW_EVENT_HISTORY = "sablo.eventthread.slowEventHistory";
+	public static final int DEFAULT_SLOW_EVENT_HISTORY = 20;
+
+	private static final long SLOW_EVENT_THRESHOLD;
+	private static final int SLOW_EVENT_HISTORY;
+	static
+	{
+		long threshold;
+		try
+		{
+			threshold = Long.parseLong(System.getProperty(PROPERTY_SLOW_EVENT_THRESHOLD, String.valueOf(DEFAULT_SLOW_EVENT_THRESHOLD)));
+		}
+		catch (NumberFormatException e)
+		{
+			threshold = DEFAULT_SLOW_EVENT_THRESHOLD;
+			log.error("Please check system property values. '" + PROPERTY_SLOW_EVENT_THRESHOLD + "' is not a number.");
+		}
+		SLOW_EVENT_THRESHOLD = TimeUnit.MILLISECONDS.toNanos(threshold);
+
+		int history;
+		try
+		{
+			history = Integer.parseInt(System.getProperty(PROPERTY_SLOW_EVENT_HISTORY, String.valueOf(DEFAULT_SLOW_EVENT_HISTORY)));
+		}
+		catch (NumberFormatException e)
+		{
+			history = DEFAULT_SLOW_EVENT_HISTORY;
+			log.error("Please check system property values. '" + PROPERTY_SLOW_EVENT_HISTORY + "' is not a number.");
+		}
+		SLOW_EVENT_HISTORY = Math.max(history, 0);
+	}
+
+	/**
+	 * Maximum number of pending events per event level below {@link IEventDispatcher#EVENT_LEVEL_SYNC_API_CALL}; posting more events at such a level
+	 * throws an {@link EventQueueFullException}. Higher levels (responses of the browser that suspended events wait for) are not limited by default.
+	 * Can be set via system property sablo.eventthread.maxPendingEvents; 0 (the default) means no limit. See also {@link #setMaxPendingEvents(int, int)}.
+	 */
+	public static final String PROPERTY_MAX_PENDING_EVENTS = "sablo.eventthread.maxPendingEvents";
+	public static final int DEFAULT_MAX_PENDING_EVENTS = 0;
+
+	private static final int MAX_PENDING_EVENTS;
+	static
+	{
+		int max;
+		try
+		{
+			max = Integer.parseInt(System.getProperty(PROPERTY_MAX_PENDING_EVENTS, String.valueOf(DEFAULT_MAX_PENDING_EVENTS)));
+		}
+		catch (NumberFormatException e)
+		{
+			max = DEFAULT_MAX_PENDING_EVENTS;
+			log.error("Please check system property values. '" + PROPERTY_MAX_PENDING_EVENTS + "' is not a number.");
+		}
+		MAX_PENDING_EVENTS = max;
+	}
+
 	private final ConcurrentMap<Object, String> suspendedEvents = new ConcurrentHashMap<Object, String>();
 	/**
 	 * When this is a value in {@link #suspendedEvents} above it's a normal suspend mode. When the value in {@link #suspendedEvents} is another String
@@ -65,9 +144,19 @@ public class EventDispatcher implements Runnable, IEventDispatcher
 	 */
 	private static final String SUSPENDED_NOT_CANCELED = "_.,,._"; //$NON-NLS-1$
 
-	private final List<Event> events = new ArrayList<Event>();
+	/**
+	 * Pending events by event level. Only a few distinct event levels are used in practice, so looking at the head of each eligible level is cheap.
+	 */
+	private final ConcurrentNavigableMap<Integer, EventQueue> eventQueues = new ConcurrentSkipListMap<Integer, EventQueue>();
+	private final ConcurrentMap<Integer, Integer> maxPendingEventsByLevel = new ConcurrentHashMap<Integer, Integer>();
+	private final AtomicLong eventSequence = new AtomicLong();
+	private final AtomicInteger pendingEvents = new AtomicInteger();
 	private final LinkedList<Event> stack = new LinkedList<Event>();
 
+	// ring buffer of the last slow events, created when the first one happens
+	private SlowEvent[] slowEvents;
+	private int slowEventCount;
+
 	private volatile boolean exit = false;
 
 	private volatile Thread scriptThread = null;
@@ -94,52 +183,114 @@ public class EventDispatcher implements Runnable, IEventDispatcher
 	{
 		currentMinEventLevel = minEventLevelToDispatch;
 
-		int i;
 		try
 		{
 			Event event = null;
-			synchronized (events)
+			long remainingMillis = 123456; // dummy value just to compile
+			while (!exit && (event = pollEvent(minEventLevelToDispatch)) == null &&
+				(endMillis == NO_TIMEOUT || (remainingMillis = endMillis - System.currentTimeMillis()) > 0))
 			{
-				long remainingMillis = 123456; // dummy value just to compile
-				while (!exit && event == null && (endMillis == NO_TIMEOUT || (remainingMillis = endMillis - System.currentTimeMillis()) > 0))
-				{
-					i = 0;
-					while (event == null && i < events.size())
-					{
-						event = events.get(i);
-						if (event.getEventLevel() < minEventLevelToDispatch) event = null;
-						else events.remove(i);
-
-						i++;
-					}
-					if (event == null)
-					{
-						events.wait(endMillis == NO_TIMEOUT ? 0 : remainingMillis);
-					}
-				}
+				// posting threads unpark this thread when they add an event; if they did that already since the poll above, park returns immediately
+				if (endMillis == NO_TIMEOUT) LockSupport.park(this);
+				else LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(remainingMillis));
+				if (Thread.interrupted()) throw new InterruptedException();
 			}
 
 			if (event != null)
 			{
-				stack.add(event);
-				event.execute();
-				if (stack.getLast() != event)
+				executeEvent(event);
+			}
+		}
+		catch (Throwable t)
+		{
+			log.error("Exception in dispatch()", t);
+		}
+	}
+
+	private void executeEvent(Event event) throws Exception
+	{
+		stack.add(event);
+		event.execute();
+		eventExecuted(event);
+		if (stack.getLast() != event)
+		{
+			throw new Exception("State not expected");
+		}
+		stack.remove(event);
+	}
+
+	/**
+	 * Dispatches (on the current thread) the events that are pending and returns as soon as there are no more events to dispatch.
+	 * This is meant for dispatchers that don't have a dedicated thread (see {@link SharedPoolEventDispatcher}); only one thread may call this at a time.
+	 */
+	protected void dispatchPendingEvents()
+	{
+		scriptThread = Thread.currentThread();
+		try
+		{
+			Event event;
+			while (!exit && (event = pollEvent(EVENT_LEVEL_DEFAULT)) != null)
+			{
+				try
 				{
-					throw new Exception("State not expected");
+					executeEvent(event);
 				}
-				stack.remove(event);
-				synchronized (events)
+				catch (Throwable t)
 				{
-					events.notifyAll();
+					log.error("Exception in dispatchPendingEvents()", t);
 				}
 			}
 		}
-		catch (Throwable t)
+		finally
 		{
-			log.error("Exception in dispatch()", t);
+			scriptThread = null;
 		}
 	}
 
+	/**
+	 * @return true if there are events waiting to be dispatched that have an event level >= minEventLevelToDispatch.
+	 */
+	protected boolean hasPendingEvents(int minEventLevelToDispatch)
+	{
+		for (EventQueue queue : eventQueues.tailMap(Integer.valueOf(minEventLevelToDispatch)).values())
+		{
+			if (!queue.isEmpty()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if {@link #destroy()} was called.
+	 */
+	protected boolean isDestroyed()
+	{
+		return exit;
+	}
+
+	/**
+	 * Removes and returns the oldest pending event that has an event level >= minEventLevelToDispatch. Must only be called by the dispatch thread.
+	 */
+	private Event pollEvent(int minEventLevelToDispatch)
+	{
+		QueuedEvent oldest = null;
+		EventQueue oldestQueue = null;
+		for (EventQueue queue : eventQueues.tailMap(Integer.valueOf(minEventLevelToDispatch)).values())
+		{
+			QueuedEvent head = queue.peek();
+			if (head != null && (oldest == null || head.sequence < oldest.sequence))
+			{
+				oldest = head;
+				oldestQueue = queue;
+			}
+		}
+		if (oldest == null) return null;
+
+		oldestQueue.poll(); // this is the only consumer, so it will remove "oldest"
+		oldestQueue.size.decrementAndGet();
+		pendingEvents.decrementAndGet();
+		return oldest.event;
+	}
+
 	@Override
 	public boolean isEventDispatchThread()
 	{
@@ -159,7 +310,9 @@ public class EventDispatcher implements Runnable, IEventDispatcher
 		if (isEventDispatchThread() && currentMinEventLevel <= eventLevel)
 		{
 			// we can execute it right away
-			createEvent(event, eventLevel).execute();
+			Event e = createEvent(event, eventLevel);
+			e.execute();
+			eventExecuted(e);
 		}
 		else
 		{
@@ -167,30 +320,134 @@ public class EventDispatcher implements Runnable, IEventDispatcher
 		}
 	}
 
+	/**
+	 * Reports the timings of an event that was executed to the metrics and checks if it was slow.
+	 */
+	private void eventExecuted(Event event)
+	{
+		IMetrics metrics = Metrics.get();
+		if (Metrics.isEnabled())
+		{
+			metrics.record(Metrics.EVENT_QUEUE_TIME, null, event.getQueueTime());
+			metrics.record(Metrics.EVENT_EXECUTION_TIME, null, event.getExecutionTime());
+		}
+
+		if (SLOW_EVENT_THRESHOLD > 0 && event.getQueueTime() + event.getExecutionTime() >= SLOW_EVENT_THRESHOLD)
+		{
+			SlowEvent slowEvent = new SlowEvent(event);
+			log.warn("Slow event in session " + (session != null ? session.getUuid() : null) + ": " + slowEvent);
+			metrics.increment(Metrics.SLOW_EVENTS, slowEvent.getLabel(), 1);
+			if (SLOW_EVENT_HISTORY > 0)
+			{
+				synchronized (this)
+				{
+					if (slowEvents == null) slowEvents = new SlowEvent[SLOW_EVENT_HISTORY];
+					slowEvents[slowEventCount % slowEvents.length] = slowEvent;
+					slowEventCount++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the most recent events that took longer than {@link #PROPERTY_SLOW_EVENT_THRESHOLD}, oldest first.
+	 */
+	public synchronized List<SlowEvent> getSlowEvents()
+	{
+		List<SlowEvent> list = new ArrayList<SlowEvent>();
+		if (slowEvents != null)
+		{
+			for (int i = Math.max(0, slowEventCount - slowEvents.length); i < slowEventCount; i++)
+			{
+				list.add(slowEvents[i % slowEvents.length]);
+			}
+		}
+		return list;
+	}
+
 	public void postEvent(Runnable event)
 	{
 		postEvent(event, IEventDispatcher.EVENT_LEVEL_DEFAULT);
 	}
 
+	/**
+	 * @throws EventQueueFullException when the maximum number of pending events for the event level is reached.
+	 */
 	private void postEvent(Runnable event, int eventLevel)
 	{
-		synchronized (events)
+		Event e = createEvent(event, eventLevel);
+		EventQueue queue = getEventQueue(eventLevel);
+		int max = getMaxPendingEvents(eventLevel);
+		// reserve the place before checking, so threads that post at the same time can't get past the limit together
+		int size = queue.size.incrementAndGet();
+		if (max > 0 && size > max)
 		{
-			events.add(createEvent(event, eventLevel));
-			events.notifyAll();
-			// non-blocking
-//			while (!(event.isExecuted() || event.isSuspended() || event.isExecutingInBackground()))
-//			{
-//				try
-//				{
-//					events.wait();
-//				}
-//				catch (InterruptedException e)
-//				{
-//					Debug.error(e);
-//				}
-//			}
+			queue.size.decrementAndGet();
+			throw new EventQueueFullException("Too many pending events (" + max + ") at event level " + eventLevel + " in session " +
+				(session != null ? session.getUuid() : null), eventLevel);
 		}
+		enqueue(queue, e);
+	}
+
+	private EventQueue getEventQueue(int eventLevel)
+	{
+		Integer level = Integer.valueOf(eventLevel);
+		EventQueue queue = eventQueues.get(level);
+		if (queue == null)
+		{
+			EventQueue newQueue = new EventQueue();
+			queue = eventQueues.putIfAbsent(level, newQueue);
+			if (queue == null) queue = newQueue;
+		}
+		return queue;
+	}
+
+	/**
+	 * Adds the event to the queue; the caller must already have incremented the size of the queue.
+	 */
+	private void enqueue(EventQueue queue, Event event)
+	{
+		queue.offer(new QueuedEvent(eventSequence.getAndIncrement(), event));
+		Metrics.get().record(Metrics.EVENT_QUEUE_DEPTH, null, pendingEvents.incrementAndGet());
+		eventPosted();
+	}
+
+	/**
+	 * @return the number of events that are waiting to be dispatched.
+	 */
+	public int getPendingEventCount()
+	{
+		return pendingEvents.get();
+	}
+
+	/**
+	 * Sets the maximum number of events of the given event level that can be pending in this dispatcher; 0 means no limit.
+	 * If not set, {@link #PROPERTY_MAX_PENDING_EVENTS} applies to levels below {@link IEventDispatcher#EVENT_LEVEL_SYNC_API_CALL}.
+	 */
+	public void setMaxPendingEvents(int eventLevel, int max)
+	{
+		maxPendingEventsByLevel.put(Integer.valueOf(eventLevel), Integer.valueOf(max));
+	}
+
+	public int getMaxPendingEvents(int eventLevel)
+	{
+		Integer max = maxPendingEventsByLevel.get(Integer.valueOf(eventLevel));
+		if (max != null) return max.intValue();
+		return eventLevel < EVENT_LEVEL_SYNC_API_CALL ? MAX_PENDING_EVENTS : 0;
+	}
+
+	/**
+	 * Called after an event was added to the queue of pending events; it can be called from any thread.
+	 */
+	protected void eventPosted()
+	{
+		wakeUpDispatchThread();
+	}
+
+	private void wakeUpDispatchThread()
+	{
+		Thread t = scriptThread;
+		if (t != null) LockSupport.unpark(t);
 	}
 
 	protected Event createEvent(Runnable event, int eventLevel)
@@ -218,16 +475,13 @@ public class EventDispatcher implements Runnable, IEventDispatcher
 		{
 			suspendedEvents.put(suspendID, SUSPENDED_NOT_CANCELED);
 			event.willSuspend();
-			synchronized (events)
-			{
-				events.notifyAll();
-			}
 
 			// if we were already dispatching in a higher currentMinEventLevel, use that one instead of "minEventLevelToDispatch"
 			int dispatchEventLevel = Math.max(minEventLevelToDispatch, currentMinEventLevel);
 
 			String suspendedEventsValue;
 			int oldMinEventLevel = currentMinEventLevel;
+			long suspendStart = System.nanoTime();
 			try
 			{
 				while ((suspendedEventsValue = suspendedEvents.get(suspendID)) == SUSPENDED_NOT_CANCELED && !exit &&
@@ -239,6 +493,7 @@ public class EventDispatcher implements Runnable, IEventDispatcher
 			finally
 			{
 				currentMinEventLevel = oldMinEventLevel;
+				Metrics.get().record(Metrics.SUSPEND_TIME, null, System.nanoTime() - suspendStart);
 			}
 
 			event.willResume();
@@ -256,6 +511,7 @@ public class EventDispatcher implements Runnable, IEventDispatcher
 	public void resume(Object eventKey)
 	{
 		suspendedEvents.remove(eventKey);
+		wakeUpDispatchThread();
 	}
 
 	@Override
@@ -265,17 +521,16 @@ public class EventDispatcher implements Runnable, IEventDispatcher
 		{
 			if (cancelReason == null) cancelReason = "unspecified."; // our map can't handle null values
 			suspendedEvents.put(suspendID, "(" + suspendID + ") " + cancelReason);
+			wakeUpDispatchThread();
 		}
 	}
 
 	private void addEmptyEvent()
 	{
-		synchronized (events)
-		{
-			// add a nop event so that the dispatcher is triggered.
-			events.add(new Event(session, null, EVENT_LEVEL_DEFAULT));
-			events.notifyAll();
-		}
+		// add a nop event so that the dispatcher is triggered.
+		EventQueue queue = getEventQueue(EVENT_LEVEL_DEFAULT);
+		queue.size.incrementAndGet(); // never rejected
+		enqueue(queue, new Event(session, null, EVENT_LEVEL_DEFAULT));
 	}
 
 	public void destroy()
@@ -284,4 +539,24 @@ public class EventDispatcher implements Runnable, IEventDispatcher
 		addEmptyEvent();
 	}
 
+	/**
+	 * Pending events of one event level; keeps it's own size as {@link ConcurrentLinkedQueue#size()} has to walk the whole queue.
+	 */
+	private static final class EventQueue extends ConcurrentLinkedQueue<QueuedEvent>
+	{
+		private final AtomicInteger size = new AtomicInteger();
+	}
+
+	private static final class QueuedEvent
+	{
+		private final long sequence;
+		private final Event event;
+
+		private QueuedEvent(long sequence, Event event)
+		{
+			this.sequence = sequence;
+			this.event = event;
+		}
+	}
+
 }
\ No newline at end of file
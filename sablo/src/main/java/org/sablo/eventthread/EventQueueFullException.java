@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.eventthread;
+
+/**
+ * Thrown when an event is posted to an {@link EventDispatcher} that already has the maximum number of pending events for the event's level
+ * (see {@link EventDispatcher#setMaxPendingEvents(int, int)}). The event was not queued.
+ */
+public class EventQueueFullException extends RuntimeException
+{
+	private final int eventLevel;
+
+	public EventQueueFullException(String message, int eventLevel)
+	{
+		super(message);
+		this.eventLevel = eventLevel;
+	}
+
+	/**
+	 * @return the event level of the event that was rejected.
+	 */
+	public int getEventLevel()
+	{
+		return eventLevel;
+	}
+}
@@ -68,6 +68,7 @@ public interface IEventDispatcher extends Runnable
 	 *
 	 * @param event the event to be handled on the event dispatch thread.
 	 * @param eventLevel see description of minEventLevelToDispatch in {@link #suspend(Object, int)}.
+	 * @throws EventQueueFullException if the dispatcher limits the number of pending events and that limit was reached.
 	 */
 	void addEvent(Runnable event, int eventLevel);
 
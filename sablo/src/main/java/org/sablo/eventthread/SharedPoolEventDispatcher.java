@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.eventthread;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sablo.websocket.IWebsocketSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link EventDispatcher} that doesn't keep a dedicated thread for it's session. Whenever events are posted it schedules a task on an {@link Executor}
+ * that dispatches all pending events and then gives the thread back, so idle sessions don't hold on to a thread.<br/><br/>
+ *
+ * Events of one session are still dispatched one at a time and in order. A suspended event (see {@link #suspend(Object, int, long)}) keeps using
+ * the thread it runs on (dispatching nested events on it) until it is resumed, so a bounded executor should be large enough for the number of sessions
+ * that are expected to wait for the browser at the same time. Executors that create cheap threads (for example virtual threads on newer JVMs) can be used as well.
+ *
+ * @see org.sablo.websocket.BaseWebsocketSession#setEventDispatcherExecutor(Executor)
+ */
+public class SharedPoolEventDispatcher extends EventDispatcher
+{
+	private static final Logger log = LoggerFactory.getLogger(SharedPoolEventDispatcher.class.getCanonicalName());
+
+	/**
+	 * Maximum number of threads in the executor returned by {@link #getSharedExecutor()}. Can be set via system property sablo.eventthread.pool.maxThreads.
+	 */
+	public static final String PROPERTY_MAX_POOL_THREADS = "sablo.eventthread.pool.maxThreads";
+	public static final int DEFAULT_MAX_POOL_THREADS = 256;
+
+	private static volatile ThreadPoolExecutor sharedExecutor;
+
+	private final Executor executor;
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	private final Runnable dispatchTask = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			try
+			{
+				dispatchPendingEvents();
+			}
+			finally
+			{
+				scheduled.set(false);
+				// an event might have been posted after the last check for pending events but before the flag was cleared
+				if (!isDestroyed() && hasPendingEvents(EVENT_LEVEL_DEFAULT)) scheduleDispatch();
+			}
+		}
+	};
+
+	public SharedPoolEventDispatcher(IWebsocketSession session, Executor executor)
+	{
+		super(session);
+		this.executor = executor;
+	}
+
+	/**
+	 * This dispatcher should not be given a thread of it's own; if it still happens, this dispatches what is currently pending.
+	 */
+	@Override
+	public void run()
+	{
+		if (scheduled.compareAndSet(false, true)) dispatchTask.run();
+	}
+
+	@Override
+	protected void eventPosted()
+	{
+		super.eventPosted();
+		scheduleDispatch();
+	}
+
+	private void scheduleDispatch()
+	{
+		if (scheduled.compareAndSet(false, true))
+		{
+			try
+			{
+				executor.execute(dispatchTask);
+			}
+			catch (RejectedExecutionException e)
+			{
+				scheduled.set(false);
+				log.error("Cannot schedule event dispatching on executor " + executor, e);
+			}
+		}
+	}
+
+	/**
+	 * @return a lazily created executor that can be shared by all sessions. It uses at most {@link #PROPERTY_MAX_POOL_THREADS} daemon threads
+	 * that are stopped after being idle for a minute.
+	 */
+	public static Executor getSharedExecutor()
+	{
+		if (sharedExecutor == null)
+		{
+			synchronized (SharedPoolEventDispatcher.class)
+			{
+				if (sharedExecutor == null)
+				{
+					int maxThreads;
+					try
+					{
+						maxThreads = Integer.parseInt(System.getProperty(PROPERTY_MAX_POOL_THREADS, String.valueOf(DEFAULT_MAX_POOL_THREADS)));
+					}
+					catch (NumberFormatException e)
+					{
+						maxThreads = DEFAULT_MAX_POOL_THREADS;
+						log.error("Please check system property values. '" + PROPERTY_MAX_POOL_THREADS + "' is not a number.");
+					}
+
+					ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+						new ThreadFactory()
+						{
+							private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+							@Override
+							public Thread newThread(Runnable r)
+							{
+								Thread thread = new Thread(r, "Executor,pool-" + threadNumber.getAndIncrement());
+								thread.setDaemon(true);
+								return thread;
+							}
+						});
+					pool.allowCoreThreadTimeOut(true);
+					sharedExecutor = pool;
+				}
+			}
+		}
+		return sharedExecutor;
+	}
+
+}
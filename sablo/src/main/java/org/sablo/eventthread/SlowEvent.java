@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.eventthread;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Information about an {@link Event} that took longer than the slow event threshold of it's {@link EventDispatcher}; see {@link EventDispatcher#getSlowEvents()}.
+ */
+public class SlowEvent
+{
+	private final String label;
+	private final long time;
+	private final long queueTime;
+	private final long executionTime;
+	private final long suspendedTime;
+
+	SlowEvent(Event event)
+	{
+		this.label = event.getLabel();
+		this.time = System.currentTimeMillis();
+		this.queueTime = event.getQueueTime();
+		this.executionTime = event.getExecutionTime();
+		this.suspendedTime = event.getSuspendedTime();
+	}
+
+	/**
+	 * @return what the event did, see {@link Event#getLabel()}.
+	 */
+	public String getLabel()
+	{
+		return label;
+	}
+
+	/**
+	 * @return the time (in milliseconds since the epoch) at which the event ended.
+	 */
+	public long getTime()
+	{
+		return time;
+	}
+
+	/**
+	 * @return the time (in nanoseconds) the event waited in the queue before it was executed.
+	 */
+	public long getQueueTime()
+	{
+		return queueTime;
+	}
+
+	/**
+	 * @return the time (in nanoseconds) it took to execute the event, without the time it was suspended.
+	 */
+	public long getExecutionTime()
+	{
+		return executionTime;
+	}
+
+	/**
+	 * @return the time (in nanoseconds) the event was suspended, for example while waiting for the browser.
+	 */
+	public long getSuspendedTime()
+	{
+		return suspendedTime;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "SlowEvent [" + label + ", waited " + TimeUnit.NANOSECONDS.toMillis(queueTime) + "ms, executed in " +
+			TimeUnit.NANOSECONDS.toMillis(executionTime) + "ms, suspended " + TimeUnit.NANOSECONDS.toMillis(suspendedTime) + "ms]";
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.metrics;
+
+/**
+ * Receives the measurements that sablo makes of websocket traffic, event dispatching and sending of changes.<br/><br/>
+ *
+ * Every measurement has a name (see the constants in {@link Metrics}) and a key that tells what it is about, for example the endpoint type
+ * or "service.method"; the key can be null. Implementations are called from many threads at the same time, often while handling a message,
+ * so they must be thread-safe and cheap. Some keys are taken from browser messages, so implementations that keep values per key should
+ * limit the number of keys they keep. Keys that are no longer used, like the ones of sessions that are gone, are removed via {@link #remove(String, String)}.
+ *
+ * @see Metrics#set(IMetrics)
+ */
+public interface IMetrics
+{
+	/**
+	 * Adds the given amount to a counter.
+	 */
+	void increment(String name, String key, long amount);
+
+	/**
+	 * Records one value in the distribution of a histogram (a duration in nanoseconds, a size, ...).
+	 */
+	void record(String name, String key, long value);
+
+	/**
+	 * Sets the current value of a gauge.
+	 */
+	void gauge(String name, String key, long value);
+
+	/**
+	 * Forgets the counter, histogram or gauge of the given key.
+	 */
+	void remove(String name, String key);
+}
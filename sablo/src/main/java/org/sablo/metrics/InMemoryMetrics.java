@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link IMetrics} that keeps all measurements in memory. Counters and gauges keep one value; histograms keep the count, sum, min and max
+ * of the recorded values and a count per power of 2, which is enough to estimate percentiles.<br/><br/>
+ *
+ * Recording only does a map lookup and a few atomic updates. The measurements can be read via the getters or via JMX, see {@link #registerMBean(String)}.
+ * Some keys come from browser messages (for example service method names), so the number of keys per name is limited; values for keys beyond
+ * that limit are kept under {@link #OTHER_KEY}.
+ */
+@SuppressWarnings("nls")
+public class InMemoryMetrics implements IMetrics
+{
+	private static final Logger log = LoggerFactory.getLogger(InMemoryMetrics.class.getCanonicalName());
+
+	public static final String DEFAULT_OBJECT_NAME = "org.sablo:type=Metrics";
+
+	/**
+	 * Used instead of a null key.
+	 */
+	public static final String NO_KEY = "";
+
+	/**
+	 * Used for the values of new keys once a counter, gauge or histogram has {@link #PROPERTY_MAX_KEYS} keys.
+	 */
+	public static final String OTHER_KEY = "other";
+
+	/**
+	 * Maximum number of keys per counter, gauge or histogram. Can be set via system property sablo.metrics.maxKeys.
+	 */
+	public static final String PROPERTY_MAX_KEYS = "sablo.metrics.maxKeys";
+	public static final int DEFAULT_MAX_KEYS = 200;
+
+	private static final String[] HISTOGRAM_STATISTICS = new String[] { "count", "mean", "min", "max", "p50", "p90", "p99" };
+
+	private final ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> counters = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> gauges = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, ConcurrentMap<String, Histogram>> histograms = new ConcurrentHashMap<>();
+	private final int maxKeys;
+
+	public InMemoryMetrics()
+	{
+		this(getConfiguredMaxKeys());
+	}
+
+	/**
+	 * @param maxKeys the maximum number of keys per counter, gauge or histogram (besides {@link #OTHER_KEY}).
+	 */
+	public InMemoryMetrics(int maxKeys)
+	{
+		this.maxKeys = maxKeys;
+	}
+
+	private static int getConfiguredMaxKeys()
+	{
+		try
+		{
+			return Integer.parseInt(System.getProperty(PROPERTY_MAX_KEYS, String.valueOf(DEFAULT_MAX_KEYS)));
+		}
+		catch (NumberFormatException e)
+		{
+			log.error("Please check system property values. '" + PROPERTY_MAX_KEYS + "' is not a number.");
+			return DEFAULT_MAX_KEYS;
+		}
+	}
+
+	@Override
+	public void increment(String name, String key, long amount)
+	{
+		getValue(counters, name, key).addAndGet(amount);
+	}
+
+	@Override
+	public void gauge(String name, String key, long value)
+	{
+		getValue(gauges, name, key).set(value);
+	}
+
+	@Override
+	public void record(String name, String key, long value)
+	{
+		ConcurrentMap<String, Histogram> byKey = getByKey(histograms, name);
+		String k = getKey(byKey, key);
+		Histogram histogram = byKey.get(k);
+		if (histogram == null)
+		{
+			histogram = new Histogram();
+			Histogram existing = byKey.putIfAbsent(k, histogram);
+			if (existing != null) histogram = existing;
+		}
+		histogram.record(value);
+	}
+
+	@Override
+	public void remove(String name, String key)
+	{
+		String k = key != null ? key : NO_KEY;
+		Map<String, ? > byKey = counters.get(name);
+		if (byKey != null) byKey.remove(k);
+		byKey = gauges.get(name);
+		if (byKey != null) byKey.remove(k);
+		byKey = histograms.get(name);
+		if (byKey != null) byKey.remove(k);
+	}
+
+	private AtomicLong getValue(ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> values, String name, String key)
+	{
+		ConcurrentMap<String, AtomicLong> byKey = getByKey(values, name);
+		String k = getKey(byKey, key);
+		AtomicLong value = byKey.get(k);
+		if (value == null)
+		{
+			value = new AtomicLong();
+			AtomicLong existing = byKey.putIfAbsent(k, value);
+			if (existing != null) value = existing;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the key to keep a value under; {@link #OTHER_KEY} for a new key if there are too many keys already.
+	 * Threads that add keys at the same time can go a few keys over the limit.
+	 */
+	private String getKey(Map<String, ? > byKey, String key)
+	{
+		String k = key != null ? key : NO_KEY;
+		if (byKey.size() >= maxKeys && !byKey.containsKey(k)) return OTHER_KEY;
+		return k;
+	}
+
+	private static <T> ConcurrentMap<String, T> getByKey(ConcurrentMap<String, ConcurrentMap<String, T>> values, String name)
+	{
+		ConcurrentMap<String, T> byKey = values.get(name);
+		if (byKey == null)
+		{
+			byKey = new ConcurrentHashMap<>();
+			ConcurrentMap<String, T> existing = values.putIfAbsent(name, byKey);
+			if (existing != null) byKey = existing;
+		}
+		return byKey;
+	}
+
+	/**
+	 * @return the value of the counter or 0 if nothing was counted yet.
+	 */
+	public long getCounter(String name, String key)
+	{
+		return getCurrentValue(counters, name, key);
+	}
+
+	/**
+	 * @return the last value of the gauge or 0 if it was never set.
+	 */
+	public long getGauge(String name, String key)
+	{
+		return getCurrentValue(gauges, name, key);
+	}
+
+	private static long getCurrentValue(ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> values, String name, String key)
+	{
+		Map<String, AtomicLong> byKey = values.get(name);
+		AtomicLong value = byKey != null ? byKey.get(key != null ? key : NO_KEY) : null;
+		return value != null ? value.get() : 0;
+	}
+
+	/**
+	 * @return the histogram or null if no values were recorded for it.
+	 */
+	public Histogram getHistogram(String name, String key)
+	{
+		Map<String, Histogram> byKey = histograms.get(name);
+		return byKey != null ? byKey.get(key != null ? key : NO_KEY) : null;
+	}
+
+	/**
+	 * @return the keys for which the given counter, gauge or histogram has values.
+	 */
+	public Set<String> getKeys(String name)
+	{
+		Map<String, ? > byKey = counters.get(name);
+		if (byKey == null) byKey = gauges.get(name);
+		if (byKey == null) byKey = histograms.get(name);
+		return byKey != null ? Collections.unmodifiableSet(byKey.keySet()) : Collections.<String> emptySet();
+	}
+
+	/**
+	 * Forgets all measurements.
+	 */
+	public void reset()
+	{
+		counters.clear();
+		gauges.clear();
+		histograms.clear();
+	}
+
+	/**
+	 * Makes the measurements available as attributes of an MBean in the platform MBean server. Counters and gauges are called "name[key]",
+	 * histograms have "name[key].count", ".mean", ".min", ".max", ".p50", ".p90" and ".p99" attributes.
+	 *
+	 * @return true if the MBean was registered.
+	 */
+	public boolean registerMBean(String objectName)
+	{
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName(objectName));
+			return true;
+		}
+		catch (Exception e)
+		{
+			log.error("Could not register metrics MBean " + objectName, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Distribution of recorded values.
+	 */
+	public static class Histogram
+	{
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+		private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+		// bucket i counts values v with 2^(i-1) <= v < 2^i; bucket 0 counts values <= 0
+		private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+		void record(long value)
+		{
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			long current;
+			while (value < (current = min.get()) && !min.compareAndSet(current, value))
+			{
+				// retry
+			}
+			while (value > (current = max.get()) && !max.compareAndSet(current, value))
+			{
+				// retry
+			}
+			buckets.incrementAndGet(value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value));
+		}
+
+		public long getCount()
+		{
+			return count.get();
+		}
+
+		public long getSum()
+		{
+			return sum.get();
+		}
+
+		public long getMin()
+		{
+			return count.get() == 0 ? 0 : min.get();
+		}
+
+		public long getMax()
+		{
+			return count.get() == 0 ? 0 : max.get();
+		}
+
+		public long getMean()
+		{
+			long c = count.get();
+			return c == 0 ? 0 : sum.get() / c;
+		}
+
+		/**
+		 * @param percentile between 0 and 100.
+		 * @return an upper bound (the next power of 2, capped at the max) of the value below which the given percentage of the recorded values are.
+		 */
+		public long getPercentile(double percentile)
+		{
+			long total = 0;
+			for (int i = 0; i < buckets.length(); i++)
+			{
+				total += buckets.get(i);
+			}
+			if (total == 0) return 0;
+
+			long threshold = (long)Math.ceil(total * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); i++)
+			{
+				seen += buckets.get(i);
+				if (seen >= threshold && seen > 0)
+				{
+					if (i == 0) return 0;
+					long upperBound = i == 63 ? Long.MAX_VALUE : (1L << i) - 1;
+					return Math.min(upperBound, getMax());
+				}
+			}
+			return getMax();
+		}
+	}
+
+	private class MetricsMBean implements DynamicMBean
+	{
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException
+		{
+			int keyStart = attribute.indexOf('[');
+			int keyEnd = attribute.lastIndexOf(']');
+			if (keyStart < 0 || keyEnd < keyStart) throw new AttributeNotFoundException(attribute);
+
+			String name = attribute.substring(0, keyStart);
+			String key = attribute.substring(keyStart + 1, keyEnd);
+			if (keyEnd == attribute.length() - 1)
+			{
+				Map<String, AtomicLong> byKey = counters.get(name);
+				if (byKey == null) byKey = gauges.get(name);
+				AtomicLong value = byKey != null ? byKey.get(key) : null;
+				if (value == null) throw new AttributeNotFoundException(attribute);
+				return Long.valueOf(value.get());
+			}
+
+			Map<String, Histogram> byKey = histograms.get(name);
+			Histogram histogram = byKey != null ? byKey.get(key) : null;
+			if (histogram == null) throw new AttributeNotFoundException(attribute);
+			String statistic = attribute.substring(keyEnd + 1);
+			if (".count".equals(statistic)) return Long.valueOf(histogram.getCount());
+			if (".mean".equals(statistic)) return Long.valueOf(histogram.getMean());
+			if (".min".equals(statistic)) return Long.valueOf(histogram.getMin());
+			if (".max".equals(statistic)) return Long.valueOf(histogram.getMax());
+			if (".p50".equals(statistic)) return Long.valueOf(histogram.getPercentile(50));
+			if (".p90".equals(statistic)) return Long.valueOf(histogram.getPercentile(90));
+			if (".p99".equals(statistic)) return Long.valueOf(histogram.getPercentile(99));
+			throw new AttributeNotFoundException(attribute);
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+		{
+			throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes)
+		{
+			AttributeList list = new AttributeList();
+			for (String attribute : attributes)
+			{
+				try
+				{
+					list.add(new Attribute(attribute, getAttribute(attribute)));
+				}
+				catch (AttributeNotFoundException e)
+				{
+					// skip, it might have been reset
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes)
+		{
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException
+		{
+			if ("reset".equals(actionName))
+			{
+				reset();
+				return null;
+			}
+			throw new ReflectionException(new NoSuchMethodException(actionName));
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo()
+		{
+			List<MBeanAttributeInfo> attributes = new ArrayList<>();
+			addAttributes(attributes, counters, "Counter");
+			addAttributes(attributes, gauges, "Gauge");
+			for (Entry<String, ConcurrentMap<String, Histogram>> byKey : histograms.entrySet())
+			{
+				for (String key : byKey.getValue().keySet())
+				{
+					for (String statistic : HISTOGRAM_STATISTICS)
+					{
+						attributes.add(new MBeanAttributeInfo(byKey.getKey() + "[" + key + "]." + statistic, "long", "Histogram " + statistic, true, false,
+							false));
+					}
+				}
+			}
+			MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Forgets all measurements", null, "void", MBeanOperationInfo.ACTION);
+			return new MBeanInfo(InMemoryMetrics.class.getName(), "Sablo metrics", attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+				new MBeanOperationInfo[] { reset }, null);
+		}
+
+		private void addAttributes(List<MBeanAttributeInfo> attributes, ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> values, String description)
+		{
+			for (Entry<String, ConcurrentMap<String, AtomicLong>> byKey : values.entrySet())
+			{
+				for (String key : byKey.getValue().keySet())
+				{
+					attributes.add(new MBeanAttributeInfo(byKey.getKey() + "[" + key + "]", "long", description, true, false, false));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Gives access to the {@link IMetrics} that sablo reports it's measurements to. By default that is {@link NoOpMetrics}; system property
+ * {@link #PROPERTY_METRICS} can be set to "memory" to use {@link InMemoryMetrics} or to "jmx" to also make those available as MBean
+ * {@link InMemoryMetrics#DEFAULT_OBJECT_NAME}. Applications can install their own implementation via {@link #set(IMetrics)}.<br/><br/>
+ *
+ * Code that has to do extra work to make a measurement (build a key, read the clock) should check {@link #isEnabled()} first.<br/><br/>
+ *
+ * The SESSION_ measurements are kept per session; to keep the number of keys bounded only the first {@link #PROPERTY_MAX_SESSIONS} sessions
+ * get their own key, see {@link #getSessionKey(String)}.
+ */
+@SuppressWarnings("nls")
+public class Metrics
+{
+	private static final Logger log = LoggerFactory.getLogger(Metrics.class.getCanonicalName());
+
+	public static final String PROPERTY_METRICS = "sablo.metrics";
+
+	/**
+	 * Maximum number of sessions that are measured separately at the same time. Can be set via system property sablo.metrics.maxSessions.
+	 */
+	public static final String PROPERTY_MAX_SESSIONS = "sablo.metrics.maxSessions";
+	public static final int DEFAULT_MAX_SESSIONS = 100;
+
+	/**
+	 * Counter of the messages received from browsers, by endpoint type.
+	 */
+	public static final String MESSAGES_RECEIVED = "websocket.messages.received";
+	/**
+	 * Histogram of the size (in characters) of messages received from browsers, by endpoint type.
+	 */
+	public static final String RECEIVED_SIZE = "websocket.received.size";
+	/**
+	 * Counter of the messages sent to browsers, by endpoint type.
+	 */
+	public static final String MESSAGES_SENT = "websocket.messages.sent";
+	/**
+	 * Histogram of the size of messages sent to browsers, by endpoint type; characters for text messages and bytes for binary ones.
+	 */
+	public static final String SENT_SIZE = "websocket.sent.size";
+	/**
+	 * Counter of the data pushes of browsers that were merged into a previous push that was still pending, by endpoint type.
+	 */
+	public static final String COALESCED_DATA_PUSHES = "websocket.datapush.coalesced";
+	/**
+	 * Counter of the messages of browsers that could not be handled because the event queue of the session was full, by endpoint type.
+	 */
+	public static final String REJECTED_EVENTS = "websocket.events.rejected";
+	/**
+	 * Histogram of the time (in nanoseconds) it took to execute server side service methods called from the browser, by "service.method".
+	 * The method name is the one the browser sent, see {@link InMemoryMetrics#PROPERTY_MAX_KEYS}.
+	 */
+	public static final String SERVICE_CALL_TIME = "service.call.time";
+	/**
+	 * Histogram of the number of events in the queue of an event dispatcher right after an event was posted, including that event.
+	 */
+	public static final String EVENT_QUEUE_DEPTH = "eventthread.queue.depth";
+	/**
+	 * Histogram of the time (in nanoseconds) that events waited in the queue before being executed.
+	 */
+	public static final String EVENT_QUEUE_TIME = "eventthread.queue.time";
+	/**
+	 * Histogram of the time (in nanoseconds) it took to execute events, without the time they were suspended.
+	 */
+	public static final String EVENT_EXECUTION_TIME = "eventthread.execution.time";
+	/**
+	 * Counter of the events that were slower than the slow event threshold of the event dispatcher, by event label.
+	 */
+	public static final String SLOW_EVENTS = "eventthread.slow";
+	/**
+	 * Histogram of the time (in nanoseconds) that events were suspended, for example while waiting for the response of the browser.
+	 */
+	public static final String SUSPEND_TIME = "eventthread.suspend.time";
+	/**
+	 * Histogram of the time (in nanoseconds) it took to write and send the changes of a window, by endpoint type.
+	 */
+	public static final String SEND_CHANGES_TIME = "window.sendChanges.time";
+	/**
+	 * Counter of the times changes were reported outside of an event while batching of change pushes was enabled
+	 * (see {@link org.sablo.websocket.ChangesFlushScheduler}).
+	 */
+	public static final String REQUESTED_CHANGE_PUSHES = "changes.push.requested";
+	/**
+	 * Counter of the batched flushes of changes that were done; the difference with {@link #REQUESTED_CHANGE_PUSHES} is the number of saved messages.
+	 */
+	public static final String CHANGE_FLUSHES = "changes.flushes";
+	/**
+	 * Counter of reconnected browsers that got their missed messages instead of a full resync, by endpoint type.
+	 */
+	public static final String RESUMED_WINDOWS = "window.resumed";
+	/**
+	 * Histogram of the number of messages that were sent again to a reconnected browser, by endpoint type.
+	 */
+	public static final String REPLAYED_MESSAGES = "window.replayed.messages";
+	/**
+	 * Counter of reconnected browsers that asked to resume but needed a full resync, by endpoint type.
+	 */
+	public static final String FULL_RESYNCS = "window.resync";
+	/**
+	 * Counter of the messages received from the browser, by session.
+	 */
+	public static final String SESSION_MESSAGES_RECEIVED = "session.messages.received";
+	/**
+	 * Counter of the messages sent to the browser, by session.
+	 */
+	public static final String SESSION_MESSAGES_SENT = "session.messages.sent";
+	/**
+	 * Counter of the total size of the messages sent to the browser, by session; characters for text messages and bytes for binary ones.
+	 */
+	public static final String SESSION_SENT_SIZE = "session.sent.size";
+	/**
+	 * Gauge of the number of websocket sessions.
+	 */
+	public static final String SESSIONS = "sessions";
+	/**
+	 * Counter of the sessions expired by the {@link org.sablo.websocket.InactiveSessionReaper}.
+	 */
+	public static final String REAPED_SESSIONS = "sessions.reaped";
+	/**
+	 * Histogram of the time (in nanoseconds) a tick of the {@link org.sablo.websocket.InactiveSessionReaper} took.
+	 */
+	public static final String REAP_TIME = "sessions.reap.time";
+
+	private static final String[] SESSION_NAMES = new String[] { SESSION_MESSAGES_RECEIVED, SESSION_MESSAGES_SENT, SESSION_SENT_SIZE };
+
+	private static volatile IMetrics metrics = createConfiguredMetrics();
+
+	private static final int maxSessions = getConfiguredMaxSessions();
+	private static final ConcurrentMap<String, Boolean> sessionKeys = new ConcurrentHashMap<>();
+
+	private Metrics()
+	{
+	}
+
+	private static IMetrics createConfiguredMetrics()
+	{
+		String configured = System.getProperty(PROPERTY_METRICS, "none");
+		if ("memory".equals(configured)) return new InMemoryMetrics();
+		if ("jmx".equals(configured))
+		{
+			InMemoryMetrics inMemoryMetrics = new InMemoryMetrics();
+			inMemoryMetrics.registerMBean(InMemoryMetrics.DEFAULT_OBJECT_NAME);
+			return inMemoryMetrics;
+		}
+		if (!"none".equals(configured))
+		{
+			log.error("Please check system property values. '" + PROPERTY_METRICS + "' should be one of none, memory or jmx.");
+		}
+		return NoOpMetrics.INSTANCE;
+	}
+
+	private static int getConfiguredMaxSessions()
+	{
+		try
+		{
+			return Integer.parseInt(System.getProperty(PROPERTY_MAX_SESSIONS, String.valueOf(DEFAULT_MAX_SESSIONS)));
+		}
+		catch (NumberFormatException e)
+		{
+			log.error("Please check system property values. '" + PROPERTY_MAX_SESSIONS + "' is not a number.");
+			return DEFAULT_MAX_SESSIONS;
+		}
+	}
+
+	/**
+	 * @return the key for the SESSION_ measurements of the session with the given uuid: the uuid itself, or {@link InMemoryMetrics#OTHER_KEY}
+	 * if {@link #PROPERTY_MAX_SESSIONS} other sessions are measured already. Threads that add sessions at the same time can go a few sessions over the limit.
+	 */
+	public static String getSessionKey(String uuid)
+	{
+		if (sessionKeys.containsKey(uuid)) return uuid;
+		if (sessionKeys.size() >= maxSessions) return InMemoryMetrics.OTHER_KEY;
+		sessionKeys.putIfAbsent(uuid, Boolean.TRUE);
+		return uuid;
+	}
+
+	/**
+	 * Forgets the SESSION_ measurements of a session that is gone, so another session can be measured separately.
+	 */
+	public static void sessionRemoved(String uuid)
+	{
+		if (sessionKeys.remove(uuid) != null)
+		{
+			IMetrics m = metrics;
+			for (String name : SESSION_NAMES)
+			{
+				m.remove(name, uuid);
+			}
+		}
+	}
+
+	/**
+	 * @return the metrics to report to; never null.
+	 */
+	public static IMetrics get()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics to report to; null disables metrics.
+	 */
+	public static void set(IMetrics newMetrics)
+	{
+		metrics = newMetrics != null ? newMetrics : NoOpMetrics.INSTANCE;
+	}
+
+	/**
+	 * @return false if measurements are ignored anyway.
+	 */
+	public static boolean isEnabled()
+	{
+		return metrics != NoOpMetrics.INSTANCE;
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.metrics;
+
+/**
+ * {@link IMetrics} that ignores everything; used when metrics are not enabled.
+ */
+public final class NoOpMetrics implements IMetrics
+{
+	public static final NoOpMetrics INSTANCE = new NoOpMetrics();
+
+	private NoOpMetrics()
+	{
+	}
+
+	@Override
+	public void increment(String name, String key, long amount)
+	{
+	}
+
+	@Override
+	public void record(String name, String key, long value)
+	{
+	}
+
+	@Override
+	public void gauge(String name, String key, long value)
+	{
+	}
+
+	@Override
+	public void remove(String name, String key)
+	{
+	}
+}
@@ -20,6 +20,8 @@ import java.net.URL;
 import java.util.Map;
 import java.util.Set;
 
+import org.sablo.specification.NGPackage.IPackageReader;
+
 /**
  * @author lvostinar
  *
@@ -42,6 +44,15 @@ public abstract class BaseSpecProvider
 		return reader.getWebComponentSpecifications().keySet();
 	}
 
+	/**
+	 * Get the readers of all packages.
+	 * @return
+	 */
+	public IPackageReader[] getPackageReaders()
+	{
+		return reader.getPackageReaders();
+	}
+
 	/**
 	 * Get the map of names to package URLs.
 	 * @return
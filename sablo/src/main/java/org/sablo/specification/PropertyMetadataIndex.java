@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.specification;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sablo.specification.property.IPropertyType;
+import org.sablo.specification.property.types.EnabledPropertyType;
+import org.sablo.specification.property.types.ProtectedConfig;
+import org.sablo.specification.property.types.VisiblePropertyType;
+
+/**
+ * Index of the properties of a {@link WebObjectSpecification} that guard other properties (visibility, enabled and other protecting properties).<br/><br/>
+ *
+ * It is computed once from the properties of the specification, so that visibility and protection checks on web objects, that are done for each
+ * changed property that is sent to the browser and for each incoming change or event, are hashed lookups instead of iterating over all properties.
+ *
+ * @see WebObjectSpecification#getPropertyMetadataIndex()
+ */
+public class PropertyMetadataIndex
+{
+
+	/**
+	 * A property that can block access to the whole web object or to some of it's properties.
+	 */
+	public static class GuardProperty
+	{
+
+		private final String name;
+		private final String typeName;
+		private final Boolean blockingOn;
+
+		GuardProperty(String name, String typeName, boolean blockingOn)
+		{
+			this.name = name;
+			this.typeName = typeName;
+			this.blockingOn = Boolean.valueOf(blockingOn);
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public String getTypeName()
+		{
+			return typeName;
+		}
+
+		/**
+		 * @return the value of the guard property that blocks access.
+		 */
+		public Boolean getBlockingOn()
+		{
+			return blockingOn;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "GuardProperty[" + name + ", type: " + typeName + ", blockingOn: " + blockingOn + "]";
+		}
+
+	}
+
+	private final List<String> generalVisibilityProperties;
+	private final Map<String, List<String>> visibilityPropertiesFor;
+	private final List<String> enabledProperties;
+	private final List<GuardProperty> generalProtectingProperties;
+	private final Map<String, List<GuardProperty>> protectingPropertiesFor;
+
+	public PropertyMetadataIndex(Map<String, PropertyDescription> properties)
+	{
+		List<String> generalVisibilityProperties = new ArrayList<>(1);
+		Map<String, List<String>> visibilityPropertiesFor = new HashMap<>();
+		List<String> enabledProperties = new ArrayList<>(1);
+		List<GuardProperty> generalProtectingProperties = new ArrayList<>(2);
+		Map<String, List<GuardProperty>> protectingPropertiesFor = new HashMap<>();
+
+		for (PropertyDescription prop : properties.values())
+		{
+			IPropertyType< ? > type = prop.getType();
+			if (type == null) continue;
+
+			Collection<String> forEntries = getForEntries(prop);
+
+			if (VisiblePropertyType.class.isAssignableFrom(type.getClass()))
+			{
+				if (forEntries == null) generalVisibilityProperties.add(prop.getName());
+				else
+				{
+					for (String entry : forEntries)
+					{
+						addToList(visibilityPropertiesFor, entry, prop.getName());
+					}
+				}
+			}
+
+			if (EnabledPropertyType.class.isAssignableFrom(type.getClass()))
+			{
+				enabledProperties.add(prop.getName());
+			}
+
+			if (type.isProtecting())
+			{
+				// visible default true, so block on false by default
+				// protected default false, so block on true by default
+				boolean blockingOn = Boolean.FALSE.equals(type.defaultValue(prop));
+				if (prop.getConfig() instanceof ProtectedConfig)
+				{
+					blockingOn = ((ProtectedConfig)prop.getConfig()).getBlockingOn();
+				}
+
+				GuardProperty guard = new GuardProperty(prop.getName(), type.getName(), blockingOn);
+				if (forEntries == null) generalProtectingProperties.add(guard);
+				else
+				{
+					for (String entry : forEntries)
+					{
+						addToList(protectingPropertiesFor, entry, guard);
+					}
+				}
+			}
+		}
+
+		// the returned lists are used as they are, so make them read-only once
+		this.generalVisibilityProperties = Collections.unmodifiableList(generalVisibilityProperties);
+		this.visibilityPropertiesFor = unmodifiableLists(visibilityPropertiesFor);
+		this.enabledProperties = Collections.unmodifiableList(enabledProperties);
+		this.generalProtectingProperties = Collections.unmodifiableList(generalProtectingProperties);
+		this.protectingPropertiesFor = unmodifiableLists(protectingPropertiesFor);
+	}
+
+	/**
+	 * @return the for-entries of the property or null if it is not specific to some properties.
+	 */
+	private static Collection<String> getForEntries(PropertyDescription prop)
+	{
+		Object config = prop.getConfig();
+		if (config instanceof ProtectedConfig && ((ProtectedConfig)config).getForEntries() != null)
+		{
+			Collection<String> forEntries = ((ProtectedConfig)config).getForEntries().getEntries();
+			if (forEntries != null && forEntries.size() > 0) return forEntries;
+		}
+		return null;
+	}
+
+	private static <T> void addToList(Map<String, List<T>> map, String key, T value)
+	{
+		List<T> list = map.get(key);
+		if (list == null)
+		{
+			list = new ArrayList<>(1);
+			map.put(key, list);
+		}
+		list.add(value);
+	}
+
+	private static <T> Map<String, List<T>> unmodifiableLists(Map<String, List<T>> map)
+	{
+		for (Map.Entry<String, List<T>> entry : map.entrySet())
+		{
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+		return map;
+	}
+
+	/**
+	 * @return names of the visibility properties that apply to the whole web object.
+	 */
+	public List<String> getGeneralVisibilityProperties()
+	{
+		return generalVisibilityProperties;
+	}
+
+	/**
+	 * @return names of the visibility properties that only apply to the given property (they have it in their for-entries).
+	 */
+	public List<String> getVisibilityPropertiesFor(String propertyName)
+	{
+		List<String> list = visibilityPropertiesFor.get(propertyName);
+		return list == null ? Collections.<String> emptyList() : list;
+	}
+
+	/**
+	 * @return names of the enabled properties.
+	 */
+	public List<String> getEnabledProperties()
+	{
+		return enabledProperties;
+	}
+
+	/**
+	 * @return the protecting properties that apply to the whole web object.
+	 */
+	public List<GuardProperty> getGeneralProtectingProperties()
+	{
+		return generalProtectingProperties;
+	}
+
+	/**
+	 * @return the protecting properties that only apply to the given property (they have it in their for-entries).
+	 */
+	public List<GuardProperty> getProtectingPropertiesFor(String propertyName)
+	{
+		List<GuardProperty> list = protectingPropertiesFor.get(propertyName);
+		return list == null ? Collections.<GuardProperty> emptyList() : list;
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.specification;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns a fixed slot number to each property name declared in a {@link WebObjectSpecification}, so that property values of web objects
+ * can be stored in arrays instead of in hash maps.
+ *
+ * @see WebObjectSpecification#getPropertySlotLayout()
+ * @see org.sablo.util.SlottedPropertyMap
+ * @see org.sablo.util.SlottedPropertySet
+ */
+public class PropertySlotLayout
+{
+
+	private final Map<String, Integer> slots;
+	private final String[] names;
+
+	public PropertySlotLayout(Collection<String> propertyNames)
+	{
+		names = propertyNames.toArray(new String[propertyNames.size()]);
+		slots = new HashMap<>(names.length * 4 / 3 + 1);
+		for (int i = 0; i < names.length; i++)
+		{
+			slots.put(names[i], Integer.valueOf(i));
+		}
+	}
+
+	/**
+	 * @return the slot of the given property or -1 if it is not declared in the specification (for example nested or dynamically added properties).
+	 */
+	public int getSlot(Object propertyName)
+	{
+		Integer slot = slots.get(propertyName);
+		return slot == null ? -1 : slot.intValue();
+	}
+
+	public String getName(int slot)
+	{
+		return names[slot];
+	}
+
+	/**
+	 * @return the number of slots.
+	 */
+	public int size()
+	{
+		return names.length;
+	}
+
+}
@@ -108,6 +108,9 @@ public class WebObjectSpecification extends PropertyDescription
 
 	private final String preview;
 
+	private volatile PropertyMetadataIndex propertyMetadataIndex;
+	private volatile PropertySlotLayout propertySlotLayout;
+
 	public WebObjectSpecification(String name, String packageName, String displayName, String categoryName, String icon, String preview, String definition,
 		JSONArray libs)
 	{
@@ -238,6 +241,52 @@ public class WebObjectSpecification extends PropertyDescription
 		return libraries;
 	}
 
+	@Override
+	public PropertyDescription putProperty(String propname, PropertyDescription proptype)
+	{
+		super.putProperty(propname, proptype);
+		propertyMetadataIndex = null;
+		propertySlotLayout = null;
+		return this;
+	}
+
+	@Override
+	public void putAll(Map<String, PropertyDescription> map)
+	{
+		super.putAll(map);
+		propertyMetadataIndex = null;
+		propertySlotLayout = null;
+	}
+
+	/**
+	 * @return the index of the properties that guard (visibility, enabled, protecting) the other properties; it is recreated only when properties change.
+	 */
+	public PropertyMetadataIndex getPropertyMetadataIndex()
+	{
+		PropertyMetadataIndex index = propertyMetadataIndex;
+		if (index == null)
+		{
+			index = new PropertyMetadataIndex(getProperties());
+			propertyMetadataIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * @return the slots of the properties of this spec; web objects that are created after properties were added to the spec get a new layout,
+	 * existing web objects keep using the layout they were created with.
+	 */
+	public PropertySlotLayout getPropertySlotLayout()
+	{
+		PropertySlotLayout layout = propertySlotLayout;
+		if (layout == null)
+		{
+			layout = new PropertySlotLayout(getProperties().keySet());
+			propertySlotLayout = layout;
+		}
+		return layout;
+	}
+
 	private ParsedProperty parsePropertyString(final String propertyString)
 	{
 		String property = propertyString.replaceAll("\\s", "");
@@ -300,6 +349,8 @@ public class WebObjectSpecification extends PropertyDescription
 		// properties
 		spec.putAll(spec.parseProperties("model", json));
 		spec.putAllHandlers(spec.parseProperties("handlers", json));
+		spec.getPropertyMetadataIndex();
+		spec.getPropertySlotLayout();
 
 		// api
 		if (json.has("api"))
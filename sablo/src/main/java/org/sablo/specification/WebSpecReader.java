@@ -202,6 +202,15 @@ class WebSpecReader
 		return Collections.unmodifiableMap(cachedLayoutDescriptions);
 	}
 
+	/**
+	 * Get the readers of all packages.
+	 * @return
+	 */
+	public IPackageReader[] getPackageReaders()
+	{
+		return packageReaders.clone();
+	}
+
 	/**
 	 * Get the map of packages and package URLs.
 	 * @return
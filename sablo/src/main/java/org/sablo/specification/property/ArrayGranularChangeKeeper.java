@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.specification.property;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps an ordered log of the granular operations (element changes, inserts and deletes) that happened on a {@link ChangeAwareList}
+ * since it's changes were last sent to the browser.<br/><br/>
+ *
+ * Each operation is recorded using the indexes that were valid at the moment it happened, so the browser can apply them one after the other.
+ * Element values are only read from the list when the changes are written, so the index of an element at the time of an operation
+ * has to be translated into the index it has in the current list - see {@link #getFinalIndex(int, int)}.<br/><br/>
+ *
+ * Consecutive operations of the same kind are merged where possible (for example adding elements one by one at the end of the list or clearing
+ * the list result in a single operation).
+ */
+public class ArrayGranularChangeKeeper
+{
+
+	/**
+	 * If more operations than this are recorded, keeping them is no longer considered useful and the full array should be sent instead.
+	 */
+	public static final int MAX_OPERATIONS = 50;
+
+	private final List<ArrayOperation> operations = new ArrayList<>();
+
+	/**
+	 * One granular operation done on an array. Indexes are inclusive.
+	 */
+	public static class ArrayOperation
+	{
+
+		public static final int CHANGE = 0;
+		public static final int INSERT = 1;
+		public static final int DELETE = 2;
+
+		public final int type;
+		protected int startIndex;
+		protected int endIndex;
+
+		public ArrayOperation(int startIndex, int endIndex, int type)
+		{
+			this.startIndex = startIndex;
+			this.endIndex = endIndex;
+			this.type = type;
+		}
+
+		public int getStartIndex()
+		{
+			return startIndex;
+		}
+
+		public int getEndIndex()
+		{
+			return endIndex;
+		}
+
+		public int getLength()
+		{
+			return endIndex - startIndex + 1;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "ArrayOperation [type=" + type + ", startIndex=" + startIndex + ", endIndex=" + endIndex + "]";
+		}
+
+	}
+
+	/**
+	 * Records a new operation, merging it into the previous one if possible.
+	 *
+	 * @return false if too many operations were recorded; the caller should then fall back to sending the whole array.
+	 */
+	public boolean processOperation(int type, int startIndex, int endIndex)
+	{
+		ArrayOperation last = (operations.size() > 0 ? operations.get(operations.size() - 1) : null);
+		if (last != null)
+		{
+			if (type == ArrayOperation.CHANGE)
+			{
+				if ((last.type == ArrayOperation.CHANGE || last.type == ArrayOperation.INSERT) && startIndex >= last.startIndex && endIndex <= last.endIndex)
+				{
+					// the browser will get the new value anyway when the previous operation is written
+					return true;
+				}
+				if (last.type == ArrayOperation.CHANGE && startIndex == last.endIndex + 1)
+				{
+					last.endIndex = endIndex;
+					return true;
+				}
+				if (last.type == ArrayOperation.CHANGE && endIndex == last.startIndex - 1)
+				{
+					last.startIndex = startIndex;
+					return true;
+				}
+			}
+			else if (type == ArrayOperation.INSERT)
+			{
+				if (last.type == ArrayOperation.INSERT && startIndex >= last.startIndex && startIndex <= last.endIndex + 1)
+				{
+					last.endIndex += endIndex - startIndex + 1;
+					return true;
+				}
+			}
+			else if (type == ArrayOperation.DELETE && startIndex == endIndex)
+			{
+				if (last.type == ArrayOperation.DELETE && startIndex == last.startIndex)
+				{
+					last.endIndex++;
+					return true;
+				}
+				if (last.type == ArrayOperation.DELETE && startIndex == last.startIndex - 1)
+				{
+					last.startIndex--;
+					return true;
+				}
+				if (last.type == ArrayOperation.INSERT && startIndex >= last.startIndex && startIndex <= last.endIndex)
+				{
+					// an element that the browser doesn't know about yet was removed again
+					last.endIndex--;
+					if (last.endIndex < last.startIndex) operations.remove(operations.size() - 1);
+					return true;
+				}
+			}
+		}
+
+		operations.add(new ArrayOperation(startIndex, endIndex, type));
+		return operations.size() <= MAX_OPERATIONS;
+	}
+
+	/**
+	 * Translates an index that was valid right after the operation at 'operationIndex' was applied into the index that the same element has in the current list.
+	 *
+	 * @return the current index of that element or -1 if the element was deleted by a later operation.
+	 */
+	public int getFinalIndex(int index, int operationIndex)
+	{
+		int finalIndex = index;
+		for (int i = operationIndex + 1; i < operations.size(); i++)
+		{
+			ArrayOperation op = operations.get(i);
+			if (op.type == ArrayOperation.INSERT)
+			{
+				if (op.startIndex <= finalIndex) finalIndex += op.getLength();
+			}
+			else if (op.type == ArrayOperation.DELETE)
+			{
+				if (op.endIndex < finalIndex) finalIndex -= op.getLength();
+				else if (op.startIndex <= finalIndex) return -1;
+			}
+		}
+		return finalIndex;
+	}
+
+	/**
+	 * @return true if elements were inserted or deleted; if not, all recorded operations are element changes.
+	 */
+	public boolean hasStructuralChanges()
+	{
+		for (ArrayOperation op : operations)
+		{
+			if (op.type != ArrayOperation.CHANGE) return true;
+		}
+		return false;
+	}
+
+	public boolean hasOperations()
+	{
+		return operations.size() > 0;
+	}
+
+	/**
+	 * @return the number of element values that need to be written in order to send all recorded operations to the browser.
+	 */
+	public int getNumberOfValuesToWrite()
+	{
+		int count = 0;
+		for (ArrayOperation op : operations)
+		{
+			if (op.type != ArrayOperation.DELETE) count += op.getLength();
+		}
+		return count;
+	}
+
+	/**
+	 * You should not change the contents of the returned List.
+	 */
+	public List<ArrayOperation> getOperations()
+	{
+		return Collections.unmodifiableList(operations);
+	}
+
+	public void reset()
+	{
+		operations.clear();
+	}
+
+}
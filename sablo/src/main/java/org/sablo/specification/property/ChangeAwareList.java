@@ -23,15 +23,20 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.sablo.BaseWebObject;
 import org.sablo.IChangeListener;
+import org.sablo.specification.property.ArrayGranularChangeKeeper.ArrayOperation;
 
 /**
  * This list is able to do handle/keep track of server side changes.
  * Those changes can then be sent to browser through full array or granular updates (depending on what changed an what the implementation supports).
  * (as JSON through the web-socket)
  *
+ * Element changes are kept as a set of changed indexes. As soon as elements are inserted or removed, all changes are (also) kept as an ordered
+ * list of operations in an {@link ArrayGranularChangeKeeper}, so that only what was inserted/removed needs to be sent to the browser instead of the whole array.
+ *
  * It also implements ISmartPropertyValue so that it can handle correctly any child 'smart' value types.
  *
  * @author acostescu
@@ -48,11 +53,11 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 
 	protected List<IndexChangeListener> changeHandlers = new ArrayList<>();
 
-	// TODO in order to have fine-grained add/remove operations as well in the future we would need a list of change operations that can be add/remove/change instead
 	protected IChangeListener changeMonitor;
 	protected BaseWebObject component;
 
 	protected Set<Integer> changedIndexes = new HashSet<Integer>();
+	protected final ArrayGranularChangeKeeper granularUpdatesKeeper = new ArrayGranularChangeKeeper();
 	protected boolean allChanged;
 
 	protected boolean mustSendTypeToClient;
@@ -112,6 +117,15 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 		return changedIndexes;
 	}
 
+	/**
+	 * The operations in the returned keeper are only relevant if {@link ArrayGranularChangeKeeper#hasStructuralChanges()} is true; otherwise
+	 * {@link #getChangedIndexes()} has all the needed info. You should not change the contents of the returned object.
+	 */
+	public ArrayGranularChangeKeeper getGranularUpdatesKeeper()
+	{
+		return granularUpdatesKeeper;
+	}
+
 	public boolean mustSendTypeToClient()
 	{
 		return mustSendTypeToClient;
@@ -127,6 +141,7 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 		allChanged = false;
 		mustSendTypeToClient = false;
 		changedIndexes.clear();
+		granularUpdatesKeeper.reset();
 	}
 
 	/**
@@ -192,21 +207,83 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 
 	protected void markMustSendTypeToClient()
 	{
-		boolean oldMustSendTypeToClient = mustSendTypeToClient;
+		boolean wasChanged = isChanged();
 		mustSendTypeToClient = true;
-		if (changedIndexes.size() == 0 && !allChanged && !oldMustSendTypeToClient && changeMonitor != null) changeMonitor.valueChanged();
+		if (!wasChanged && changeMonitor != null) changeMonitor.valueChanged();
 	}
 
 	protected void markElementChanged(int i)
 	{
-		if (changedIndexes.add(Integer.valueOf(i)) && !allChanged && !mustSendTypeToClient && changeMonitor != null) changeMonitor.valueChanged();
+		boolean wasChanged = isChanged();
+		changedIndexes.add(Integer.valueOf(i));
+		if (!allChanged && granularUpdatesKeeper.hasStructuralChanges() && !granularUpdatesKeeper.processOperation(ArrayOperation.CHANGE, i, i))
+		{
+			markAllChanged();
+			return;
+		}
+		if (!wasChanged && changeMonitor != null) changeMonitor.valueChanged();
+	}
+
+	protected void markElementInserted(int i)
+	{
+		markStructuralChange(ArrayOperation.INSERT, i);
+	}
+
+	protected void markElementRemoved(int i)
+	{
+		markStructuralChange(ArrayOperation.DELETE, i);
+	}
+
+	private void markStructuralChange(int type, int i)
+	{
+		if (allChanged) return;
+
+		boolean wasChanged = isChanged();
+		if (!granularUpdatesKeeper.hasStructuralChanges())
+		{
+			// until now only changed indexes were kept; they must be sent before this operation, as they refer to the old indexes
+			boolean tooManyOperations = false;
+			granularUpdatesKeeper.reset();
+			for (Integer idx : new TreeSet<Integer>(changedIndexes))
+			{
+				tooManyOperations = !granularUpdatesKeeper.processOperation(ArrayOperation.CHANGE, idx.intValue(), idx.intValue());
+				if (tooManyOperations) break;
+			}
+			if (tooManyOperations)
+			{
+				markAllChanged();
+				return;
+			}
+		}
+
+		// keep changed indexes pointing to the same elements
+		if (changedIndexes.size() > 0)
+		{
+			Set<Integer> shiftedIndexes = new HashSet<Integer>(changedIndexes.size());
+			for (Integer idx : changedIndexes)
+			{
+				int j = idx.intValue();
+				if (j < i) shiftedIndexes.add(idx);
+				else if (type == ArrayOperation.INSERT) shiftedIndexes.add(Integer.valueOf(j + 1));
+				else if (j > i) shiftedIndexes.add(Integer.valueOf(j - 1));
+			}
+			changedIndexes = shiftedIndexes;
+		}
+
+		if (!granularUpdatesKeeper.processOperation(type, i, i))
+		{
+			markAllChanged();
+			return;
+		}
+		if (!wasChanged && changeMonitor != null) changeMonitor.valueChanged();
 	}
 
 	public void markAllChanged()
 	{
-		boolean alreadyCh = allChanged;
+		boolean wasChanged = isChanged();
 		allChanged = true;
-		if (!alreadyCh && changedIndexes.size() == 0 && !mustSendTypeToClient && changeMonitor != null) changeMonitor.valueChanged();
+		granularUpdatesKeeper.reset(); // the whole value will be sent anyway
+		if (!wasChanged && changeMonitor != null) changeMonitor.valueChanged();
 	}
 
 	protected void attachToBaseObjectIfNeeded(int i, WT el, boolean insert)
@@ -233,7 +310,7 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 
 	protected boolean isChanged()
 	{
-		return (allChanged || mustSendTypeToClient || changedIndexes.size() > 0);
+		return (allChanged || mustSendTypeToClient || changedIndexes.size() > 0 || granularUpdatesKeeper.hasOperations());
 	}
 
 	// called whenever a new element was added or inserted into the array
@@ -241,16 +318,9 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 	// should be changes to use wrapped as well; either way, it should be the same (currently this works as we don't have any wrapper type with 'smart' values for which the wrapped value differs from the unwrapped value)
 	protected void attachToBaseObject(final int i, WT el, boolean insert)
 	{
-		if (el instanceof ISmartPropertyValue)
-		{
-			ChangeAwareList<ET, WT>.IndexChangeListener changeHandler = new IndexChangeListener(i);
-			changeHandlers.add(changeHandler);
-			((ISmartPropertyValue)el).attachToBaseObject(changeHandler, component);
-		}
-
 		if (insert)
 		{
-			// an insert happened in array; update change handler indexes if needed
+			// an insert happened in array; update change handler indexes if needed (before adding the handler of the new element)
 			Iterator<IndexChangeListener> it = changeHandlers.iterator();
 			while (it.hasNext())
 			{
@@ -258,6 +328,13 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 				if (ch.attachedToIdx >= i) ch.attachedToIdx++;
 			}
 		}
+
+		if (el instanceof ISmartPropertyValue)
+		{
+			ChangeAwareList<ET, WT>.IndexChangeListener changeHandler = new IndexChangeListener(i);
+			changeHandlers.add(changeHandler);
+			((ISmartPropertyValue)el).attachToBaseObject(changeHandler, component);
+		}
 	}
 
 	protected class IndexChangeListener implements IChangeListener
@@ -368,10 +445,11 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 			@Override
 			public void remove()
 			{
+				WT oldWV = getWrappedBaseList().get(i);
 				it.remove();
-				detachIfNeeded(i, getWrappedBaseList().get(i), true);
+				detachIfNeeded(i, oldWV, true);
+				markElementRemoved(i);
 				i--;
-				markAllChanged();
 			}
 		};
 	}
@@ -393,7 +471,7 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 	{
 		boolean tmp = baseList.add(e);
 		attachToBaseObjectIfNeeded(baseList.size() - 1, getWrappedBaseList().get(baseList.size() - 1), false);
-		markAllChanged();
+		markElementInserted(baseList.size() - 1);
 		return tmp;
 	}
 
@@ -407,7 +485,7 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 			baseList.remove(idx);
 			detachIfNeeded(idx, oldWrappedValue, true);
 
-			markAllChanged();
+			markElementRemoved(idx);
 			return true;
 		}
 		return false;
@@ -473,10 +551,8 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 	@Override
 	public void clear()
 	{
-		int size = baseList.size();
-		for (int i = size - 1; i >= 0; i--)
+		for (int i = baseList.size() - 1; i >= 0; i--)
 			remove(i);
-		if (size > 0) markAllChanged();
 	}
 
 	@Override
@@ -501,7 +577,7 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 	{
 		baseList.add(index, element);
 		attachToBaseObjectIfNeeded(index, getWrappedBaseList().get(index), true);
-		markAllChanged();
+		markElementInserted(index);
 	}
 
 	@Override
@@ -510,7 +586,7 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 		WT oldWV = getWrappedBaseList().get(index);
 		ET tmp = baseList.remove(index);
 		detachIfNeeded(index, oldWV, true);
-		markAllChanged();
+		markElementRemoved(index);
 		return tmp;
 	}
 
@@ -548,6 +624,7 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 	{
 
 		protected final ListIterator<ET> it;
+		protected int lastReturnedIndex = -1;
 
 		public ChangeAwareListIterator(ListIterator<ET> it)
 		{
@@ -563,6 +640,7 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 		@Override
 		public ET next()
 		{
+			lastReturnedIndex = it.nextIndex();
 			return it.next();
 		}
 
@@ -575,6 +653,7 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 		@Override
 		public ET previous()
 		{
+			lastReturnedIndex = it.previousIndex();
 			return it.previous();
 		}
 
@@ -593,16 +672,18 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 		@Override
 		public void remove()
 		{
-			int i = it.previousIndex() + 1;
+			int i = lastReturnedIndex;
+			WT oldWV = getWrappedBaseList().get(i);
 			it.remove();
-			detachIfNeeded(i, getWrappedBaseList().get(i), true);
-			markAllChanged();
+			lastReturnedIndex = -1;
+			detachIfNeeded(i, oldWV, true);
+			markElementRemoved(i);
 		}
 
 		@Override
 		public void set(ET e)
 		{
-			int i = it.previousIndex() + 1;
+			int i = lastReturnedIndex;
 			WT oldWV = getWrappedBaseList().get(i);
 			it.set(e);
 			detachIfNeeded(i, oldWV, false);
@@ -615,8 +696,9 @@ public class ChangeAwareList<ET, WT> implements List<ET>, ISmartPropertyValue
 		{
 			int i = it.nextIndex();
 			it.add(e);
+			lastReturnedIndex = -1;
 			attachToBaseObjectIfNeeded(i, getWrappedBaseList().get(i), true);
-			markAllChanged();
+			markElementInserted(i);
 		}
 	}
 
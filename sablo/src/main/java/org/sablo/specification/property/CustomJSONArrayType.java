@@ -27,14 +27,25 @@ import org.json.JSONObject;
 import org.json.JSONWriter;
 import org.sablo.specification.PropertyDescription;
 import org.sablo.specification.WebObjectSpecification.PushToServerEnum;
+import org.sablo.specification.property.ArrayGranularChangeKeeper.ArrayOperation;
 import org.sablo.util.ValueReference;
+import org.sablo.websocket.BaseWindow;
+import org.sablo.websocket.CurrentWindow;
+import org.sablo.websocket.IWebsocketEndpoint;
+import org.sablo.websocket.IWindow;
+import org.sablo.websocket.WebsocketEndpoint;
 import org.sablo.websocket.utils.DataConversion;
 import org.sablo.websocket.utils.JSONUtils;
 import org.sablo.websocket.utils.JSONUtils.IToJSONConverter;
 
 /**
  * Type for what in spec files you see like 'mytype[]'.
- * It should to be a kind of proxy for all possible conversion types to it's elements.
+ * It should to be a kind of proxy for all possible conversion types to it's elements.<br/><br/>
+ *
+ * When sending changes to the browser, if elements were inserted or removed (and sending that is not more expensive then sending the whole array)
+ * a list of granular operations is sent: <code>{ "vEr": 5, "g": [ { "op": [startIndex, endIndex, type], "d": [ ...values ] }, ... ] }</code>
+ * where type is one of {@link ArrayOperation#CHANGE}, {@link ArrayOperation#INSERT} or {@link ArrayOperation#DELETE}, indexes are inclusive and
+ * "d" (the new values; missing for deletes) has (endIndex - startIndex + 1) elements. The operations must be applied in the given order.
  *
  * @author acostescu
  */
@@ -52,6 +63,9 @@ public class CustomJSONArrayType<ET, WT> extends CustomJSONPropertyType<Object>i
 	protected static final String PUSH_TO_SERVER = "w";
 	protected static final String INITIALIZE = "in";
 	protected static final String NO_OP = "n";
+	protected static final String GRANULAR_UPDATES = "g";
+	protected static final String OPERATION = "op";
+	protected static final String DATA = "d";
 
 	public static final String ELEMENT_CONFIG_KEY = "elementConfig";
 
@@ -353,36 +367,109 @@ public class CustomJSONArrayType<ET, WT> extends CustomJSONPropertyType<Object>i
 			if (conversionMarkers != null) conversionMarkers.convert(CustomJSONArrayType.TYPE_NAME); // so that the client knows it must use the custom client side JS for what JSON it gets
 
 			Set<Integer> changes = changeAwareList.getChangedIndexes();
+			ArrayGranularChangeKeeper granularUpdates = changeAwareList.getGranularUpdatesKeeper();
 			List<WT> wrappedBaseListReadOnly = changeAwareList.getWrappedBaseListForReadOnly();
 			writer.object();
 
-			if (changeAwareList.mustSendAll() || fullValue)
+			boolean sendAll = changeAwareList.mustSendAll() || fullValue;
+			// if inserts/removes would mean writing as many values as the whole array has or the browser can't apply them, just send the whole array
+			if (!sendAll && granularUpdates.hasStructuralChanges() &&
+				(granularUpdates.getNumberOfValuesToWrite() >= wrappedBaseListReadOnly.size() || !browserSupportsGranularUpdates())) sendAll = true;
+
+			if (sendAll)
 			{
-				// send all (currently we don't support granular updates for add/remove but we could in the future)
-				DataConversion arrayConversionMarkers = new DataConversion();
-				writer.key(CONTENT_VERSION).value(changeAwareList.increaseContentVersion());
+				// send all
+				DataConversion arrayConversionMarkers = DataConversion.acquire();
+				try
+				{
+					writer.key(CONTENT_VERSION).value(changeAwareList.increaseContentVersion());
+
+					PushToServerEnum pushToServer = BrowserConverterContext.getPushToServerValue(dataConverterContext);
+					if (pushToServer == PushToServerEnum.shallow || pushToServer == PushToServerEnum.deep)
+					{
+						writer.key(PUSH_TO_SERVER).value(pushToServer == PushToServerEnum.shallow ? false : true);
+					}
+
+					writer.key(VALUE).array();
+					for (int i = 0; i < wrappedBaseListReadOnly.size(); i++)
+					{
+						arrayConversionMarkers.pushNode(i);
+						toJSONConverterForFullValue.toJSONValue(writer, null, wrappedBaseListReadOnly.get(i), getCustomJSONTypeDefinition(), arrayConversionMarkers,
+							dataConverterContext);
+						arrayConversionMarkers.popNode();
+					}
+					writer.endArray();
 
-				PushToServerEnum pushToServer = BrowserConverterContext.getPushToServerValue(dataConverterContext);
-				if (pushToServer == PushToServerEnum.shallow || pushToServer == PushToServerEnum.deep)
+					if (arrayConversionMarkers.getConversions().size() > 0)
+					{
+						writer.key("conversions").object();
+						JSONUtils.writeConversions(writer, arrayConversionMarkers.getConversions());
+						writer.endObject();
+					}
+				}
+				finally
 				{
-					writer.key(PUSH_TO_SERVER).value(pushToServer == PushToServerEnum.shallow ? false : true);
+					DataConversion.release(arrayConversionMarkers);
 				}
+			}
+			else if (granularUpdates.hasStructuralChanges())
+			{
+				// elements were inserted/removed; indexes that the browser knows about changed so increase version
+				writer.key(CONTENT_VERSION).value(changeAwareList.increaseContentVersion());
+				if (changeAwareList.mustSendTypeToClient()) writer.key(INITIALIZE).value(true);
 
-				writer.key(VALUE).array();
-				for (int i = 0; i < wrappedBaseListReadOnly.size(); i++)
+				writer.key(GRANULAR_UPDATES).array();
+				DataConversion arrayConversionMarkers = DataConversion.acquire();
+				try
 				{
-					arrayConversionMarkers.pushNode(String.valueOf(i));
-					toJSONConverterForFullValue.toJSONValue(writer, null, wrappedBaseListReadOnly.get(i), getCustomJSONTypeDefinition(), arrayConversionMarkers,
-						dataConverterContext);
-					arrayConversionMarkers.popNode();
+					List<ArrayOperation> operations = granularUpdates.getOperations();
+					for (int opIdx = 0; opIdx < operations.size(); opIdx++)
+					{
+						ArrayOperation op = operations.get(opIdx);
+						arrayConversionMarkers.pushNode(opIdx);
+						writer.object().key(OPERATION).array().value(op.getStartIndex()).value(op.getEndIndex()).value(op.type).endArray();
+						if (op.type != ArrayOperation.DELETE)
+						{
+							arrayConversionMarkers.pushNode(DATA);
+							writer.key(DATA).array();
+							for (int i = op.getStartIndex(); i <= op.getEndIndex(); i++)
+							{
+								arrayConversionMarkers.pushNode(i - op.getStartIndex());
+								int currentIdx = granularUpdates.getFinalIndex(i, opIdx);
+								if (currentIdx < 0)
+								{
+									// this element is removed again by a later operation
+									writer.value(JSONObject.NULL);
+								}
+								else if (op.type == ArrayOperation.INSERT)
+								{
+									toJSONConverterForFullValue.toJSONValue(writer, null, wrappedBaseListReadOnly.get(currentIdx), getCustomJSONTypeDefinition(),
+										arrayConversionMarkers, dataConverterContext);
+								}
+								else
+								{
+									JSONUtils.changesToBrowserJSONValue(writer, null, wrappedBaseListReadOnly.get(currentIdx), getCustomJSONTypeDefinition(),
+										arrayConversionMarkers, dataConverterContext);
+								}
+								arrayConversionMarkers.popNode();
+							}
+							writer.endArray();
+							arrayConversionMarkers.popNode();
+						}
+						writer.endObject();
+						arrayConversionMarkers.popNode();
+					}
+					writer.endArray();
+					if (arrayConversionMarkers.getConversions().size() > 0)
+					{
+						writer.key("conversions").object();
+						JSONUtils.writeConversions(writer, arrayConversionMarkers.getConversions());
+						writer.endObject();
+					}
 				}
-				writer.endArray();
-
-				if (arrayConversionMarkers.getConversions().size() > 0)
+				finally
 				{
-					writer.key("conversions").object();
-					JSONUtils.writeConversions(writer, arrayConversionMarkers.getConversions());
-					writer.endObject();
+					DataConversion.release(arrayConversionMarkers);
 				}
 			}
 			else if (changes.size() > 0)
@@ -396,25 +483,32 @@ public class CustomJSONArrayType<ET, WT> extends CustomJSONPropertyType<Object>i
 				}
 
 				writer.key(UPDATES).array();
-				DataConversion arrayConversionMarkers = new DataConversion();
-				int i = 0;
-				for (Integer idx : changes)
+				DataConversion arrayConversionMarkers = DataConversion.acquire();
+				try
 				{
-					arrayConversionMarkers.pushNode(String.valueOf(i++));
-					writer.object().key(INDEX).value(idx);
-					arrayConversionMarkers.pushNode(VALUE);
-					JSONUtils.changesToBrowserJSONValue(writer, VALUE, wrappedBaseListReadOnly.get(idx.intValue()), getCustomJSONTypeDefinition(),
-						arrayConversionMarkers, dataConverterContext);
-					arrayConversionMarkers.popNode();
-					writer.endObject();
-					arrayConversionMarkers.popNode();
+					int i = 0;
+					for (Integer idx : changes)
+					{
+						arrayConversionMarkers.pushNode(i++);
+						writer.object().key(INDEX).value(idx);
+						arrayConversionMarkers.pushNode(VALUE);
+						JSONUtils.changesToBrowserJSONValue(writer, VALUE, wrappedBaseListReadOnly.get(idx.intValue()), getCustomJSONTypeDefinition(),
+							arrayConversionMarkers, dataConverterContext);
+						arrayConversionMarkers.popNode();
+						writer.endObject();
+						arrayConversionMarkers.popNode();
+					}
+					writer.endArray();
+					if (arrayConversionMarkers.getConversions().size() > 0)
+					{
+						writer.key("conversions").object();
+						JSONUtils.writeConversions(writer, arrayConversionMarkers.getConversions());
+						writer.endObject();
+					}
 				}
-				writer.endArray();
-				if (arrayConversionMarkers.getConversions().size() > 0)
+				finally
 				{
-					writer.key("conversions").object();
-					JSONUtils.writeConversions(writer, arrayConversionMarkers.getConversions());
-					writer.endObject();
+					DataConversion.release(arrayConversionMarkers);
 				}
 			}
 			else if (changeAwareList.mustSendTypeToClient())
@@ -437,6 +531,17 @@ public class CustomJSONArrayType<ET, WT> extends CustomJSONPropertyType<Object>i
 		return writer;
 	}
 
+	/**
+	 * @return true if the browser of the current window declared that it can apply granular insert/remove operations
+	 * (see {@link WebsocketEndpoint#GRANULAR_ARRAY_UPDATES_REQUEST_PARAMETER}).
+	 */
+	protected boolean browserSupportsGranularUpdates()
+	{
+		IWindow window = CurrentWindow.safeGet();
+		IWebsocketEndpoint endpoint = window instanceof BaseWindow ? ((BaseWindow)window).getEndpoint() : null;
+		return endpoint instanceof WebsocketEndpoint && ((WebsocketEndpoint)endpoint).supportsGranularArrayUpdates();
+	}
+
 	@Override
 	public boolean shouldAlwaysAllowIncommingJSON()
 	{
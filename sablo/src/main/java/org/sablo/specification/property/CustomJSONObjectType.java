@@ -383,29 +383,36 @@ public class CustomJSONObjectType<ET, WT> extends CustomJSONPropertyType<Map<Str
 			if (changeAwareMap.mustSendAll() || fullValue)
 			{
 				// send all (currently we don't support granular updates for remove but we could in the future)
-				DataConversion objConversionMarkers = new DataConversion();
-				writer.key(CONTENT_VERSION).value(changeAwareMap.increaseContentVersion());
-
-				PushToServerEnum pushToServer = BrowserConverterContext.getPushToServerValue(dataConverterContext);
-				if (pushToServer == PushToServerEnum.shallow || pushToServer == PushToServerEnum.deep)
+				DataConversion objConversionMarkers = DataConversion.acquire();
+				try
 				{
-					writer.key(PUSH_TO_SERVER).value(pushToServer == PushToServerEnum.shallow ? false : true);
-				}
+					writer.key(CONTENT_VERSION).value(changeAwareMap.increaseContentVersion());
 
-				writer.key(VALUE).object();
-				for (Entry<String, WT> e : wrappedBaseMap.entrySet())
-				{
-					objConversionMarkers.pushNode(e.getKey());
-					toJSONConverterForFullValue.toJSONValue(writer, e.getKey(), wrappedBaseMap.get(e.getKey()),
-						getCustomJSONTypeDefinition().getProperty(e.getKey()), objConversionMarkers, dataConverterContext);
-					objConversionMarkers.popNode();
+					PushToServerEnum pushToServer = BrowserConverterContext.getPushToServerValue(dataConverterContext);
+					if (pushToServer == PushToServerEnum.shallow || pushToServer == PushToServerEnum.deep)
+					{
+						writer.key(PUSH_TO_SERVER).value(pushToServer == PushToServerEnum.shallow ? false : true);
+					}
+
+					writer.key(VALUE).object();
+					for (Entry<String, WT> e : wrappedBaseMap.entrySet())
+					{
+						objConversionMarkers.pushNode(e.getKey());
+						toJSONConverterForFullValue.toJSONValue(writer, e.getKey(), wrappedBaseMap.get(e.getKey()),
+							getCustomJSONTypeDefinition().getProperty(e.getKey()), objConversionMarkers, dataConverterContext);
+						objConversionMarkers.popNode();
+					}
+					writer.endObject();
+					if (objConversionMarkers.getConversions().size() > 0)
+					{
+						writer.key("conversions").object();
+						JSONUtils.writeConversions(writer, objConversionMarkers.getConversions());
+						writer.endObject();
+					}
 				}
-				writer.endObject();
-				if (objConversionMarkers.getConversions().size() > 0)
+				finally
 				{
-					writer.key("conversions").object();
-					JSONUtils.writeConversions(writer, objConversionMarkers.getConversions());
-					writer.endObject();
+					DataConversion.release(objConversionMarkers);
 				}
 			}
 			else if (changes.size() > 0)
@@ -419,25 +426,32 @@ public class CustomJSONObjectType<ET, WT> extends CustomJSONPropertyType<Map<Str
 				}
 
 				writer.key(UPDATES).array();
-				DataConversion objConversionMarkers = new DataConversion();
-				int i = 0;
-				for (String k : changes)
+				DataConversion objConversionMarkers = DataConversion.acquire();
+				try
 				{
-					objConversionMarkers.pushNode(String.valueOf(i++));
-					writer.object().key(KEY).value(k);
-					objConversionMarkers.pushNode(VALUE);
-					JSONUtils.changesToBrowserJSONValue(writer, VALUE, wrappedBaseMap.get(k), getCustomJSONTypeDefinition().getProperty(k),
-						objConversionMarkers, dataConverterContext);
-					objConversionMarkers.popNode();
-					writer.endObject();
-					objConversionMarkers.popNode();
+					int i = 0;
+					for (String k : changes)
+					{
+						objConversionMarkers.pushNode(i++);
+						writer.object().key(KEY).value(k);
+						objConversionMarkers.pushNode(VALUE);
+						JSONUtils.changesToBrowserJSONValue(writer, VALUE, wrappedBaseMap.get(k), getCustomJSONTypeDefinition().getProperty(k),
+							objConversionMarkers, dataConverterContext);
+						objConversionMarkers.popNode();
+						writer.endObject();
+						objConversionMarkers.popNode();
+					}
+					writer.endArray();
+					if (objConversionMarkers.getConversions().size() > 0)
+					{
+						writer.key("conversions").object();
+						JSONUtils.writeConversions(writer, objConversionMarkers.getConversions());
+						writer.endObject();
+					}
 				}
-				writer.endArray();
-				if (objConversionMarkers.getConversions().size() > 0)
+				finally
 				{
-					writer.key("conversions").object();
-					JSONUtils.writeConversions(writer, objConversionMarkers.getConversions());
-					writer.endObject();
+					DataConversion.release(objConversionMarkers);
 				}
 			}
 			else if (changeAwareMap.mustSendTypeToClient())
@@ -37,7 +37,8 @@ public interface IPropertyConverter<JT, ContextT>
 	 * Simple types will probably always send the whole value.<br/>
 	 * Advanced/complex types might write their own JSON based protocol for sending granular updates.
 	 *
-	 * @param newJSONValue the JSON received from browser (can be whole value or just updates).
+	 * @param newJSONValue the JSON received from browser (can be whole value or just updates). JSON objects received from the browser are
+	 * {@link org.sablo.websocket.utils.LazyJSONObject}s, so the parts of the value that are not read are not parsed either.
 	 * @param previousValue the previous value of this property as available in the component.
 	 * @param propertyDescription the description of the property that is being converted.
 	 * @param context runtime context
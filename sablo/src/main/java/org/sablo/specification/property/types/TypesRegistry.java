@@ -16,9 +16,9 @@
 package org.sablo.specification.property.types;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.sablo.specification.property.CustomJSONArrayType;
 import org.sablo.specification.property.CustomJSONArrayTypeFactory;
@@ -41,9 +41,23 @@ public class TypesRegistry
 
 	private static final Logger log = LoggerFactory.getLogger(TypesRegistry.class.getCanonicalName());
 
-	private static Map<String, IPropertyType< ? >> types = new HashMap<>();
-	private static Map<String, IPropertyTypeFactory< ? , ? >> typeFactories = new HashMap<>();
-	private static Map<Class< ? >, IClassPropertyType< ? >> typesByClass = new HashMap<>();
+	// types can be added while specs are (re)loaded and other threads are resolving types
+	private static final ConcurrentMap<String, IPropertyType< ? >> types = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, IPropertyTypeFactory< ? , ? >> typeFactories = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<Class< ? >, IClassPropertyType< ? >> typesByClass = new ConcurrentHashMap<>();
+
+	/**
+	 * Values of classes that have no type registered (like String) are written often, so misses are cached as well.
+	 */
+	private static final Object NO_TYPE = new Object();
+
+	/**
+	 * If more classes than this are resolved the cache is cleared, so it can't keep growing (and holding on to classes) forever.
+	 */
+	private static final int MAX_CACHED_CLASSES = 1024;
+
+	// replaced (not cleared) when types are added, so a resolution that was busy with the old types can't put a stale result in the new cache
+	private static volatile ConcurrentMap<Class< ? >, Object> typesByClassCache = new ConcurrentHashMap<>();
 
 
 	static
@@ -81,7 +95,7 @@ public class TypesRegistry
 
 	public static IPropertyType< ? > getType(String name, boolean failIfNull)
 	{
-		IPropertyType< ? > type = types.get(name);
+		IPropertyType< ? > type = name != null ? types.get(name) : null;
 		if (type == null && failIfNull) throw new RuntimeException("Type '" + name + "' not found in supported types: " + printTypes());
 		return type;
 	}
@@ -100,6 +114,10 @@ public class TypesRegistry
 
 	public static IClassPropertyType< ? > getType(Class< ? > clz)
 	{
+		ConcurrentMap<Class< ? >, Object> cache = typesByClassCache;
+		Object cached = cache.get(clz);
+		if (cached != null) return cached == NO_TYPE ? null : (IClassPropertyType< ? >)cached;
+
 		IClassPropertyType< ? > type = typesByClass.get(clz);
 		// clz could be a concrete type, but the registered type is a interface class type.
 		if (type == null)
@@ -108,10 +126,14 @@ public class TypesRegistry
 			{
 				if (entry.getKey().isAssignableFrom(clz))
 				{
-					return entry.getValue();
+					type = entry.getValue();
+					break;
 				}
 			}
 		}
+
+		if (cache.size() >= MAX_CACHED_CLASSES) cache.clear();
+		cache.put(clz, type == null ? NO_TYPE : type);
 		return type;
 	}
 
@@ -169,6 +191,7 @@ public class TypesRegistry
 				log.trace(
 					"there was already a type for type class " + ((IClassPropertyType< ? >)type).getTypeClass() + ": " + previous + " replaced by: " + type);
 			}
+			typesByClassCache = new ConcurrentHashMap<>();
 		}
 	}
 
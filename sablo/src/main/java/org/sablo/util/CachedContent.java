@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Content that is generated or read once and then sent to browsers from memory. It is compressed once as well (when that makes it smaller),
+ * so browsers that accept gzip get the compressed bytes without compressing on every request, and it has an ETag that is based on the content.
+ */
+@SuppressWarnings("nls")
+public class CachedContent
+{
+	private final byte[] content;
+	private final byte[] gzippedContent;
+	private final String contentType;
+	private final String etag;
+	private final String gzipETag;
+
+	/**
+	 * @param content the bytes to send.
+	 * @param contentType the content type to send, including the charset for text.
+	 */
+	public CachedContent(byte[] content, String contentType)
+	{
+		this.content = content;
+		this.contentType = contentType;
+		this.etag = HTTPUtils.createETag(content);
+		byte[] gzipped = gzip(content);
+		if (gzipped.length < content.length)
+		{
+			gzippedContent = gzipped;
+			// each encoding of the content needs it's own entity tag
+			gzipETag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+		}
+		else
+		{
+			gzippedContent = null;
+			gzipETag = null;
+		}
+	}
+
+	private static byte[] gzip(byte[] content)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 3 + 32);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)
+		{
+			{
+				def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		})
+		{
+			gzip.write(content);
+		}
+		catch (IOException e)
+		{
+			// can't happen when writing to memory
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	public byte[] getContent()
+	{
+		return content;
+	}
+
+	/**
+	 * @return the gzipped content, null if compressing does not make it smaller.
+	 */
+	public byte[] getGzippedContent()
+	{
+		return gzippedContent;
+	}
+
+	public String getContentType()
+	{
+		return contentType;
+	}
+
+	public String getETag()
+	{
+		return etag;
+	}
+
+	/**
+	 * @return a hash of the content, that can be used in urls to make sure browsers get a new version when the content changes.
+	 */
+	public String getFingerprint()
+	{
+		return etag.substring(1, etag.length() - 1);
+	}
+
+	/**
+	 * Sends the content, gzipped if the browser accepts that. If the browser already has it (see {@link HTTPUtils#checkAndSetETag}),
+	 * only the status HttpServletResponse.SC_NOT_MODIFIED is sent. A request for one byte range (see {@link HTTPUtils#parseByteRange(String, long)})
+	 * gets that part of the uncompressed content. Caching headers should be set by the caller.
+	 */
+	public void send(HttpServletRequest request, HttpServletResponse response) throws IOException
+	{
+		long[] range = null;
+		String rangeHeader = request.getHeader(HTTPUtils.RANGE);
+		if (rangeHeader != null)
+		{
+			// a range of an older version is not useful, then the whole content is sent
+			String ifRange = request.getHeader(HTTPUtils.IF_RANGE);
+			if (ifRange == null || ifRange.equals(etag)) range = HTTPUtils.parseByteRange(rangeHeader, content.length);
+		}
+
+		boolean gzip = false;
+		if (gzippedContent != null)
+		{
+			response.setHeader("Vary", "Accept-Encoding");
+			gzip = range == null && HTTPUtils.acceptsEncoding(request, "gzip");
+		}
+		if (HTTPUtils.checkAndSetETag(request, response, gzip ? gzipETag : etag)) return;
+
+		response.setHeader("Accept-Ranges", "bytes");
+		if (range != null)
+		{
+			if (range.length == 0)
+			{
+				response.setHeader("Content-Range", "bytes */" + content.length);
+				response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			int first = (int)range[0];
+			int length = (int)(range[1] - range[0] + 1);
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", "bytes " + range[0] + '-' + range[1] + '/' + content.length);
+			response.setContentType(contentType);
+			response.setContentLength(length);
+			response.getOutputStream().write(content, first, length);
+			return;
+		}
+
+		response.setContentType(contentType);
+		if (gzip) response.setHeader("Content-Encoding", "gzip");
+		byte[] body = gzip ? gzippedContent : content;
+		response.setContentLength(body.length);
+		response.getOutputStream().write(body);
+	}
+}
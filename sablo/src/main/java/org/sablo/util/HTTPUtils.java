@@ -16,6 +16,11 @@
 
 package org.sablo.util;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -29,6 +34,11 @@ public class HTTPUtils
 {
 	public static final String IF_MODIFIED_SINCE = "If-Modified-Since"; //$NON-NLS-1$
 	public static final String LAST_MODIFIED = "Last-Modified"; //$NON-NLS-1$
+	public static final String IF_NONE_MATCH = "If-None-Match"; //$NON-NLS-1$
+	public static final String ETAG = "ETag"; //$NON-NLS-1$
+	public static final String ACCEPT_ENCODING = "Accept-Encoding"; //$NON-NLS-1$
+	public static final String RANGE = "Range"; //$NON-NLS-1$
+	public static final String IF_RANGE = "If-Range"; //$NON-NLS-1$
 
 	/**
 	 * This method tries to make peace between different browsers, versions and browser bugs for no-caching response headers.<br>
@@ -76,6 +86,16 @@ public class HTTPUtils
 //		response.setDateHeader("Expires", System.currentTimeMillis() + 5000);//$NON-NLS-1$ // works except for when system clocks are out of sync or when you do the operation in less then 5 secs.
 	}
 
+	/**
+	 * Sets response headers that let browsers and proxies keep the response for a year without checking it again.
+	 * Only to be used for urls that change when the content changes (for example with a fingerprint of the content).
+	 * @param response the HTTP response on which header fields will be set.
+	 */
+	public static void setImmutableCacheHeaders(HttpServletResponse response)
+	{
+		response.setHeader("Cache-Control", "public, max-age=31536000, immutable"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
 	/**
 	 * Checks if a requested resource has been modified or not. It will also set the "Last-Modified" header in response.<br><br>
 	 * If it has not been modified, it will return true and set response status HttpServletResponse.SC_NOT_MODIFIED.
@@ -94,4 +114,155 @@ public class HTTPUtils
 		}
 		return false;
 	}
+
+	/**
+	 * Checks if the browser already has the current version of a requested resource. It will also set the "ETag" header in response.<br><br>
+	 * If the "If-None-Match" header of the request contains the given entity tag, it will return true and set response status HttpServletResponse.SC_NOT_MODIFIED.
+	 * Otherwise it will just return false.
+	 * @param etag the (quoted) entity tag of the current version of the requested resource, see {@link #createETag(byte[])}.
+	 */
+	public static boolean checkAndSetETag(HttpServletRequest servletRequest, HttpServletResponse servletResponse, String etag)
+	{
+		servletResponse.setHeader(ETAG, etag);
+		String ifNoneMatch = servletRequest.getHeader(IF_NONE_MATCH);
+		if (ifNoneMatch != null)
+		{
+			for (String tag : ifNoneMatch.split(",")) //$NON-NLS-1$
+			{
+				String t = tag.trim();
+				// If-None-Match uses the weak comparison, so a weak tag of the same content matches as well
+				if (t.startsWith("W/")) t = t.substring(2); //$NON-NLS-1$
+				if (t.equals(etag) || t.equals("*")) //$NON-NLS-1$
+				{
+					servletResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks the "Accept-Encoding" header of the request.
+	 * @param encoding a content encoding, for example "gzip".
+	 * @return true if the browser accepts content in the given encoding.
+	 */
+	public static boolean acceptsEncoding(HttpServletRequest servletRequest, String encoding)
+	{
+		String acceptEncoding = servletRequest.getHeader(ACCEPT_ENCODING);
+		if (acceptEncoding == null) return false;
+
+		for (String accepted : acceptEncoding.split(",")) //$NON-NLS-1$
+		{
+			String[] parameters = accepted.split(";"); //$NON-NLS-1$
+			String name = parameters[0].trim();
+			if (name.equalsIgnoreCase(encoding) || name.equals("*")) //$NON-NLS-1$
+			{
+				for (int i = 1; i < parameters.length; i++)
+				{
+					String parameter = parameters[i].trim();
+					// a quality of 0 means not acceptable
+					if (parameter.startsWith("q=") && parameter.substring(2).matches("0(\\.0*)?")) return false; //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Creates a strong entity tag for the given content.
+	 * @return the quoted entity tag, a hash of the content.
+	 */
+	public static String createETag(byte[] content)
+	{
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("MD5").digest(content); //$NON-NLS-1$
+			StringBuilder etag = new StringBuilder(digest.length * 2 + 2);
+			etag.append('"');
+			for (byte b : digest)
+			{
+				etag.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return etag.append('"').toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// every java platform has MD5
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Decodes the escaped characters of a path as the browser sent it (see {@link HttpServletRequest#getRequestURI()}), so it can be checked and normalized.
+	 * @return the decoded path, null if it has invalid escapes.
+	 */
+	public static String decodePath(String path)
+	{
+		try
+		{
+			// a plus is not a space in a path
+			return URLDecoder.decode(path.replace("+", "%2B"), "UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		catch (IllegalArgumentException e)
+		{
+			return null;
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			// every java platform has UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Parses the value of a "Range" header that asks for one byte range, like "bytes=0-99", "bytes=100-" or "bytes=-100".
+	 * @param range the value of the header.
+	 * @param length the length of the content.
+	 * @return the first and last (inclusive) position of the requested bytes; an empty array if the range can't be satisfied;
+	 * null if it is not one byte range (multiple ranges are not supported), then the whole content should be sent.
+	 */
+	public static long[] parseByteRange(String range, long length)
+	{
+		if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) return null; //$NON-NLS-1$
+		String byteRange = range.substring(6).trim();
+		int dash = byteRange.indexOf('-');
+		if (dash < 0) return null;
+
+		try
+		{
+			long first;
+			long last;
+			if (dash == 0)
+			{
+				// the last bytes
+				long suffixLength = Long.parseLong(byteRange.substring(1).trim());
+				if (suffixLength <= 0) return new long[0];
+				first = Math.max(0, length - suffixLength);
+				last = length - 1;
+			}
+			else
+			{
+				first = Long.parseLong(byteRange.substring(0, dash).trim());
+				String lastPosition = byteRange.substring(dash + 1).trim();
+				if (lastPosition.length() == 0)
+				{
+					last = length - 1;
+				}
+				else
+				{
+					last = Long.parseLong(lastPosition);
+					if (last < first) return null;
+					last = Math.min(last, length - 1);
+				}
+			}
+			if (first < 0 || first >= length) return new long[0];
+			return new long[] { first, last };
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
 }
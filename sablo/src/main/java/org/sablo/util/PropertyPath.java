@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A property name split into it's parts, for nested property names like 'customObject.subProperty'.<br/><br/>
+ *
+ * Paths are cached, so names that are used over and over again are only split once. Names without a dot are never split or cached;
+ * {@link #of(String)} returns null for them, so the common case of a flat property name doesn't allocate anything.
+ */
+public final class PropertyPath
+{
+
+	/**
+	 * If more paths than this are cached the cache is cleared; the number of different nested names in an application is normally small.
+	 */
+	private static final int MAX_CACHED_PATHS = 4096;
+
+	private static final ConcurrentMap<String, PropertyPath> cache = new ConcurrentHashMap<>();
+
+	private final String[] parts;
+	private final String[] prefixes;
+
+	private PropertyPath(String propertyName)
+	{
+		// same result as propertyName.split("\\.")
+		List<String> list = new ArrayList<>(4);
+		int start = 0;
+		int dot;
+		while ((dot = propertyName.indexOf('.', start)) >= 0)
+		{
+			list.add(propertyName.substring(start, dot));
+			start = dot + 1;
+		}
+		list.add(propertyName.substring(start));
+		int size = list.size();
+		while (size > 1 && list.get(size - 1).length() == 0)
+		{
+			size--;
+		}
+
+		parts = list.subList(0, size).toArray(new String[size]);
+		prefixes = new String[size];
+		StringBuilder prefix = new StringBuilder(propertyName.length());
+		for (int i = 0; i < size; i++)
+		{
+			if (i > 0) prefix.append('.');
+			prefix.append(parts[i]);
+			prefixes[i] = prefix.toString();
+		}
+	}
+
+	/**
+	 * @return the (cached) path of the given property name or null if the name does not contain a dot.
+	 */
+	public static PropertyPath of(String propertyName)
+	{
+		if (propertyName.indexOf('.') < 0) return null;
+
+		PropertyPath path = cache.get(propertyName);
+		if (path == null)
+		{
+			path = new PropertyPath(propertyName);
+			if (cache.size() >= MAX_CACHED_PATHS) cache.clear();
+			cache.put(propertyName, path);
+		}
+		return path;
+	}
+
+	/**
+	 * @return true if the path has more than one part; a name that only has trailing dots (like 'name.') is not nested.
+	 */
+	public boolean isNested()
+	{
+		return parts.length > 1;
+	}
+
+	public int size()
+	{
+		return parts.length;
+	}
+
+	public String getPart(int index)
+	{
+		return parts[index];
+	}
+
+	public String getFirstPart()
+	{
+		return parts[0];
+	}
+
+	public String getLastPart()
+	{
+		return parts[parts.length - 1];
+	}
+
+	/**
+	 * @return the parts up to and including the part at the given index joined with dots.
+	 */
+	public String getPrefix(int index)
+	{
+		return prefixes[index];
+	}
+
+	@Override
+	public String toString()
+	{
+		return prefixes[prefixes.length - 1];
+	}
+
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.sablo.specification.PropertySlotLayout;
+
+/**
+ * Map of property values that stores the values of the properties that are declared in a specification in an array, using the slots of a {@link PropertySlotLayout}.
+ * Values for other property names are kept in a normal map that is only created when needed.<br/><br/>
+ *
+ * It uses a lot less memory than a HashMap for web objects that have many properties. Null values and null keys are supported like in a HashMap.
+ * Entries of declared properties are iterated in slot order, followed by the other entries.
+ */
+public class SlottedPropertyMap extends AbstractMap<String, Object>
+{
+
+	// marks a slot that holds a null value; empty slots are null
+	private static final Object NULL_VALUE = new Object();
+
+	private final PropertySlotLayout layout;
+	private Object[] values;
+	private int slotCount;
+	private Map<String, Object> undeclared;
+
+	public SlottedPropertyMap(PropertySlotLayout layout)
+	{
+		this.layout = layout;
+	}
+
+	private static Object unmask(Object value)
+	{
+		return value == NULL_VALUE ? null : value;
+	}
+
+	private int getSlot(Object key)
+	{
+		return key instanceof String ? layout.getSlot(key) : -1;
+	}
+
+	@Override
+	public Object get(Object key)
+	{
+		int slot = getSlot(key);
+		if (slot >= 0) return values == null ? null : unmask(values[slot]);
+		return undeclared == null ? null : undeclared.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		int slot = getSlot(key);
+		if (slot >= 0) return values != null && values[slot] != null;
+		return undeclared != null && undeclared.containsKey(key);
+	}
+
+	@Override
+	public Object put(String key, Object value)
+	{
+		int slot = getSlot(key);
+		if (slot >= 0)
+		{
+			if (values == null) values = new Object[layout.size()];
+			Object old = values[slot];
+			values[slot] = value == null ? NULL_VALUE : value;
+			if (old == null) slotCount++;
+			return unmask(old);
+		}
+
+		if (undeclared == null) undeclared = new HashMap<>(4);
+		return undeclared.put(key, value);
+	}
+
+	@Override
+	public Object remove(Object key)
+	{
+		int slot = getSlot(key);
+		if (slot >= 0)
+		{
+			if (values == null) return null;
+			Object old = values[slot];
+			if (old != null)
+			{
+				values[slot] = null;
+				slotCount--;
+			}
+			return unmask(old);
+		}
+		return undeclared == null ? null : undeclared.remove(key);
+	}
+
+	@Override
+	public int size()
+	{
+		return slotCount + (undeclared == null ? 0 : undeclared.size());
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	@Override
+	public void clear()
+	{
+		if (values != null) Arrays.fill(values, null);
+		slotCount = 0;
+		undeclared = null;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet()
+	{
+		return new AbstractSet<Map.Entry<String, Object>>()
+		{
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator()
+			{
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size()
+			{
+				return SlottedPropertyMap.this.size();
+			}
+
+			@Override
+			public void clear()
+			{
+				SlottedPropertyMap.this.clear();
+			}
+		};
+	}
+
+	private class SlotEntry implements Map.Entry<String, Object>
+	{
+
+		private final int slot;
+
+		SlotEntry(int slot)
+		{
+			this.slot = slot;
+		}
+
+		@Override
+		public String getKey()
+		{
+			return layout.getName(slot);
+		}
+
+		@Override
+		public Object getValue()
+		{
+			return unmask(values[slot]);
+		}
+
+		@Override
+		public Object setValue(Object value)
+		{
+			Object old = values[slot];
+			values[slot] = value == null ? NULL_VALUE : value;
+			return unmask(old);
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Map.Entry)) return false;
+			Map.Entry< ? , ? > e = (Map.Entry< ? , ? >)o;
+			Object value = getValue();
+			return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+		}
+
+		@Override
+		public int hashCode()
+		{
+			Object value = getValue();
+			return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString()
+		{
+			return getKey() + "=" + getValue();
+		}
+
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<String, Object>>
+	{
+
+		private int nextSlot = -1;
+		private int lastSlot = -1;
+		private Iterator<Map.Entry<String, Object>> undeclaredIterator;
+
+		EntryIterator()
+		{
+			advance();
+		}
+
+		private void advance()
+		{
+			nextSlot++;
+			if (values != null)
+			{
+				while (nextSlot < values.length && values[nextSlot] == null)
+				{
+					nextSlot++;
+				}
+			}
+		}
+
+		private boolean hasNextSlot()
+		{
+			return values != null && nextSlot < values.length;
+		}
+
+		private Iterator<Map.Entry<String, Object>> getUndeclaredIterator()
+		{
+			if (undeclaredIterator == null && undeclared != null) undeclaredIterator = undeclared.entrySet().iterator();
+			return undeclaredIterator;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			if (hasNextSlot()) return true;
+			Iterator<Map.Entry<String, Object>> it = getUndeclaredIterator();
+			return it != null && it.hasNext();
+		}
+
+		@Override
+		public Map.Entry<String, Object> next()
+		{
+			if (hasNextSlot())
+			{
+				lastSlot = nextSlot;
+				advance();
+				return new SlotEntry(lastSlot);
+			}
+
+			lastSlot = -1;
+			Iterator<Map.Entry<String, Object>> it = getUndeclaredIterator();
+			if (it == null) throw new NoSuchElementException();
+			return it.next();
+		}
+
+		@Override
+		public void remove()
+		{
+			if (lastSlot >= 0)
+			{
+				values[lastSlot] = null;
+				slotCount--;
+				lastSlot = -1;
+			}
+			else if (undeclaredIterator != null)
+			{
+				undeclaredIterator.remove();
+			}
+			else
+			{
+				throw new IllegalStateException();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.util;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.sablo.specification.PropertySlotLayout;
+
+/**
+ * Set of property names that keeps the properties declared in a specification as bits, using the slots of a {@link PropertySlotLayout}.
+ * Other property names are kept in a normal set that is only created when needed.
+ */
+public class SlottedPropertySet extends AbstractSet<String>
+{
+
+	private final PropertySlotLayout layout;
+	private final BitSet slots = new BitSet();
+	private int slotCount;
+	private Set<String> undeclared;
+
+	public SlottedPropertySet(PropertySlotLayout layout)
+	{
+		this.layout = layout;
+	}
+
+	@Override
+	public boolean add(String propertyName)
+	{
+		int slot = layout.getSlot(propertyName);
+		if (slot >= 0)
+		{
+			if (slots.get(slot)) return false;
+			slots.set(slot);
+			slotCount++;
+			return true;
+		}
+
+		if (undeclared == null) undeclared = new HashSet<>(4);
+		return undeclared.add(propertyName);
+	}
+
+	@Override
+	public boolean remove(Object propertyName)
+	{
+		int slot = layout.getSlot(propertyName);
+		if (slot >= 0)
+		{
+			if (!slots.get(slot)) return false;
+			slots.clear(slot);
+			slotCount--;
+			return true;
+		}
+		return undeclared != null && undeclared.remove(propertyName);
+	}
+
+	@Override
+	public boolean contains(Object propertyName)
+	{
+		int slot = layout.getSlot(propertyName);
+		if (slot >= 0) return slots.get(slot);
+		return undeclared != null && undeclared.contains(propertyName);
+	}
+
+	@Override
+	public int size()
+	{
+		return slotCount + (undeclared == null ? 0 : undeclared.size());
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return size() == 0;
+	}
+
+	@Override
+	public void clear()
+	{
+		slots.clear();
+		slotCount = 0;
+		undeclared = null;
+	}
+
+	@Override
+	public Iterator<String> iterator()
+	{
+		return new Iterator<String>()
+		{
+			private int nextSlot = slots.nextSetBit(0);
+			private int lastSlot = -1;
+			private Iterator<String> undeclaredIterator;
+
+			private Iterator<String> getUndeclaredIterator()
+			{
+				if (undeclaredIterator == null && undeclared != null) undeclaredIterator = undeclared.iterator();
+				return undeclaredIterator;
+			}
+
+			@Override
+			public boolean hasNext()
+			{
+				if (nextSlot >= 0) return true;
+				Iterator<String> it = getUndeclaredIterator();
+				return it != null && it.hasNext();
+			}
+
+			@Override
+			public String next()
+			{
+				if (nextSlot >= 0)
+				{
+					lastSlot = nextSlot;
+					nextSlot = slots.nextSetBit(nextSlot + 1);
+					return layout.getName(lastSlot);
+				}
+
+				lastSlot = -1;
+				Iterator<String> it = getUndeclaredIterator();
+				if (it == null) throw new NoSuchElementException();
+				return it.next();
+			}
+
+			@Override
+			public void remove()
+			{
+				if (lastSlot >= 0)
+				{
+					slots.clear(lastSlot);
+					slotCount--;
+					lastSlot = -1;
+				}
+				else if (undeclaredIterator != null)
+				{
+					undeclaredIterator.remove();
+				}
+				else
+				{
+					throw new IllegalStateException();
+				}
+			}
+		};
+	}
+
+}
@@ -25,12 +25,15 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.json.JSONObject;
 import org.sablo.IChangeListener;
 import org.sablo.eventthread.EventDispatcher;
 import org.sablo.eventthread.IEventDispatcher;
+import org.sablo.eventthread.SharedPoolEventDispatcher;
 import org.sablo.eventthread.WebsocketSessionWindows;
 import org.sablo.services.client.SabloService;
 import org.sablo.services.server.FormServiceHandler;
@@ -59,10 +62,25 @@ public abstract class BaseWebsocketSession implements IWebsocketSession, IChange
 
 	private final String uuid;
 	private volatile IEventDispatcher executor;
+	private volatile Executor eventDispatcherExecutor;
 
 	private final AtomicInteger handlingEvent = new AtomicInteger(0);
 
 	private boolean proccessChanges;
+	private final AtomicBoolean changesFlushScheduled = new AtomicBoolean(false);
+	private final Runnable changesFlush = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			changesFlushScheduled.set(false);
+			if (getWindows().isEmpty()) return;
+
+			ChangesFlushScheduler.flushed();
+			// the changes are sent when this (empty) event is done, see stopHandlingEvent()
+			getEventDispatcher().addEvent(null);
+		}
+	};
 	private final WebsocketSessionWindows allWindowsProxy = new WebsocketSessionWindows(this);
 
 
@@ -232,6 +250,30 @@ public abstract class BaseWebsocketSession implements IWebsocketSession, IChange
 		}
 	}
 
+	/**
+	 * Returns the earliest time at which {@link #checkForWindowActivity()} could find a window that timed out (or find no windows at all).
+	 * Windows that are connected without pings can only time out after being disconnected, so that is never later than now + the window timeout.
+	 */
+	public long getNextWindowActivityCheck()
+	{
+		long currentTime = System.currentTimeMillis();
+		long timeout = getWindowTimeout();
+		synchronized (windows)
+		{
+			if (windows.size() == 0) return currentTime;
+
+			long next = currentTime + timeout + 1;
+			for (ObjectReference<IWindow> ref : windows)
+			{
+				IWindow window = ref.getObject();
+				if (!window.hasEndpoint()) next = Math.min(next, ref.getLastAccessed() + timeout + 1);
+				long lastPingTime = window.getLastPingTime();
+				if (lastPingTime != 0) next = Math.min(next, lastPingTime + timeout + 1);
+			}
+			return next;
+		}
+	}
+
 	@Override
 	public long getWindowTimeout()
 	{
@@ -270,9 +312,14 @@ public abstract class BaseWebsocketSession implements IWebsocketSession, IChange
 			{
 				if (executor == null)
 				{
-					Thread thread = new Thread(executor = createEventDispatcher(), "Executor,uuid:" + uuid);
-					thread.setDaemon(true);
-					thread.start();
+					IEventDispatcher dispatcher = createEventDispatcher();
+					if (!(dispatcher instanceof SharedPoolEventDispatcher))
+					{
+						Thread thread = new Thread(dispatcher, "Executor,uuid:" + uuid);
+						thread.setDaemon(true);
+						thread.start();
+					}
+					executor = dispatcher;
 				}
 			}
 		}
@@ -280,13 +327,33 @@ public abstract class BaseWebsocketSession implements IWebsocketSession, IChange
 	}
 
 	/**
-	 * Method to create the {@link IEventDispatcher} runnable
+	 * Method to create the {@link IEventDispatcher} runnable.
+	 * If an executor was given via {@link #setEventDispatcherExecutor(Executor)} a {@link SharedPoolEventDispatcher} is created, otherwise the dispatcher
+	 * gets a dedicated thread.
 	 */
 	protected IEventDispatcher createEventDispatcher()
 	{
+		Executor sharedExecutor = eventDispatcherExecutor;
+		if (sharedExecutor != null) return new SharedPoolEventDispatcher(this, sharedExecutor);
 		return new EventDispatcher(this);
 	}
 
+	/**
+	 * Makes this session dispatch its events on threads of the given executor (see {@link SharedPoolEventDispatcher}) instead of on a dedicated thread.
+	 * This is meant to be called by {@link IWebsocketSessionFactory#createSession(String)} implementations, before the event dispatcher is used.
+	 *
+	 * @param sharedExecutor the executor to use, for example {@link SharedPoolEventDispatcher#getSharedExecutor()}; null to use a dedicated thread.
+	 */
+	public void setEventDispatcherExecutor(Executor sharedExecutor)
+	{
+		if (executor != null)
+		{
+			log.warn("Event dispatcher executor was set after the event dispatcher of session " + uuid + " was already created; ignoring.");
+			return;
+		}
+		this.eventDispatcherExecutor = sharedExecutor;
+	}
+
 	public void onOpen(final Map<String, List<String>> requestParams)
 	{
 	}
@@ -400,11 +467,28 @@ public abstract class BaseWebsocketSession implements IWebsocketSession, IChange
 	public void stopHandlingEvent()
 	{
 		handlingEvent.decrementAndGet();
-		valueChanged();
+		pushChanges();
 	}
 
 	@Override
 	public void valueChanged()
+	{
+		if (ChangesFlushScheduler.isEnabled())
+		{
+			// batch the changes that happen outside of events; they are sent from the event thread after the flush delay
+			if (CurrentWindow.exists() && CurrentWindow.get().hasEndpoint() && handlingEvent.get() == 0)
+			{
+				ChangesFlushScheduler.pushRequested();
+				if (changesFlushScheduled.compareAndSet(false, true)) ChangesFlushScheduler.scheduleFlush(changesFlush);
+			}
+		}
+		else
+		{
+			pushChanges();
+		}
+	}
+
+	private void pushChanges()
 	{
 		// if there is an incoming message or an Event running on event thread, postpone sending until it's done; else push it.
 		if (!proccessChanges && CurrentWindow.exists() && CurrentWindow.get().hasEndpoint() && handlingEvent.get() == 0)
@@ -17,9 +17,11 @@
 package org.sablo.websocket;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -32,11 +34,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 import javax.websocket.CloseReason;
 
 import org.json.JSONException;
-import org.json.JSONStringer;
 import org.json.JSONWriter;
 import org.sablo.BaseWebObject;
 import org.sablo.Container;
 import org.sablo.WebComponent;
+import org.sablo.metrics.Metrics;
 import org.sablo.specification.PropertyDescription;
 import org.sablo.specification.WebObjectApiDefinition;
 import org.sablo.specification.WebObjectSpecification.PushToServerEnum;
@@ -59,7 +61,7 @@ import org.slf4j.LoggerFactory;
  * @author jcompagner, rgansevles
  */
 
-public class BaseWindow implements IWindow
+public class BaseWindow implements IResumableWindow
 {
 	private static final Logger log = LoggerFactory.getLogger(BaseWindow.class.getCanonicalName());
 
@@ -71,6 +73,9 @@ public class BaseWindow implements IWindow
 	private final String name;
 
 	private final AtomicInteger nextMessageId = new AtomicInteger(0);
+	private final ReplayBuffer replayBuffer = ReplayBuffer.create();
+	// sync calls to the browser that were waiting for a response when the endpoint closed, until the browser resumes
+	private Map<Integer, List<Object>> pendingResponses;
 
 	private final List<Map<String, ? >> serviceCalls = new ArrayList<>();
 	private final List<Map<String, Object>> delayedApiCalls = new ArrayList<>();
@@ -161,6 +166,94 @@ public class BaseWindow implements IWindow
 		}
 	}
 
+	/**
+	 * Called instead of {@link #onOpen()} when a browser reconnects to this window without reloading, giving the sequence number of the last message
+	 * it received. When all messages sent after that one are still available they are sent again (as text messages) so the browser does not need a full resync.
+	 *
+	 * @return true if the browser got the messages it missed; false if it needs a full resync (replaying is disabled or the messages were already dropped).
+	 */
+	@Override
+	public boolean resume(long lastReceivedSequence)
+	{
+		IWebsocketEndpoint currentEndpoint = endpoint;
+		List<ReplayBuffer.Message> missedMessages = replayBuffer != null ? replayBuffer.getMessagesAfter(lastReceivedSequence) : null;
+		if (currentEndpoint == null || missedMessages == null) return false;
+
+		boolean binaryEndpoint = currentEndpoint instanceof IStreamingWebsocketEndpoint && ((IStreamingWebsocketEndpoint)currentEndpoint).isBinaryProtocol();
+		for (ReplayBuffer.Message message : missedMessages)
+		{
+			// the browser reconnected with another protocol, it can't get the binary messages
+			if (message.isBinary() && !binaryEndpoint) return false;
+		}
+
+		try
+		{
+			currentEndpoint.sendText("{\"resume\":true}");
+			for (ReplayBuffer.Message message : missedMessages)
+			{
+				if (message.isBinary())
+				{
+					IMessageWriter messageWriter = ((IStreamingWebsocketEndpoint)currentEndpoint).createMessageWriter(CompressionStatistics.KIND_MESSAGE);
+					((OutputStream)messageWriter).write(message.getContent());
+					messageWriter.close();
+				}
+				else
+				{
+					currentEndpoint.sendText(message.getText());
+				}
+			}
+			if (log.isDebugEnabled()) log.debug("Resumed window " + uuid + " after message " + lastReceivedSequence + ", resent " + missedMessages.size() + " messages");
+			Metrics.get().increment(Metrics.RESUMED_WINDOWS, currentEndpoint.getEndpointType(), 1);
+			Metrics.get().record(Metrics.REPLAYED_MESSAGES, currentEndpoint.getEndpointType(), missedMessages.size());
+			return true;
+		}
+		catch (IOException e)
+		{
+			log.warn("Could not resend missed messages to reconnected browser of window " + uuid, e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return the buffer of the messages that are sent again to a browser that reconnects (see {@link #resume(long)}), null if not replaying.
+	 */
+	ReplayBuffer getReplayBuffer()
+	{
+		return replayBuffer;
+	}
+
+	/**
+	 * Keeps the sync calls that are waiting for a response of the browser when the endpoint closed; the browser answers them
+	 * after it resumed, as the calls are replayed including their message id.
+	 */
+	synchronized void keepPendingResponses(Map<Integer, List<Object>> responses)
+	{
+		if (pendingResponses == null) pendingResponses = new HashMap<>();
+		pendingResponses.putAll(responses);
+	}
+
+	/**
+	 * @return the sync calls that were kept by {@link #keepPendingResponses(Map)}, they are not kept anymore.
+	 */
+	synchronized Map<Integer, List<Object>> takePendingResponses()
+	{
+		Map<Integer, List<Object>> responses = pendingResponses;
+		pendingResponses = null;
+		return responses != null ? responses : Collections.<Integer, List<Object>> emptyMap();
+	}
+
+	/**
+	 * Stops waiting for responses of the browser; used when the browser can't send them anymore.
+	 */
+	void cancelPendingResponses(Map<Integer, List<Object>> responses, String reason)
+	{
+		if (responses.isEmpty() || session == null) return;
+		for (Integer messageId : responses.keySet())
+		{
+			session.getEventDispatcher().cancelSuspend(messageId, reason);
+		}
+	}
+
 	protected void sendServices() throws IOException
 	{
 		// send all the service data to the browser.
@@ -237,6 +330,7 @@ public class BaseWindow implements IWindow
 	public final void dispose()
 	{
 		onDispose();
+		cancelPendingResponses(takePendingResponses(), "Window disposed");
 		if (endpoint != null)
 		{
 			endpoint.closeSession(new CloseReason(CloseReason.CloseCodes.SERVICE_RESTART, "Window disposed because of ping timeout"));
@@ -381,8 +475,8 @@ public class BaseWindow implements IWindow
 		boolean blockEventProcessing) throws IOException, CancellationException, TimeoutException
 	{
 		Integer messageId = new Integer(nextMessageId.incrementAndGet());
-		String sentText = sendMessageInternal(dataWriter, converter, messageId);
-		return sentText != null ? endpoint.waitResponse(messageId, sentText, blockEventProcessing) : null;
+		boolean sent = sendMessageInternal(dataWriter, converter, messageId);
+		return sent ? endpoint.waitResponse(messageId, null, blockEventProcessing) : null;
 	}
 
 	/**
@@ -399,30 +493,43 @@ public class BaseWindow implements IWindow
 		sendMessageInternal(dataWriter, converter, null);
 	}
 
+	protected boolean sendMessageInternal(IToJSONWriter<IBrowserConverterContext> dataWriter, IToJSONConverter<IBrowserConverterContext> converter,
+		Integer smsgidOptional) throws IOException
+	{
+		String messageKind;
+		if (smsgidOptional != null) messageKind = CompressionStatistics.KIND_SYNC_MESSAGE;
+		else if (converter == ChangesToJSONConverter.INSTANCE) messageKind = CompressionStatistics.KIND_CHANGES;
+		else messageKind = CompressionStatistics.KIND_MESSAGE;
+		return sendMessageInternal(dataWriter, converter, smsgidOptional, messageKind);
+	}
+
 	/**
-	 * Returns the text that it really sent...
+	 * Writes the message directly to the endpoint (see {@link IStreamingWebsocketEndpoint#createMessageWriter(String)}), so big messages are sent while they are being written.
+	 * Endpoints that don't implement {@link IStreamingWebsocketEndpoint} get the complete message with {@link IWebsocketEndpoint#sendText(String)}.
+	 *
+	 * @param messageKind the kind of message, for statistics.
+	 * @return true if a message was sent, false if there was nothing to send.
 	 */
-	protected String sendMessageInternal(IToJSONWriter<IBrowserConverterContext> dataWriter, IToJSONConverter<IBrowserConverterContext> converter,
-		Integer smsgidOptional) throws IOException
+	protected boolean sendMessageInternal(IToJSONWriter<IBrowserConverterContext> dataWriter, IToJSONConverter<IBrowserConverterContext> converter,
+		Integer smsgidOptional, String messageKind) throws IOException
 	{
-		if (dataWriter == null && serviceCalls.size() == 0 && delayedApiCalls.size() == 0) return null;
+		if (dataWriter == null && serviceCalls.size() == 0 && delayedApiCalls.size() == 0) return false;
 
-		if (endpoint == null)
+		IWebsocketEndpoint currentEndpoint = endpoint;
+		if (currentEndpoint == null)
 		{
 			throw new IOException("Endpoint was closed");
 		}
 
+		IMessageWriter messageWriter = createMessageWriter(currentEndpoint, messageKind);
+		boolean sent = false;
+		boolean replayable = false;
 		try
 		{
 			boolean hasContentToSend = false;
-			JSONStringer w = new JSONStringer()
-			{
-				@Override
-				public String toString()
-				{
-					return writer.toString();
-				};
-			};
+			// keep a copy of what is sent so it can be sent again to a browser that reconnects
+			if (replayBuffer != null) messageWriter.keepCopy(replayBuffer.getMaxBytes());
+			JSONWriter w = messageWriter.getJSONWriter();
 			w.object();
 			DataConversion clientDataConversions = new DataConversion();
 
@@ -462,7 +569,7 @@ public class BaseWindow implements IWindow
 						}
 						PropertyDescription callTypes = (PropertyDescription)delayedCall.remove("callTypes");
 						w.object().key("call").object();
-						clientDataConversions.pushNode(String.valueOf(callIdx));
+						clientDataConversions.pushNode(callIdx);
 						clientDataConversions.pushNode("call");
 						JSONUtils.writeData(converter, w, delayedCall, callTypes, clientDataConversions,
 							new BrowserConverterContext(component, PushToServerEnum.allow));
@@ -478,32 +585,90 @@ public class BaseWindow implements IWindow
 					w.endArray();
 				}
 			}
-			String text = null;
-
-			if (hasContentToSend)
+			if (hasContentToSend || messageWriter.hasSentFragments())
 			{
 				if (smsgidOptional != null)
 				{
+					// also replayed, the call keeps waiting for the response when the browser resumes
 					w.key("smsgid").value(smsgidOptional);
 				}
 				JSONUtils.writeClientConversions(w, clientDataConversions);
+				long sequence = 0;
+				if (replayBuffer != null)
+				{
+					sequence = replayBuffer.nextSequence();
+					w.key("seq").value(sequence);
+				}
 				w.endObject();
 
-				text = w.toString();
-				endpoint.sendText(text);
+				try
+				{
+					messageWriter.close();
+					sent = true;
+				}
+				finally
+				{
+					// also kept when sending fails, the browser can get it when it reconnects
+					if (replayBuffer != null)
+					{
+						replayBuffer.add(sequence, messageWriter);
+						replayable = true;
+					}
+				}
 				serviceCalls.clear();
 			}
 
-			return text;
+			return sent;
 		}
 		catch (JSONException e)
 		{
 			throw new IOException(e);
 		}
+		finally
+		{
+			if (!sent)
+			{
+				// the browser got part of a message that can't be sent again, it can only do a full resync
+				if (replayBuffer != null && !replayable && messageWriter.hasSentFragments()) replayBuffer.invalidate();
+				messageWriter.discard();
+			}
+		}
+	}
+
+	private static IMessageWriter createMessageWriter(final IWebsocketEndpoint currentEndpoint, String messageKind)
+	{
+		if (currentEndpoint instanceof IStreamingWebsocketEndpoint)
+		{
+			return ((IStreamingWebsocketEndpoint)currentEndpoint).createMessageWriter(messageKind);
+		}
+
+		return new TextMessageWriter(Integer.MAX_VALUE)
+		{
+			@Override
+			protected void sendMessage(String text) throws IOException
+			{
+				currentEndpoint.sendText(text);
+			}
+
+			@Override
+			protected void sendFragment(String fragment, boolean last) throws IOException
+			{
+				throw new IllegalStateException("not fragmented");
+			}
+		};
 	}
 
 	public void sendChanges() throws IOException
 	{
+		IWebsocketEndpoint currentEndpoint = endpoint;
+		if (currentEndpoint instanceof IStreamingWebsocketEndpoint && ((IStreamingWebsocketEndpoint)currentEndpoint).isBackpressured())
+		{
+			// the browser can't keep up; changes keep accumulating and are sent when the endpoint's send queue has drained
+			return;
+		}
+
+		long start = Metrics.isEnabled() ? System.nanoTime() : 0;
+
 		// TODO this should not send to the currently active end-point, but to each of all end-points their own changes...
 		// so that any change from 1 end-point request ends up in all the end points.
 		sendAsyncMessage(new IToJSONWriter<IBrowserConverterContext>()
@@ -528,6 +693,11 @@ public class BaseWindow implements IWindow
 				return changesFound;
 			}
 		}, ChangesToJSONConverter.INSTANCE);
+
+		if (start != 0)
+		{
+			Metrics.get().record(Metrics.SEND_CHANGES_TIME, currentEndpoint != null ? currentEndpoint.getEndpointType() : null, System.nanoTime() - start);
+		}
 	}
 
 
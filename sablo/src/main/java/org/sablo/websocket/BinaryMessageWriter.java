@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sablo.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.json.JSONWriter;
+import org.sablo.websocket.utils.BinaryJSONWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stream for one binary message that is sent to the browser while it is being written; the binary counterpart of {@link TextMessageWriter}.<br/><br/>
+ *
+ * Written bytes are buffered; each time the buffer is full its contents are sent as a partial message.
+ * The last part is sent when the stream is closed. If the whole message fits in the buffer it is sent as a normal (not fragmented) message.
+ * The buffer starts small and grows up to the fragment size, so small messages don't allocate a buffer of the fragment size.
+ * The JSON content is encoded with {@link BinaryJSONWriter}.
+ *
+ * @see IStreamingWebsocketEndpoint#createMessageWriter(String)
+ */
+public abstract class BinaryMessageWriter extends OutputStream implements IMessageWriter
+{
+	private static final Logger log = LoggerFactory.getLogger(BinaryMessageWriter.class.getCanonicalName());
+
+	public static final int DEFAULT_FRAGMENT_SIZE = 64 * 1024;
+
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private final int fragmentSize;
+	private byte[] buffer;
+	private int count;
+	private boolean fragmentsSent;
+	private boolean closed;
+	private JSONWriter jsonWriter;
+	private ByteArrayOutputStream copy;
+	private int maxCopy;
+
+	public BinaryMessageWriter()
+	{
+		this(DEFAULT_FRAGMENT_SIZE);
+	}
+
+	/**
+	 * @param fragmentSize the number of bytes that are sent per fragment; with Integer.MAX_VALUE the message is never fragmented.
+	 */
+	public BinaryMessageWriter(int fragmentSize)
+	{
+		this.fragmentSize = fragmentSize;
+		buffer = new byte[Math.min(fragmentSize, INITIAL_BUFFER_SIZE)];
+	}
+
+	@Override
+	public JSONWriter getJSONWriter()
+	{
+		if (jsonWriter == null) jsonWriter = new BinaryJSONWriter(this);
+		return jsonWriter;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		if (closed) throw new IOException("Message was already sent or discarded");
+
+		buffer[count] = (byte)b;
+		copy(buffer, count, 1);
+		count++;
+		if (count == buffer.length) bufferFull();
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if (closed) throw new IOException("Message was already sent or discarded");
+
+		int offset = off;
+		int remaining = len;
+		while (remaining > 0)
+		{
+			int n = Math.min(remaining, buffer.length - count);
+			System.arraycopy(b, offset, buffer, count, n);
+			copy(buffer, count, n);
+			count += n;
+			offset += n;
+			remaining -= n;
+			if (count == buffer.length) bufferFull();
+		}
+	}
+
+	private void copy(byte[] bytes, int offset, int length)
+	{
+		if (copy == null) return;
+		if (copy.size() + length > maxCopy) copy = null;
+		else copy.write(bytes, offset, length);
+	}
+
+	private void bufferFull() throws IOException
+	{
+		if (buffer.length < fragmentSize)
+		{
+			byte[] grown = new byte[(int)Math.min(buffer.length * 2L, fragmentSize)];
+			System.arraycopy(buffer, 0, grown, 0, count);
+			buffer = grown;
+		}
+		else
+		{
+			sendBufferAsFragment();
+		}
+	}
+
+	private void sendBufferAsFragment() throws IOException
+	{
+		if (!fragmentsSent)
+		{
+			startFragmentedMessage();
+			fragmentsSent = true;
+		}
+		// the buffer is reused, so send a copy
+		sendFragment(ByteBuffer.wrap(buffer.clone(), 0, count), false);
+		count = 0;
+	}
+
+	/**
+	 * Sends what is left of the message.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (closed) return;
+		closed = true;
+
+		try
+		{
+			if (fragmentsSent) sendFragment(ByteBuffer.wrap(buffer, 0, count), true);
+			else sendMessage(ByteBuffer.wrap(buffer, 0, count));
+		}
+		finally
+		{
+			buffer = null;
+			if (fragmentsSent) endFragmentedMessage();
+		}
+	}
+
+	/**
+	 * Drops the content that was not sent yet. If parts of the message were already sent, the message is ended with what was sent so far
+	 * (so the browser will get an incomplete message) as other messages can't be sent before that one is complete; {@link #incompleteMessageSent()} is called then.
+	 */
+	@Override
+	public void discard()
+	{
+		if (closed) return;
+		closed = true;
+
+		buffer = null;
+		if (fragmentsSent)
+		{
+			try
+			{
+				sendFragment(ByteBuffer.allocate(0), true);
+			}
+			catch (IOException e)
+			{
+				log.warn("Could not end partially sent message", e);
+			}
+			finally
+			{
+				endFragmentedMessage();
+			}
+			incompleteMessageSent();
+		}
+	}
+
+	@Override
+	public boolean hasSentFragments()
+	{
+		return fragmentsSent;
+	}
+
+	@Override
+	public void keepCopy(int maxBytes)
+	{
+		copy = new ByteArrayOutputStream();
+		maxCopy = maxBytes;
+	}
+
+	@Override
+	public byte[] getCopy()
+	{
+		return copy != null ? copy.toByteArray() : null;
+	}
+
+	@Override
+	public boolean isBinaryContent()
+	{
+		return true;
+	}
+
+	/**
+	 * Sends the whole message at once; used when it fits in the buffer. The writer does not use the data anymore afterwards, so it can be kept.
+	 */
+	protected abstract void sendMessage(ByteBuffer data) throws IOException;
+
+	/**
+	 * Sends a part of the message.
+	 */
+	protected abstract void sendFragment(ByteBuffer fragment, boolean last) throws IOException;
+
+	/**
+	 * Called before the first fragment is sent. Can be used to make sure no other message is sent before this one is complete.
+	 *
+	 * @throws IOException when the message can't be sent in fragments now, then nothing is sent.
+	 */
+	protected void startFragmentedMessage() throws IOException
+	{
+	}
+
+	/**
+	 * Called after the last fragment was sent (or failed to be sent).
+	 */
+	protected void endFragmentedMessage()
+	{
+	}
+
+	/**
+	 * Called when a message of which parts were already sent is discarded; the browser then got a message that it cannot parse
+	 * and is no longer in sync with the server. Does nothing by default.
+	 */
+	protected void incompleteMessageSent()
+	{
+	}
+
+}
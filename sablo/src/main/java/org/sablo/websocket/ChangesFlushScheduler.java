@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.websocket;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.sablo.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Batches the pushes of changes that happen outside of events (for example from timers or data broadcasts) so that all changes done within
+ * a short time window are sent to the browser in one message instead of one message per changed property.<br/><br/>
+ *
+ * The time window can be set in milliseconds via system property {@link #PROPERTY_FLUSH_DELAY}; 0 (the default) pushes changes immediately.
+ * The requested pushes and the flushes that were really done are reported to {@link Metrics} ({@link Metrics#REQUESTED_CHANGE_PUSHES} and
+ * {@link Metrics#CHANGE_FLUSHES}), so the number of saved websocket messages can be monitored.
+ *
+ * @see BaseWebsocketSession#valueChanged()
+ */
+public class ChangesFlushScheduler
+{
+	private static final Logger log = LoggerFactory.getLogger(ChangesFlushScheduler.class.getCanonicalName());
+
+	public static final String PROPERTY_FLUSH_DELAY = "sablo.changes.flushDelay";
+	public static final long DEFAULT_FLUSH_DELAY = 0;
+
+	private static final long FLUSH_DELAY;
+
+	static
+	{
+		long delay;
+		try
+		{
+			delay = Long.parseLong(System.getProperty(PROPERTY_FLUSH_DELAY, String.valueOf(DEFAULT_FLUSH_DELAY)));
+		}
+		catch (NumberFormatException e)
+		{
+			delay = DEFAULT_FLUSH_DELAY;
+			log.error("Please check system property values. '" + PROPERTY_FLUSH_DELAY + "' is not a number.");
+		}
+		FLUSH_DELAY = delay;
+	}
+
+	private static volatile ScheduledExecutorService scheduler;
+
+	private ChangesFlushScheduler()
+	{
+	}
+
+	/**
+	 * @return true if pushes of changes should be batched, false if they should be sent immediately.
+	 */
+	public static boolean isEnabled()
+	{
+		return FLUSH_DELAY > 0;
+	}
+
+	/**
+	 * Runs the given flush after the configured delay.
+	 */
+	static void scheduleFlush(Runnable flush)
+	{
+		getScheduler().schedule(flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	static void pushRequested()
+	{
+		Metrics.get().increment(Metrics.REQUESTED_CHANGE_PUSHES, null, 1);
+	}
+
+	static void flushed()
+	{
+		Metrics.get().increment(Metrics.CHANGE_FLUSHES, null, 1);
+	}
+
+	private static ScheduledExecutorService getScheduler()
+	{
+		if (scheduler == null)
+		{
+			synchronized (ChangesFlushScheduler.class)
+			{
+				if (scheduler == null)
+				{
+					scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+					{
+						@Override
+						public Thread newThread(Runnable r)
+						{
+							Thread thread = new Thread(r, "Sablo changes flusher");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+				}
+			}
+		}
+		return scheduler;
+	}
+
+}
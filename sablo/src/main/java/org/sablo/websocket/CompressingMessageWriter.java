@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sablo.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.json.JSONWriter;
+import org.sablo.websocket.utils.BinaryJSONWriter;
+
+/**
+ * Writer for one message that is compressed (zlib deflate) if it is bigger than a threshold; used by {@link WebsocketEndpoint} when the
+ * websocket compression extension was not negotiated with the browser.<br/><br/>
+ *
+ * Content is buffered until the threshold is reached; smaller messages are sent as they would be without compression. Bigger messages are sent
+ * in a binary frame that starts with {@link #DEFLATED_TEXT} or {@link #DEFLATED_BINARY} (for JSON text or {@link BinaryJSONWriter} content) followed
+ * by the compressed content; from the threshold on, the content is compressed and sent while it is being written.
+ */
+public abstract class CompressingMessageWriter extends OutputStream implements IMessageWriter
+{
+	public static final int DEFLATED_TEXT = 1;
+	public static final int DEFLATED_BINARY = 2;
+
+	private final String messageKind;
+	private final boolean binaryContent;
+	private final int threshold;
+	private byte[] buffer;
+	private int count;
+
+	private JSONWriter jsonWriter;
+	private Writer textWriter;
+
+	private Deflater deflater;
+	private DeflaterOutputStream deflating;
+	private BinaryMessageWriter compressedMessage;
+	private boolean closed;
+	private ByteArrayOutputStream copy;
+	private int maxCopy;
+
+	/**
+	 * @param binaryContent true if the content should be encoded using {@link BinaryJSONWriter}, false for JSON text.
+	 * @param threshold messages of this number of bytes or more are compressed.
+	 */
+	public CompressingMessageWriter(String messageKind, boolean binaryContent, int threshold)
+	{
+		this.messageKind = messageKind;
+		this.binaryContent = binaryContent;
+		this.threshold = threshold;
+		// grows up to the threshold, most messages are a lot smaller
+		this.buffer = new byte[Math.min(threshold, 1024)];
+	}
+
+	@Override
+	public JSONWriter getJSONWriter()
+	{
+		if (jsonWriter == null)
+		{
+			if (binaryContent)
+			{
+				jsonWriter = new BinaryJSONWriter(this);
+			}
+			else
+			{
+				textWriter = new OutputStreamWriter(this, StandardCharsets.UTF_8);
+				jsonWriter = new JSONWriter(textWriter);
+			}
+		}
+		return jsonWriter;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		write(new byte[] { (byte)b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if (closed) throw new IOException("Message was already sent or discarded");
+
+		if (copy != null)
+		{
+			if (copy.size() + len > maxCopy) copy = null;
+			else copy.write(b, off, len);
+		}
+
+		if (deflating != null)
+		{
+			deflating.write(b, off, len);
+			return;
+		}
+
+		int n = Math.min(len, threshold - count);
+		if (count + n > buffer.length) buffer = Arrays.copyOf(buffer, (int)Math.min(threshold, Math.max(count + n, buffer.length * 2L)));
+		System.arraycopy(b, off, buffer, count, n);
+		count += n;
+		if (count == threshold)
+		{
+			startCompressing();
+			if (n < len) deflating.write(b, off + n, len - n);
+		}
+	}
+
+	private void startCompressing() throws IOException
+	{
+		compressedMessage = createCompressedMessageWriter();
+		compressedMessage.write(binaryContent ? DEFLATED_BINARY : DEFLATED_TEXT);
+		deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+		deflating = new DeflaterOutputStream(compressedMessage, deflater, 8192);
+		deflating.write(buffer, 0, count);
+		buffer = null;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (closed) return;
+		if (textWriter != null) textWriter.flush();
+		closed = true;
+
+		if (deflating != null)
+		{
+			try
+			{
+				deflating.finish();
+				CompressionStatistics.record(messageKind, deflater.getBytesRead(), deflater.getBytesWritten() + 1, true);
+				compressedMessage.close();
+			}
+			finally
+			{
+				deflater.end();
+			}
+		}
+		else
+		{
+			CompressionStatistics.record(messageKind, count, count, false);
+			sendUncompressed(buffer, count);
+			buffer = null;
+		}
+	}
+
+	@Override
+	public void discard()
+	{
+		if (closed) return;
+		closed = true;
+
+		buffer = null;
+		if (deflating != null)
+		{
+			deflater.end();
+			compressedMessage.discard();
+		}
+	}
+
+	@Override
+	public boolean hasSentFragments()
+	{
+		return compressedMessage != null && compressedMessage.hasSentFragments();
+	}
+
+	/**
+	 * The copy is complete once the writer is closed; before that JSON text can still be buffered in the writer of {@link #getJSONWriter()}.
+	 */
+	@Override
+	public void keepCopy(int maxBytes)
+	{
+		copy = new ByteArrayOutputStream();
+		maxCopy = maxBytes;
+	}
+
+	@Override
+	public byte[] getCopy()
+	{
+		return copy != null ? copy.toByteArray() : null;
+	}
+
+	@Override
+	public boolean isBinaryContent()
+	{
+		return binaryContent;
+	}
+
+	/**
+	 * Sends a message that is smaller than the threshold. The bytes are UTF-8 encoded JSON text or {@link BinaryJSONWriter} content.
+	 */
+	protected abstract void sendUncompressed(byte[] content, int length) throws IOException;
+
+	/**
+	 * @return the binary message writer that the compressed message should be written to.
+	 */
+	protected abstract BinaryMessageWriter createCompressedMessageWriter();
+
+}
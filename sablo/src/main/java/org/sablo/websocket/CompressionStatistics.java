@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sablo.websocket;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of how well messages sent to browsers compress, per kind of message (see {@link IStreamingWebsocketEndpoint#createMessageWriter(String)}).
+ * Only messages that go through the application level compression of {@link WebsocketEndpoint} are counted; compression done by the
+ * container (permessage-deflate) can't be measured here.
+ */
+public class CompressionStatistics
+{
+	public static final String KIND_CHANGES = "changes";
+	public static final String KIND_MESSAGE = "message";
+	public static final String KIND_SYNC_MESSAGE = "syncMessage";
+	public static final String KIND_RESPONSE = "response";
+
+	private static final ConcurrentMap<String, CompressionStatistics> statistics = new ConcurrentHashMap<>();
+
+	private final AtomicLong messages = new AtomicLong();
+	private final AtomicLong compressedMessages = new AtomicLong();
+	private final AtomicLong originalBytes = new AtomicLong();
+	private final AtomicLong sentBytes = new AtomicLong();
+
+	private CompressionStatistics()
+	{
+	}
+
+	/**
+	 * Records one message.
+	 *
+	 * @param original the size of the message before compression.
+	 * @param sent the size that was really sent; equal to original if the message was not compressed.
+	 */
+	public static void record(String kind, long original, long sent, boolean compressed)
+	{
+		CompressionStatistics stats = statistics.get(kind);
+		if (stats == null)
+		{
+			stats = new CompressionStatistics();
+			CompressionStatistics existing = statistics.putIfAbsent(kind, stats);
+			if (existing != null) stats = existing;
+		}
+		stats.messages.incrementAndGet();
+		if (compressed) stats.compressedMessages.incrementAndGet();
+		stats.originalBytes.addAndGet(original);
+		stats.sentBytes.addAndGet(sent);
+	}
+
+	/**
+	 * @return the kinds of messages for which statistics were recorded.
+	 */
+	public static Set<String> getKinds()
+	{
+		return Collections.unmodifiableSet(statistics.keySet());
+	}
+
+	/**
+	 * @return the statistics for the given kind of messages or null if no messages of that kind were recorded.
+	 */
+	public static CompressionStatistics get(String kind)
+	{
+		return statistics.get(kind);
+	}
+
+	public long getMessages()
+	{
+		return messages.get();
+	}
+
+	public long getCompressedMessages()
+	{
+		return compressedMessages.get();
+	}
+
+	public long getOriginalBytes()
+	{
+		return originalBytes.get();
+	}
+
+	public long getSentBytes()
+	{
+		return sentBytes.get();
+	}
+
+	/**
+	 * @return sent bytes / original bytes; 1 if nothing was saved.
+	 */
+	public double getCompressionRatio()
+	{
+		long original = originalBytes.get();
+		return original == 0 ? 1 : (double)sentBytes.get() / original;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "CompressionStatistics [messages=" + messages + ", compressedMessages=" + compressedMessages + ", originalBytes=" + originalBytes +
+			", sentBytes=" + sentBytes + ", ratio=" + getCompressionRatio() + "]";
+	}
+
+}
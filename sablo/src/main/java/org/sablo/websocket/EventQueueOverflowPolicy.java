@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket;
+
+/**
+ * What a {@link WebsocketEndpoint} does when a message of the browser can't be handled because the event dispatcher of the session already has too many
+ * pending events (only when a limit is configured, see {@link org.sablo.eventthread.EventDispatcher#PROPERTY_MAX_PENDING_EVENTS}). Can be set via system property
+ * {@link WebsocketEndpoint#PROPERTY_EVENT_QUEUE_OVERFLOW_POLICY}.
+ */
+public enum EventQueueOverflowPolicy
+{
+	/**
+	 * Ignore the message; if the browser waits for a response to it, an error response is sent.
+	 */
+	REJECT,
+
+	/**
+	 * Close the connection to the browser (close code TRY_AGAIN_LATER).
+	 */
+	DISCONNECT
+}
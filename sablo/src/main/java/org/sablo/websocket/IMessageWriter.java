@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sablo.websocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.json.JSONWriter;
+
+/**
+ * Writer for one message to the browser; depending on the protocol that was negotiated with the browser it is sent in a text or in a binary frame.
+ *
+ * @see IStreamingWebsocketEndpoint#createMessageWriter(String)
+ */
+public interface IMessageWriter extends Closeable
+{
+
+	/**
+	 * @return the JSON writer that the contents of the message should be written to.
+	 */
+	JSONWriter getJSONWriter();
+
+	/**
+	 * Sends what was not yet sent of the message.
+	 */
+	@Override
+	void close() throws IOException;
+
+	/**
+	 * Drops the content that was not sent yet.
+	 */
+	void discard();
+
+	/**
+	 * @return true if parts of this message were already sent.
+	 */
+	boolean hasSentFragments();
+
+	/**
+	 * Keeps a copy of the content that is written from now on, as it is before compression; see {@link #getCopy()}.
+	 *
+	 * @param maxBytes when the copy gets bigger than this it is dropped.
+	 */
+	void keepCopy(int maxBytes);
+
+	/**
+	 * @return the copy of the content (UTF-8 encoded JSON text, or {@link org.sablo.websocket.utils.BinaryJSONWriter} content if {@link #isBinaryContent()}),
+	 * null if no copy was kept or it got too big.
+	 */
+	byte[] getCopy();
+
+	/**
+	 * @return true if the content is encoded with {@link org.sablo.websocket.utils.BinaryJSONWriter} instead of as JSON text.
+	 */
+	boolean isBinaryContent();
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket;
+
+/**
+ * Optional interface of windows that can send the messages a reconnected browser missed, so it does not have to reload.
+ */
+public interface IResumableWindow extends IWindow
+{
+
+	/**
+	 * Called instead of {@link #onOpen()} when a browser reconnects without reloading and tells which message it received last.
+	 *
+	 * @return true if the browser got the messages it missed, false if it needs a full resync.
+	 */
+	boolean resume(long lastReceivedSequence);
+
+}
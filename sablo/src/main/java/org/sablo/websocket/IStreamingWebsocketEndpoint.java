@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket;
+
+/**
+ * Optional interface of endpoints that send messages to the browser while they are being written.<br/><br/>
+ *
+ * {@link BaseWindow} writes messages to endpoints that don't implement it completely in memory and sends them with {@link IWebsocketEndpoint#sendText(String)}.
+ */
+public interface IStreamingWebsocketEndpoint extends IWebsocketEndpoint
+{
+
+	/**
+	 * Creates a writer for one text message that is sent to the browser while it is being written, so that big messages are never completely in memory.
+	 * The message is completely sent when the writer is closed. Other messages are not sent to the browser while parts of this message were sent but it is not yet closed.
+	 */
+	TextMessageWriter createTextMessageWriter();
+
+	/**
+	 * Creates a writer for one message to the browser. Depending on what was negotiated with the browser, the message is sent as JSON text
+	 * (see {@link #createTextMessageWriter()}) or in a compact binary encoding (see {@link BinaryMessageWriter}), and it might be compressed.
+	 *
+	 * @param messageKind what kind of message it is (for example {@link CompressionStatistics#KIND_CHANGES}); only used for statistics.
+	 */
+	IMessageWriter createMessageWriter(String messageKind);
+
+	/**
+	 * @return true if messages to the browser are sent in binary frames instead of as JSON text.
+	 */
+	boolean isBinaryProtocol();
+
+	/**
+	 * When messages are sent asynchronously, this is true while the browser doesn't receive them as fast as they are sent.
+	 * Messages that are not urgent (like property changes) should then be held back; the endpoint asks the window to send
+	 * its changes again once enough queued messages were sent.
+	 */
+	boolean isBackpressured();
+
+}
@@ -69,6 +69,7 @@ public interface IWebsocketEndpoint
 	void sendText(String txt) throws IOException;
 
 	/**
+	 * @param text the text of the message that was sent; can be null (for example if the message was streamed to the browser).
 	 * @throws TimeoutException see {@link IEventDispatcher#suspend(Object, int, long)} for more details.
 	 * @throws CancellationException see {@link IEventDispatcher#suspend(Object, int, long)} for more details.
 	 */
@@ -23,7 +23,9 @@ package org.sablo.websocket;
 public interface IWebsocketSessionFactory
 {
 	/**
-	 * Session create call
+	 * Session create call.
+	 * Factories of sessions that extend {@link BaseWebsocketSession} can choose here how events of the new session are dispatched, by calling
+	 * {@link BaseWebsocketSession#setEventDispatcherExecutor(java.util.concurrent.Executor)} on it (by default each session gets a dedicated thread).
 	 * @param endpointType
 	 * @return
 	 */
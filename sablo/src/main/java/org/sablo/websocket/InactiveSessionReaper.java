@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sablo.metrics.IMetrics;
+import org.sablo.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service that periodically closes timed out windows and expires the sessions that have no windows left,
+ * so embedding applications don't need a timer of their own that calls {@link WebsocketSessionManager#closeInactiveSessions()}.<br/><br/>
+ *
+ * It runs on a single daemon thread once it is {@link #start() started}; that happens automatically when the first browser connects,
+ * unless {@link #PROPERTY_AUTO_START} is "false". Ticks are {@link #PROPERTY_INTERVAL} milliseconds apart, with a random
+ * {@link #PROPERTY_JITTER} percent added or removed so that several servers don't all do it at the same moment. A tick checks at most
+ * {@link #PROPERTY_MAX_SESSIONS_PER_TICK} sessions whose check is due; if more are due the next tick follows shortly, so a lot of abandoned
+ * sessions are cleaned up in small steps. Endpoint types can get their own maximum, see {@link #setMaxSessionsPerTick(String, int)}.
+ */
+public class InactiveSessionReaper
+{
+	private static final Logger log = LoggerFactory.getLogger(InactiveSessionReaper.class.getCanonicalName());
+
+	/**
+	 * If "false" the reaper is not started when the first browser connects; the embedding application then has to {@link #start()} it
+	 * or call {@link WebsocketSessionManager#closeInactiveSessions()} itself.
+	 */
+	public static final String PROPERTY_AUTO_START = "sablo.sessions.reaper.autoStart";
+
+	public static final String PROPERTY_INTERVAL = "sablo.sessions.reaper.interval";
+	public static final long DEFAULT_INTERVAL = 60000;
+
+	public static final String PROPERTY_JITTER = "sablo.sessions.reaper.jitter";
+	public static final long DEFAULT_JITTER = 10;
+
+	public static final String PROPERTY_MAX_SESSIONS_PER_TICK = "sablo.sessions.reaper.maxSessionsPerTick";
+	public static final long DEFAULT_MAX_SESSIONS_PER_TICK = 500;
+
+	/**
+	 * Delay in milliseconds before the next tick when the previous one could not check all due sessions.
+	 */
+	private static final long BACKLOG_DELAY = 100;
+
+	private static final long INTERVAL = getLongProperty(PROPERTY_INTERVAL, DEFAULT_INTERVAL);
+	private static final long JITTER = getLongProperty(PROPERTY_JITTER, DEFAULT_JITTER);
+	private static final int MAX_SESSIONS_PER_TICK = (int)getLongProperty(PROPERTY_MAX_SESSIONS_PER_TICK, DEFAULT_MAX_SESSIONS_PER_TICK);
+
+	private static final boolean AUTO_START = !"false".equalsIgnoreCase(System.getProperty(PROPERTY_AUTO_START));
+	private static final AtomicBoolean autoStarted = new AtomicBoolean(false);
+
+	private static final ConcurrentMap<String, Integer> maxSessionsPerTickByEndpointType = new ConcurrentHashMap<>();
+
+	private static final AtomicLong ticks = new AtomicLong();
+	private static final AtomicLong reapedSessions = new AtomicLong();
+	private static final AtomicLong totalReapTime = new AtomicLong();
+	private static final AtomicLong maxReapTime = new AtomicLong();
+	private static volatile long lastReapTime;
+
+	private static ScheduledExecutorService scheduler;
+
+	private static final Runnable tickTask = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			Tick tick = new Tick();
+			try
+			{
+				reap(tick);
+			}
+			catch (Exception e)
+			{
+				log.error("Error closing inactive sessions", e);
+			}
+			finally
+			{
+				scheduleNextTick(tick.isExhausted() ? BACKLOG_DELAY : getNextDelay());
+			}
+		}
+	};
+
+	private InactiveSessionReaper()
+	{
+	}
+
+	private static long getLongProperty(String name, long defaultValue)
+	{
+		try
+		{
+			return Long.parseLong(System.getProperty(name, String.valueOf(defaultValue)));
+		}
+		catch (NumberFormatException e)
+		{
+			log.error("Please check system property values. '" + name + "' is not a number.");
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Starts reaping inactive sessions; does nothing if it was already started.
+	 */
+	public static synchronized void start()
+	{
+		if (scheduler != null) return;
+
+		scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "Sablo inactive session reaper");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.schedule(tickTask, getNextDelay(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Starts the reaper the first time a browser connects (see {@link #PROPERTY_AUTO_START}); a reaper that was {@link #stop() stopped} is not started again.
+	 */
+	static void autoStart()
+	{
+		if (AUTO_START && !autoStarted.get() && autoStarted.compareAndSet(false, true)) start();
+	}
+
+	/**
+	 * Stops reaping inactive sessions; a tick that is running is allowed to finish.
+	 */
+	public static synchronized void stop()
+	{
+		if (scheduler == null) return;
+
+		scheduler.shutdown();
+		scheduler = null;
+	}
+
+	public static synchronized boolean isRunning()
+	{
+		return scheduler != null;
+	}
+
+	private static synchronized void scheduleNextTick(long delay)
+	{
+		if (scheduler != null) scheduler.schedule(tickTask, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private static long getNextDelay()
+	{
+		long jitter = INTERVAL * JITTER / 100;
+		if (jitter <= 0) return INTERVAL;
+		return Math.max(0, INTERVAL + ThreadLocalRandom.current().nextLong(-jitter, jitter + 1));
+	}
+
+	/**
+	 * Sets the maximum number of sessions created for the given endpoint type that are checked in one tick, instead of the global
+	 * {@link #PROPERTY_MAX_SESSIONS_PER_TICK}. 0 means that these sessions are never reaped by this service; a negative value removes the setting again.
+	 * The due checks of sessions that are never reaped are postponed by one interval on every tick, so ticks don't look at them again and again;
+	 * {@link WebsocketSessionManager#closeInactiveSessions()} can then see them up to one interval later than they became due.
+	 */
+	public static void setMaxSessionsPerTick(String endpointType, int max)
+	{
+		if (max < 0) maxSessionsPerTickByEndpointType.remove(endpointType);
+		else maxSessionsPerTickByEndpointType.put(endpointType, Integer.valueOf(max));
+	}
+
+	/**
+	 * Does one tick right away, in the calling thread.
+	 *
+	 * @return the number of sessions that expired.
+	 */
+	public static int reapNow()
+	{
+		return reap(new Tick());
+	}
+
+	private static int reap(Tick tick)
+	{
+		long start = System.nanoTime();
+		int reaped = WebsocketSessionManager.closeInactiveSessions(tick);
+		long time = System.nanoTime() - start;
+
+		ticks.incrementAndGet();
+		reapedSessions.addAndGet(reaped);
+		totalReapTime.addAndGet(time);
+		lastReapTime = time;
+		long max = maxReapTime.get();
+		while (time > max && !maxReapTime.compareAndSet(max, time))
+		{
+			max = maxReapTime.get();
+		}
+		IMetrics metrics = Metrics.get();
+		metrics.increment(Metrics.REAPED_SESSIONS, null, reaped);
+		metrics.record(Metrics.REAP_TIME, null, time);
+
+		if (reaped > 0 && log.isDebugEnabled()) log.debug("Expired " + reaped + " inactive sessions in " + (time / 1000000) + "ms");
+		return reaped;
+	}
+
+	/**
+	 * @return the number of ticks that were done.
+	 */
+	public static long getTicks()
+	{
+		return ticks.get();
+	}
+
+	/**
+	 * @return the number of sessions that were expired by this service.
+	 */
+	public static long getReapedSessions()
+	{
+		return reapedSessions.get();
+	}
+
+	/**
+	 * @return the time the last tick took, in nanoseconds.
+	 */
+	public static long getLastReapTime()
+	{
+		return lastReapTime;
+	}
+
+	/**
+	 * @return the time the longest tick took, in nanoseconds.
+	 */
+	public static long getMaxReapTime()
+	{
+		return maxReapTime.get();
+	}
+
+	/**
+	 * @return the average time a tick took, in nanoseconds.
+	 */
+	public static long getAverageReapTime()
+	{
+		long count = ticks.get();
+		return count == 0 ? 0 : totalReapTime.get() / count;
+	}
+
+	/**
+	 * Keeps track of how many session checks one tick can still do.
+	 */
+	static class Tick
+	{
+		private final Map<String, Integer> maxByEndpointType;
+		private final Map<String, int[]> checksByEndpointType = new HashMap<>();
+		private final int max;
+		private final long skipDelay;
+		private int checks;
+		private boolean exhausted;
+
+		Tick()
+		{
+			this(MAX_SESSIONS_PER_TICK, maxSessionsPerTickByEndpointType);
+		}
+
+		Tick(int max, Map<String, Integer> maxByEndpointType)
+		{
+			this.max = max;
+			this.maxByEndpointType = maxByEndpointType;
+			this.skipDelay = INTERVAL;
+		}
+
+		/**
+		 * @return true if sessions of the given endpoint type (null if unknown) are never checked by the reaper.
+		 */
+		boolean isSkipped(String endpointType)
+		{
+			Integer typeMax = endpointType != null ? maxByEndpointType.get(endpointType) : null;
+			return typeMax != null && typeMax.intValue() == 0;
+		}
+
+		/**
+		 * @return the time in milliseconds by which the checks of skipped sessions are postponed, see {@link #isSkipped(String)}.
+		 */
+		long getSkipDelay()
+		{
+			return skipDelay;
+		}
+
+		/**
+		 * @return true if a session of the given endpoint type (null if unknown) can be checked in this tick; it is then counted.
+		 */
+		boolean allowCheck(String endpointType)
+		{
+			Integer typeMax = endpointType != null ? maxByEndpointType.get(endpointType) : null;
+			if (typeMax == null)
+			{
+				if (checks >= max)
+				{
+					exhausted = true;
+					return false;
+				}
+				checks++;
+				return true;
+			}
+
+			if (typeMax.intValue() == 0) return false;
+			int[] typeChecks = checksByEndpointType.get(endpointType);
+			if (typeChecks == null)
+			{
+				typeChecks = new int[1];
+				checksByEndpointType.put(endpointType, typeChecks);
+			}
+			if (typeChecks[0] >= typeMax.intValue())
+			{
+				exhausted = true;
+				return false;
+			}
+			typeChecks[0]++;
+			return true;
+		}
+
+		/**
+		 * @return true if sessions had to be skipped because the maximum was reached.
+		 */
+		boolean isExhausted()
+		{
+			return exhausted;
+		}
+
+		/**
+		 * @return true if no session of any endpoint type can be checked anymore in this tick.
+		 */
+		boolean isDone()
+		{
+			if (checks < max) return false;
+			for (Map.Entry<String, Integer> entry : maxByEndpointType.entrySet())
+			{
+				int[] typeChecks = checksByEndpointType.get(entry.getKey());
+				if ((typeChecks == null ? 0 : typeChecks[0]) < entry.getValue().intValue()) return false;
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the last messages that a window sent to the browser, numbered with an increasing sequence number, so that a browser that
+ * reconnects after a network hiccup can get the messages it missed instead of reloading everything (see {@link BaseWindow#resume(long)}).<br/><br/>
+ *
+ * The buffer is bounded both in number of messages and in total number of bytes; when it is full the oldest messages are dropped and browsers
+ * that did not yet receive those need a full resync. Messages are kept as the message writers copied them while they were written (see
+ * {@link IMessageWriter#keepCopy(int)}), so they don't have to be written twice.<br/><br/>
+ *
+ * Next to the messages of the window also the responses to calls of the browser are kept (see {@link WebsocketEndpoint#sendResponse}),
+ * so a browser that is still waiting for a response when it reconnects can resume as well.
+ */
+@SuppressWarnings("nls")
+public class ReplayBuffer
+{
+	private static final Logger log = LoggerFactory.getLogger(ReplayBuffer.class.getCanonicalName());
+
+	/**
+	 * Maximum number of messages kept per window. Can be set via system property sablo.window.replayBuffer.messages; 0 (the default) disables replaying.
+	 */
+	public static final String PROPERTY_MAX_MESSAGES = "sablo.window.replayBuffer.messages";
+	public static final int DEFAULT_MAX_MESSAGES = 0;
+
+	/**
+	 * Maximum total number of bytes kept per window. Can be set via system property sablo.window.replayBuffer.bytes.
+	 */
+	public static final String PROPERTY_MAX_BYTES = "sablo.window.replayBuffer.bytes";
+	public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+	private final int maxMessages;
+	private final int maxBytes;
+
+	private final TreeMap<Long, Message> messages = new TreeMap<>();
+	private long lastSequence = 0;
+	private long lastDropped = 0;
+	private long bytes = 0;
+
+	public ReplayBuffer(int maxMessages, int maxBytes)
+	{
+		this.maxMessages = maxMessages;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return a buffer sized with the system properties, or null if replaying is not enabled.
+	 */
+	public static ReplayBuffer create()
+	{
+		int maxMessages = DEFAULT_MAX_MESSAGES;
+		try
+		{
+			maxMessages = Integer.parseInt(System.getProperty(PROPERTY_MAX_MESSAGES, String.valueOf(DEFAULT_MAX_MESSAGES)));
+		}
+		catch (NumberFormatException e)
+		{
+			log.error("Please check system property values. '" + PROPERTY_MAX_MESSAGES + "' is not a number.");
+		}
+		if (maxMessages <= 0) return null;
+
+		int maxBytes = DEFAULT_MAX_BYTES;
+		try
+		{
+			maxBytes = Integer.parseInt(System.getProperty(PROPERTY_MAX_BYTES, String.valueOf(DEFAULT_MAX_BYTES)));
+		}
+		catch (NumberFormatException e)
+		{
+			log.error("Please check system property values. '" + PROPERTY_MAX_BYTES + "' is not a number.");
+		}
+		return new ReplayBuffer(maxMessages, maxBytes);
+	}
+
+	/**
+	 * @return the maximum total number of bytes kept; a bigger message can't be kept.
+	 */
+	public int getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	/**
+	 * @return the sequence number for a new message; it should be given to {@link #add(long, byte[], boolean)} once the message is complete.
+	 */
+	public synchronized long nextSequence()
+	{
+		return ++lastSequence;
+	}
+
+	/**
+	 * @return the last sequence number that was handed out.
+	 */
+	public synchronized long getLastSequence()
+	{
+		return lastSequence;
+	}
+
+	/**
+	 * Keeps a message. Messages can be added in a different order than their sequence numbers were handed out.
+	 *
+	 * @param content the message, UTF-8 encoded JSON text or {@link org.sablo.websocket.utils.BinaryJSONWriter} content.
+	 * @param binary true if the content is encoded with {@link org.sablo.websocket.utils.BinaryJSONWriter}.
+	 */
+	public synchronized void add(long sequence, byte[] content, boolean binary)
+	{
+		if (sequence <= lastDropped) return;
+
+		messages.put(Long.valueOf(sequence), new Message(content, binary));
+		bytes += content.length;
+		while (messages.size() > maxMessages || (bytes > maxBytes && messages.size() > 0))
+		{
+			Map.Entry<Long, Message> oldest = messages.pollFirstEntry();
+			bytes -= oldest.getValue().content.length;
+			lastDropped = Math.max(lastDropped, oldest.getKey().longValue());
+		}
+	}
+
+	/**
+	 * Keeps the copy of a message that the message writer made (see {@link IMessageWriter#keepCopy(int)}); if it has no copy because the
+	 * message was too big, the message is dropped (see {@link #drop(long)}).
+	 */
+	public void add(long sequence, IMessageWriter messageWriter)
+	{
+		byte[] copy = messageWriter.getCopy();
+		if (copy != null) add(sequence, copy, messageWriter.isBinaryContent());
+		else drop(sequence);
+	}
+
+	/**
+	 * Drops a message that could not be kept (for example because it is too big) and the messages before it; browsers that did not receive it need a full resync.
+	 */
+	public synchronized void drop(long sequence)
+	{
+		if (sequence <= lastDropped) return;
+
+		while (!messages.isEmpty() && messages.firstKey().longValue() < sequence)
+		{
+			bytes -= messages.pollFirstEntry().getValue().content.length;
+		}
+		lastDropped = sequence;
+	}
+
+	/**
+	 * Drops all messages and makes sure no browser can resume from a message that was sent before; used when the browser got a message
+	 * that could not be completed.
+	 */
+	public synchronized void invalidate()
+	{
+		messages.clear();
+		bytes = 0;
+		// the incomplete message uses up a sequence number, so also browsers that received everything before it can't resume
+		lastDropped = ++lastSequence;
+	}
+
+	/**
+	 * @param lastReceivedSequence the sequence number of the last message the browser has received.
+	 * @return the messages that were sent after the given one, in order; null if some of those are no longer available or the sequence number is unknown.
+	 */
+	public synchronized List<Message> getMessagesAfter(long lastReceivedSequence)
+	{
+		if (lastReceivedSequence < lastDropped || lastReceivedSequence > lastSequence) return null;
+		return new ArrayList<>(messages.tailMap(Long.valueOf(lastReceivedSequence), false).values());
+	}
+
+	/**
+	 * @return the number of messages currently kept.
+	 */
+	public synchronized int size()
+	{
+		return messages.size();
+	}
+
+	/**
+	 * A message that is kept.
+	 */
+	public static final class Message
+	{
+		private final byte[] content;
+		private final boolean binary;
+
+		Message(byte[] content, boolean binary)
+		{
+			this.content = content;
+			this.binary = binary;
+		}
+
+		/**
+		 * @return the UTF-8 encoded JSON text or {@link org.sablo.websocket.utils.BinaryJSONWriter} content.
+		 */
+		public byte[] getContent()
+		{
+			return content;
+		}
+
+		/**
+		 * @return true if the content is encoded with {@link org.sablo.websocket.utils.BinaryJSONWriter}.
+		 */
+		public boolean isBinary()
+		{
+			return binary;
+		}
+
+		/**
+		 * @return the JSON text of a message that is not binary.
+		 */
+		public String getText()
+		{
+			return new String(content, StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.websocket;
+
+/**
+ * What a {@link WebsocketEndpoint} does when it sends messages asynchronously and the browser cannot keep up with them,
+ * so the outbound message queue is full. Can be set via system property {@link WebsocketEndpoint#PROPERTY_SEND_QUEUE_OVERFLOW_POLICY}.
+ */
+public enum SendQueueOverflowPolicy
+{
+	/**
+	 * Signal the window that it should hold back change messages (see {@link IStreamingWebsocketEndpoint#isBackpressured()}).
+	 * Changes keep accumulating on the server and are sent as one message when the queue has drained.
+	 * Other messages (like service calls) can't be held back; if one of those does not fit in the queue, this works like {@link #DROP_AND_RESYNC}.
+	 * Responses and pongs always fit, they are not counted for the queue size.
+	 */
+	COALESCE_CHANGES,
+
+	/**
+	 * Drop all queued messages and let the browser reconnect (close code SERVICE_RESTART), so it gets the current state again instead of the dropped messages.
+	 */
+	DROP_AND_RESYNC,
+
+	/**
+	 * Close the connection to the browser (close code TRY_AGAIN_LATER).
+	 */
+	DISCONNECT
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.websocket;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writer for one text message that is sent to the browser while it is being written.<br/><br/>
+ *
+ * Written characters are buffered; each time the buffer is full its contents are sent as a partial message, so big messages never need to be completely in memory.
+ * The last part is sent when the writer is closed. If the whole message fits in the buffer it is sent as a normal (not fragmented) message.
+ * The buffer starts small and grows up to the fragment size, so small messages don't allocate a buffer of the fragment size.
+ *
+ * @see IStreamingWebsocketEndpoint#createTextMessageWriter()
+ */
+public abstract class TextMessageWriter extends Writer implements IMessageWriter
+{
+	private static final Logger log = LoggerFactory.getLogger(TextMessageWriter.class.getCanonicalName());
+
+	public static final int DEFAULT_FRAGMENT_SIZE = 64 * 1024;
+
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private final int fragmentSize;
+	private char[] buffer;
+	private int count;
+	private boolean fragmentsSent;
+	private boolean closed;
+	private JSONWriter jsonWriter;
+	private StringBuilder copy;
+	private int maxCopy;
+
+	public TextMessageWriter()
+	{
+		this(DEFAULT_FRAGMENT_SIZE);
+	}
+
+	/**
+	 * @param fragmentSize the number of characters that are sent per fragment; with Integer.MAX_VALUE the message is never fragmented.
+	 */
+	public TextMessageWriter(int fragmentSize)
+	{
+		this.fragmentSize = fragmentSize;
+		buffer = new char[Math.min(fragmentSize, INITIAL_BUFFER_SIZE)];
+	}
+
+	@Override
+	public JSONWriter getJSONWriter()
+	{
+		if (jsonWriter == null) jsonWriter = new JSONWriter(this);
+		return jsonWriter;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException
+	{
+		if (closed) throw new IOException("Message was already sent or discarded");
+
+		int offset = off;
+		int remaining = len;
+		while (remaining > 0)
+		{
+			int n = Math.min(remaining, buffer.length - count);
+			System.arraycopy(cbuf, offset, buffer, count, n);
+			copy(buffer, count, n);
+			count += n;
+			offset += n;
+			remaining -= n;
+			if (count == buffer.length) bufferFull();
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException
+	{
+		if (closed) throw new IOException("Message was already sent or discarded");
+
+		int offset = off;
+		int remaining = len;
+		while (remaining > 0)
+		{
+			int n = Math.min(remaining, buffer.length - count);
+			str.getChars(offset, offset + n, buffer, count);
+			copy(buffer, count, n);
+			count += n;
+			offset += n;
+			remaining -= n;
+			if (count == buffer.length) bufferFull();
+		}
+	}
+
+	private void copy(char[] chars, int offset, int length)
+	{
+		if (copy == null) return;
+		// every character is at least one byte
+		if (copy.length() + length > maxCopy) copy = null;
+		else copy.append(chars, offset, length);
+	}
+
+	private void bufferFull() throws IOException
+	{
+		if (buffer.length < fragmentSize)
+		{
+			char[] grown = new char[(int)Math.min(buffer.length * 2L, fragmentSize)];
+			System.arraycopy(buffer, 0, grown, 0, count);
+			buffer = grown;
+		}
+		else
+		{
+			sendBufferAsFragment();
+		}
+	}
+
+	private void sendBufferAsFragment() throws IOException
+	{
+		if (!fragmentsSent)
+		{
+			startFragmentedMessage();
+			fragmentsSent = true;
+		}
+		sendFragment(new String(buffer, 0, count), false);
+		count = 0;
+	}
+
+	/**
+	 * Does nothing; content is only sent when the buffer is full or when the writer is closed.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+	}
+
+	/**
+	 * Sends what is left of the message.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (closed) return;
+		closed = true;
+
+		try
+		{
+			if (fragmentsSent) sendFragment(new String(buffer, 0, count), true);
+			else sendMessage(new String(buffer, 0, count));
+		}
+		finally
+		{
+			buffer = null;
+			if (fragmentsSent) endFragmentedMessage();
+		}
+	}
+
+	/**
+	 * Drops the content that was not sent yet. If parts of the message were already sent, the message is ended with what was sent so far
+	 * (so the browser will get an incomplete message) as other messages can't be sent before that one is complete; {@link #incompleteMessageSent()} is called then.
+	 */
+	@Override
+	public void discard()
+	{
+		if (closed) return;
+		closed = true;
+
+		buffer = null;
+		if (fragmentsSent)
+		{
+			try
+			{
+				sendFragment("", true);
+			}
+			catch (IOException e)
+			{
+				log.warn("Could not end partially sent message", e);
+			}
+			finally
+			{
+				endFragmentedMessage();
+			}
+			incompleteMessageSent();
+		}
+	}
+
+	/**
+	 * @return true if parts of this message were already sent.
+	 */
+	@Override
+	public boolean hasSentFragments()
+	{
+		return fragmentsSent;
+	}
+
+	@Override
+	public void keepCopy(int maxBytes)
+	{
+		copy = new StringBuilder();
+		maxCopy = maxBytes;
+	}
+
+	@Override
+	public byte[] getCopy()
+	{
+		if (copy == null) return null;
+		byte[] bytes = copy.toString().getBytes(StandardCharsets.UTF_8);
+		return bytes.length <= maxCopy ? bytes : null;
+	}
+
+	@Override
+	public boolean isBinaryContent()
+	{
+		return false;
+	}
+
+	/**
+	 * Sends the whole message at once; used when it fits in the buffer.
+	 */
+	protected abstract void sendMessage(String text) throws IOException;
+
+	/**
+	 * Sends a part of the message.
+	 */
+	protected abstract void sendFragment(String fragment, boolean last) throws IOException;
+
+	/**
+	 * Called before the first fragment is sent. Can be used to make sure no other message is sent before this one is complete.
+	 *
+	 * @throws IOException when the message can't be sent in fragments now, then nothing is sent.
+	 */
+	protected void startFragmentedMessage() throws IOException
+	{
+	}
+
+	/**
+	 * Called after the last fragment was sent (or failed to be sent).
+	 */
+	protected void endFragmentedMessage()
+	{
+	}
+
+	/**
+	 * Called when a message of which parts were already sent is discarded; the browser then got a message that it cannot parse
+	 * and is no longer in sync with the server. Does nothing by default.
+	 */
+	protected void incompleteMessageSent()
+	{
+	}
+
+}
@@ -17,8 +17,14 @@
 package org.sablo.websocket;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -26,21 +32,30 @@ import java.util.Map;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.websocket.CloseReason;
-import javax.websocket.Session;
 import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.Extension;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONWriter;
 import org.sablo.IllegalComponentAccessException;
 import org.sablo.eventthread.EventDispatcher;
+import org.sablo.eventthread.EventQueueFullException;
 import org.sablo.eventthread.IEventDispatcher;
+import org.sablo.metrics.IMetrics;
+import org.sablo.metrics.Metrics;
 import org.sablo.specification.PropertyDescription;
 import org.sablo.specification.property.BrowserConverterContext;
 import org.sablo.specification.property.types.AggregatedPropertyType;
 import org.sablo.websocket.utils.JSONUtils;
 import org.sablo.websocket.utils.JSONUtils.FullValueToJSONConverter;
+import org.sablo.websocket.utils.LazyJSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,10 +71,131 @@ import org.slf4j.LoggerFactory;
  *
  * @author jcompagner, rgansevles
 /*/
-public abstract class WebsocketEndpoint implements IWebsocketEndpoint
+public abstract class WebsocketEndpoint implements IStreamingWebsocketEndpoint
 {
 	public static final Logger log = LoggerFactory.getLogger(WebsocketEndpoint.class.getCanonicalName());
 
+	/**
+	 * If "true", messages are sent to the browser asynchronously through a bounded per-endpoint queue, so the event dispatch thread doesn't block on slow browsers.
+	 */
+	public static final String PROPERTY_ASYNC_SEND = "sablo.websocket.async.send";
+
+	/**
+	 * Number of messages that can be queued for a browser before {@link #PROPERTY_SEND_QUEUE_OVERFLOW_POLICY} applies; only used when sending asynchronously.
+	 * Responses and pongs, that the browser waits for, are not counted.
+	 */
+	public static final String PROPERTY_SEND_QUEUE_SIZE = "sablo.websocket.async.queueSize";
+
+	/**
+	 * One of the {@link SendQueueOverflowPolicy} names; only used when sending asynchronously.
+	 */
+	public static final String PROPERTY_SEND_QUEUE_OVERFLOW_POLICY = "sablo.websocket.async.overflowPolicy";
+
+	public static final int DEFAULT_SEND_QUEUE_SIZE = 64;
+
+	/**
+	 * If "true", messages are sent to browsers that support it in binary frames (see {@link BinaryMessageWriter}) instead of as JSON text.
+	 */
+	public static final String PROPERTY_BINARY_PROTOCOL = "sablo.websocket.binary";
+
+	/**
+	 * Request parameter with which the browser tells that it can decode binary messages.
+	 */
+	public static final String BINARY_PROTOCOL_REQUEST_PARAMETER = "sablo_binary";
+
+	private static final boolean BINARY_PROTOCOL = Boolean.getBoolean(PROPERTY_BINARY_PROTOCOL);
+
+	/**
+	 * Request parameter with which the browser tells that its custom array converter can apply granular insert/remove operations
+	 * (see {@link org.sablo.specification.property.CustomJSONArrayType}); other browsers get the whole array when elements are inserted or removed.
+	 */
+	public static final String GRANULAR_ARRAY_UPDATES_REQUEST_PARAMETER = "sablo_granulararrays";
+
+	/**
+	 * Messages of this number of bytes or more are compressed by the endpoint itself when the browser supports that and the websocket
+	 * compression extension was not negotiated (see {@link WebsocketEndpointConfigurator}). Not set or 0 disables this.
+	 */
+	public static final String PROPERTY_COMPRESSION_THRESHOLD = "sablo.websocket.compression.threshold";
+
+	/**
+	 * Request parameter with which the browser tells that it can decompress messages compressed by the endpoint (see {@link CompressingMessageWriter}).
+	 */
+	public static final String DEFLATE_REQUEST_PARAMETER = "sablo_deflate";
+
+	/**
+	 * Request parameter with which a reconnecting browser tells the sequence number of the last message it received, so it can get the messages it missed
+	 * instead of reloading (see {@link IWindow#resume(long)} and {@link ReplayBuffer}).
+	 */
+	public static final String LAST_SEQUENCE_REQUEST_PARAMETER = "sablo_lastseq";
+
+	/**
+	 * One of the {@link EventQueueOverflowPolicy} names; what to do with messages of the browser when the event queue of the session is full.
+	 */
+	public static final String PROPERTY_EVENT_QUEUE_OVERFLOW_POLICY = "sablo.websocket.eventQueueOverflowPolicy";
+
+	private static final EventQueueOverflowPolicy EVENT_QUEUE_OVERFLOW_POLICY;
+
+	private static final int COMPRESSION_THRESHOLD;
+
+	private static final boolean ASYNC_SEND = Boolean.getBoolean(PROPERTY_ASYNC_SEND);
+	private static final int SEND_QUEUE_SIZE;
+	private static final SendQueueOverflowPolicy SEND_QUEUE_OVERFLOW_POLICY;
+
+	private static final String PONG = "p";
+
+	static
+	{
+		int queueSize;
+		try
+		{
+			queueSize = Integer.parseInt(System.getProperty(PROPERTY_SEND_QUEUE_SIZE, String.valueOf(DEFAULT_SEND_QUEUE_SIZE)));
+		}
+		catch (NumberFormatException e)
+		{
+			queueSize = DEFAULT_SEND_QUEUE_SIZE;
+			log.error("Please check system property values. '" + PROPERTY_SEND_QUEUE_SIZE + "' is not a number.");
+		}
+		SEND_QUEUE_SIZE = queueSize;
+
+		SendQueueOverflowPolicy policy;
+		try
+		{
+			policy = SendQueueOverflowPolicy.valueOf(System.getProperty(PROPERTY_SEND_QUEUE_OVERFLOW_POLICY, SendQueueOverflowPolicy.COALESCE_CHANGES.name()));
+		}
+		catch (IllegalArgumentException e)
+		{
+			policy = SendQueueOverflowPolicy.COALESCE_CHANGES;
+			log.error("Please check system property values. '" + PROPERTY_SEND_QUEUE_OVERFLOW_POLICY + "' should be one of " +
+				Arrays.toString(SendQueueOverflowPolicy.values()) + ".");
+		}
+		SEND_QUEUE_OVERFLOW_POLICY = policy;
+
+		EventQueueOverflowPolicy eventPolicy;
+		try
+		{
+			eventPolicy = EventQueueOverflowPolicy.valueOf(System.getProperty(PROPERTY_EVENT_QUEUE_OVERFLOW_POLICY, EventQueueOverflowPolicy.REJECT.name()));
+		}
+		catch (IllegalArgumentException e)
+		{
+			eventPolicy = EventQueueOverflowPolicy.REJECT;
+			log.error("Please check system property values. '" + PROPERTY_EVENT_QUEUE_OVERFLOW_POLICY + "' should be one of " +
+				Arrays.toString(EventQueueOverflowPolicy.values()) + ".");
+		}
+		EVENT_QUEUE_OVERFLOW_POLICY = eventPolicy;
+
+		int threshold;
+		try
+		{
+			threshold = Integer.parseInt(System.getProperty(PROPERTY_COMPRESSION_THRESHOLD, "0"));
+		}
+		catch (NumberFormatException e)
+		{
+			threshold = 0;
+			log.error("Please check system property values. '" + PROPERTY_COMPRESSION_THRESHOLD + "' is not a number.");
+		}
+		COMPRESSION_THRESHOLD = threshold;
+	}
+
 	/*
 	 * connection with browser
 	 */
@@ -70,13 +206,50 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 
 	private IWindow window;
 
+	// key of the session in the SESSION_ metrics, set when the endpoint is started
+	private volatile String sessionMetricsKey;
+
 	private final Map<Integer, List<Object>> pendingMessages = new HashMap<>();
 
 	private final AtomicLong lastPingTime = new AtomicLong(System.currentTimeMillis());
 
+	/**
+	 * Held while sending a message; for messages that are sent in fragments it is held until the last fragment was sent.
+	 * The thread that holds it can't start another message (see {@link #lockForSending()}), that would end up in the middle of the fragments.
+	 */
+	private final ReentrantLock sendLock = new ReentrantLock();
+
+	private final boolean asyncSend;
+	private final int sendQueueSize;
+	private final SendQueueOverflowPolicy sendQueueOverflowPolicy;
+
+	/**
+	 * Messages waiting to be sent asynchronously; guarded by itself. The message that is currently being sent is not in the queue.
+	 */
+	private final Deque<QueuedMessage> sendQueue = new ArrayDeque<>();
+	private int boundedQueueSize;
+	private boolean asyncSendInProgress;
+	private boolean backpressured;
+
+	private volatile boolean binaryProtocol;
+	private volatile boolean granularArrayUpdates;
+	private volatile int compressionThreshold;
+
 	public WebsocketEndpoint(String endpointType)
+	{
+		this(endpointType, ASYNC_SEND, SEND_QUEUE_SIZE, SEND_QUEUE_OVERFLOW_POLICY);
+	}
+
+	/**
+	 * @param asyncSend if true messages are queued and sent to the browser asynchronously, otherwise sending blocks until the message was sent.
+	 * @param sendQueueSize the number of messages that can be queued before sendQueueOverflowPolicy applies (only used if asyncSend is true).
+	 */
+	public WebsocketEndpoint(String endpointType, boolean asyncSend, int sendQueueSize, SendQueueOverflowPolicy sendQueueOverflowPolicy)
 	{
 		this.endpointType = endpointType;
+		this.asyncSend = asyncSend;
+		this.sendQueueSize = sendQueueSize;
+		this.sendQueueOverflowPolicy = sendQueueOverflowPolicy;
 	}
 
 	/**
@@ -90,6 +263,11 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 	public void start(Session newSession, String sessionid, String winname, final String winid) throws Exception
 	{
 		this.session = newSession;
+		Map<String, List<String>> requestParameters = newSession.getRequestParameterMap();
+		binaryProtocol = BINARY_PROTOCOL && isTrue(requestParameters.get(BINARY_PROTOCOL_REQUEST_PARAMETER));
+		granularArrayUpdates = isTrue(requestParameters.get(GRANULAR_ARRAY_UPDATES_REQUEST_PARAMETER));
+		compressionThreshold = getCompressionThreshold(COMPRESSION_THRESHOLD, newSession);
+		final long lastReceivedSequence = getLastReceivedSequence(requestParameters.get(LAST_SEQUENCE_REQUEST_PARAMETER));
 
 		String uuid = "null".equalsIgnoreCase(sessionid) ? null : sessionid;
 		String windowId = "null".equalsIgnoreCase(winid) ? null : winid;
@@ -98,6 +276,7 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 		final IWebsocketSession wsSession = WebsocketSessionManager.getOrCreateSession(endpointType, uuid, true);
 
 		CurrentWindow.set(window = wsSession.getOrCreateWindow(windowId, windowName));
+		sessionMetricsKey = Metrics.getSessionKey(wsSession.getUuid());
 
 		try
 		{
@@ -114,8 +293,20 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 				{
 					if (CurrentWindow.safeGet() == win && session != null) // window or session my already be closed
 					{
-						win.onOpen();
-						wsSession.onOpen(session.getRequestParameterMap());
+						// sync calls that were waiting for the browser when it lost the connection can still be answered if it resumes
+						Map<Integer, List<Object>> keptResponses = win instanceof BaseWindow ? ((BaseWindow)win).takePendingResponses()
+							: Collections.<Integer, List<Object>> emptyMap();
+						pendingMessages.putAll(keptResponses);
+						if (lastReceivedSequence < 0 || !resume(win, lastReceivedSequence))
+						{
+							if (!keptResponses.isEmpty())
+							{
+								pendingMessages.keySet().removeAll(keptResponses.keySet());
+								((BaseWindow)win).cancelPendingResponses(keptResponses, "The browser reconnected without resuming");
+							}
+							win.onOpen();
+							wsSession.onOpen(session.getRequestParameterMap());
+						}
 					}
 				}
 			});
@@ -125,7 +316,69 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 			CurrentWindow.set(null);
 		}
 
-		WebsocketSessionManager.closeInactiveSessions();
+		// inactive sessions are closed in the background, connecting only has to update the activity check of this session
+		WebsocketSessionManager.windowActivityChanged(wsSession);
+		InactiveSessionReaper.autoStart();
+	}
+
+	private static boolean isTrue(List<String> parameterValues)
+	{
+		return parameterValues != null && parameterValues.contains("true");
+	}
+
+	private static long getLastReceivedSequence(List<String> parameterValues)
+	{
+		if (parameterValues == null || parameterValues.isEmpty()) return -1;
+		try
+		{
+			return Long.parseLong(parameterValues.get(0));
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * Lets the window send the messages a reconnected browser missed; if that is not possible the browser is told to do a full resync.
+	 */
+	private boolean resume(IWindow win, long lastReceivedSequence)
+	{
+		if (win instanceof IResumableWindow && ((IResumableWindow)win).resume(lastReceivedSequence)) return true;
+
+		Metrics.get().increment(Metrics.FULL_RESYNCS, endpointType, 1);
+		try
+		{
+			sendText("{\"resume\":false}");
+		}
+		catch (IOException e)
+		{
+			log.warn("Could not tell reconnected browser to resync", e);
+		}
+		return false;
+	}
+
+	/**
+	 * @return the threshold from which the endpoint should compress messages itself for the given browser session; 0 if it should not
+	 * (not configured, not supported by the browser or compressed by the websocket compression extension already).
+	 */
+	static int getCompressionThreshold(int configuredThreshold, Session newSession)
+	{
+		if (configuredThreshold <= 0 || !isTrue(newSession.getRequestParameterMap().get(DEFLATE_REQUEST_PARAMETER)) ||
+			hasExtension(newSession, WebsocketEndpointConfigurator.PERMESSAGE_DEFLATE))
+		{
+			return 0;
+		}
+		return configuredThreshold;
+	}
+
+	private static boolean hasExtension(Session session, String extensionName)
+	{
+		for (Extension extension : session.getNegotiatedExtensions())
+		{
+			if (extensionName.equals(extension.getName())) return true;
+		}
+		return false;
 	}
 
 	@Override
@@ -142,6 +395,7 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 
 	public void closeSession(CloseReason closeReason)
 	{
+		clearSendQueue();
 		if (session != null)
 		{
 			try
@@ -158,14 +412,24 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 
 	public void onClose(CloseReason closeReason)
 	{
+		IWebsocketSession wsSession = null;
 		if (window != null)
 		{
-			if (window.getSession() != null)
+			wsSession = window.getSession();
+			if (wsSession != null)
 			{
-				for (Integer pendingMessageId : pendingMessages.keySet())
+				if (window instanceof BaseWindow && ((BaseWindow)window).getReplayBuffer() != null)
 				{
-					window.getSession().getEventDispatcher().cancelSuspend(pendingMessageId,
-						"Websocket endpoint is closing... (can happen for example due to a full browser refresh)");
+					// the browser can answer them when it resumes; they are cancelled when it does a full resync or the window is disposed
+					((BaseWindow)window).keepPendingResponses(pendingMessages);
+				}
+				else
+				{
+					for (Integer pendingMessageId : pendingMessages.keySet())
+					{
+						wsSession.getEventDispatcher().cancelSuspend(pendingMessageId,
+							"Websocket endpoint is closing... (can happen for example due to a full browser refresh)");
+					}
 				}
 				pendingMessages.clear();
 			}
@@ -175,8 +439,9 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 			win.setEndpoint(null);
 		}
 		session = null;
+		clearSendQueue();
 
-		if (closeReason.getCloseCode() != CloseCodes.SERVICE_RESTART) WebsocketSessionManager.closeInactiveSessions();
+		if (wsSession != null) WebsocketSessionManager.windowActivityChanged(wsSession);
 	}
 
 	public void onError(Throwable t)
@@ -193,6 +458,10 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 
 	private final StringBuilder incomingPartialMessage = new StringBuilder();
 
+	// the data push that was posted last by this endpoint, as long as it was not followed by another message
+	private volatile DataPush lastDataPush;
+	private boolean rejectingEvents;
+
 	public void incoming(String msg, boolean lastPart)
 	{
 		String message = msg;
@@ -207,6 +476,12 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 			message = incomingPartialMessage.toString();
 			incomingPartialMessage.setLength(0);
 		}
+		IMetrics metrics = Metrics.get();
+		metrics.increment(Metrics.MESSAGES_RECEIVED, endpointType, 1);
+		metrics.record(Metrics.RECEIVED_SIZE, endpointType, message.length());
+		String sessionKey = sessionMetricsKey;
+		if (sessionKey != null) metrics.increment(Metrics.SESSION_MESSAGES_RECEIVED, sessionKey, 1);
+
 		// always set last ping time for any kind of message.
 		lastPingTime.set(System.currentTimeMillis());
 		// handle heartbeats
@@ -214,7 +489,7 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 		{
 			try
 			{
-				sendText("p"); // pong, has to be synchronized to prevent pong to interfere with regular messages
+				sendPong();
 			}
 			catch (IOException e)
 			{
@@ -226,11 +501,11 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 		CurrentWindow.set(window);
 		try
 		{
-			final JSONObject obj = new JSONObject(message);
+			final JSONObject obj = new LazyJSONObject(message); // values are only parsed when used
 
 			if (obj.has("smsgid"))
 			{
-				window.getSession().getEventDispatcher().addEvent(new Runnable()
+				addEvent(new Runnable()
 				{
 
 					@Override
@@ -250,7 +525,13 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 						window.getSession().getEventDispatcher().resume(suspendID);
 					}
 
-				}, IEventDispatcher.EVENT_LEVEL_SYNC_API_CALL);
+					@Override
+					public String toString()
+					{
+						return "response to " + obj.optInt("smsgid");
+					}
+
+				}, IEventDispatcher.EVENT_LEVEL_SYNC_API_CALL, null, null);
 			}
 
 			else if (obj.has("service"))
@@ -266,14 +547,22 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 					final JSONObject arguments = obj.optJSONObject("args");
 					int eventLevel = (service instanceof IEventDispatchAwareServerService)
 						? ((IEventDispatchAwareServerService)service).getMethodEventThreadLevel(methodName, arguments, prio) : prio;
+					// browser values that are pushed to the same component one after the other can be handled in one event
+					final DataPush dataPush = ("dataPush".equals(methodName) && arguments != null && !obj.has("cmsgid") &&
+						arguments.optJSONObject("changes") != null)
+							? new DataPush(serviceName + ".dataPush:" + arguments.optString("formname") + ":" + arguments.optString("beanname"), eventLevel,
+								prio, arguments.optJSONObject("changes"), arguments.optJSONObject("oldvalues"))
+							: null;
 
-					window.getSession().getEventDispatcher().addEvent(new Runnable()
+					addEvent(new Runnable()
 					{
 						@Override
 						public void run()
 						{
+							if (dataPush != null) dataPush.start();
 							Object result = null;
 							String error = null;
+							long start = Metrics.isEnabled() ? System.nanoTime() : 0;
 							try
 							{
 								result = service.executeMethod(methodName, arguments);
@@ -291,6 +580,7 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 								error = "Error: " + e.getMessage();
 								log.error(error, e);
 							}
+							if (start != 0) Metrics.get().record(Metrics.SERVICE_CALL_TIME, serviceName + "." + methodName, System.nanoTime() - start);
 
 							final Object msgId = obj.opt("cmsgid");
 							if (msgId != null) // client wants response
@@ -319,7 +609,21 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 								}
 							}
 						}
-					}, eventLevel);
+
+						@Override
+						public String toString()
+						{
+							StringBuilder label = new StringBuilder("service call ").append(serviceName).append('.').append(methodName);
+							if (arguments != null)
+							{
+								// events of components are executed via a service, show which one
+								if (arguments.has("formname")) label.append(" form ").append(arguments.optString("formname"));
+								if (arguments.has("beanname")) label.append(" bean ").append(arguments.optString("beanname"));
+								if (arguments.has("event")) label.append(" event ").append(arguments.optString("event"));
+							}
+							return label.toString();
+						}
+					}, eventLevel, obj.opt("cmsgid"), dataPush);
 				}
 				else
 				{
@@ -334,15 +638,17 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 				if (service != null)
 				{
 					final int eventLevel = obj.optInt("prio", IEventDispatcher.EVENT_LEVEL_DEFAULT);
+					final JSONObject changes = obj.optJSONObject("changes");
+					final DataPush dataPush = changes != null ? new DataPush("servicedatapush:" + serviceName, eventLevel, eventLevel, changes, null) : null;
 
-					window.getSession().getEventDispatcher().addEvent(new Runnable()
+					addEvent(new Runnable()
 					{
 						@Override
 						public void run()
 						{
+							if (dataPush != null) dataPush.start();
 							try
 							{
-								JSONObject changes = obj.optJSONObject("changes");
 								Iterator keys = changes.keys();
 								while (keys.hasNext())
 								{
@@ -356,7 +662,13 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 								return;
 							}
 						}
-					}, eventLevel);
+
+						@Override
+						public String toString()
+						{
+							return "service data push " + serviceName;
+						}
+					}, eventLevel, null, dataPush);
 				}
 				else
 				{
@@ -367,6 +679,7 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 
 			else
 			{
+				lastDataPush = null;
 				window.getSession().handleMessage(obj);
 			}
 		}
@@ -382,6 +695,61 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 
 	}
 
+	/**
+	 * Adds an event for a message of the browser to the event dispatcher of the session. If the event queue is full, {@link #PROPERTY_EVENT_QUEUE_OVERFLOW_POLICY} is applied.
+	 *
+	 * @param msgId the id of the message if the browser waits for a response, null otherwise.
+	 * @param dataPush if not null and the previous message was a data push with the same key that is still pending, the values are merged into that
+	 * one instead of adding the event.
+	 */
+	private void addEvent(Runnable event, int eventLevel, Object msgId, DataPush dataPush)
+	{
+		DataPush previous = lastDataPush;
+		if (dataPush != null && previous != null && previous.merge(dataPush))
+		{
+			Metrics.get().increment(Metrics.COALESCED_DATA_PUSHES, endpointType, 1);
+			return;
+		}
+
+		try
+		{
+			window.getSession().getEventDispatcher().addEvent(event, eventLevel);
+			lastDataPush = dataPush;
+			rejectingEvents = false;
+		}
+		catch (EventQueueFullException e)
+		{
+			lastDataPush = null;
+			handleEventQueueOverflow(msgId, e);
+		}
+	}
+
+	private void handleEventQueueOverflow(Object msgId, EventQueueFullException e)
+	{
+		Metrics.get().increment(Metrics.REJECTED_EVENTS, endpointType, 1);
+		if (EVENT_QUEUE_OVERFLOW_POLICY == EventQueueOverflowPolicy.DISCONNECT)
+		{
+			log.warn("Disconnecting window " + window + ": " + e.getMessage());
+			closeSession(new CloseReason(CloseCodes.TRY_AGAIN_LATER, "Too many pending events"));
+			return;
+		}
+
+		// only log the first one, a browser that floods the server would flood the log as well
+		if (!rejectingEvents) log.warn("Rejecting messages of window " + window + ": " + e.getMessage());
+		rejectingEvents = true;
+		if (msgId != null)
+		{
+			try
+			{
+				sendResponse(msgId, "Server is too busy to handle the request", null, false);
+			}
+			catch (IOException ioe)
+			{
+				log.warn("Could not send rejection of request to window " + window, ioe);
+			}
+		}
+	}
+
 	protected void sendResponse(Object msgId, Object object, PropertyDescription objectType, boolean success) throws IOException
 	{
 		Map<String, Object> data = new HashMap<>();
@@ -395,24 +763,535 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 			dataTypes.putProperty(key, objectType);
 		}
 
+		IMessageWriter messageWriter = createMessageWriter(CompressionStatistics.KIND_RESPONSE);
+		// kept with the messages of the window, so a browser that waits for the response can resume when it reconnects
+		IWindow win = window;
+		ReplayBuffer replayBuffer = win instanceof BaseWindow ? ((BaseWindow)win).getReplayBuffer() : null;
+		boolean sent = false;
+		boolean replayable = false;
 		try
 		{
-			sendText(JSONUtils.writeDataWithConversions(FullValueToJSONConverter.INSTANCE, data, dataTypes,
-				BrowserConverterContext.NULL_WEB_OBJECT_WITH_NO_PUSH_TO_SERVER));
+			if (replayBuffer != null) messageWriter.keepCopy(replayBuffer.getMaxBytes());
+			JSONWriter w = messageWriter.getJSONWriter();
+			w.object();
+			JSONUtils.writeDataWithConversions(FullValueToJSONConverter.INSTANCE, w, data, dataTypes, BrowserConverterContext.NULL_WEB_OBJECT_WITH_NO_PUSH_TO_SERVER);
+			long sequence = 0;
+			if (replayBuffer != null)
+			{
+				sequence = replayBuffer.nextSequence();
+				w.key("seq").value(sequence);
+			}
+			w.endObject();
+			try
+			{
+				messageWriter.close();
+				sent = true;
+			}
+			finally
+			{
+				if (replayBuffer != null)
+				{
+					replayBuffer.add(sequence, messageWriter);
+					replayable = true;
+				}
+			}
 		}
 		catch (JSONException e)
 		{
 			throw new IOException(e);
 		}
+		finally
+		{
+			if (!sent)
+			{
+				if (replayBuffer != null && !replayable && messageWriter.hasSentFragments()) replayBuffer.invalidate();
+				messageWriter.discard();
+			}
+		}
 	}
 
-	public synchronized void sendText(String txt) throws IOException
+	public void sendText(String txt) throws IOException
 	{
-		if (session == null)
+		sendText(txt, true);
+	}
+
+	/**
+	 * @param bounded see {@link #queueMessage(Object, boolean)}.
+	 */
+	private void sendText(String txt, boolean bounded) throws IOException
+	{
+		if (asyncSend)
+		{
+			queueMessage(txt, bounded);
+			messageSent(txt.length());
+			return;
+		}
+
+		lockForSending();
+		try
+		{
+			if (session == null)
+			{
+				throw new IOException("No session");
+			}
+			session.getBasicRemote().sendText(txt);
+		}
+		finally
+		{
+			sendLock.unlock();
+		}
+		messageSent(txt.length());
+	}
+
+	/**
+	 * Answers a ping of the browser. When another thread is sending a message the pong is not sent, as it would have to wait until that
+	 * message is complete; the browser takes that message as a sign that the connection is up.
+	 */
+	private void sendPong() throws IOException
+	{
+		if (asyncSend)
+		{
+			sendText(PONG, false);
+			return;
+		}
+
+		if (!sendLock.tryLock()) return;
+		try
+		{
+			if (session == null)
+			{
+				throw new IOException("No session");
+			}
+			session.getBasicRemote().sendText(PONG);
+		}
+		finally
 		{
-			throw new IOException("No session");
+			sendLock.unlock();
 		}
-		session.getBasicRemote().sendText(txt);
+		messageSent(1);
+	}
+
+	/**
+	 * Takes the send lock. Sending a message while writing a message in fragments on the same thread (for instance from a toJSON call)
+	 * fails, instead of sending it in between the fragments.
+	 */
+	private void lockForSending() throws IOException
+	{
+		if (sendLock.isHeldByCurrentThread())
+		{
+			throw new IOException("Cannot send a message to window " + window + " while a message is being sent in fragments on the same thread");
+		}
+		sendLock.lock();
+	}
+
+	/**
+	 * Records a message that was sent (or queued to be sent) in the metrics.
+	 *
+	 * @param size the number of characters of a text message or bytes of a binary message.
+	 */
+	private void messageSent(long size)
+	{
+		IMetrics metrics = Metrics.get();
+		metrics.increment(Metrics.MESSAGES_SENT, endpointType, 1);
+		metrics.record(Metrics.SENT_SIZE, endpointType, size);
+		String sessionKey = sessionMetricsKey;
+		if (sessionKey != null)
+		{
+			metrics.increment(Metrics.SESSION_MESSAGES_SENT, sessionKey, 1);
+			metrics.increment(Metrics.SESSION_SENT_SIZE, sessionKey, size);
+		}
+	}
+
+	/**
+	 * Queues a message to be sent asynchronously. Only one message is being sent at a time, so messages reach the browser in the order they were queued.
+	 *
+	 * @param bounded false for messages that the browser waits for (responses, pongs); those are small and should not make the queue overflow,
+	 * so they don't count for the queue size. Pongs are queued before the other messages.
+	 */
+	private void queueMessage(Object message, boolean bounded) throws IOException
+	{
+		boolean sendNow = false;
+		boolean overflow = false;
+		synchronized (sendQueue)
+		{
+			if (session == null)
+			{
+				throw new IOException("No session");
+			}
+			if (!asyncSendInProgress)
+			{
+				asyncSendInProgress = true;
+				sendNow = true;
+			}
+			else if (!bounded)
+			{
+				if (PONG.equals(message)) sendQueue.addFirst(new QueuedMessage(message, false));
+				else sendQueue.add(new QueuedMessage(message, false));
+			}
+			else if (boundedQueueSize >= sendQueueSize)
+			{
+				overflow = true;
+			}
+			else
+			{
+				sendQueue.add(new QueuedMessage(message, true));
+				boundedQueueSize++;
+				if (boundedQueueSize >= sendQueueSize) backpressured = true;
+			}
+		}
+
+		if (overflow)
+		{
+			handleSendQueueOverflow();
+			throw new IOException("Too many messages are waiting to be sent to window " + window + "; overflow policy " + sendQueueOverflowPolicy + " was applied");
+		}
+		if (sendNow) sendAsync(message);
+	}
+
+	/**
+	 * Sends the message and, as long as sending completes before the send call returns, the queued messages after it; this is a loop
+	 * so that a container that completes sends right away does not make the stack grow with every queued message.
+	 */
+	private void sendAsync(Object message)
+	{
+		Object next = message;
+		while (next != null)
+		{
+			Session s = session;
+			if (s == null)
+			{
+				clearSendQueue();
+				return;
+			}
+			AsyncSendHandler handler = new AsyncSendHandler();
+			boolean failed = false;
+			try
+			{
+				if (next instanceof ByteBuffer) s.getAsyncRemote().sendBinary((ByteBuffer)next, handler);
+				else s.getAsyncRemote().sendText((String)next, handler);
+			}
+			catch (RuntimeException e)
+			{
+				log.warn("Could not send message to window " + window, e);
+				failed = true;
+			}
+			if (!handler.sendReturned(failed)) return; // the handler sends the next message when this one is sent
+
+			next = pollQueuedMessage();
+		}
+	}
+
+	private void sendNextQueuedMessage()
+	{
+		Object next = pollQueuedMessage();
+		if (next != null) sendAsync(next);
+	}
+
+	/**
+	 * @return the next message to send, null if the queue is empty (then no message is being sent anymore).
+	 */
+	private Object pollQueuedMessage()
+	{
+		QueuedMessage next;
+		boolean drained = false;
+		synchronized (sendQueue)
+		{
+			next = sendQueue.poll();
+			if (next == null) asyncSendInProgress = false;
+			else if (next.bounded) boundedQueueSize--;
+			if (backpressured && boundedQueueSize <= sendQueueSize / 2)
+			{
+				backpressured = false;
+				drained = true;
+			}
+		}
+		if (drained) sendDeferredChanges();
+		return next != null ? next.content : null;
+	}
+
+	/**
+	 * Sends the changes that the window held back while the send queue was full.
+	 */
+	private void sendDeferredChanges()
+	{
+		final IWindow win = window;
+		if (win == null || win.getSession() == null) return;
+
+		CurrentWindow.set(win);
+		try
+		{
+			win.getSession().getEventDispatcher().addEvent(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						win.sendChanges();
+					}
+					catch (IOException e)
+					{
+						log.warn("Could not send changes that were held back for window " + win, e);
+					}
+				}
+			});
+		}
+		finally
+		{
+			CurrentWindow.set(null);
+		}
+	}
+
+	private void handleSendQueueOverflow()
+	{
+		int dropped = clearSendQueue();
+		if (sendQueueOverflowPolicy == SendQueueOverflowPolicy.DISCONNECT)
+		{
+			log.warn("Disconnecting window " + window + " because " + dropped + " messages could not be sent fast enough");
+			closeSession(new CloseReason(CloseCodes.TRY_AGAIN_LATER, "Too many pending messages"));
+		}
+		else
+		{
+			// also for COALESCE_CHANGES: changes were held back, but other messages still did not fit
+			log.warn("Dropped " + dropped + " messages that could not be sent fast enough to window " + window + "; the browser will reconnect to resync");
+			closeSession(new CloseReason(CloseCodes.SERVICE_RESTART, "Too many pending messages, resync needed"));
+		}
+	}
+
+	/**
+	 * @return the number of messages that were dropped.
+	 */
+	private int clearSendQueue()
+	{
+		synchronized (sendQueue)
+		{
+			int size = sendQueue.size();
+			sendQueue.clear();
+			boundedQueueSize = 0;
+			backpressured = false;
+			return size;
+		}
+	}
+
+	/**
+	 * True from the moment the send queue is full until half of it was sent.
+	 */
+	@Override
+	public boolean isBackpressured()
+	{
+		if (!asyncSend) return false;
+		synchronized (sendQueue)
+		{
+			return backpressured;
+		}
+	}
+
+	@Override
+	public boolean isBinaryProtocol()
+	{
+		return binaryProtocol;
+	}
+
+	/**
+	 * @return true if the browser can apply granular insert/remove operations on custom arrays (see {@link #GRANULAR_ARRAY_UPDATES_REQUEST_PARAMETER}).
+	 */
+	public boolean supportsGranularArrayUpdates()
+	{
+		return granularArrayUpdates;
+	}
+
+	@Override
+	public IMessageWriter createMessageWriter(String messageKind)
+	{
+		// the browser waits for responses, they can't be dropped because the send queue is full
+		final boolean bounded = !CompressionStatistics.KIND_RESPONSE.equals(messageKind);
+		if (compressionThreshold > 0)
+		{
+			return new CompressingMessageWriter(messageKind, binaryProtocol, compressionThreshold)
+			{
+				@Override
+				protected void sendUncompressed(byte[] content, int length) throws IOException
+				{
+					if (binaryProtocol)
+					{
+						BinaryMessageWriter binaryMessage = createBinaryMessageWriter(bounded);
+						binaryMessage.write(content, 0, length);
+						binaryMessage.close();
+					}
+					else
+					{
+						sendText(new String(content, 0, length, StandardCharsets.UTF_8), bounded);
+					}
+				}
+
+				@Override
+				protected BinaryMessageWriter createCompressedMessageWriter()
+				{
+					return createBinaryMessageWriter(bounded);
+				}
+			};
+		}
+		return binaryProtocol ? createBinaryMessageWriter(bounded) : createTextMessageWriter(bounded);
+	}
+
+	private BinaryMessageWriter createBinaryMessageWriter(final boolean bounded)
+	{
+		if (asyncSend)
+		{
+			// the async remote can't send partial messages, so the complete message is buffered and queued
+			return new BinaryMessageWriter(Integer.MAX_VALUE)
+			{
+				@Override
+				protected void sendMessage(ByteBuffer data) throws IOException
+				{
+					int size = data.remaining();
+					queueMessage(data, bounded);
+					messageSent(size);
+				}
+
+				@Override
+				protected void sendFragment(ByteBuffer fragment, boolean last) throws IOException
+				{
+					throw new IllegalStateException("not fragmented");
+				}
+			};
+		}
+
+		return new BinaryMessageWriter()
+		{
+			private long size;
+
+			@Override
+			protected void sendMessage(ByteBuffer data) throws IOException
+			{
+				lockForSending();
+				try
+				{
+					Session s = session;
+					if (s == null)
+					{
+						throw new IOException("No session");
+					}
+					int messageSize = data.remaining();
+					s.getBasicRemote().sendBinary(data);
+					messageSent(messageSize);
+				}
+				finally
+				{
+					sendLock.unlock();
+				}
+			}
+
+			@Override
+			protected void startFragmentedMessage() throws IOException
+			{
+				lockForSending();
+			}
+
+			@Override
+			protected void sendFragment(ByteBuffer fragment, boolean last) throws IOException
+			{
+				Session s = session;
+				if (s == null)
+				{
+					throw new IOException("No session");
+				}
+				size += fragment.remaining();
+				s.getBasicRemote().sendBinary(fragment, last);
+				if (last) messageSent(size);
+			}
+
+			@Override
+			protected void endFragmentedMessage()
+			{
+				sendLock.unlock();
+			}
+
+			@Override
+			protected void incompleteMessageSent()
+			{
+				closeAfterIncompleteMessage();
+			}
+		};
+	}
+
+	/**
+	 * The browser cannot parse a message that was only partially sent, so the changes in it are lost; let it reconnect to get in sync again.
+	 */
+	private void closeAfterIncompleteMessage()
+	{
+		log.warn("Sending a message to window " + window + " failed after parts of it were sent; the browser will reconnect to resync");
+		closeSession(new CloseReason(CloseCodes.SERVICE_RESTART, "Incomplete message, resync needed"));
+	}
+
+	@Override
+	public TextMessageWriter createTextMessageWriter()
+	{
+		return createTextMessageWriter(true);
+	}
+
+	private TextMessageWriter createTextMessageWriter(final boolean bounded)
+	{
+		if (asyncSend)
+		{
+			// the async remote can't send partial messages, so the complete message is buffered and queued
+			return new TextMessageWriter(Integer.MAX_VALUE)
+			{
+				@Override
+				protected void sendMessage(String text) throws IOException
+				{
+					sendText(text, bounded);
+				}
+
+				@Override
+				protected void sendFragment(String fragment, boolean last) throws IOException
+				{
+					throw new IllegalStateException("not fragmented");
+				}
+			};
+		}
+
+		return new TextMessageWriter()
+		{
+			private long size;
+
+			@Override
+			protected void sendMessage(String text) throws IOException
+			{
+				sendText(text, bounded);
+			}
+
+			@Override
+			protected void startFragmentedMessage() throws IOException
+			{
+				lockForSending();
+			}
+
+			@Override
+			protected void sendFragment(String fragment, boolean last) throws IOException
+			{
+				Session s = session;
+				if (s == null)
+				{
+					throw new IOException("No session");
+				}
+				s.getBasicRemote().sendText(fragment, last);
+				size += fragment.length();
+				if (last) messageSent(size);
+			}
+
+			@Override
+			protected void endFragmentedMessage()
+			{
+				sendLock.unlock();
+			}
+
+			@Override
+			protected void incompleteMessageSent()
+			{
+				closeAfterIncompleteMessage();
+			}
+		};
 	}
 
 
@@ -455,4 +1334,140 @@ public abstract class WebsocketEndpoint implements IWebsocketEndpoint
 		return lastPingTime.get();
 	}
 
+	/**
+	 * Browser values pushed to the server that were not handled yet. A later push with the same key (the same component or service)
+	 * is merged into it as long as it has not started, so only the latest values are applied.
+	 * Granular updates of custom arrays/objects are never merged into a pending value of the same property; they only make sense on top of it.
+	 */
+	static class DataPush
+	{
+		private final String key;
+		private final int eventLevel;
+		private final int prio;
+		private final JSONObject changes;
+		private final JSONObject oldvalues;
+		private boolean started;
+
+		DataPush(String key, int eventLevel, int prio, JSONObject changes, JSONObject oldvalues)
+		{
+			this.key = key;
+			this.eventLevel = eventLevel;
+			this.prio = prio;
+			this.changes = changes;
+			this.oldvalues = oldvalues;
+		}
+
+		/**
+		 * @return false if the given push can't be merged into this one, because it is for something else or at another event level or priority,
+		 * this one was already started or it has granular updates for a property that this one also has a value for. Nothing is merged then.
+		 */
+		synchronized boolean merge(DataPush other)
+		{
+			if (started || !key.equals(other.key) || eventLevel != other.eventLevel || prio != other.prio ||
+				(oldvalues == null) != (other.oldvalues == null)) return false;
+
+			Iterator< ? > keys = other.changes.keys();
+			try
+			{
+				while (keys.hasNext())
+				{
+					String property = (String)keys.next();
+					if (changes.has(property) && isGranularUpdate(other.changes.opt(property))) return false;
+					// check up front so that putting the values below can't fail halfway
+					JSONObject.testValidity(other.changes.opt(property));
+					if (other.oldvalues != null) JSONObject.testValidity(other.oldvalues.opt(property));
+				}
+			}
+			catch (JSONException e)
+			{
+				log.warn("Could not merge data pushes for " + key, e);
+				return false;
+			}
+
+			try
+			{
+				keys = other.changes.keys();
+				while (keys.hasNext())
+				{
+					String property = (String)keys.next();
+					// the browser's old value of a property that was already pushed is the value of that first push; keep the old value from before it
+					if (oldvalues != null && !changes.has(property) && other.oldvalues.has(property))
+					{
+						oldvalues.put(property, other.oldvalues.opt(property));
+					}
+					changes.put(property, other.changes.opt(property));
+				}
+			}
+			catch (JSONException e)
+			{
+				// can't happen, the values were checked
+				log.error("Could not merge data pushes for " + key, e);
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * @return true if the value is a change of custom array/object contents (updates or no-op) instead of a full value.
+		 */
+		private static boolean isGranularUpdate(Object value)
+		{
+			return value instanceof JSONObject && (((JSONObject)value).has("u") || ((JSONObject)value).has("n"));
+		}
+
+		/**
+		 * Called when the push is handled; it can no longer be merged with later ones.
+		 */
+		synchronized void start()
+		{
+			started = true;
+		}
+	}
+
+	private static final class QueuedMessage
+	{
+		private final Object content; // String or ByteBuffer
+		private final boolean bounded;
+
+		QueuedMessage(Object content, boolean bounded)
+		{
+			this.content = content;
+			this.bounded = bounded;
+		}
+	}
+
+	/**
+	 * Handler for one asynchronously sent message; sends the next queued message when it completes after the send call returned.
+	 */
+	private final class AsyncSendHandler implements SendHandler
+	{
+		private boolean returned;
+		private boolean completed;
+
+		@Override
+		public void onResult(SendResult result)
+		{
+			if (!result.isOK())
+			{
+				log.warn("Could not send message to window " + window, result.getException());
+			}
+			synchronized (this)
+			{
+				if (completed) return;
+				completed = true;
+				if (!returned) return; // sendAsync continues with the next message
+			}
+			sendNextQueuedMessage();
+		}
+
+		/**
+		 * @return true if the message was already sent (or sending failed), then the caller should send the next message.
+		 */
+		synchronized boolean sendReturned(boolean failed)
+		{
+			returned = true;
+			if (failed) completed = true;
+			return completed;
+		}
+	}
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sablo.websocket;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.websocket.Extension;
+import javax.websocket.server.ServerEndpointConfig;
+
+/**
+ * Configurator for sablo websocket endpoints (use it in the configurator attribute of the ServerEndpoint annotation) that negotiates
+ * the websocket compression extension (permessage-deflate) if both the container and the browser support it.<br/><br/>
+ *
+ * Negotiation of the compression extension can be disabled via system property {@link #PROPERTY_PERMESSAGE_DEFLATE}. When it is not negotiated,
+ * {@link WebsocketEndpoint} can compress big messages itself (see {@link WebsocketEndpoint#PROPERTY_COMPRESSION_THRESHOLD}).
+ */
+public class WebsocketEndpointConfigurator extends ServerEndpointConfig.Configurator
+{
+	public static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+	/**
+	 * If "false" the permessage-deflate extension is not negotiated with browsers.
+	 */
+	public static final String PROPERTY_PERMESSAGE_DEFLATE = "sablo.websocket.permessageDeflate";
+
+	@Override
+	public List<Extension> getNegotiatedExtensions(List<Extension> installed, List<Extension> requested)
+	{
+		boolean deflateEnabled = !"false".equals(System.getProperty(PROPERTY_PERMESSAGE_DEFLATE));
+
+		Set<String> installedNames = new HashSet<>();
+		for (Extension extension : installed)
+		{
+			installedNames.add(extension.getName());
+		}
+
+		// keep the order (and parameters) the browser asked for, but use compression first
+		List<Extension> negotiated = new ArrayList<>();
+		Set<String> negotiatedNames = new HashSet<>();
+		for (Extension extension : requested)
+		{
+			String name = extension.getName();
+			if (PERMESSAGE_DEFLATE.equals(name) && deflateEnabled && installedNames.contains(name) && negotiatedNames.add(name))
+			{
+				negotiated.add(0, extension);
+			}
+		}
+		for (Extension extension : requested)
+		{
+			String name = extension.getName();
+			if (!PERMESSAGE_DEFLATE.equals(name) && installedNames.contains(name) && negotiatedNames.add(name))
+			{
+				negotiated.add(extension);
+			}
+		}
+		return negotiated;
+	}
+
+}
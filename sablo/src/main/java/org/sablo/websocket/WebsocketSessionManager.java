@@ -18,33 +18,66 @@ package org.sablo.websocket;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.sablo.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Websocket user session management
+ * Websocket user session management.<br/><br/>
+ *
+ * Sessions are kept in a concurrent map, lookups never wait for the creation of (other) sessions or for expiry checks.
+ * Next to that sessions are indexed by the time at which they should be checked for window activity, so {@link #closeInactiveSessions()}
+ * only has to look at sessions that could have expired. Connecting and disconnecting browsers only update the check of their own session
+ * (see {@link #windowActivityChanged(IWebsocketSession)}); the actual checks are done in the background by the {@link InactiveSessionReaper}.
+ *
  * @author jblok, rgansevles
  */
 public class WebsocketSessionManager
 {
 	private static final Logger log = LoggerFactory.getLogger(WebsocketSessionManager.class.getCanonicalName());
 
-	private final static Map<String, IWebsocketSessionFactory> websocketSessionFactories = new HashMap<>();
+	private final static Map<String, IWebsocketSessionFactory> websocketSessionFactories = new ConcurrentHashMap<>();
 
 	//maps form uuid to session
-	private final static Map<String, IWebsocketSession> wsSessions = new HashMap<>();
+	private final static ConcurrentHashMap<String, IWebsocketSession> wsSessions = new ConcurrentHashMap<>();
+
+	// sessions are only created while holding the lock of the stripe for their uuid, so a uuid never gets 2 sessions
+	private final static Object[] creationLocks = new Object[32];
+	// the activity check of a session is only (re)scheduled, claimed or cancelled while holding the lock of the stripe for it's uuid
+	private final static Object[] activityCheckLocks = new Object[32];
+
+	static
+	{
+		for (int i = 0; i < creationLocks.length; i++)
+		{
+			creationLocks[i] = new Object();
+		}
+		for (int i = 0; i < activityCheckLocks.length; i++)
+		{
+			activityCheckLocks[i] = new Object();
+		}
+	}
+
+	// ordered by the time at which a session should be checked for window activity; at most one check per session uuid
+	private final static ConcurrentSkipListSet<ActivityCheck> activityChecks = new ConcurrentSkipListSet<>();
+	private final static Map<String, ActivityCheck> activityChecksBySession = new ConcurrentHashMap<>();
+	private final static AtomicLong activityCheckSequence = new AtomicLong();
 
 	public static void addSession(IWebsocketSession wsSession)
 	{
-		synchronized (wsSessions)
+		wsSessions.put(wsSession.getUuid(), wsSession);
+		sessionsChanged();
+		synchronized (getActivityCheckLock(wsSession.getUuid()))
 		{
-			wsSessions.put(wsSession.getUuid(), wsSession);
+			ActivityCheck previous = activityChecksBySession.get(wsSession.getUuid());
+			scheduleActivityCheck(wsSession, previous != null ? previous.endpointType : null, false);
 		}
 	}
 
@@ -66,13 +99,12 @@ public class WebsocketSessionManager
 				log.error("Error sending changes when session is removed", e);
 			}
 		}
-		IWebsocketSession websocketSession;
-		synchronized (wsSessions)
-		{
-			websocketSession = wsSessions.remove(uuid);
-		}
+		IWebsocketSession websocketSession = wsSessions.remove(uuid);
 		if (websocketSession != null)
 		{
+			sessionsChanged();
+			cancelActivityCheck(uuid);
+			Metrics.sessionRemoved(uuid);
 			websocketSession.dispose();
 		}
 	}
@@ -103,27 +135,39 @@ public class WebsocketSessionManager
 	{
 		String uuid = prevUuid;
 		IWebsocketSession wsSession = null;
-		synchronized (wsSessions)
+		if (uuid != null && uuid.length() > 0)
 		{
-			if (uuid != null && uuid.length() > 0)
-			{
-				wsSession = wsSessions.get(uuid);
-			}
-			else
-			{
-				uuid = UUID.randomUUID().toString();
-			}
+			wsSession = wsSessions.get(uuid);
+			if (wsSession != null && wsSession.isValid()) return wsSession;
+		}
+		else
+		{
+			uuid = UUID.randomUUID().toString();
+		}
+
+		synchronized (creationLocks[(uuid.hashCode() & 0x7fffffff) % creationLocks.length])
+		{
+			wsSession = wsSessions.get(uuid);
 			if (wsSession == null || !wsSession.isValid())
 			{
-				wsSessions.remove(uuid);
+				if (wsSession != null && wsSessions.remove(uuid, wsSession))
+				{
+					sessionsChanged();
+					cancelActivityCheck(uuid);
+					Metrics.sessionRemoved(uuid);
+				}
 				wsSession = null;
-				if (create && websocketSessionFactories.containsKey(endpointType))
+				IWebsocketSessionFactory factory = websocketSessionFactories.get(endpointType);
+				if (create && factory != null)
 				{
-					wsSession = websocketSessionFactories.get(endpointType).createSession(uuid);
+					wsSession = factory.createSession(uuid);
 				}
 				if (wsSession != null)
 				{
 					wsSessions.put(uuid, wsSession);
+					sessionsChanged();
+					// a new session has no windows yet, so it is checked the next time inactive sessions are closed
+					scheduleActivityCheck(wsSession, endpointType, true);
 				}
 			}
 		}
@@ -131,47 +175,180 @@ public class WebsocketSessionManager
 	}
 
 	/**
-	 * @param endpointType
-	 * @param uuid
+	 * Reschedules the activity check of a registered session after one of it's windows got or lost an endpoint, without checking any session.
+	 */
+	public static void windowActivityChanged(IWebsocketSession wsSession)
+	{
+		synchronized (getActivityCheckLock(wsSession.getUuid()))
+		{
+			ActivityCheck previous = activityChecksBySession.get(wsSession.getUuid());
+			// when there is no check the session is not registered, or it's check is being done right now and will be rescheduled after that
+			if (previous == null || previous.session != wsSession) return;
+			scheduleActivityCheck(wsSession, previous.endpointType, false);
+		}
+	}
+
+	/**
+	 * Expires and disposes the sessions that no longer have any windows after closing the windows that timed out.
+	 * Only sessions whose activity check is due are looked at; the others are not locked or touched in any way.
 	 */
 	public static void closeInactiveSessions()
 	{
+		closeInactiveSessions(null);
+	}
+
+	/**
+	 * Same as {@link #closeInactiveSessions()}, but only checks the sessions that the given tick allows (all due sessions if it is null);
+	 * the checks of the other due sessions stay due. Stops looking at due sessions as soon as the tick does not allow any more checks.
+	 * Due checks of sessions that the tick skips altogether are postponed, so the next ticks don't have to look at them again.
+	 *
+	 * @return the number of sessions that expired.
+	 */
+	static int closeInactiveSessions(InactiveSessionReaper.Tick tick)
+	{
+		long currentTime = System.currentTimeMillis();
 		List<IWebsocketSession> expiredSessions = new ArrayList<>(3);
-		synchronized (wsSessions)
+		List<ActivityCheck> activeSessions = new ArrayList<>();
+		try
 		{
-			Iterator<IWebsocketSession> sessions = wsSessions.values().iterator();
-			while (sessions.hasNext())
+			for (ActivityCheck check : activityChecks.headSet(new ActivityCheck(null, null, currentTime, Long.MAX_VALUE), true))
 			{
-				IWebsocketSession session = sessions.next();
-				if (session.checkForWindowActivity())
+				if (tick != null && tick.isSkipped(check.endpointType))
+				{
+					postponeActivityCheck(check, currentTime + tick.getSkipDelay());
+					continue;
+				}
+				if (tick != null && !tick.allowCheck(check.endpointType))
+				{
+					if (tick.isDone()) break;
+					continue;
+				}
+				String uuid = check.session.getUuid();
+				synchronized (getActivityCheckLock(uuid))
+				{
+					// claim the check, another thread might be closing inactive sessions or rescheduling this check
+					if (!activityChecks.remove(check)) continue;
+					activityChecksBySession.remove(uuid, check);
+				}
+				if (wsSessions.get(uuid) != check.session) continue; // removed or replaced in the meantime
+
+				boolean expired = false;
+				try
 				{
-					sessions.remove();
-					expiredSessions.add(session);
+					expired = check.session.checkForWindowActivity();
+				}
+				catch (Exception e)
+				{
+					log.error("Error checking the windows of session " + uuid, e);
+				}
+				if (expired && wsSessions.remove(uuid, check.session))
+				{
+					expiredSessions.add(check.session);
+				}
+				else if (!expired)
+				{
+					// also when the check failed, so the session is checked again later
+					activeSessions.add(check);
 				}
 			}
 		}
-
-		for (IWebsocketSession session : expiredSessions)
+		finally
 		{
-			try
-			{
-				session.sessionExpired();
-			}
-			catch (Exception e)
-			{
-				log.error("Error expiring session " + session.getUuid(), e);
-			}
+			if (expiredSessions.size() > 0) sessionsChanged();
 
-			try
+			// rescheduled only now, otherwise sessions that are checked on every call would be visited again in the loop above
+			for (ActivityCheck check : activeSessions)
 			{
-				session.dispose();
+				scheduleActivityCheck(check.session, check.endpointType, false);
 			}
-			catch (Exception e)
+
+			for (IWebsocketSession session : expiredSessions)
 			{
-				log.error("Error disposing expired session " + session.getUuid(), e);
+				Metrics.sessionRemoved(session.getUuid());
+				try
+				{
+					session.sessionExpired();
+				}
+				catch (Exception e)
+				{
+					log.error("Error expiring session " + session.getUuid(), e);
+				}
+
+				try
+				{
+					session.dispose();
+				}
+				catch (Exception e)
+				{
+					log.error("Error disposing expired session " + session.getUuid(), e);
+				}
 			}
 		}
+		return expiredSessions.size();
+	}
+
+	private static void sessionsChanged()
+	{
+		Metrics.get().gauge(Metrics.SESSIONS, null, wsSessions.size());
+	}
 
+	private static long getNextActivityCheck(IWebsocketSession session)
+	{
+		if (session instanceof BaseWebsocketSession) return ((BaseWebsocketSession)session).getNextWindowActivityCheck();
+		// no way to know when the windows of other session implementations time out, check them every time
+		return System.currentTimeMillis();
+	}
+
+	private static Object getActivityCheckLock(String uuid)
+	{
+		return activityCheckLocks[(uuid.hashCode() & 0x7fffffff) % activityCheckLocks.length];
+	}
+
+	/**
+	 * Replaces the activity check of a registered session; the time of the check is determined while holding the lock, so it includes
+	 * all window changes that were done before.
+	 *
+	 * @param dueNow if true the session is checked the next time inactive sessions are closed.
+	 */
+	private static void scheduleActivityCheck(IWebsocketSession session, String endpointType, boolean dueNow)
+	{
+		String uuid = session.getUuid();
+		synchronized (getActivityCheckLock(uuid))
+		{
+			if (wsSessions.get(uuid) != session) return; // removed or replaced in the meantime
+
+			long time = dueNow ? System.currentTimeMillis() : getNextActivityCheck(session);
+			ActivityCheck check = new ActivityCheck(session, endpointType, time, activityCheckSequence.incrementAndGet());
+			ActivityCheck previous = activityChecksBySession.put(uuid, check);
+			if (previous != null) activityChecks.remove(previous);
+			activityChecks.add(check);
+		}
+	}
+
+	/**
+	 * Moves a check that is still scheduled to the given time; it can't be seen again by a loop over the checks that are due now.
+	 */
+	private static void postponeActivityCheck(ActivityCheck check, long time)
+	{
+		String uuid = check.session.getUuid();
+		synchronized (getActivityCheckLock(uuid))
+		{
+			if (activityChecksBySession.get(uuid) != check) return; // rescheduled, claimed or cancelled in the meantime
+
+			ActivityCheck postponed = new ActivityCheck(check.session, check.endpointType, time, activityCheckSequence.incrementAndGet());
+			activityChecks.remove(check);
+			activityChecksBySession.put(uuid, postponed);
+			activityChecks.add(postponed);
+		}
+	}
+
+	private static void cancelActivityCheck(String uuid)
+	{
+		synchronized (getActivityCheckLock(uuid))
+		{
+			ActivityCheck check = activityChecksBySession.remove(uuid);
+			if (check != null) activityChecks.remove(check);
+		}
 	}
 
 	public static void setWebsocketSessionFactory(String endpointType, IWebsocketSessionFactory factory)
@@ -183,4 +360,47 @@ public class WebsocketSessionManager
 	{
 		return websocketSessionFactories.get(endpointType);
 	}
+
+	/**
+	 * @return the number of registered sessions.
+	 */
+	public static int getSessionCount()
+	{
+		return wsSessions.size();
+	}
+
+	/**
+	 * @return the number of pending activity checks; at most one per registered session.
+	 */
+	static int getActivityCheckCount()
+	{
+		return activityChecks.size();
+	}
+
+	/**
+	 * A pending check of the windows of a session, ordered by time (and creation order for checks of the same time).
+	 */
+	private static class ActivityCheck implements Comparable<ActivityCheck>
+	{
+		private final IWebsocketSession session;
+		private final String endpointType; // null if the session was not created via an endpoint type
+		private final long time;
+		private final long sequence;
+
+		ActivityCheck(IWebsocketSession session, String endpointType, long time, long sequence)
+		{
+			this.session = session;
+			this.endpointType = endpointType;
+			this.time = time;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(ActivityCheck o)
+		{
+			if (time != o.time) return time < o.time ? -1 : 1;
+			if (sequence != o.sequence) return sequence < o.sequence ? -1 : 1;
+			return 0;
+		}
+	}
 }
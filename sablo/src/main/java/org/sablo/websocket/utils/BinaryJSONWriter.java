@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sablo.websocket.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+import org.json.JSONTokener;
+import org.json.JSONWriter;
+
+/**
+ * A {@link JSONWriter} that writes a compact binary encoding (CBOR, RFC 7049) of the JSON instead of JSON text.<br/><br/>
+ *
+ * Objects and arrays that are written through the writer API use indefinite length encoding, so nothing has to be buffered;
+ * integral numbers are written in as few bytes as possible and other numbers as 32 or 64 bit floats.
+ * {@link JSONString} values (for example {@link JSONUtils.EmbeddableJSONWriter}) are parsed and written in the same encoding.<br/><br/>
+ *
+ * Unlike {@link JSONWriter} it does not check if keys and values are written in a valid order.
+ * The browser decodes it in websocket.js (decodeBinaryMessage).
+ */
+@SuppressWarnings("nls")
+public class BinaryJSONWriter extends JSONWriter
+{
+	private static final int MAJOR_UNSIGNED = 0;
+	private static final int MAJOR_NEGATIVE = 1;
+	private static final int MAJOR_TEXT = 3;
+	private static final int MAJOR_ARRAY = 4;
+	private static final int MAJOR_MAP = 5;
+
+	private static final int FALSE = 0xF4;
+	private static final int TRUE = 0xF5;
+	private static final int NULL = 0xF6;
+	private static final int FLOAT32 = 0xFA;
+	private static final int FLOAT64 = 0xFB;
+	private static final int INDEFINITE_ARRAY = 0x9F;
+	private static final int INDEFINITE_MAP = 0xBF;
+	private static final int BREAK = 0xFF;
+
+	private final OutputStream out;
+
+	public BinaryJSONWriter(OutputStream out)
+	{
+		super(null);
+		this.out = out;
+	}
+
+	@Override
+	public JSONWriter object() throws JSONException
+	{
+		writeByte(INDEFINITE_MAP);
+		return this;
+	}
+
+	@Override
+	public JSONWriter endObject() throws JSONException
+	{
+		writeByte(BREAK);
+		return this;
+	}
+
+	@Override
+	public JSONWriter array() throws JSONException
+	{
+		writeByte(INDEFINITE_ARRAY);
+		return this;
+	}
+
+	@Override
+	public JSONWriter endArray() throws JSONException
+	{
+		writeByte(BREAK);
+		return this;
+	}
+
+	@Override
+	public JSONWriter key(String key) throws JSONException
+	{
+		if (key == null) throw new JSONException("Null key.");
+		writeString(key);
+		return this;
+	}
+
+	@Override
+	public JSONWriter value(boolean b) throws JSONException
+	{
+		writeByte(b ? TRUE : FALSE);
+		return this;
+	}
+
+	@Override
+	public JSONWriter value(double d) throws JSONException
+	{
+		writeDouble(d);
+		return this;
+	}
+
+	@Override
+	public JSONWriter value(long l) throws JSONException
+	{
+		writeLong(l);
+		return this;
+	}
+
+	@Override
+	public JSONWriter value(Object o) throws JSONException
+	{
+		writeValue(o);
+		return this;
+	}
+
+	private void writeValue(Object value) throws JSONException
+	{
+		if (value == null || JSONObject.NULL.equals(value))
+		{
+			writeByte(NULL);
+		}
+		else if (value instanceof Boolean)
+		{
+			writeByte(((Boolean)value).booleanValue() ? TRUE : FALSE);
+		}
+		else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte || value instanceof AtomicInteger ||
+			value instanceof AtomicLong || (value instanceof BigInteger && ((BigInteger)value).bitLength() < 64))
+		{
+			writeLong(((Number)value).longValue());
+		}
+		else if (value instanceof Number)
+		{
+			writeDouble(((Number)value).doubleValue());
+		}
+		else if (value instanceof JSONString)
+		{
+			String json = ((JSONString)value).toJSONString();
+			writeValue(json != null ? new JSONTokener(json).nextValue() : null);
+		}
+		else if (value instanceof JSONObject)
+		{
+			JSONObject object = (JSONObject)value;
+			writeTypeAndLength(MAJOR_MAP, object.length());
+			Iterator< ? > keys = object.keys();
+			while (keys.hasNext())
+			{
+				String key = keys.next().toString();
+				writeString(key);
+				writeValue(object.opt(key));
+			}
+		}
+		else if (value instanceof JSONArray)
+		{
+			JSONArray array = (JSONArray)value;
+			writeTypeAndLength(MAJOR_ARRAY, array.length());
+			for (int i = 0; i < array.length(); i++)
+			{
+				writeValue(array.opt(i));
+			}
+		}
+		else if (value instanceof Map)
+		{
+			writeValue(new JSONObject((Map< ? , ? >)value));
+		}
+		else if (value instanceof Collection)
+		{
+			writeValue(new JSONArray((Collection< ? >)value));
+		}
+		else if (value.getClass().isArray())
+		{
+			writeTypeAndLength(MAJOR_ARRAY, Array.getLength(value));
+			for (int i = 0; i < Array.getLength(value); i++)
+			{
+				writeValue(JSONObject.wrap(Array.get(value, i)));
+			}
+		}
+		else
+		{
+			// same as JSONWriter, which writes the quoted toString() of other objects
+			writeString(value.toString());
+		}
+	}
+
+	private void writeLong(long l) throws JSONException
+	{
+		if (l >= 0) writeTypeAndLength(MAJOR_UNSIGNED, l);
+		else writeTypeAndLength(MAJOR_NEGATIVE, -1 - l);
+	}
+
+	private void writeDouble(double d) throws JSONException
+	{
+		if (Double.isNaN(d) || Double.isInfinite(d)) throw new JSONException("JSON does not allow non-finite numbers.");
+
+		if (d == Math.rint(d) && Math.abs(d) < 1e15 && !(d == 0 && 1 / d < 0))
+		{
+			// integral value; JSON text would not make a difference between 1.0 and 1 either
+			writeLong((long)d);
+		}
+		else if ((float)d == d)
+		{
+			writeByte(FLOAT32);
+			writeBytes(Float.floatToIntBits((float)d), 4);
+		}
+		else
+		{
+			writeByte(FLOAT64);
+			writeBytes(Double.doubleToLongBits(d), 8);
+		}
+	}
+
+	private void writeString(String s) throws JSONException
+	{
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeTypeAndLength(MAJOR_TEXT, bytes.length);
+		try
+		{
+			out.write(bytes);
+		}
+		catch (IOException e)
+		{
+			throw new JSONException(e);
+		}
+	}
+
+	private void writeTypeAndLength(int majorType, long length) throws JSONException
+	{
+		int type = majorType << 5;
+		if (length < 24)
+		{
+			writeByte(type | (int)length);
+		}
+		else if (length < 0x100)
+		{
+			writeByte(type | 24);
+			writeBytes(length, 1);
+		}
+		else if (length < 0x10000)
+		{
+			writeByte(type | 25);
+			writeBytes(length, 2);
+		}
+		else if (length < 0x100000000L)
+		{
+			writeByte(type | 26);
+			writeBytes(length, 4);
+		}
+		else
+		{
+			writeByte(type | 27);
+			writeBytes(length, 8);
+		}
+	}
+
+	private void writeBytes(long value, int byteCount) throws JSONException
+	{
+		for (int i = byteCount - 1; i >= 0; i--)
+		{
+			writeByte((int)(value >>> (i * 8)));
+		}
+	}
+
+	private void writeByte(int b) throws JSONException
+	{
+		try
+		{
+			out.write(b);
+		}
+		catch (IOException e)
+		{
+			throw new JSONException(e);
+		}
+	}
+
+}
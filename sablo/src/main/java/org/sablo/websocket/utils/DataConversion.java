@@ -16,9 +16,9 @@
 
 package org.sablo.websocket.utils;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -27,18 +27,84 @@ import java.util.Map;
  * It will build up a conversions map then for the leaf nodes where convert is being called on.
  * This map contains for all tree nodes again a map and the leave nodes are holding the value that is given with the convert call (mostly the type of conversion)
  *
+ * Array indexes can be pushed as ints; they are only turned into node names when a conversion is recorded below them. The maps of the current path
+ * are remembered, so recording conversions for many siblings doesn't walk the tree from the root each time.
+ *
+ * Instances can be reused after {@link #reset()}; see {@link #acquire()} and {@link #release(DataConversion)}.
+ *
  * @author jcompagner
  */
 public class DataConversion
 {
+	private static final int MAX_POOLED_PER_THREAD = 8;
+
+	/**
+	 * Instances that recorded more conversions than this are not pooled, so threads don't keep big maps around.
+	 */
+	private static final int MAX_POOLED_CONVERSIONS_SIZE = 64;
+
+	// no ThreadLocal subclass with initialValue(), the threads of the container would keep that class (and its class loader) referenced
+	private static final ThreadLocal<ArrayDeque<DataConversion>> pool = new ThreadLocal<>();
+
 	private final Map<String, Object> conversions = new HashMap<>();
 
-	private final List<String> path = new ArrayList<>(3);
+	// the current path; a frame is either a name or (when the index is >= 0) an array index for which the name is only created when needed
+	private String[] names = new String[4];
+	private int[] indexes = new int[4];
+	private int size;
+
+	// resolvedMaps[i] is the map that holds the conversions below path frame i; valid for the first resolvedDepth frames
+	private Object[] resolvedMaps = new Object[4];
+	private int resolvedDepth;
 
 	public DataConversion()
 	{
 	}
 
+	/**
+	 * @return an empty instance, reused from the ones that this thread released before if possible.
+	 */
+	public static DataConversion acquire()
+	{
+		ArrayDeque<DataConversion> deque = pool.get();
+		DataConversion dataConversion = deque != null ? deque.poll() : null;
+		return dataConversion != null ? dataConversion : new DataConversion();
+	}
+
+	/**
+	 * Gives an instance that is no longer needed back so that it can be reused by {@link #acquire()} on this thread.
+	 * The map returned by {@link #getConversions()} is cleared, so it must no longer be used either. Call it in a finally block, so that also
+	 * instances that were used when writing failed are given back.
+	 */
+	public static void release(DataConversion dataConversion)
+	{
+		if (dataConversion.conversions.size() > MAX_POOLED_CONVERSIONS_SIZE) return;
+
+		ArrayDeque<DataConversion> deque = pool.get();
+		if (deque == null)
+		{
+			deque = new ArrayDeque<>(MAX_POOLED_PER_THREAD);
+			pool.set(deque);
+		}
+		if (deque.size() < MAX_POOLED_PER_THREAD)
+		{
+			dataConversion.reset();
+			deque.push(dataConversion);
+		}
+	}
+
+	/**
+	 * Clears the recorded conversions and the current path so that this instance can be used again.
+	 */
+	public void reset()
+	{
+		conversions.clear();
+		Arrays.fill(names, 0, size, null);
+		Arrays.fill(resolvedMaps, 0, resolvedDepth, null);
+		size = 0;
+		resolvedDepth = 0;
+	}
+
 	/**
 	 * Push a node name to the current path
 	 *
@@ -46,29 +112,71 @@ public class DataConversion
 	 */
 	public DataConversion pushNode(String name)
 	{
-		path.add(name);
+		ensureCapacity();
+		names[size] = name;
+		indexes[size] = -1;
+		size++;
+		return this;
+	}
+
+	/**
+	 * Push an array index to the current path; same as pushNode(String.valueOf(index)) but the String is only created if needed.
+	 *
+	 * @param index
+	 */
+	public DataConversion pushNode(int index)
+	{
+		ensureCapacity();
+		names[size] = null;
+		indexes[size] = index;
+		size++;
 		return this;
 	}
 
+	private void ensureCapacity()
+	{
+		if (size == names.length)
+		{
+			names = Arrays.copyOf(names, size * 2);
+			indexes = Arrays.copyOf(indexes, size * 2);
+			resolvedMaps = Arrays.copyOf(resolvedMaps, size * 2);
+		}
+	}
+
 	/**
 	 * Pops the current path
 	 */
 	public DataConversion popNode()
 	{
-		path.remove(path.size() - 1);
+		size--;
+		names[size] = null;
+		if (resolvedDepth > size)
+		{
+			resolvedMaps[size] = null;
+			resolvedDepth = size;
+		}
 		return this;
 	}
 
+	private String getNodeName(int frame)
+	{
+		String name = names[frame];
+		if (name == null && indexes[frame] >= 0)
+		{
+			name = String.valueOf(indexes[frame]);
+			names[frame] = name;
+		}
+		return name;
+	}
+
 	/**
 	 * Records the given converterType of the current tree path.
 	 *
 	 * @param converterType
 	 */
-	@SuppressWarnings("unchecked")
 	public DataConversion convert(String converterType)
 	{
-		Map<String, Object> map = getOrCreatePathMap();
-		map.put(path.size() > 0 ? path.get(path.size() - 1) : null, converterType);
+		putInCurrentNode(converterType);
 		return this;
 	}
 
@@ -81,24 +189,44 @@ public class DataConversion
 			// if someone used a DataConversion to write in it just one conversion value we will find that in the null key
 			if (writeData.conversions.size() == 1 && writeData.conversions.keySet().iterator().next() == null) conversionsToAdd = writeData.conversions.get(null);
 
-			Map<String, Object> map = getOrCreatePathMap();
-			map.put(path.size() > 0 ? path.get(path.size() - 1) : null, conversionsToAdd);
+			putInCurrentNode(conversionsToAdd);
 		}
 		return this;
 	}
 
+	private void putInCurrentNode(Object value)
+	{
+		Map<String, Object> map = getOrCreatePathMap();
+		map.put(size > 0 ? getNodeName(size - 1) : null, value);
+
+		// the value of the current node was replaced, so a map that was remembered for it is no longer in the tree
+		if (size > 0 && resolvedDepth >= size)
+		{
+			resolvedMaps[size - 1] = null;
+			resolvedDepth = size - 1;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
 	private Map<String, Object> getOrCreatePathMap()
 	{
-		Map<String, Object> map = conversions;
-		for (int i = 0; i < path.size() - 1; i++)
+		int depth = size - 1; // the last frame is the leaf node
+		if (depth <= 0) return conversions;
+
+		int start = Math.min(resolvedDepth, depth);
+		Map<String, Object> map = start == 0 ? conversions : (Map<String, Object>)resolvedMaps[start - 1];
+		for (int i = start; i < depth; i++)
 		{
-			Map<String, Object> nextMap = (Map<String, Object>)map.get(path.get(i));
+			String nodeName = getNodeName(i);
+			Map<String, Object> nextMap = (Map<String, Object>)map.get(nodeName);
 			if (nextMap == null)
 			{
-				map.put(path.get(i), nextMap = new HashMap<>());
+				map.put(nodeName, nextMap = new HashMap<>());
 			}
+			resolvedMaps[i] = nextMap;
 			map = nextMap;
 		}
+		if (depth > resolvedDepth) resolvedDepth = depth;
 		return map;
 	}
 
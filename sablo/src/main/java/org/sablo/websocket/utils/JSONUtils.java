@@ -36,6 +36,7 @@ import org.sablo.specification.property.IPropertyType;
 import org.sablo.specification.property.ISupportsGranularUpdates;
 import org.sablo.specification.property.IWrapperType;
 import org.sablo.specification.property.types.TypesRegistry;
+import org.sablo.util.PropertyPath;
 import org.sablo.util.ValueReference;
 import org.sablo.websocket.IToJSONWriter;
 import org.sablo.websocket.TypedData;
@@ -80,9 +81,16 @@ public class JSONUtils
 	public static <ContextT> JSONWriter writeDataWithConversions(IToJSONConverter<ContextT> converter, JSONWriter writer, Map<String, ? > data,
 		PropertyDescription dataTypes, ContextT contextObject) throws JSONException
 	{
-		DataConversion dataConversion = new DataConversion();
-		writeData(converter, writer, data, dataTypes, dataConversion, contextObject);
-		writeClientConversions(writer, dataConversion);
+		DataConversion dataConversion = DataConversion.acquire();
+		try
+		{
+			writeData(converter, writer, data, dataTypes, dataConversion, contextObject);
+			writeClientConversions(writer, dataConversion);
+		}
+		finally
+		{
+			DataConversion.release(dataConversion);
+		}
 
 		return writer;
 	}
@@ -211,7 +219,7 @@ public class JSONUtils
 			w.array();
 			for (int i = 0; i < lst.size(); i++)
 			{
-				if (clientConversion != null) clientConversion.pushNode(String.valueOf(i));
+				if (clientConversion != null) clientConversion.pushNode(i);
 				toJSONConverter.toJSONValue(w, null, lst.get(i), getArrayElementType(valueType, i), clientConversion, contextObject);
 				if (clientConversion != null) clientConversion.popNode();
 			}
@@ -224,7 +232,7 @@ public class JSONUtils
 			w.array();
 			for (int i = 0; i < array.length; i++)
 			{
-				if (clientConversion != null) clientConversion.pushNode(String.valueOf(i));
+				if (clientConversion != null) clientConversion.pushNode(i);
 				toJSONConverter.toJSONValue(w, null, array[i], getArrayElementType(valueType, i), clientConversion, contextObject);
 				if (clientConversion != null) clientConversion.popNode();
 			}
@@ -239,17 +247,17 @@ public class JSONUtils
 			{
 				if (clientConversion != null) clientConversion.pushNode(entry.getKey());
 				//TODO remove the need for this when going to full tree recursion for sendChanges()
-				String[] keys = entry.getKey().split("\\.");
-				if (keys.length > 1)
+				PropertyPath keyPath = PropertyPath.of(entry.getKey());
+				if (keyPath != null && keyPath.isNested())
 				{
 					//LIMITATION of JSONWriter because it can't add a property to an already written object
 					// currently for 2 properties like complexmodel.firstNameDataprovider
 					//								   size
 					//								   complexmodel.lastNameDataprovider
 					// it creates 2 json entries with the same key ('complexmodel') and on the client side it only takes one of them
-					w.key(keys[0]);
+					w.key(keyPath.getPart(0));
 					w.object();
-					toJSONConverter.toJSONValue(w, keys[1], entry.getValue(), valueType != null ? valueType.getProperty(entry.getKey()) : null,
+					toJSONConverter.toJSONValue(w, keyPath.getPart(1), entry.getValue(), valueType != null ? valueType.getProperty(entry.getKey()) : null,
 						clientConversion, contextObject);
 					w.endObject();
 				}// END TODO REMOVE
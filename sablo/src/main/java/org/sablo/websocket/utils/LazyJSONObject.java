@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.websocket.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * A {@link JSONObject} that is parsed on demand. When created only the keys of the object are scanned; the text of each value is kept
+ * and only parsed when that value is accessed. Values that are objects themselves are again {@link LazyJSONObject}s.<br/><br/>
+ *
+ * This way a message from the browser can be routed based on a few keys without building the complete object tree, and values that are
+ * never used (or only used partially by a property type's fromJSON) are never completely parsed.<br/><br/>
+ *
+ * Iterating over the keys (or converting to a String) parses all values of this object (but not the values of nested objects).
+ * Only strict JSON (as generated by JSON.stringify) is supported.
+ */
+@SuppressWarnings("nls")
+public class LazyJSONObject extends JSONObject
+{
+
+	private String text;
+	private Map<String, int[]> unparsedValues;
+
+	public LazyJSONObject(String text) throws JSONException
+	{
+		this(text, 0, text.length());
+	}
+
+	private LazyJSONObject(String text, int start, int end) throws JSONException
+	{
+		super();
+		this.text = text;
+		this.unparsedValues = new HashMap<>();
+		scan(start, end);
+	}
+
+	private void scan(int start, int end) throws JSONException
+	{
+		int i = skipWhitespace(text, start, end);
+		if (i >= end || text.charAt(i) != '{') throw syntaxError("A JSON object must begin with '{'", i);
+		i = skipWhitespace(text, i + 1, end);
+		if (i < end && text.charAt(i) == '}') return;
+
+		while (true)
+		{
+			if (i >= end || text.charAt(i) != '"') throw syntaxError("Expected a key", i);
+			int keyEnd = skipString(text, i, end);
+			String key = text.substring(i + 1, keyEnd - 1);
+			if (key.indexOf('\\') >= 0) key = (String)new JSONTokener(text.substring(i, keyEnd)).nextValue();
+
+			i = skipWhitespace(text, keyEnd, end);
+			if (i >= end || text.charAt(i) != ':') throw syntaxError("Expected a ':' after a key", i);
+			i = skipWhitespace(text, i + 1, end);
+
+			int valueEnd = skipValue(text, i, end);
+			unparsedValues.put(key, new int[] { i, valueEnd });
+
+			i = skipWhitespace(text, valueEnd, end);
+			if (i < end && text.charAt(i) == ',')
+			{
+				i = skipWhitespace(text, i + 1, end);
+			}
+			else if (i < end && text.charAt(i) == '}')
+			{
+				return;
+			}
+			else
+			{
+				throw syntaxError("Expected a ',' or '}'", i);
+			}
+		}
+	}
+
+	private JSONException syntaxError(String message, int position)
+	{
+		return new JSONException(message + " at " + position + " [" + text + "]");
+	}
+
+	private void parse(String key)
+	{
+		if (unparsedValues == null) return;
+
+		int[] span = unparsedValues.remove(key);
+		if (span != null)
+		{
+			super.put(key, parseValue(text, span[0], span[1]));
+		}
+		if (unparsedValues.isEmpty())
+		{
+			// everything is parsed, the text is no longer needed
+			unparsedValues = null;
+			text = null;
+		}
+	}
+
+	private void parseAll()
+	{
+		if (unparsedValues == null) return;
+
+		for (String key : unparsedValues.keySet().toArray(new String[unparsedValues.size()]))
+		{
+			parse(key);
+		}
+	}
+
+	@Override
+	public Object opt(String key)
+	{
+		if (key != null) parse(key);
+		return super.opt(key);
+	}
+
+	@Override
+	public boolean has(String key)
+	{
+		return (unparsedValues != null && unparsedValues.containsKey(key)) || super.has(key);
+	}
+
+	@Override
+	public int length()
+	{
+		return (unparsedValues != null ? unparsedValues.size() : 0) + super.length();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Set keySet()
+	{
+		parseAll();
+		return super.keySet();
+	}
+
+	@Override
+	public JSONObject put(String key, Object value) throws JSONException
+	{
+		if (unparsedValues != null && key != null) unparsedValues.remove(key);
+		return super.put(key, value);
+	}
+
+	@Override
+	public Object remove(String key)
+	{
+		parse(key);
+		return super.remove(key);
+	}
+
+	private static Object parseValue(String text, int start, int end) throws JSONException
+	{
+		char c = text.charAt(start);
+		if (c == '{') return new LazyJSONObject(text, start, end);
+		if (c == '[') return new JSONArray(new LazyJSONTokener(text.substring(start, end)));
+		return new JSONTokener(text.substring(start, end)).nextValue();
+	}
+
+	private static int skipWhitespace(String text, int start, int end)
+	{
+		int i = start;
+		while (i < end && text.charAt(i) <= ' ')
+		{
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @return the index right after the closing quote of the string that starts at 'start'.
+	 */
+	private static int skipString(String text, int start, int end) throws JSONException
+	{
+		int i = start + 1;
+		while (i < end)
+		{
+			char c = text.charAt(i);
+			if (c == '\\') i += 2;
+			else if (c == '"') return i + 1;
+			else i++;
+		}
+		throw new JSONException("Unterminated string at " + start);
+	}
+
+	/**
+	 * @return the index right after the value that starts at 'start'.
+	 */
+	private static int skipValue(String text, int start, int end) throws JSONException
+	{
+		if (start >= end) throw new JSONException("Missing value at " + start);
+
+		char c = text.charAt(start);
+		if (c == '"') return skipString(text, start, end);
+		if (c == '{' || c == '[')
+		{
+			int depth = 0;
+			int i = start;
+			while (i < end)
+			{
+				c = text.charAt(i);
+				if (c == '"')
+				{
+					i = skipString(text, i, end);
+					continue;
+				}
+				if (c == '{' || c == '[') depth++;
+				else if (c == '}' || c == ']')
+				{
+					depth--;
+					if (depth == 0) return i + 1;
+				}
+				i++;
+			}
+			throw new JSONException("Unterminated object or array at " + start);
+		}
+
+		int i = start;
+		while (i < end)
+		{
+			c = text.charAt(i);
+			if (c == ',' || c == '}' || c == ']' || c <= ' ') break;
+			i++;
+		}
+		if (i == start) throw new JSONException("Missing value at " + start);
+		return i;
+	}
+
+	/**
+	 * Tokener that creates {@link LazyJSONObject}s for the objects it finds, so that the elements of arrays are also parsed on demand.
+	 */
+	private static class LazyJSONTokener extends JSONTokener
+	{
+
+		LazyJSONTokener(String s)
+		{
+			super(s);
+		}
+
+		@Override
+		public Object nextValue() throws JSONException
+		{
+			char c = nextClean();
+			if (c == '{')
+			{
+				StringBuilder object = new StringBuilder();
+				object.append(c);
+				int depth = 1;
+				while (depth > 0)
+				{
+					c = next();
+					if (c == 0) throw syntaxError("Unterminated object");
+					object.append(c);
+					if (c == '"')
+					{
+						// copy the string as is, including escapes
+						do
+						{
+							c = next();
+							if (c == 0) throw syntaxError("Unterminated string");
+							object.append(c);
+							if (c == '\\') object.append(next());
+						}
+						while (c != '"');
+					}
+					else if (c == '{' || c == '[') depth++;
+					else if (c == '}' || c == ']') depth--;
+				}
+				return new LazyJSONObject(object.toString());
+			}
+			back();
+			return super.nextValue();
+		}
+
+	}
+
+}
@@ -21,7 +21,10 @@ import static org.junit.Assert.assertTrue;
 
 import java.awt.Color;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.json.JSONObject;
@@ -35,7 +38,10 @@ import org.sablo.specification.WebObjectSpecification.PushToServerEnum;
 import org.sablo.specification.property.BrowserConverterContext;
 import org.sablo.specification.property.ChangeAwareList;
 import org.sablo.specification.property.types.AggregatedPropertyType;
+import org.sablo.websocket.BaseWindow;
+import org.sablo.websocket.CurrentWindow;
 import org.sablo.websocket.TypedData;
+import org.sablo.websocket.WebsocketEndpoint;
 import org.sablo.websocket.utils.JSONUtils;
 
 /**
@@ -329,4 +335,108 @@ public class CustomArrayTypeTest
 			msg);
 	}
 
+	@Test
+	public void shouldSendGranularInsertsAndRemoves() throws Exception
+	{
+		// the browser tells that it supports granular updates
+		CurrentWindow.set(new BaseWindow(null, "theuuid", "test"));
+		CurrentWindow.get().setEndpoint(new WebsocketEndpoint("test")
+		{
+			@Override
+			public boolean supportsGranularArrayUpdates()
+			{
+				return true;
+			}
+		});
+		try
+		{
+			writeGranularInsertsAndRemoves();
+		}
+		finally
+		{
+			CurrentWindow.set(null);
+		}
+	}
+
+	@Test
+	public void shouldSendWholeArrayToBrowsersWithoutGranularUpdates() throws Exception
+	{
+		WebComponent component = new WebComponent("mycomponent", "test");
+		BrowserConverterContext allowDataConverterContext = new BrowserConverterContext(component, PushToServerEnum.allow);
+
+		List<Object> array = new ArrayList<Object>(Arrays.asList(new Object[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+		assertTrue(component.setProperty("simpleArrayAllow", array));
+		ChangeAwareList<Object, Object> list = (ChangeAwareList)component.getProperty("simpleArrayAllow"); // ChangeAwareList
+		writeChanges(component, allowDataConverterContext);
+
+		list.add(2, 100);
+		assertEquals(
+			"{\"msg\":{\"simpleArrayAllow\":{\"vEr\":2,\"v\":[1,2,100,3,4,5,6,7,8]}},\"conversions\":{\"msg\":{\"simpleArrayAllow\":\"JSON_arr\"}}}",
+			writeChanges(component, allowDataConverterContext));
+	}
+
+	private void writeGranularInsertsAndRemoves() throws Exception
+	{
+		WebComponent component = new WebComponent("mycomponent", "test");
+		BrowserConverterContext allowDataConverterContext = new BrowserConverterContext(component, PushToServerEnum.allow);
+
+		List<Object> array = new ArrayList<Object>(Arrays.asList(new Object[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+		assertTrue(component.setProperty("simpleArrayAllow", array));
+		ChangeAwareList<Object, Object> list = (ChangeAwareList)component.getProperty("simpleArrayAllow"); // ChangeAwareList
+
+		HashMap<String, Object> data = new HashMap<>();
+		TypedData<Map<String, Object>> properties = component.getProperties();
+		data.put("msg", properties.content);
+		PropertyDescription messageTypes = AggregatedPropertyType.newAggregatedProperty();
+		messageTypes.putProperty("msg", properties.contentType);
+		JSONUtils.writeDataWithConversions(data, messageTypes, allowDataConverterContext);
+		component.clearChanges();
+
+		// insert one element; only that one should be sent
+		list.add(2, 100);
+		assertEquals(
+			"{\"msg\":{\"simpleArrayAllow\":{\"vEr\":3,\"g\":[{\"op\":[2,2,1],\"d\":[100]}]}},\"conversions\":{\"msg\":{\"simpleArrayAllow\":\"JSON_arr\"}}}",
+			writeChanges(component, allowDataConverterContext));
+
+		// consecutive removes and adds are merged
+		list.remove(0);
+		list.remove(0);
+		list.add(200);
+		list.add(300);
+		assertEquals(
+			"{\"msg\":{\"simpleArrayAllow\":{\"vEr\":4,\"g\":[{\"op\":[0,1,2]},{\"op\":[7,8,1],\"d\":[200,300]}]}},\"conversions\":{\"msg\":{\"simpleArrayAllow\":\"JSON_arr\"}}}",
+			writeChanges(component, allowDataConverterContext));
+		assertEquals("#CAL# [100, 3, 4, 5, 6, 7, 8, 200, 300]", list.toString());
+
+		// a change followed by an insert before it; the changed value has to be taken from it's new index
+		list.set(0, 50);
+		list.add(0, 40);
+		assertEquals(
+			"{\"msg\":{\"simpleArrayAllow\":{\"vEr\":5,\"g\":[{\"op\":[0,0,0],\"d\":[50]},{\"op\":[0,0,1],\"d\":[40]}]}},\"conversions\":{\"msg\":{\"simpleArrayAllow\":\"JSON_arr\"}}}",
+			writeChanges(component, allowDataConverterContext));
+
+		// only element changes still use the old update format
+		list.set(1, 60);
+		assertEquals(
+			"{\"msg\":{\"simpleArrayAllow\":{\"vEr\":5,\"u\":[{\"i\":1,\"v\":60}]}},\"conversions\":{\"msg\":{\"simpleArrayAllow\":\"JSON_arr\"}}}",
+			writeChanges(component, allowDataConverterContext));
+
+		// if granular changes would be as large as the whole array, send the whole array
+		list.clear();
+		list.add(1);
+		assertEquals(
+			"{\"msg\":{\"simpleArrayAllow\":{\"vEr\":6,\"v\":[1]}},\"conversions\":{\"msg\":{\"simpleArrayAllow\":\"JSON_arr\"}}}",
+			writeChanges(component, allowDataConverterContext));
+	}
+
+	private static String writeChanges(WebComponent component, BrowserConverterContext dataConverterContext) throws Exception
+	{
+		TypedData<Map<String, Object>> changes = component.getAndClearChanges();
+		HashMap<String, Object> data = new HashMap<>();
+		data.put("msg", changes.content);
+		PropertyDescription messageTypes = AggregatedPropertyType.newAggregatedProperty();
+		messageTypes.putProperty("msg", changes.contentType);
+		return JSONUtils.writeChangesWithConversions(data, messageTypes, dataConverterContext);
+	}
+
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.sablo.specification.NGPackage.IPackageReader;
+import org.sablo.specification.WebComponentSpecProvider;
+import org.sablo.specification.WebServiceSpecProvider;
+
+@SuppressWarnings("nls")
+public class IndexPageEnhancerTest
+{
+	private static File indexFile;
+
+	@BeforeClass
+	public static void setUp() throws Exception
+	{
+		WebComponentSpecProvider.init(new IPackageReader[0]);
+		WebServiceSpecProvider.init(new IPackageReader[0]);
+
+		indexFile = File.createTempFile("index", ".html");
+		FileUtils.write(indexFile, "<html><HEAD><!-- component_contributions --><title>##title##</title></head><body>##a####b## ##unknown## $1##title</body></html>",
+			StandardCharsets.UTF_8);
+	}
+
+	@AfterClass
+	public static void tearDown()
+	{
+		WebComponentSpecProvider.disposeInstance();
+		WebServiceSpecProvider.disposeInstance();
+		indexFile.delete();
+	}
+
+	@Test
+	public void shouldInsertBaseTagAndContributions() throws Exception
+	{
+		String page = IndexPageEnhancer.enhance(indexFile.toURI().toURL(), "/ctx", Arrays.asList("my.css"), Arrays.asList("my.js"), null, null);
+		assertTrue(page, page.startsWith("<html><HEAD><base href=\"/ctx/\">\n<!-- component_contributions --><link rel=\"stylesheet\" href=\"my.css\"/>\n" +
+			"<script src=\"my.js\"></script>\n<script src=\"spec/"));
+		assertTrue(page, page.endsWith(".js\"></script>\n<title>##title##</title></head><body>##a####b## ##unknown## $1##title</body></html>"));
+	}
+
+	@Test
+	public void shouldSubstituteVariablesLiterally() throws Exception
+	{
+		Map<String, String> variables = new HashMap<>();
+		variables.put("title", "$1 & \\ ##a##");
+		variables.put("a", "A");
+		variables.put("b", "B");
+		String page = IndexPageEnhancer.enhance(indexFile.toURI().toURL(), "", null, null, variables, null);
+		assertTrue(page, page.endsWith("<title>$1 & \\ ##a##</title></head><body>AB ##unknown## $1##title</body></html>"));
+	}
+
+	@Test
+	public void shouldNotKeepExtraContributions() throws Exception
+	{
+		String contributions = IndexPageEnhancer.getAllContributions(null, null, null);
+		String withExtra = IndexPageEnhancer.getAllContributions(Arrays.asList("extra.css"), Arrays.asList("extra.js"), null);
+		assertTrue(withExtra, withExtra.contains("extra.css") && withExtra.contains("extra.js"));
+		assertEquals(contributions, IndexPageEnhancer.getAllContributions(null, null, null));
+	}
+
+	@Test
+	public void shouldReadIndexPageAgainWhenModified() throws Exception
+	{
+		File file = File.createTempFile("index", ".html");
+		try
+		{
+			FileUtils.write(file, "<html><head><!-- component_contributions --></head><body>old</body></html>", StandardCharsets.UTF_8);
+			String page = IndexPageEnhancer.enhance(file.toURI().toURL(), "", null, null, null, null);
+			assertTrue(page, page.endsWith("<body>old</body></html>"));
+
+			long lastModified = IndexPageEnhancer.getTemplateLastModified(file.toURI().toURL());
+
+			FileUtils.write(file, "<html><head><!-- component_contributions --></head><body>new</body></html>", StandardCharsets.UTF_8);
+			assertTrue(file.setLastModified(file.lastModified() + 10000));
+			// part of the key of kept index pages
+			assertTrue(IndexPageEnhancer.getTemplateLastModified(file.toURI().toURL()) > lastModified);
+			page = IndexPageEnhancer.enhance(file.toURI().toURL(), "", null, null, null, null);
+			assertTrue(page, page.endsWith("<body>new</body></html>"));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.sablo.specification.NGPackage.DirPackageReader;
+import org.sablo.specification.NGPackage.IPackageReader;
+import org.sablo.specification.NGPackage.JarPackageReader;
+import org.sablo.specification.WebComponentSpecProvider;
+import org.sablo.specification.WebServiceSpecProvider;
+import org.sablo.util.CachedContent;
+import org.sablo.util.HTTPUtils;
+
+@SuppressWarnings("nls")
+public class PackageResourceCacheTest
+{
+	private static final AtomicInteger lookups = new AtomicInteger();
+
+	private static File packageJar;
+	private static File packageDir;
+
+	@BeforeClass
+	public static void setUp() throws Exception
+	{
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(new Attributes.Name("Bundle-SymbolicName"), "mypackage");
+		packageJar = File.createTempFile("mypackage", ".jar");
+		try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(packageJar), manifest))
+		{
+			jar.putNextEntry(new JarEntry("lib/my.js"));
+			jar.write("var a = 1;".getBytes(StandardCharsets.UTF_8));
+			jar.putNextEntry(new JarEntry("lib/secret.properties"));
+			jar.write("a=1".getBytes(StandardCharsets.UTF_8));
+		}
+
+		packageDir = Files.createTempDirectory("devpackage").toFile();
+		FileUtils.write(new File(packageDir, "META-INF/MANIFEST.MF"), "Manifest-Version: 1.0\nBundle-SymbolicName: devpackage\n", StandardCharsets.UTF_8);
+		FileUtils.write(new File(packageDir, "lib/my.js"), "var a = 1;", StandardCharsets.UTF_8);
+
+		WebComponentSpecProvider.init(new IPackageReader[] { new JarPackageReader(packageJar)
+		{
+			@Override
+			public URL getUrlForPath(String path)
+			{
+				lookups.incrementAndGet();
+				return super.getUrlForPath(path);
+			}
+		}, new DirPackageReader(packageDir) });
+		WebServiceSpecProvider.init(new IPackageReader[0]);
+	}
+
+	@AfterClass
+	public static void tearDown() throws Exception
+	{
+		WebComponentSpecProvider.disposeInstance();
+		WebServiceSpecProvider.disposeInstance();
+		packageJar.delete();
+		FileUtils.deleteDirectory(packageDir);
+	}
+
+	@Test
+	public void shouldCachePackageResources() throws Exception
+	{
+		CachedContent resource = PackageResourceCache.getResource("/mypackage/lib/my.js");
+		assertArrayEquals("var a = 1;".getBytes(StandardCharsets.UTF_8), resource.getContent());
+		assertEquals("text/javascript;charset=UTF-8", resource.getContentType());
+		assertSame(resource, PackageResourceCache.getResource("mypackage/lib/my.js"));
+
+		Thread.sleep(2);
+		WebComponentSpecProvider.reload();
+		assertNotSame(resource, PackageResourceCache.getResource("mypackage/lib/my.js"));
+	}
+
+	@Test
+	public void shouldOnlyServeKnownResourcesOfPackages() throws Exception
+	{
+		assertNull(PackageResourceCache.getResource("mypackage/lib/secret.properties"));
+		assertNull(PackageResourceCache.getResource("mypackage/lib/missing.js"));
+		assertNull(PackageResourceCache.getResource("otherpackage/lib/my.js"));
+		assertNull(PackageResourceCache.getResource("../mypackage/lib/my.js"));
+		assertNull(PackageResourceCache.getResource("mypackage/lib/../../../mypackage/lib/my.js"));
+		assertNull(PackageResourceCache.getResource("mypackage\\lib\\my.js"));
+	}
+
+	@Test
+	public void shouldNormalizeDecodedPaths() throws Exception
+	{
+		CachedContent resource = PackageResourceCache.getResource("mypackage/lib/my.js");
+		assertSame(resource, PackageResourceCache.getResource("/mypackage/./lib/../lib//my.js"));
+		assertSame(resource, PackageResourceCache.getResource(HTTPUtils.decodePath("/mypackage/%6cib/my.js")));
+		// escaped dots are only resolved after decoding
+		assertNull(PackageResourceCache.getResource(HTTPUtils.decodePath("/mypackage/lib/%2e%2e/%2e%2e/%2e%2e/mypackage/lib/my.js")));
+		assertNull(PackageResourceCache.getResource(HTTPUtils.decodePath("/mypackage/lib/%zz.js")));
+	}
+
+	@Test
+	public void shouldFingerprintInTheBackground() throws Exception
+	{
+		Thread.sleep(2);
+		WebComponentSpecProvider.reload();
+		long version = PackageResourceCache.getFingerprintVersion();
+		// not read by the index page request, but in the background
+		assertEquals("mypackage/lib/my.js", PackageResourceCache.fingerprint("mypackage/lib/my.js"));
+
+		long timeout = System.currentTimeMillis() + 10000;
+		while (PackageResourceCache.getFingerprintVersion() == version && System.currentTimeMillis() < timeout)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals("mypackage/lib/my.js?" + PackageResourceCache.FINGERPRINT_PARAMETER + "=" +
+			PackageResourceCache.getResource("mypackage/lib/my.js").getFingerprint(), PackageResourceCache.fingerprint("mypackage/lib/my.js"));
+	}
+
+	@Test
+	public void shouldFingerprintPackageResources() throws Exception
+	{
+		String fingerprint = PackageResourceCache.getResource("mypackage/lib/my.js").getFingerprint();
+		assertEquals("mypackage/lib/my.js?" + PackageResourceCache.FINGERPRINT_PARAMETER + "=" + fingerprint,
+			PackageResourceCache.fingerprint("mypackage/lib/my.js"));
+		assertEquals("http://cdn.example.com/lib/my.js", PackageResourceCache.fingerprint("http://cdn.example.com/lib/my.js"));
+		assertEquals("mypackage/lib/missing.js", PackageResourceCache.fingerprint("mypackage/lib/missing.js"));
+	}
+
+	@Test
+	public void shouldRememberMissingResources() throws Exception
+	{
+		assertNull(PackageResourceCache.getResource("mypackage/lib/notthere.js"));
+		int count = lookups.get();
+		assertNull(PackageResourceCache.getResource("mypackage/lib/notthere.js"));
+		assertEquals(count, lookups.get());
+	}
+
+	@Test
+	public void shouldNotCacheResourcesOfPackagesInDirectories() throws Exception
+	{
+		assertNull(PackageResourceCache.getResource("devpackage/lib/my.js"));
+		assertEquals("devpackage/lib/my.js", PackageResourceCache.fingerprint("devpackage/lib/my.js"));
+	}
+
+	@Test
+	public void shouldFingerprintContributionsAfterFiltering() throws Exception
+	{
+		// read before, so the contributions get the fingerprint right away
+		PackageResourceCache.getResource("mypackage/lib/my.js");
+		final List<String> filtered = Arrays.asList("mypackage/lib/my.js");
+		String contributions = IndexPageEnhancer.getAllContributions(null, Arrays.asList("mypackage/lib/my.js", "other.js"), new IContributionFilter()
+		{
+			@Override
+			public List<String> filterJSContributions(List<String> jsContributions)
+			{
+				assertTrue(jsContributions.contains("mypackage/lib/my.js"));
+				return filtered;
+			}
+
+			@Override
+			public List<String> filterCSSContributions(List<String> cssContributions)
+			{
+				return cssContributions;
+			}
+		});
+		assertTrue(contributions, contributions.contains("<script src=\"" + PackageResourceCache.fingerprint("mypackage/lib/my.js") + "\"></script>"));
+		assertFalse(contributions, contributions.contains("other.js"));
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.junit.Test;
+import org.sablo.websocket.IWebsocketSessionFactory;
+
+@SuppressWarnings("nls")
+public class WebEntryTest
+{
+	@Test
+	public void shouldKeepIndexPagesOfDefaultContributionFilter()
+	{
+		assertNotNull(new TestWebEntry().getContributionFilterCacheKey(null));
+	}
+
+	@Test
+	public void shouldNotKeepIndexPagesOfOverriddenContributionFilter()
+	{
+		WebEntry entry = new TestWebEntry()
+		{
+			@Override
+			public List<String> filterJSContributions(List<String> jsContributions)
+			{
+				return jsContributions.subList(0, 1);
+			}
+		};
+		assertNull(entry.getContributionFilterCacheKey(null));
+	}
+
+	private static class TestWebEntry extends WebEntry
+	{
+		TestWebEntry()
+		{
+			super("test");
+		}
+
+		@Override
+		public String[] getWebComponentBundleNames()
+		{
+			return new String[0];
+		}
+
+		@Override
+		public String[] getServiceBundleNames()
+		{
+			return new String[0];
+		}
+
+		@Override
+		protected IWebsocketSessionFactory createSessionFactory()
+		{
+			return null;
+		}
+
+		@Override
+		public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+		{
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.eventthread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class EventDispatcherTest
+{
+	private static final Runnable NOOP = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+		}
+	};
+
+	@Test
+	public void shouldRejectEventsWhenQueueOfLevelIsFull()
+	{
+		EventDispatcher dispatcher = new EventDispatcher(null);
+		dispatcher.setMaxPendingEvents(IEventDispatcher.EVENT_LEVEL_DEFAULT, 2);
+
+		dispatcher.postEvent(NOOP);
+		dispatcher.addEvent(NOOP);
+		try
+		{
+			dispatcher.addEvent(NOOP);
+			fail("queue should be full");
+		}
+		catch (EventQueueFullException e)
+		{
+			assertEquals(IEventDispatcher.EVENT_LEVEL_DEFAULT, e.getEventLevel());
+		}
+
+		// other levels have their own limit, responses of the browser are not limited by default
+		dispatcher.addEvent(NOOP, IEventDispatcher.EVENT_LEVEL_SYNC_API_CALL);
+		assertEquals(0, dispatcher.getMaxPendingEvents(IEventDispatcher.EVENT_LEVEL_SYNC_API_CALL));
+		assertEquals(3, dispatcher.getPendingEventCount());
+	}
+
+	@Test
+	public void shouldNotLimitPendingEventsByDefault()
+	{
+		EventDispatcher dispatcher = new EventDispatcher(null);
+		assertEquals(0, dispatcher.getMaxPendingEvents(IEventDispatcher.EVENT_LEVEL_DEFAULT));
+	}
+
+	@Test
+	public void shouldNotExceedLimitWhenPostingConcurrently() throws InterruptedException
+	{
+		final EventDispatcher dispatcher = new EventDispatcher(null);
+		final int max = 100;
+		dispatcher.setMaxPendingEvents(IEventDispatcher.EVENT_LEVEL_DEFAULT, max);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger rejected = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+					for (int j = 0; j < max; j++)
+					{
+						try
+						{
+							dispatcher.addEvent(NOOP);
+						}
+						catch (EventQueueFullException e)
+						{
+							rejected.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		assertEquals(max, dispatcher.getPendingEventCount());
+		assertEquals(threads.length * max - max, rejected.get());
+	}
+}
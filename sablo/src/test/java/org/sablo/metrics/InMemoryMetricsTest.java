@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class InMemoryMetricsTest
+{
+
+	@Test
+	public void shouldKeepCountersAndGaugesPerKey()
+	{
+		InMemoryMetrics metrics = new InMemoryMetrics();
+		metrics.increment(Metrics.MESSAGES_RECEIVED, "client", 1);
+		metrics.increment(Metrics.MESSAGES_RECEIVED, "client", 2);
+		metrics.increment(Metrics.MESSAGES_RECEIVED, null, 5);
+		metrics.gauge(Metrics.SESSIONS, null, 7);
+		metrics.gauge(Metrics.SESSIONS, null, 4);
+
+		assertEquals(3, metrics.getCounter(Metrics.MESSAGES_RECEIVED, "client"));
+		assertEquals(5, metrics.getCounter(Metrics.MESSAGES_RECEIVED, null));
+		assertEquals(0, metrics.getCounter(Metrics.MESSAGES_RECEIVED, "designer"));
+		assertEquals(4, metrics.getGauge(Metrics.SESSIONS, null));
+		assertTrue(metrics.getKeys(Metrics.MESSAGES_RECEIVED).contains("client"));
+
+		metrics.reset();
+		assertEquals(0, metrics.getCounter(Metrics.MESSAGES_RECEIVED, "client"));
+	}
+
+	@Test
+	public void shouldEstimatePercentiles()
+	{
+		InMemoryMetrics metrics = new InMemoryMetrics();
+		assertNull(metrics.getHistogram(Metrics.SENT_SIZE, "client"));
+		for (int i = 1; i <= 100; i++)
+		{
+			metrics.record(Metrics.SENT_SIZE, "client", i);
+		}
+
+		InMemoryMetrics.Histogram histogram = metrics.getHistogram(Metrics.SENT_SIZE, "client");
+		assertEquals(100, histogram.getCount());
+		assertEquals(1, histogram.getMin());
+		assertEquals(100, histogram.getMax());
+		assertEquals(50, histogram.getMean());
+		assertEquals(63, histogram.getPercentile(50));
+		assertEquals(100, histogram.getPercentile(99));
+	}
+
+	@Test
+	public void shouldLimitNumberOfKeys()
+	{
+		InMemoryMetrics metrics = new InMemoryMetrics(2);
+		metrics.record(Metrics.SERVICE_CALL_TIME, "formService.dataPush", 10);
+		metrics.record(Metrics.SERVICE_CALL_TIME, "formService.requestData", 20);
+		// method names come from the browser, a client should not be able to add keys without limit
+		for (int i = 0; i < 1000; i++)
+		{
+			metrics.record(Metrics.SERVICE_CALL_TIME, "formService.unknown" + i, 30);
+			metrics.increment(Metrics.SLOW_EVENTS, "event" + i, 1);
+		}
+		metrics.record(Metrics.SERVICE_CALL_TIME, "formService.dataPush", 10);
+
+		assertEquals(3, metrics.getKeys(Metrics.SERVICE_CALL_TIME).size());
+		assertEquals(2, metrics.getHistogram(Metrics.SERVICE_CALL_TIME, "formService.dataPush").getCount());
+		assertEquals(1000, metrics.getHistogram(Metrics.SERVICE_CALL_TIME, InMemoryMetrics.OTHER_KEY).getCount());
+		assertEquals(998, metrics.getCounter(Metrics.SLOW_EVENTS, InMemoryMetrics.OTHER_KEY));
+	}
+
+	@Test
+	public void shouldLimitAndForgetSessions()
+	{
+		InMemoryMetrics metrics = new InMemoryMetrics();
+		Metrics.set(metrics);
+		// other tests can have started sessions as well
+		List<String> sessions = new ArrayList<>();
+		try
+		{
+			String key;
+			while (!InMemoryMetrics.OTHER_KEY.equals(key = Metrics.getSessionKey("session" + sessions.size())))
+			{
+				sessions.add(key);
+				metrics.increment(Metrics.SESSION_MESSAGES_SENT, key, 1);
+			}
+			assertTrue(sessions.size() >= 2 && sessions.size() <= Metrics.DEFAULT_MAX_SESSIONS);
+			assertEquals(InMemoryMetrics.OTHER_KEY, Metrics.getSessionKey("one too many"));
+
+			Metrics.sessionRemoved(sessions.get(0));
+			assertFalse(metrics.getKeys(Metrics.SESSION_MESSAGES_SENT).contains(sessions.get(0)));
+			assertEquals(1, metrics.getCounter(Metrics.SESSION_MESSAGES_SENT, sessions.get(1)));
+			assertEquals("one too many", Metrics.getSessionKey("one too many"));
+		}
+		finally
+		{
+			for (String session : sessions)
+			{
+				Metrics.sessionRemoved(session);
+			}
+			Metrics.sessionRemoved("one too many");
+			Metrics.set(null);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class CachedContentTest
+{
+
+	@Test
+	public void shouldKeepGzippedVariant() throws Exception
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+		{
+			sb.append("$propertyWatchesRegistry.setAutoWatchPropertiesList('components', {});\n");
+		}
+		byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+		CachedContent content = new CachedContent(bytes, "text/javascript;charset=UTF-8");
+
+		byte[] gzipped = content.getGzippedContent();
+		assertArrayEquals(bytes, IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipped))));
+		assertEquals(content.getETag(), new CachedContent(bytes.clone(), "text/javascript;charset=UTF-8").getETag());
+		assertNotEquals(content.getETag(), new CachedContent("other".getBytes(StandardCharsets.UTF_8), "text/plain").getETag());
+	}
+
+	@Test
+	public void shouldNotGzipWhenNotSmaller() throws Exception
+	{
+		CachedContent content = new CachedContent("a".getBytes(StandardCharsets.UTF_8), "text/plain");
+		assertNull(content.getGzippedContent());
+	}
+}
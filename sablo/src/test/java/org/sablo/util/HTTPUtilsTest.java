@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class HTTPUtilsTest
+{
+
+	@Test
+	public void shouldParseByteRanges()
+	{
+		assertArrayEquals(new long[] { 0, 99 }, HTTPUtils.parseByteRange("bytes=0-99", 1000));
+		assertArrayEquals(new long[] { 100, 999 }, HTTPUtils.parseByteRange("bytes=100-", 1000));
+		assertArrayEquals(new long[] { 900, 999 }, HTTPUtils.parseByteRange("bytes=-100", 1000));
+		assertArrayEquals(new long[] { 0, 999 }, HTTPUtils.parseByteRange("bytes=-2000", 1000));
+		assertArrayEquals(new long[] { 500, 999 }, HTTPUtils.parseByteRange("bytes=500-5000", 1000));
+	}
+
+	@Test
+	public void shouldRejectUnsatisfiableRanges()
+	{
+		assertArrayEquals(new long[0], HTTPUtils.parseByteRange("bytes=1000-", 1000));
+		assertArrayEquals(new long[0], HTTPUtils.parseByteRange("bytes=-0", 1000));
+	}
+
+	@Test
+	public void shouldIgnoreUnsupportedRanges()
+	{
+		assertNull(HTTPUtils.parseByteRange("bytes=0-1,5-6", 1000));
+		assertNull(HTTPUtils.parseByteRange("bytes=5-1", 1000));
+		assertNull(HTTPUtils.parseByteRange("items=0-1", 1000));
+		assertNull(HTTPUtils.parseByteRange("bytes=a-b", 1000));
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class PropertyPathTest
+{
+
+	@Test
+	public void shouldSplitLikeStringSplit()
+	{
+		assertNull(PropertyPath.of("text"));
+
+		for (String name : new String[] { "a.b", "a.b.c", "a..b", ".a", "a.", "a.b.." })
+		{
+			PropertyPath path = PropertyPath.of(name);
+			String[] parts = new String[path.size()];
+			for (int i = 0; i < parts.length; i++)
+			{
+				parts[i] = path.getPart(i);
+			}
+			assertArrayEquals(name, name.split("\\."), parts);
+		}
+	}
+
+	@Test
+	public void shouldCachePathsAndPrefixes()
+	{
+		PropertyPath path = PropertyPath.of("a.b.c");
+		assertSame(path, PropertyPath.of("a.b.c"));
+		assertEquals("a", path.getPrefix(0));
+		assertEquals("a.b", path.getPrefix(1));
+		assertEquals("a.b.c", path.getPrefix(2));
+		assertEquals("c", path.getLastPart());
+	}
+
+}
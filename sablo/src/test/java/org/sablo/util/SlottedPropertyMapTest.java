@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+import org.sablo.specification.PropertySlotLayout;
+
+@SuppressWarnings("nls")
+public class SlottedPropertyMapTest
+{
+
+	private final PropertySlotLayout layout = new PropertySlotLayout(Arrays.asList("text", "visible", "size"));
+
+	@Test
+	public void shouldBehaveLikeAHashMap()
+	{
+		SlottedPropertyMap map = new SlottedPropertyMap(layout);
+		assertTrue(map.isEmpty());
+
+		assertNull(map.put("text", "hello"));
+		assertNull(map.put("visible", null));
+		assertNull(map.put("name", "undeclared"));
+		assertEquals("hello", map.put("text", "world"));
+
+		assertEquals(3, map.size());
+		assertEquals("world", map.get("text"));
+		assertNull(map.get("visible"));
+		assertTrue(map.containsKey("visible"));
+		assertFalse(map.containsKey("size"));
+		assertEquals("undeclared", map.get("name"));
+
+		Map<String, Object> expected = new HashMap<>();
+		expected.put("text", "world");
+		expected.put("visible", null);
+		expected.put("name", "undeclared");
+		assertEquals(expected, map);
+		assertEquals(expected.hashCode(), map.hashCode());
+		assertEquals(new HashSet<>(Arrays.asList("text", "visible", "name")), map.keySet());
+
+		assertEquals("world", map.remove("text"));
+		assertEquals("undeclared", map.remove("name"));
+		assertEquals(1, map.size());
+		assertFalse(map.containsKey("text"));
+	}
+
+	@Test
+	public void shouldRemoveWhileIterating()
+	{
+		SlottedPropertyMap map = new SlottedPropertyMap(layout);
+		map.put("text", "a");
+		map.put("size", "b");
+		map.put("other", "c");
+
+		Iterator<Map.Entry<String, Object>> it = map.entrySet().iterator();
+		while (it.hasNext())
+		{
+			Map.Entry<String, Object> entry = it.next();
+			if (entry.getKey().equals("size")) entry.setValue("changed");
+			else it.remove();
+		}
+		assertEquals(1, map.size());
+		assertEquals("changed", map.get("size"));
+	}
+
+	@Test
+	public void shouldKeepPropertyNamesInSet()
+	{
+		SlottedPropertySet set = new SlottedPropertySet(layout);
+		assertTrue(set.add("size"));
+		assertTrue(set.add("text"));
+		assertFalse(set.add("text"));
+		assertTrue(set.add("nested.value"));
+		assertEquals(3, set.size());
+		assertTrue(set.contains("nested.value"));
+		assertEquals(new HashSet<>(Arrays.asList("text", "size", "nested.value")), set);
+		assertEquals(3, set.toArray(new String[set.size()]).length);
+
+		assertTrue(set.remove("text"));
+		assertFalse(set.remove("visible"));
+		assertTrue(set.remove("nested.value"));
+		assertEquals(1, set.size());
+
+		set.clear();
+		assertTrue(set.isEmpty());
+		assertFalse(set.iterator().hasNext());
+	}
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sablo.specification.property.IBrowserConverterContext;
+import org.sablo.websocket.utils.DataConversion;
+import org.sablo.websocket.utils.JSONUtils;
+import org.sablo.websocket.utils.JSONUtils.FullValueToJSONConverter;
+import org.sablo.websocket.utils.JSONUtils.IToJSONConverter;
+
+@SuppressWarnings("nls")
+public class BaseWindowReplayTest
+{
+	private static final int FRAGMENT_SIZE = 16;
+
+	private final List<String> sent = new ArrayList<>();
+	private BaseWindow window;
+
+	@Before
+	public void setUp()
+	{
+		System.setProperty(ReplayBuffer.PROPERTY_MAX_MESSAGES, "3");
+		System.setProperty(ReplayBuffer.PROPERTY_MAX_BYTES, "200");
+		window = new BaseWindow(stub(IWebsocketSession.class, null), "theuuid", "test");
+		window.setEndpoint(stub(IStreamingWebsocketEndpoint.class, new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+			{
+				switch (method.getName())
+				{
+					case "createMessageWriter" :
+						return new TextMessageWriter(FRAGMENT_SIZE)
+						{
+							private final StringBuilder fragments = new StringBuilder();
+
+							@Override
+							protected void sendMessage(String text)
+							{
+								sent.add(text);
+							}
+
+							@Override
+							protected void sendFragment(String fragment, boolean last)
+							{
+								fragments.append(fragment);
+								if (last) sent.add(fragments.toString());
+							}
+						};
+					case "sendText" :
+						sent.add((String)args[0]);
+						return null;
+					case "getEndpointType" :
+						return "test";
+					default :
+						return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+				}
+			}
+		}));
+	}
+
+	@After
+	public void tearDown()
+	{
+		System.clearProperty(ReplayBuffer.PROPERTY_MAX_MESSAGES);
+		System.clearProperty(ReplayBuffer.PROPERTY_MAX_BYTES);
+	}
+
+	@Test
+	public void shouldResendMissedMessagesAsTheyWereSent() throws Exception
+	{
+		for (int i = 1; i <= 3; i++)
+		{
+			window.sendAsyncMessage(messageWriter("message" + i), FullValueToJSONConverter.INSTANCE);
+		}
+		List<String> original = new ArrayList<>(sent);
+		assertEquals(1, new JSONObject(original.get(0)).getLong("seq"));
+
+		sent.clear();
+		assertTrue(window.resume(1));
+		assertEquals("{\"resume\":true}", sent.get(0));
+		assertEquals(original.subList(1, 3), sent.subList(1, 3));
+	}
+
+	@Test
+	public void shouldResendResponseId() throws Exception
+	{
+		window.sendMessageInternal(messageWriter("message1"), FullValueToJSONConverter.INSTANCE, Integer.valueOf(7));
+		assertEquals(7, new JSONObject(sent.get(0)).getInt("smsgid"));
+
+		sent.clear();
+		assertTrue(window.resume(0));
+		JSONObject replayed = new JSONObject(sent.get(1));
+		assertEquals(7, replayed.getInt("smsgid"));
+		assertEquals("message1", replayed.getJSONObject("msg").getString("v"));
+		assertEquals(1, replayed.getLong("seq"));
+	}
+
+	@Test
+	public void shouldFallBackToFullResyncWhenMessagesWereDropped() throws Exception
+	{
+		for (int i = 1; i <= 4; i++)
+		{
+			window.sendAsyncMessage(messageWriter("message" + i), FullValueToJSONConverter.INSTANCE);
+		}
+
+		// only the last 3 messages are kept
+		sent.clear();
+		assertFalse(window.resume(0));
+		assertTrue(sent.isEmpty());
+		assertTrue(window.resume(1));
+		assertEquals(4, sent.size());
+	}
+
+	@Test
+	public void shouldFallBackToFullResyncAfterTooBigMessage() throws Exception
+	{
+		window.sendAsyncMessage(messageWriter("message1"), FullValueToJSONConverter.INSTANCE);
+		StringBuilder big = new StringBuilder();
+		for (int i = 0; i < 30; i++)
+		{
+			big.append("a big value");
+		}
+		window.sendAsyncMessage(messageWriter(big.toString()), FullValueToJSONConverter.INSTANCE);
+		window.sendAsyncMessage(messageWriter("message3"), FullValueToJSONConverter.INSTANCE);
+
+		assertEquals(3, sent.size());
+		assertFalse(window.resume(1));
+		assertTrue(window.resume(2));
+	}
+
+	@Test
+	public void shouldFallBackToFullResyncAfterIncompleteMessage() throws Exception
+	{
+		window.sendAsyncMessage(messageWriter("message1"), FullValueToJSONConverter.INSTANCE);
+		try
+		{
+			// fails after the first fragments were sent
+			window.sendAsyncMessage(new IToJSONWriter<IBrowserConverterContext>()
+			{
+				@Override
+				public boolean writeJSONContent(JSONWriter w, String keyInParent, IToJSONConverter<IBrowserConverterContext> converter,
+					DataConversion clientDataConversions) throws JSONException
+				{
+					JSONUtils.addKeyIfPresent(w, keyInParent);
+					w.object().key("v").value("a value that is longer than a fragment");
+					throw new JSONException("failed");
+				}
+			}, FullValueToJSONConverter.INSTANCE);
+			fail("sending should fail");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+		window.sendAsyncMessage(messageWriter("message3"), FullValueToJSONConverter.INSTANCE);
+
+		// the browser got message 1 and part of the next one
+		assertFalse(window.resume(1));
+		// a browser that reconnects later can still resume
+		assertTrue(window.resume(3));
+	}
+
+	@Test
+	public void shouldSendCompleteMessagesToEndpointsThatDontStream() throws Exception
+	{
+		window.setEndpoint(stub(IWebsocketEndpoint.class, new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+			{
+				if (method.getName().equals("sendText")) sent.add((String)args[0]);
+				return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+			}
+		}));
+		window.sendAsyncMessage(messageWriter("a value that is longer than a fragment"), FullValueToJSONConverter.INSTANCE);
+
+		assertEquals(1, sent.size());
+		assertEquals("a value that is longer than a fragment", new JSONObject(sent.get(0)).getJSONObject("msg").getString("v"));
+		sent.clear();
+		assertTrue(window.resume(0));
+		assertEquals(2, sent.size());
+	}
+
+	private static IToJSONWriter<IBrowserConverterContext> messageWriter(final String value)
+	{
+		return new IToJSONWriter<IBrowserConverterContext>()
+		{
+			@Override
+			public boolean writeJSONContent(JSONWriter w, String keyInParent, IToJSONConverter<IBrowserConverterContext> converter,
+				DataConversion clientDataConversions) throws JSONException
+			{
+				JSONUtils.addKeyIfPresent(w, keyInParent);
+				w.object().key("v").value(value).endObject();
+				return true;
+			}
+		};
+	}
+
+	private static <T> T stub(Class<T> type, InvocationHandler handler)
+	{
+		InvocationHandler h = handler != null ? handler : new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+			}
+		};
+		return type.cast(Proxy.newProxyInstance(BaseWindowReplayTest.class.getClassLoader(), new Class< ? >[] { type }, h));
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+
+import org.json.JSONWriter;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class CompressingMessageWriterTest
+{
+	private static final int THRESHOLD = 64;
+
+	private byte[] uncompressed;
+	private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+	@Test
+	public void shouldNotCompressMessageBelowThreshold() throws Exception
+	{
+		String kind = "belowThreshold";
+		CompressingMessageWriter writer = createWriter(kind, false);
+		writer.getJSONWriter().object().key("a").value("b").endObject();
+		writer.close();
+
+		assertEquals("{\"a\":\"b\"}", new String(uncompressed, StandardCharsets.UTF_8));
+		assertEquals(0, compressed.size());
+
+		CompressionStatistics statistics = CompressionStatistics.get(kind);
+		assertEquals(1, statistics.getMessages());
+		assertEquals(0, statistics.getCompressedMessages());
+		assertEquals(uncompressed.length, statistics.getSentBytes());
+		assertEquals(1, statistics.getCompressionRatio(), 0);
+	}
+
+	@Test
+	public void shouldCompressMessageFromThreshold() throws Exception
+	{
+		String kind = "aboveThreshold";
+		String json = writeArray(kind, false, 200);
+
+		assertNull(uncompressed);
+		byte[] message = compressed.toByteArray();
+		assertEquals(CompressingMessageWriter.DEFLATED_TEXT, message[0]);
+		assertEquals(json, new String(inflate(message), StandardCharsets.UTF_8));
+
+		CompressionStatistics statistics = CompressionStatistics.get(kind);
+		assertEquals(1, statistics.getMessages());
+		assertEquals(1, statistics.getCompressedMessages());
+		assertEquals(json.length(), statistics.getOriginalBytes());
+		assertEquals(message.length, statistics.getSentBytes());
+		assertTrue(statistics.getCompressionRatio() < 1);
+	}
+
+	@Test
+	public void shouldCompressMessageOfExactlyThreshold() throws Exception
+	{
+		CompressingMessageWriter writer = createWriter("exactThreshold", false);
+		byte[] content = new byte[THRESHOLD];
+		Arrays.fill(content, (byte)'1');
+		writer.write(content);
+		writer.close();
+
+		assertNull(uncompressed);
+		assertEquals(new String(content, StandardCharsets.UTF_8), new String(inflate(compressed.toByteArray()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void shouldMarkCompressedBinaryContent() throws Exception
+	{
+		writeArray("binaryContent", true, 200);
+
+		byte[] message = compressed.toByteArray();
+		assertEquals(CompressingMessageWriter.DEFLATED_BINARY, message[0]);
+		// indefinite length array, 200 times 1 and a break
+		byte[] content = inflate(message);
+		assertEquals(202, content.length);
+		assertEquals((byte)0x9F, content[0]);
+		assertEquals((byte)0xFF, content[201]);
+	}
+
+	@Test
+	public void shouldNotSendDiscardedMessage() throws Exception
+	{
+		CompressingMessageWriter writer = createWriter("discarded", false);
+		writer.getJSONWriter().array().value(1);
+		writer.discard();
+		writer.close();
+
+		assertNull(uncompressed);
+		assertEquals(0, compressed.size());
+		assertNull(CompressionStatistics.get("discarded"));
+	}
+
+	private String writeArray(String kind, boolean binaryContent, int length) throws Exception
+	{
+		CompressingMessageWriter writer = createWriter(kind, binaryContent);
+		JSONWriter w = writer.getJSONWriter().array();
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < length; i++)
+		{
+			w.value(1);
+			json.append(i == 0 ? "1" : ",1");
+		}
+		w.endArray();
+		writer.close();
+		return json.append(']').toString();
+	}
+
+	private CompressingMessageWriter createWriter(String kind, boolean binaryContent)
+	{
+		return new CompressingMessageWriter(kind, binaryContent, THRESHOLD)
+		{
+			@Override
+			protected void sendUncompressed(byte[] content, int length) throws IOException
+			{
+				uncompressed = Arrays.copyOf(content, length);
+			}
+
+			@Override
+			protected BinaryMessageWriter createCompressedMessageWriter()
+			{
+				return new BinaryMessageWriter(16)
+				{
+					@Override
+					protected void sendMessage(ByteBuffer data) throws IOException
+					{
+						sendFragment(data, true);
+					}
+
+					@Override
+					protected void sendFragment(ByteBuffer fragment, boolean last) throws IOException
+					{
+						compressed.write(fragment.array(), fragment.arrayOffset() + fragment.position(), fragment.remaining());
+					}
+				};
+			}
+		};
+	}
+
+	private static byte[] inflate(byte[] message) throws Exception
+	{
+		Inflater inflater = new Inflater();
+		inflater.setInput(message, 1, message.length - 1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[256];
+		while (!inflater.finished())
+		{
+			int n = inflater.inflate(buffer);
+			if (n == 0 && inflater.needsInput()) throw new IOException("Incomplete compressed message");
+			out.write(buffer, 0, n);
+		}
+		inflater.end();
+		return out.toByteArray();
+	}
+}
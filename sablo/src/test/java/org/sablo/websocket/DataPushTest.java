@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.sablo.websocket.WebsocketEndpoint.DataPush;
+
+@SuppressWarnings("nls")
+public class DataPushTest
+{
+	@Test
+	public void shouldMergeFullValues() throws Exception
+	{
+		JSONObject changes = new JSONObject("{\"a\":1,\"b\":2}");
+		JSONObject oldvalues = new JSONObject("{\"a\":0}");
+		DataPush first = new DataPush("k", 0, 0, changes, oldvalues);
+		assertTrue(first.merge(new DataPush("k", 0, 0, new JSONObject("{\"a\":3,\"c\":4}"), new JSONObject("{\"a\":1,\"c\":0}"))));
+
+		assertEquals(3, changes.getInt("a"));
+		assertEquals(2, changes.getInt("b"));
+		assertEquals(4, changes.getInt("c"));
+		// the old values are the ones from before the first push
+		assertEquals(0, oldvalues.getInt("a"));
+		assertEquals(0, oldvalues.getInt("c"));
+	}
+
+	@Test
+	public void shouldNotMergeGranularArrayUpdatesOfSameProperty() throws Exception
+	{
+		JSONObject changes = new JSONObject("{\"arr\":{\"vEr\":1,\"u\":[{\"i\":0,\"v\":\"x\"}]}}");
+		String before = changes.toString();
+		DataPush first = new DataPush("k", 0, 0, changes, null);
+		assertFalse(first.merge(new DataPush("k", 0, 0, new JSONObject("{\"arr\":{\"vEr\":1,\"u\":[{\"i\":1,\"v\":\"y\"}]}}"), null)));
+		assertFalse(first.merge(new DataPush("k", 0, 0, new JSONObject("{\"other\":1,\"arr\":{\"n\":true}}"), null)));
+
+		// nothing of the rejected pushes was applied
+		assertEquals(before, changes.toString());
+	}
+
+	@Test
+	public void shouldMergeGranularUpdatesOfOtherProperties() throws Exception
+	{
+		JSONObject changes = new JSONObject("{\"a\":1}");
+		DataPush first = new DataPush("k", 0, 0, changes, null);
+		assertTrue(first.merge(new DataPush("k", 0, 0, new JSONObject("{\"arr\":{\"vEr\":1,\"u\":[{\"i\":0,\"v\":\"x\"}]}}"), null)));
+		assertTrue(changes.has("arr"));
+
+		// a full value replaces the pending granular update
+		assertTrue(first.merge(new DataPush("k", 0, 0, new JSONObject("{\"arr\":{\"vEr\":1,\"v\":[\"z\"]}}"), null)));
+		assertEquals("z", changes.getJSONObject("arr").getJSONArray("v").get(0));
+	}
+
+	@Test
+	public void shouldNotMergeInvalidValues() throws Exception
+	{
+		JSONObject changes = new JSONObject("{\"a\":1}");
+		String before = changes.toString();
+		Map<String, Object> invalid = new HashMap<>();
+		invalid.put("b", Integer.valueOf(2));
+		invalid.put("c", Double.valueOf(Double.NaN));
+		DataPush first = new DataPush("k", 0, 0, changes, null);
+		assertFalse(first.merge(new DataPush("k", 0, 0, new JSONObject(invalid), null)));
+
+		// nothing of the rejected push was applied
+		assertEquals(before, changes.toString());
+	}
+
+	@Test
+	public void shouldNotMergeStartedOrOtherPush() throws Exception
+	{
+		DataPush first = new DataPush("k", 0, 0, new JSONObject("{\"a\":1}"), null);
+		assertFalse(first.merge(new DataPush("other", 0, 0, new JSONObject("{\"a\":2}"), null)));
+		assertFalse(first.merge(new DataPush("k", 1, 0, new JSONObject("{\"a\":2}"), null)));
+		assertFalse(first.merge(new DataPush("k", 0, 1, new JSONObject("{\"a\":2}"), null)));
+		first.start();
+		assertFalse(first.merge(new DataPush("k", 0, 0, new JSONObject("{\"a\":2}"), null)));
+	}
+}
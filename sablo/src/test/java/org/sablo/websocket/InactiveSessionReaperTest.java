@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class InactiveSessionReaperTest
+{
+
+	@Test
+	public void shouldLimitChecksPerTick()
+	{
+		InactiveSessionReaper.Tick tick = new InactiveSessionReaper.Tick(2, new HashMap<String, Integer>());
+		assertTrue(tick.allowCheck(null));
+		assertTrue(tick.allowCheck("client"));
+		assertFalse(tick.isExhausted());
+		assertFalse(tick.allowCheck(null));
+		assertTrue(tick.isExhausted());
+		assertTrue(tick.isDone());
+	}
+
+	@Test
+	public void shouldUseMaxOfEndpointType()
+	{
+		Map<String, Integer> maxByEndpointType = new HashMap<>();
+		maxByEndpointType.put("client", Integer.valueOf(1));
+		maxByEndpointType.put("designer", Integer.valueOf(0));
+		InactiveSessionReaper.Tick tick = new InactiveSessionReaper.Tick(1, maxByEndpointType);
+
+		assertFalse(tick.allowCheck("designer"));
+		assertFalse(tick.isExhausted());
+
+		assertTrue(tick.allowCheck("client"));
+		assertFalse(tick.isDone());
+		assertTrue(tick.allowCheck("other"));
+		assertFalse(tick.allowCheck("client"));
+		assertTrue(tick.isExhausted());
+		// sessions of designer are never checked, so nothing is left
+		assertTrue(tick.isDone());
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class ReplayBufferTest
+{
+
+	@Test
+	public void shouldReturnMessagesAfterSequence()
+	{
+		ReplayBuffer buffer = new ReplayBuffer(10, 1000);
+		long first = buffer.nextSequence();
+		long second = buffer.nextSequence();
+		long third = buffer.nextSequence();
+		// added in a different order than the sequence numbers were handed out
+		add(buffer, second, "b");
+		add(buffer, first, "a");
+		add(buffer, third, "c");
+
+		assertEquals(Arrays.asList("a", "b", "c"), texts(buffer, 0));
+		assertEquals(Arrays.asList("c"), texts(buffer, second));
+		assertEquals(Collections.emptyList(), texts(buffer, third));
+		assertNull(texts(buffer, third + 1));
+	}
+
+	@Test
+	public void shouldNotResumeWhenMessagesWereDropped()
+	{
+		ReplayBuffer buffer = new ReplayBuffer(2, 1000);
+		for (int i = 0; i < 3; i++)
+		{
+			add(buffer, buffer.nextSequence(), "message" + i);
+		}
+		assertEquals(2, buffer.size());
+		assertNull(texts(buffer, 0));
+		assertEquals(Arrays.asList("message1", "message2"), texts(buffer, 1));
+	}
+
+	@Test
+	public void shouldLimitTotalSize()
+	{
+		ReplayBuffer buffer = new ReplayBuffer(10, 10);
+		add(buffer, buffer.nextSequence(), "123456");
+		add(buffer, buffer.nextSequence(), "123456");
+		assertEquals(1, buffer.size());
+		assertNull(texts(buffer, 0));
+		assertEquals(Arrays.asList("123456"), texts(buffer, 1));
+	}
+
+	@Test
+	public void shouldNotResumeFromBeforeDroppedMessage()
+	{
+		ReplayBuffer buffer = new ReplayBuffer(10, 1000);
+		add(buffer, buffer.nextSequence(), "a");
+		long tooBig = buffer.nextSequence();
+		buffer.drop(tooBig);
+		add(buffer, buffer.nextSequence(), "c");
+
+		assertEquals(1, buffer.size());
+		assertNull(texts(buffer, 0));
+		assertEquals(Arrays.asList("c"), texts(buffer, tooBig));
+	}
+
+	@Test
+	public void shouldNotResumeAfterInvalidate()
+	{
+		ReplayBuffer buffer = new ReplayBuffer(10, 1000);
+		add(buffer, buffer.nextSequence(), "a");
+		long last = buffer.nextSequence();
+		add(buffer, last, "b");
+		buffer.invalidate();
+
+		assertNull(texts(buffer, last));
+		long next = buffer.nextSequence();
+		add(buffer, next, "c");
+		assertEquals(Arrays.asList("c"), texts(buffer, next - 1));
+	}
+
+	private static void add(ReplayBuffer buffer, long sequence, String message)
+	{
+		buffer.add(sequence, message.getBytes(StandardCharsets.UTF_8), false);
+	}
+
+	private static List<String> texts(ReplayBuffer buffer, long lastReceivedSequence)
+	{
+		List<ReplayBuffer.Message> messages = buffer.getMessagesAfter(lastReceivedSequence);
+		if (messages == null) return null;
+		List<String> texts = new ArrayList<>();
+		for (ReplayBuffer.Message message : messages)
+		{
+			texts.add(message.getText());
+		}
+		return texts;
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class TextMessageWriterTest
+{
+
+	@Test
+	public void shouldSendSmallMessageAtOnce() throws Exception
+	{
+		RecordingWriter writer = new RecordingWriter(4, -1);
+		writer.write("abc");
+		writer.close();
+
+		assertEquals(Arrays.asList("message:abc"), writer.sent);
+		assertFalse(writer.hasSentFragments());
+		assertEquals(0, writer.fragmentedMessages);
+	}
+
+	@Test
+	public void shouldSendFragmentWhenBufferIsFull() throws Exception
+	{
+		RecordingWriter writer = new RecordingWriter(4, -1);
+		writer.write("abcd");
+		assertEquals(Arrays.asList("fragment:abcd"), writer.sent);
+		assertTrue(writer.hasSentFragments());
+		writer.close();
+
+		// the buffer was exactly full, so the last fragment is empty
+		assertEquals(Arrays.asList("fragment:abcd", "last:"), writer.sent);
+		assertEquals(1, writer.fragmentedMessages);
+		assertFalse(writer.locked);
+	}
+
+	@Test
+	public void shouldSplitWritesOverFragments() throws Exception
+	{
+		RecordingWriter writer = new RecordingWriter(4, -1);
+		writer.write("ab");
+		writer.write("cdefghij".toCharArray(), 0, 8);
+		writer.close();
+
+		assertEquals(Arrays.asList("fragment:abcd", "fragment:efgh", "last:ij"), writer.sent);
+		assertEquals(1, writer.fragmentedMessages);
+	}
+
+	@Test
+	public void shouldGrowBufferUpToFragmentSize() throws Exception
+	{
+		char[] chars = new char[5000];
+		Arrays.fill(chars, 'x');
+
+		RecordingWriter writer = new RecordingWriter(Integer.MAX_VALUE, -1);
+		writer.write(chars, 0, chars.length);
+		writer.write("y");
+		writer.close();
+		assertEquals(Arrays.asList("message:" + new String(chars) + "y"), writer.sent);
+
+		writer = new RecordingWriter(3000, -1);
+		writer.write(chars, 0, chars.length);
+		writer.close();
+		assertEquals(2, writer.sent.size());
+		assertEquals("fragment:".length() + 3000, writer.sent.get(0).length());
+		assertEquals("last:".length() + 2000, writer.sent.get(1).length());
+	}
+
+	@Test
+	public void shouldEndIncompleteMessageWhenSendingFails() throws Exception
+	{
+		RecordingWriter writer = new RecordingWriter(4, 2);
+		try
+		{
+			writer.write("abcdefghij");
+			fail("sending the second fragment should fail");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+		assertTrue(writer.locked);
+
+		writer.discard();
+		assertEquals(Arrays.asList("fragment:abcd", "last:"), writer.sent);
+		assertFalse(writer.locked);
+		assertTrue(writer.incomplete);
+
+		// nothing can be sent anymore after discarding
+		writer.discard();
+		writer.close();
+		assertEquals(2, writer.sent.size());
+	}
+
+	@Test
+	public void shouldNotSendDiscardedMessage() throws Exception
+	{
+		RecordingWriter writer = new RecordingWriter(4, -1);
+		writer.write("abc");
+		writer.discard();
+
+		assertTrue(writer.sent.isEmpty());
+		assertFalse(writer.incomplete);
+		try
+		{
+			writer.write("d");
+			fail("writing a discarded message should fail");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+	}
+
+	private static class RecordingWriter extends TextMessageWriter
+	{
+		private final List<String> sent = new ArrayList<>();
+		private final int failingFragment;
+		private int fragments;
+		private int fragmentedMessages;
+		private boolean locked;
+		private boolean incomplete;
+
+		/**
+		 * @param failingFragment the number of the fragment (starting from 1) for which sending fails, -1 to never fail.
+		 */
+		RecordingWriter(int fragmentSize, int failingFragment)
+		{
+			super(fragmentSize);
+			this.failingFragment = failingFragment;
+		}
+
+		@Override
+		protected void sendMessage(String text) throws IOException
+		{
+			sent.add("message:" + text);
+		}
+
+		@Override
+		protected void sendFragment(String fragment, boolean last) throws IOException
+		{
+			if (++fragments == failingFragment) throw new IOException("Connection lost");
+			sent.add((last ? "last:" : "fragment:") + fragment);
+		}
+
+		@Override
+		protected void startFragmentedMessage()
+		{
+			locked = true;
+			fragmentedMessages++;
+		}
+
+		@Override
+		protected void endFragmentedMessage()
+		{
+			locked = false;
+		}
+
+		@Override
+		protected void incompleteMessageSent()
+		{
+			incomplete = true;
+		}
+	}
+}
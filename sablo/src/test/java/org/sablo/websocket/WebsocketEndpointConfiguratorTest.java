@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.websocket.Extension;
+import javax.websocket.Session;
+
+import org.junit.After;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class WebsocketEndpointConfiguratorTest
+{
+	private static final Extension DEFLATE = createExtension(WebsocketEndpointConfigurator.PERMESSAGE_DEFLATE);
+	private static final Extension OTHER = createExtension("x-other");
+
+	@After
+	public void tearDown()
+	{
+		System.clearProperty(WebsocketEndpointConfigurator.PROPERTY_PERMESSAGE_DEFLATE);
+	}
+
+	@Test
+	public void shouldNegotiateCompressionFirst()
+	{
+		List<Extension> negotiated = new WebsocketEndpointConfigurator().getNegotiatedExtensions(Arrays.asList(DEFLATE, OTHER),
+			Arrays.asList(OTHER, DEFLATE, DEFLATE));
+		assertEquals(Arrays.asList(DEFLATE, OTHER), negotiated);
+	}
+
+	@Test
+	public void shouldNotNegotiateCompressionWhenDisabled()
+	{
+		System.setProperty(WebsocketEndpointConfigurator.PROPERTY_PERMESSAGE_DEFLATE, "false");
+		List<Extension> negotiated = new WebsocketEndpointConfigurator().getNegotiatedExtensions(Arrays.asList(DEFLATE, OTHER),
+			Arrays.asList(DEFLATE, OTHER));
+		assertEquals(Arrays.asList(OTHER), negotiated);
+	}
+
+	@Test
+	public void shouldOnlyNegotiateInstalledExtensions()
+	{
+		assertEquals(Collections.emptyList(),
+			new WebsocketEndpointConfigurator().getNegotiatedExtensions(Arrays.asList(OTHER), Arrays.asList(DEFLATE)));
+		assertEquals(Collections.emptyList(),
+			new WebsocketEndpointConfigurator().getNegotiatedExtensions(Arrays.asList(DEFLATE), Collections.<Extension> emptyList()));
+	}
+
+	@Test
+	public void shouldOnlyCompressInEndpointWithoutCompressionExtension()
+	{
+		assertEquals(1024, WebsocketEndpoint.getCompressionThreshold(1024, createSession(true)));
+		// the container compresses already
+		assertEquals(0, WebsocketEndpoint.getCompressionThreshold(1024, createSession(true, DEFLATE)));
+		assertEquals(1024, WebsocketEndpoint.getCompressionThreshold(1024, createSession(true, OTHER)));
+		// the browser can't decompress
+		assertEquals(0, WebsocketEndpoint.getCompressionThreshold(1024, createSession(false)));
+		// not configured
+		assertEquals(0, WebsocketEndpoint.getCompressionThreshold(0, createSession(true)));
+	}
+
+	private static Session createSession(boolean browserCanDecompress, Extension... negotiated)
+	{
+		final Map<String, List<String>> parameters = browserCanDecompress
+			? Collections.singletonMap(WebsocketEndpoint.DEFLATE_REQUEST_PARAMETER, Arrays.asList("true")) : Collections.<String, List<String>> emptyMap();
+		final List<Extension> extensions = new ArrayList<>(Arrays.asList(negotiated));
+		return (Session)Proxy.newProxyInstance(WebsocketEndpointConfiguratorTest.class.getClassLoader(), new Class< ? >[] { Session.class },
+			new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					if (method.getName().equals("getRequestParameterMap")) return parameters;
+					if (method.getName().equals("getNegotiatedExtensions")) return extensions;
+					return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+				}
+			});
+	}
+
+	private static Extension createExtension(final String name)
+	{
+		return new Extension()
+		{
+			@Override
+			public String getName()
+			{
+				return name;
+			}
+
+			@Override
+			public List<Parameter> getParameters()
+			{
+				return Collections.emptyList();
+			}
+
+			@Override
+			public String toString()
+			{
+				return name;
+			}
+		};
+	}
+}
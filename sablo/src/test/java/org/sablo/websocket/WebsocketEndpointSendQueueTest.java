@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class WebsocketEndpointSendQueueTest
+{
+	private static final String ENDPOINT_TYPE = "sendqueuetest";
+	private static final int QUEUE_SIZE = 2;
+
+	private final List<String> sent = new ArrayList<>();
+	private final List<SendHandler> pendingHandlers = new ArrayList<>();
+	private CloseReason closeReason;
+	private boolean completeInline;
+	private IWebsocketSession wsSession;
+
+	@Before
+	public void setUp()
+	{
+		WebsocketSessionManager.setWebsocketSessionFactory(ENDPOINT_TYPE, new IWebsocketSessionFactory()
+		{
+			@Override
+			public IWebsocketSession createSession(String uuid) throws Exception
+			{
+				return wsSession = new BaseWebsocketSession(uuid)
+				{
+					@Override
+					public Locale getLocale()
+					{
+						return Locale.getDefault();
+					}
+
+					@Override
+					protected IWindow createWindow(String windowUuid, String windowName)
+					{
+						return new BaseWindow(this, windowUuid, windowName)
+						{
+							@Override
+							public void onOpen()
+							{
+							}
+
+							@Override
+							public void sendChanges() throws IOException
+							{
+							}
+						};
+					}
+				};
+			}
+		});
+	}
+
+	@After
+	public void tearDown()
+	{
+		if (wsSession != null) WebsocketSessionManager.removeSession(wsSession.getUuid());
+	}
+
+	@Test
+	public void shouldDropAndResyncWhenQueueIsFull() throws Exception
+	{
+		WebsocketEndpoint endpoint = startFilledEndpoint(SendQueueOverflowPolicy.DROP_AND_RESYNC);
+
+		assertOverflow(endpoint);
+		assertEquals(CloseCodes.SERVICE_RESTART, closeReason.getCloseCode());
+	}
+
+	@Test
+	public void shouldDisconnectWhenQueueIsFull() throws Exception
+	{
+		WebsocketEndpoint endpoint = startFilledEndpoint(SendQueueOverflowPolicy.DISCONNECT);
+
+		assertOverflow(endpoint);
+		assertEquals(CloseCodes.TRY_AGAIN_LATER, closeReason.getCloseCode());
+	}
+
+	@Test
+	public void shouldHoldBackChangesAndStillBoundOtherMessages() throws Exception
+	{
+		WebsocketEndpoint endpoint = startFilledEndpoint(SendQueueOverflowPolicy.COALESCE_CHANGES);
+		assertTrue(endpoint.isBackpressured());
+
+		// the browser receives messages again, so the window can send its changes again once half of the queue is sent
+		completeSend();
+		assertFalse(endpoint.isBackpressured());
+		assertEquals(2, sent.size());
+
+		endpoint.sendText("message3");
+		assertTrue(endpoint.isBackpressured());
+
+		// messages that are not changes can't be held back, they are still limited by the queue size
+		assertOverflow(endpoint);
+		assertEquals(CloseCodes.SERVICE_RESTART, closeReason.getCloseCode());
+	}
+
+	@Test
+	public void shouldNotCountPongsForQueueSize() throws Exception
+	{
+		WebsocketEndpoint endpoint = startFilledEndpoint(SendQueueOverflowPolicy.DROP_AND_RESYNC);
+
+		endpoint.incoming("P", true);
+		assertNull(closeReason);
+		// the pong is sent before the other queued messages
+		completeSend();
+		assertEquals("p", sent.get(sent.size() - 1));
+		assertTrue(endpoint.isBackpressured());
+	}
+
+	@Test
+	public void shouldSendQueuedMessagesThatCompleteRightAwayWithoutRecursion() throws Exception
+	{
+		int count = 100000;
+		WebsocketEndpoint endpoint = new WebsocketEndpoint(ENDPOINT_TYPE, true, count, SendQueueOverflowPolicy.DROP_AND_RESYNC)
+		{
+		};
+		endpoint.start(createSession(), "null", "null", "null");
+		for (int i = 0; i <= count; i++)
+		{
+			endpoint.sendText("message" + i);
+		}
+		assertTrue(endpoint.isBackpressured());
+
+		completeInline = true;
+		completeSend();
+		assertEquals(count + 1, sent.size());
+		assertEquals("message" + count, sent.get(count));
+		assertFalse(endpoint.isBackpressured());
+	}
+
+	private void assertOverflow(WebsocketEndpoint endpoint)
+	{
+		int sentBefore = sent.size();
+		try
+		{
+			endpoint.sendText("overflow");
+			fail("the send queue should be full");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+		assertFalse(endpoint.isBackpressured());
+
+		// queued messages were dropped and the connection was closed
+		completeSend();
+		assertEquals(sentBefore, sent.size());
+		try
+		{
+			endpoint.sendText("after close");
+			fail("the connection should be closed");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+	}
+
+	/**
+	 * @return an endpoint that is sending one message while QUEUE_SIZE messages are waiting.
+	 */
+	private WebsocketEndpoint startFilledEndpoint(SendQueueOverflowPolicy policy) throws Exception
+	{
+		WebsocketEndpoint endpoint = new WebsocketEndpoint(ENDPOINT_TYPE, true, QUEUE_SIZE, policy)
+		{
+		};
+		endpoint.start(createSession(), "null", "null", "null");
+		assertNull(closeReason);
+
+		for (int i = 0; i <= QUEUE_SIZE; i++)
+		{
+			endpoint.sendText("message" + i);
+		}
+		assertEquals(1, sent.size());
+		return endpoint;
+	}
+
+	private void completeSend()
+	{
+		if (pendingHandlers.isEmpty()) return;
+		pendingHandlers.remove(0).onResult(new SendResult());
+	}
+
+	private Session createSession()
+	{
+		final RemoteEndpoint.Async asyncRemote = (RemoteEndpoint.Async)Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class< ? >[] { RemoteEndpoint.Async.class }, new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					if (method.getName().equals("sendText") && args.length == 2)
+					{
+						sent.add((String)args[0]);
+						if (completeInline) ((SendHandler)args[1]).onResult(new SendResult());
+						else pendingHandlers.add((SendHandler)args[1]);
+					}
+					return null;
+				}
+			});
+		return (Session)Proxy.newProxyInstance(getClass().getClassLoader(), new Class< ? >[] { Session.class }, new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				switch (method.getName())
+				{
+					case "getAsyncRemote" :
+						return asyncRemote;
+					case "getRequestParameterMap" :
+						return Collections.emptyMap();
+					case "getNegotiatedExtensions" :
+						return Collections.emptyList();
+					case "close" :
+						if (args != null && args.length == 1) closeReason = (CloseReason)args[0];
+						return null;
+					case "isOpen" :
+						return Boolean.valueOf(closeReason == null);
+					default :
+						return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class WebsocketSessionManagerTest
+{
+	private static final String ENDPOINT_TYPE = "sessionmanagertest";
+	private static final int SESSIONS = 10000;
+
+	private final List<String> uuids = new ArrayList<>();
+	private volatile boolean alwaysDue;
+	private volatile String failingUuid;
+
+	@Before
+	public void setUp()
+	{
+		WebsocketSessionManager.setWebsocketSessionFactory(ENDPOINT_TYPE, new IWebsocketSessionFactory()
+		{
+			@Override
+			public IWebsocketSession createSession(String uuid) throws Exception
+			{
+				return new BaseWebsocketSession(uuid)
+				{
+					@Override
+					public Locale getLocale()
+					{
+						return Locale.getDefault();
+					}
+
+					@Override
+					public long getNextWindowActivityCheck()
+					{
+						return alwaysDue ? System.currentTimeMillis() : super.getNextWindowActivityCheck();
+					}
+
+					@Override
+					public boolean checkForWindowActivity()
+					{
+						if (getUuid().equals(failingUuid)) throw new IllegalStateException("check failed");
+						return super.checkForWindowActivity();
+					}
+				};
+			}
+		});
+	}
+
+	@After
+	public void tearDown()
+	{
+		for (String uuid : uuids)
+		{
+			WebsocketSessionManager.removeSession(uuid);
+		}
+	}
+
+	/**
+	 * Connecting (as done by {@link WebsocketEndpoint#start}) only touches the session that connects; before, every connect checked all sessions.
+	 */
+	@Test
+	public void shouldConnectManySessionsWithoutCheckingOthers() throws Exception
+	{
+		IWebsocketEndpoint endpoint = createEndpoint();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < SESSIONS; i++)
+		{
+			IWebsocketSession session = WebsocketSessionManager.getOrCreateSession(ENDPOINT_TYPE, null, true);
+			uuids.add(session.getUuid());
+			session.getOrCreateWindow(null, null).setEndpoint(endpoint);
+			WebsocketSessionManager.windowActivityChanged(session);
+		}
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue(SESSIONS + " connects took " + millis + "ms", millis < 10000);
+
+		// none of the connected sessions can have timed out windows yet, so the reaper does not even look at them
+		InactiveSessionReaper.Tick tick = new InactiveSessionReaper.Tick(1, new HashMap<String, Integer>());
+		assertEquals(0, WebsocketSessionManager.closeInactiveSessions(tick));
+		assertFalse(tick.isExhausted());
+		assertEquals(SESSIONS, countSessions());
+	}
+
+	@Test
+	public void shouldExpireSessionsIncrementally() throws Exception
+	{
+		for (int i = 0; i < SESSIONS; i++)
+		{
+			// sessions without windows are due right away
+			uuids.add(WebsocketSessionManager.getOrCreateSession(ENDPOINT_TYPE, null, true).getUuid());
+		}
+
+		InactiveSessionReaper.Tick tick = new InactiveSessionReaper.Tick(500, new HashMap<String, Integer>());
+		assertEquals(500, WebsocketSessionManager.closeInactiveSessions(tick));
+		assertTrue(tick.isExhausted());
+		assertEquals(SESSIONS - 500, countSessions());
+
+		assertEquals(SESSIONS - 500, WebsocketSessionManager.closeInactiveSessions(null));
+		assertEquals(0, countSessions());
+	}
+
+	@Test
+	public void shouldNotLookAtSkippedSessionsOnEveryTick() throws Exception
+	{
+		for (int i = 0; i < 100; i++)
+		{
+			uuids.add(WebsocketSessionManager.getOrCreateSession(ENDPOINT_TYPE, null, true).getUuid());
+		}
+		final int[] skipped = new int[1];
+		HashMap<String, Integer> maxByEndpointType = new HashMap<>();
+		maxByEndpointType.put(ENDPOINT_TYPE, Integer.valueOf(0));
+		class CountingTick extends InactiveSessionReaper.Tick
+		{
+			CountingTick(HashMap<String, Integer> max)
+			{
+				super(500, max);
+			}
+
+			@Override
+			boolean isSkipped(String endpointType)
+			{
+				boolean isSkipped = super.isSkipped(endpointType);
+				if (isSkipped) skipped[0]++;
+				return isSkipped;
+			}
+		}
+
+		assertEquals(0, WebsocketSessionManager.closeInactiveSessions(new CountingTick(maxByEndpointType)));
+		assertEquals(100, skipped[0]);
+		// the checks were postponed, the next tick doesn't see them
+		assertEquals(0, WebsocketSessionManager.closeInactiveSessions(new CountingTick(maxByEndpointType)));
+		assertEquals(100, skipped[0]);
+		assertEquals(100, countSessions());
+	}
+
+	@Test
+	public void shouldKeepOneActivityCheckPerSessionWhenRescheduledConcurrently() throws Exception
+	{
+		alwaysDue = true;
+		final List<IWebsocketSession> sessions = new ArrayList<>();
+		for (int i = 0; i < 10; i++)
+		{
+			IWebsocketSession session = WebsocketSessionManager.getOrCreateSession(ENDPOINT_TYPE, null, true);
+			uuids.add(session.getUuid());
+			// a window that did not time out yet, so the session stays and is rescheduled on every check
+			session.getOrCreateWindow(null, null);
+			sessions.add(session);
+		}
+		int checksBefore = WebsocketSessionManager.getActivityCheckCount();
+
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++)
+		{
+			final boolean reaper = t % 2 == 0;
+			Thread thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+					// the reapers stop first, so checks that end up in the index twice would not be cleaned up by a later reaper run
+					for (int i = 0; i < (reaper ? 1000 : 5000); i++)
+					{
+						if (reaper)
+						{
+							WebsocketSessionManager.closeInactiveSessions(null);
+						}
+						else
+						{
+							for (IWebsocketSession session : sessions)
+							{
+								WebsocketSessionManager.windowActivityChanged(session);
+							}
+						}
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		assertEquals(sessions.size(), countSessions());
+		assertEquals(checksBefore, WebsocketSessionManager.getActivityCheckCount());
+	}
+
+	@Test
+	public void shouldKeepCheckingAndExpiringSessionsWhenACheckFails() throws Exception
+	{
+		for (int i = 0; i < 3; i++)
+		{
+			uuids.add(WebsocketSessionManager.getOrCreateSession(ENDPOINT_TYPE, null, true).getUuid());
+		}
+		failingUuid = uuids.get(1);
+		int checksBefore = WebsocketSessionManager.getActivityCheckCount();
+
+		// the other sessions have no windows, they still expire
+		assertEquals(2, WebsocketSessionManager.closeInactiveSessions(null));
+		assertEquals(1, countSessions());
+		// the session of which the check failed is checked again later
+		assertEquals(checksBefore - 2, WebsocketSessionManager.getActivityCheckCount());
+
+		failingUuid = null;
+		assertEquals(1, WebsocketSessionManager.closeInactiveSessions(null));
+		assertEquals(0, countSessions());
+	}
+
+	private static IWebsocketEndpoint createEndpoint()
+	{
+		return (IWebsocketEndpoint)Proxy.newProxyInstance(WebsocketSessionManagerTest.class.getClassLoader(), new Class< ? >[] { IWebsocketEndpoint.class },
+			new InvocationHandler()
+			{
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args)
+				{
+					if (method.getReturnType() == boolean.class) return Boolean.FALSE;
+					if (method.getReturnType() == int.class) return Integer.valueOf(0);
+					if (method.getReturnType() == long.class) return Long.valueOf(0);
+					return null;
+				}
+			});
+	}
+
+	private int countSessions()
+	{
+		int count = 0;
+		for (String uuid : uuids)
+		{
+			if (WebsocketSessionManager.getSession(ENDPOINT_TYPE, uuid) != null) count++;
+		}
+		return count;
+	}
+}
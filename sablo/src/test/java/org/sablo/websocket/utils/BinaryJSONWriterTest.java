@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.sablo.websocket.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+import org.junit.Test;
+
+/**
+ * Expected encodings are the examples of RFC 7049 appendix A where they apply; client_tests/test/binary.test.js decodes the same bytes.
+ */
+@SuppressWarnings("nls")
+public class BinaryJSONWriterTest
+{
+
+	@Test
+	public void shouldWriteUnsignedIntegersInSmallestWidth() throws Exception
+	{
+		assertEquals("00", encode(0));
+		assertEquals("17", encode(23));
+		assertEquals("1818", encode(24));
+		assertEquals("18ff", encode(255));
+		assertEquals("190100", encode(256));
+		assertEquals("19ffff", encode(65535));
+		assertEquals("1a00010000", encode(65536));
+		assertEquals("1affffffff", encode(4294967295L));
+		assertEquals("1b0000000100000000", encode(4294967296L));
+		assertEquals("1b7fffffffffffffff", encode(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void shouldWriteNegativeIntegersInSmallestWidth() throws Exception
+	{
+		assertEquals("20", encode(-1));
+		assertEquals("37", encode(-24));
+		assertEquals("3818", encode(-25));
+		assertEquals("38ff", encode(-256));
+		assertEquals("390100", encode(-257));
+		assertEquals("3903e7", encode(-1000));
+		assertEquals("39ffff", encode(-65536));
+		assertEquals("3a00010000", encode(-65537));
+		assertEquals("3b7fffffffffffffff", encode(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void shouldWriteIntegralNumberObjectsAsIntegers() throws Exception
+	{
+		assertEquals("1903e8", encodeValue(Integer.valueOf(1000)));
+		assertEquals("29", encodeValue(Short.valueOf((short)-10)));
+		assertEquals("1864", encodeValue(Byte.valueOf((byte)100)));
+		assertEquals("1a000f4240", encodeValue(BigInteger.valueOf(1000000)));
+		assertEquals("1a000186a0", encodeValue(Double.valueOf(100000.0)));
+	}
+
+	@Test
+	public void shouldWriteFloats() throws Exception
+	{
+		assertEquals("fa3fc00000", encodeValue(Double.valueOf(1.5)));
+		assertEquals("fa80000000", encodeValue(Double.valueOf(-0.0)));
+		assertEquals("fa7f7fffff", encodeValue(Double.valueOf(Float.MAX_VALUE)));
+		assertEquals("fb3ff199999999999a", encodeValue(Double.valueOf(1.1)));
+		assertEquals("fbc010666666666666", encodeValue(Double.valueOf(-4.1)));
+		assertEquals("fb7e37e43c8800759c", encodeValue(Double.valueOf(1.0e300)));
+		// integral, but too big to be written as an integer
+		assertEquals("fb4341c37937e09000", encodeValue(Double.valueOf(1.0e16 + 8192)));
+	}
+
+	@Test
+	public void shouldRejectNonFiniteNumbers() throws Exception
+	{
+		for (double d : new double[] { Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY })
+		{
+			try
+			{
+				encodeValue(Double.valueOf(d));
+				fail(d + " should not be written");
+			}
+			catch (JSONException e)
+			{
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void shouldWriteSimpleValues() throws Exception
+	{
+		assertEquals("f4", encodeValue(Boolean.FALSE));
+		assertEquals("f5", encodeValue(Boolean.TRUE));
+		assertEquals("f6", encodeValue(null));
+		assertEquals("f6", encodeValue(JSONObject.NULL));
+	}
+
+	@Test
+	public void shouldWriteStringsAsUTF8() throws Exception
+	{
+		assertEquals("60", encodeValue(""));
+		assertEquals("6161", encodeValue("a"));
+		assertEquals("6449455446", encodeValue("IETF"));
+		assertEquals("62c3bc", encodeValue("\u00fc"));
+		assertEquals("63e6b0b4", encodeValue("\u6c34"));
+		assertEquals("64f0908591", encodeValue("\ud800\udd51"));
+	}
+
+	@Test
+	public void shouldWriteLengthOfLongStrings() throws Exception
+	{
+		assertEquals("77" + repeat("61", 23), encodeValue(repeat("a", 23)));
+		assertEquals("7818" + repeat("61", 24), encodeValue(repeat("a", 24)));
+		assertEquals("78ff" + repeat("61", 255), encodeValue(repeat("a", 255)));
+		assertEquals("790100" + repeat("61", 256), encodeValue(repeat("a", 256)));
+		assertEquals("7a00010000" + repeat("61", 65536), encodeValue(repeat("a", 65536)));
+		// the length is in bytes, not in characters
+		assertEquals("7818" + repeat("c3bc", 12), encodeValue(repeat("\u00fc", 12)));
+	}
+
+	@Test
+	public void shouldWriteContainersOfWriterWithIndefiniteLength() throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryJSONWriter writer = new BinaryJSONWriter(out);
+		writer.object().key("a").value(1).key("b").array().value(2).value(3).endArray().endObject();
+		assertEquals("bf61610161629f0203ffff", hex(out.toByteArray()));
+
+		out.reset();
+		writer.array().object().endObject().array().endArray().endArray();
+		assertEquals("9fbfff9fffff", hex(out.toByteArray()));
+	}
+
+	@Test
+	public void shouldWriteContainerValuesWithDefiniteLength() throws Exception
+	{
+		assertEquals("80", encodeValue(new JSONArray()));
+		assertEquals("a0", encodeValue(new JSONObject()));
+		assertEquals("8301820203820405", encodeValue(new JSONArray("[1, [2, 3], [4, 5]]")));
+		assertEquals("a26161016162820203", encodeValue(new JSONObject("{\"a\": 1, \"b\": [2, 3]}")));
+		assertEquals("826161a161626163", encodeValue(Arrays.asList("a", Collections.singletonMap("b", "c"))));
+		assertEquals("83010203", encodeValue(new int[] { 1, 2, 3 }));
+
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("a", new Object[] { null, Boolean.TRUE });
+		assertEquals("a1616182f6f5", encodeValue(map));
+
+		Integer[] many = new Integer[25];
+		Arrays.fill(many, Integer.valueOf(1));
+		assertEquals("9819" + repeat("01", 25), encodeValue(many));
+	}
+
+	@Test
+	public void shouldWriteNestedContainers() throws Exception
+	{
+		String json = "[[[[[1]]]]]";
+		assertEquals("818181818101", encodeValue(new JSONArray(json)));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryJSONWriter writer = new BinaryJSONWriter(out);
+		writer.object().key("x").value(new JSONObject("{\"y\": {\"z\": [true]}}")).endObject();
+		assertEquals("bf6178a16179a1617a81f5ff", hex(out.toByteArray()));
+	}
+
+	@Test
+	public void shouldParseEmbeddedJSON() throws Exception
+	{
+		assertEquals("a1616182" + "01f5", encodeValue(new JSONString()
+		{
+			@Override
+			public String toJSONString()
+			{
+				return "{\"a\":[1,true]}";
+			}
+		}));
+
+		JSONUtils.EmbeddableJSONWriter embedded = new JSONUtils.EmbeddableJSONWriter();
+		embedded.array().value("x").value(-2).endArray();
+		assertEquals("82617821", encodeValue(embedded));
+	}
+
+	private static String encode(long l) throws JSONException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new BinaryJSONWriter(out).value(l);
+		return hex(out.toByteArray());
+	}
+
+	private static String encodeValue(Object o) throws JSONException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new BinaryJSONWriter(out).value(o);
+		return hex(out.toByteArray());
+	}
+
+	private static String hex(byte[] bytes)
+	{
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+		{
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	private static String repeat(String s, int count)
+	{
+		StringBuilder sb = new StringBuilder(s.length() * count);
+		for (int i = 0; i < count; i++)
+		{
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+}
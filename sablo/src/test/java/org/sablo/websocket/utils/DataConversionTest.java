@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sablo.websocket.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class DataConversionTest
+{
+
+	@Test
+	public void shouldRecordConversionsOnIndexPaths()
+	{
+		DataConversion dc = new DataConversion();
+		dc.pushNode("msg");
+		for (int i = 0; i < 3; i++)
+		{
+			dc.pushNode(i);
+			if (i != 1) dc.pushNode("v").convert("Date").popNode();
+			dc.popNode();
+		}
+		dc.pushNode(5).convert("JSON_obj").popNode();
+		dc.popNode();
+
+		assertEquals(new JSONObject("{msg:{'0':{v:'Date'},'2':{v:'Date'},'5':'JSON_obj'}}").toString(), new JSONObject(dc.getConversions()).toString());
+	}
+
+	@Test
+	public void shouldNotUseReplacedNodeMaps()
+	{
+		DataConversion nested = new DataConversion();
+		nested.pushNode("x").convert("Date").popNode();
+
+		DataConversion dc = new DataConversion();
+		dc.pushNode("a").pushNode("b");
+		dc.pushNode("c").convert("Date").popNode();
+		// 'b' gets replaced by the conversions of another DataConversion; later conversions below 'b' should go into that one
+		dc.convert(nested);
+		dc.pushNode("d").convert("JSON_arr").popNode();
+		dc.popNode().popNode();
+
+		assertEquals(new JSONObject("{a:{b:{x:'Date',d:'JSON_arr'}}}").toString(), new JSONObject(dc.getConversions()).toString());
+	}
+
+	@Test
+	public void shouldReuseReleasedInstances()
+	{
+		DataConversion dc = DataConversion.acquire();
+		dc.pushNode(1).pushNode(2).convert("Date");
+		DataConversion.release(dc);
+
+		DataConversion reused = DataConversion.acquire();
+		assertSame(dc, reused);
+		assertTrue(reused.getConversions().isEmpty());
+		reused.pushNode("a").convert("Date").popNode();
+		assertEquals("{\"a\":\"Date\"}", new JSONObject(reused.getConversions()).toString());
+	}
+
+}
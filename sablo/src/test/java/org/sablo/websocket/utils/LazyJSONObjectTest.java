@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2014 Servoy BV
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sablo.websocket.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class LazyJSONObjectTest
+{
+
+	private static final String MESSAGE = "{\"service\":\"formService\", \"methodname\":\"dataPush\",\"prio\":5,\"args\":{\"formname\":\"f\\\"1\",\"changes\":{\"rows\":[{\"a\":1,\"b\":\"x}]\"},{\"a\":2}],\"text\":\"line\\nbreak\",\"empty\":{}},\"oldvalues\":null}}";
+
+	@Test
+	public void shouldRouteAndParseOnDemand() throws JSONException
+	{
+		LazyJSONObject obj = new LazyJSONObject(MESSAGE);
+
+		assertTrue(obj.has("service"));
+		assertFalse(obj.has("smsgid"));
+		assertEquals(4, obj.length());
+		assertEquals("formService", obj.optString("service"));
+		assertEquals(5, obj.optInt("prio", 0));
+
+		JSONObject args = obj.optJSONObject("args");
+		assertTrue(args instanceof LazyJSONObject);
+		assertEquals("f\"1", args.getString("formname"));
+		assertTrue(args.isNull("oldvalues"));
+		assertEquals(null, args.optJSONObject("oldvalues"));
+
+		JSONObject changes = args.getJSONObject("changes");
+		assertEquals("line\nbreak", changes.get("text"));
+		assertEquals(0, changes.getJSONObject("empty").length());
+		JSONArray rows = changes.getJSONArray("rows");
+		assertEquals(2, rows.length());
+		assertTrue(rows.get(0) instanceof LazyJSONObject);
+		assertEquals("x}]", rows.getJSONObject(0).getString("b"));
+		assertEquals(2, rows.getJSONObject(1).getInt("a"));
+	}
+
+	@Test
+	public void shouldWriteAllValues() throws JSONException
+	{
+		LazyJSONObject obj = new LazyJSONObject(MESSAGE);
+
+		// parse one nested value first, the rest is parsed when written
+		obj.getJSONObject("args").getJSONObject("changes").getJSONArray("rows");
+
+		JSONObject written = new JSONObject(obj.toString());
+		JSONObject args = written.getJSONObject("args");
+		assertEquals(new JSONObject(MESSAGE).getJSONObject("args").keySet(), args.keySet());
+		assertEquals("f\"1", args.getString("formname"));
+		assertEquals("x}]", args.getJSONObject("changes").getJSONArray("rows").getJSONObject(0).getString("b"));
+		assertEquals("line\nbreak", args.getJSONObject("changes").getString("text"));
+		assertEquals("dataPush", written.getString("methodname"));
+	}
+
+	@Test(expected = JSONException.class)
+	public void shouldFailOnInvalidJSON() throws JSONException
+	{
+		new LazyJSONObject("{\"a\":{\"b\":1}");
+	}
+
+}